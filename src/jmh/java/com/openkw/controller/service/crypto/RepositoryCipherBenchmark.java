@@ -0,0 +1,145 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.crypto;
+
+import com.openkw.controller.service.snapshot.ObjectReader;
+import com.openkw.model.snapshot.EncryptionConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sealing and opening of one file on a single core against a plain copy of the same bytes, which is the
+ * overhead encryption adds per core. The score is the time per file, the throughput is the file size divided by it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class RepositoryCipherBenchmark {
+
+    /**
+     * The size of the file in bytes.
+     */
+    @Param({"65536", "4194304"})
+    public int size;
+
+    /**
+     * The unlocked cipher of a new repository.
+     */
+    private RepositoryCipher cipher;
+
+    /**
+     * The random plain content.
+     */
+    private byte[] plain;
+
+    /**
+     * The sealed content written to disk, read back by open().
+     */
+    private Path sealedFile;
+
+    /**
+     * The buffer open() reads the plain content into.
+     */
+    private ByteBuffer readBuffer;
+
+    /**
+     * The buffer copy() copies the plain content into.
+     */
+    private byte[] chunk;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        char[] passphrase = "benchmark".toCharArray();
+        EncryptionConfig config = RepositoryCipher.createConfig(passphrase);
+        this.cipher = RepositoryCipher.unlock(config, passphrase);
+        this.plain = new byte[this.size];
+        new Random(1).nextBytes(this.plain);
+        this.sealedFile = Files.createTempFile("cipher-benchmark", null);
+        try (OutputStream out = this.cipher.newOutputStream(Files.newOutputStream(this.sealedFile))) {
+            out.write(this.plain);
+        }
+        this.readBuffer = ByteBuffer.allocate(RepositoryCipher.DEFAULT_CHUNK_SIZE);
+        this.chunk = new byte[RepositoryCipher.DEFAULT_CHUNK_SIZE];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.sealedFile);
+    }
+
+    /**
+     * The baseline: the same bytes copied through a chunk buffer like the sealing stream does.
+     *
+     * @return the chunk buffer, returned so the copy cannot be optimized away.
+     */
+    @Benchmark
+    public byte[] copy() {
+        for (int offset = 0; offset < this.size; offset += RepositoryCipher.DEFAULT_CHUNK_SIZE) {
+            System.arraycopy(this.plain, offset, this.chunk, 0,
+                    Math.min(RepositoryCipher.DEFAULT_CHUNK_SIZE, this.size - offset));
+        }
+        return this.chunk;
+    }
+
+    @Benchmark
+    public void seal() throws IOException {
+        try (OutputStream out = this.cipher.newOutputStream(OutputStream.nullOutputStream())) {
+            out.write(this.plain);
+        }
+    }
+
+    /**
+     * @return the amount of plain bytes read, which have to match the size.
+     */
+    @Benchmark
+    public long open() throws IOException {
+        long position = 0;
+        try (ObjectReader reader = this.cipher.newReader(this.sealedFile)) {
+            int read;
+            while ((read = reader.read(position, this.readBuffer)) > 0) {
+                this.readBuffer.clear();
+                position += read;
+            }
+        }
+        return position;
+    }
+}
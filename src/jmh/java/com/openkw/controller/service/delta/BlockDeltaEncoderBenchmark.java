@@ -0,0 +1,138 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.delta;
+
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.model.snapshot.ManifestEntry;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a block delta of a modified file against its stored previous version takes. The score is the
+ * time per file, the throughput is the file size divided by it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockDeltaEncoderBenchmark {
+
+    /**
+     * The size of both versions of the file in bytes.
+     */
+    @Param({"16777216", "134217728"})
+    public int size;
+
+    /**
+     * The share of the new version which has been overwritten with random bytes.
+     */
+    @Param({"0.01", "0.2"})
+    public double changedShare;
+
+    /**
+     * The directory holding the repository and both versions.
+     */
+    private Path directory;
+
+    /**
+     * The new version of the file.
+     */
+    private Path file;
+
+    /**
+     * The entry of the new version.
+     */
+    private ManifestEntry entry;
+
+    /**
+     * The entry of the stored previous version.
+     */
+    private ManifestEntry previous;
+
+    /**
+     * The encoder under test.
+     */
+    private BlockDeltaEncoder encoder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("delta-benchmark");
+        SnapshotRepository repository = new SnapshotRepository(this.directory);
+        Random random = new Random(1);
+        byte[] content = new byte[this.size];
+        random.nextBytes(content);
+        Path base = this.directory.resolve("base");
+        Files.write(base, content);
+        this.previous = createEntry(repository.storeObject(base));
+
+        //Scatter the changes over the file in runs of 4 KB, the way databases and images are modified.
+        int runs = (int) (this.size * this.changedShare / 4096);
+        byte[] run = new byte[4096];
+        for (int i = 0; i < runs; i++) {
+            random.nextBytes(run);
+            System.arraycopy(run, 0, content, random.nextInt(this.size - run.length), run.length);
+        }
+        this.file = this.directory.resolve("file");
+        Files.write(this.file, content);
+        this.entry = createEntry(null);
+        this.encoder = new BlockDeltaEncoder(repository);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.directory.toFile());
+    }
+
+    /**
+     * @return the content hash of the delta, null if it has been abandoned.
+     */
+    @Benchmark
+    public String encode() throws IOException {
+        return this.encoder.encode(this.file, this.entry, this.previous);
+    }
+
+    /**
+     * Creates a file entry of the benchmarked size.
+     */
+    private ManifestEntry createEntry(String contentHash) {
+        ManifestEntry manifestEntry = new ManifestEntry("file", false);
+        manifestEntry.setSize(this.size);
+        manifestEntry.setContentHash(contentHash);
+        return manifestEntry;
+    }
+}
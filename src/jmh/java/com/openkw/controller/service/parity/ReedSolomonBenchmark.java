@@ -0,0 +1,103 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.parity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and reconstruction of one block of a parity stripe, PackParity.BLOCK_SIZE bytes per shard. The
+ * score is the time per block, the throughput is the amount of data shards times the block size divided by it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReedSolomonBenchmark {
+
+    /**
+     * The layout of the stripe as data shards plus parity shards.
+     */
+    @Param({"4+2", "10+4", "17+3"})
+    public String layout;
+
+    /**
+     * The codec of the layout.
+     */
+    private ReedSolomon codec;
+
+    /**
+     * The data shards followed by the parity shards.
+     */
+    private byte[][] shards;
+
+    /**
+     * Which shards survive: the first parityShardCount data shards are lost, which needs the most work to rebuild.
+     */
+    private boolean[] present;
+
+    @Setup
+    public void setUp() {
+        int separator = this.layout.indexOf('+');
+        int dataShardCount = Integer.parseInt(this.layout.substring(0, separator));
+        int parityShardCount = Integer.parseInt(this.layout.substring(separator + 1));
+        this.codec = new ReedSolomon(dataShardCount, parityShardCount);
+        this.shards = new byte[dataShardCount + parityShardCount][PackParity.BLOCK_SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < dataShardCount; i++) {
+            random.nextBytes(this.shards[i]);
+        }
+        this.codec.encode(this.shards, 0, PackParity.BLOCK_SIZE);
+        this.present = new boolean[this.shards.length];
+        for (int i = parityShardCount; i < this.present.length; i++) {
+            this.present[i] = true;
+        }
+    }
+
+    /**
+     * @return the shards, returned so the encoding cannot be optimized away.
+     */
+    @Benchmark
+    public byte[][] encode() {
+        this.codec.encode(this.shards, 0, PackParity.BLOCK_SIZE);
+        return this.shards;
+    }
+
+    /**
+     * @return the shards, returned so the reconstruction cannot be optimized away.
+     */
+    @Benchmark
+    public byte[][] reconstruct() {
+        this.codec.reconstruct(this.shards, this.present, 0, PackParity.BLOCK_SIZE);
+        return this.shards;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.openkw.model.CopyMode;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the copy modes from both sides: how long storing a large file takes and how the random reads of a
+ * foreground application on a hot file are served meanwhile. The backup group runs both at the same time, the idle
+ * benchmark reads without a backup as the baseline. The page cache only comes under pressure once the source is
+ * about as large as the free memory, raise the size accordingly with -p size=... and point -Djava.io.tmpdir at the
+ * disk of interest.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CopyModeBenchmark {
+
+    /**
+     * The size of the file the foreground reads from.
+     */
+    private static final int HOT_FILE_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The size of every foreground read.
+     */
+    private static final int READ_SIZE = 4096;
+
+    /**
+     * The copy mode of the repository.
+     */
+    @Param({"BUFFERED", "DIRECT_WRITE", "DIRECT"})
+    public CopyMode copyMode;
+
+    /**
+     * The size of the stored file in bytes.
+     */
+    @Param({"268435456"})
+    public long size;
+
+    /**
+     * The directory holding the repository, the stored file and the hot file.
+     */
+    private Path directory;
+
+    /**
+     * The repository under test.
+     */
+    private SnapshotRepository repository;
+
+    /**
+     * The file the backup stores.
+     */
+    private Path source;
+
+    /**
+     * The file of the foreground application, read at random positions.
+     */
+    private FileChannel hotFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("copy-mode-benchmark");
+        this.repository = new SnapshotRepository(this.directory);
+        this.repository.setCopyMode(this.copyMode);
+        this.source = writeRandomFile(this.directory.resolve("source"), this.size);
+        Path hot = writeRandomFile(this.directory.resolve("hot"), HOT_FILE_SIZE);
+        this.hotFile = FileChannel.open(hot, StandardOpenOption.READ);
+        //Pull the hot file into the page cache.
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        long position = 0;
+        int read;
+        while ((read = this.hotFile.read(buffer, position)) > 0) {
+            buffer.clear();
+            position += read;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.hotFile.close();
+        FileUtils.deleteDirectory(this.directory.toFile());
+    }
+
+    /**
+     * Stores the source file. Once the object exists the copy is still written and discarded, so every call writes
+     * the whole file.
+     */
+    @Benchmark
+    @Group("backup")
+    @GroupThreads(1)
+    public String store() throws IOException {
+        return this.repository.storeObject(this.source);
+    }
+
+    /**
+     * One foreground read while the backup is running.
+     */
+    @Benchmark
+    @Group("backup")
+    @GroupThreads(1)
+    public int foregroundRead() throws IOException {
+        return readRandomBlock();
+    }
+
+    /**
+     * One foreground read without a backup.
+     */
+    @Benchmark
+    @Group("idle")
+    public int idleRead() throws IOException {
+        return readRandomBlock();
+    }
+
+    /**
+     * @return the amount of bytes read from a random block of the hot file.
+     */
+    private int readRandomBlock() throws IOException {
+        long block = ThreadLocalRandom.current().nextInt(HOT_FILE_SIZE / READ_SIZE);
+        return this.hotFile.read(ByteBuffer.allocate(READ_SIZE), block * READ_SIZE);
+    }
+
+    /**
+     * Writes a file of random bytes.
+     */
+    private static Path writeRandomFile(Path file, long size) throws IOException {
+        Random random = new Random(size);
+        byte[] chunk = new byte[1024 * 1024];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                channel.write(ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, size - written)));
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.openkw.model.DurabilityLevel;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a durability level costs: a batch of new small files is stored and the snapshot waits until they
+ * are durable, like a backup does before it writes the manifest. The score is the time per batch. The numbers
+ * depend on the disk below the temp directory, run it with -Djava.io.tmpdir on the disk of interest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DurabilityLevelBenchmark {
+
+    /**
+     * The amount of files stored per batch.
+     */
+    private static final int FILE_COUNT = 100;
+
+    /**
+     * The durability level of the repository.
+     */
+    @Param({"NONE", "GROUP_COMMIT", "STRICT"})
+    public DurabilityLevel durabilityLevel;
+
+    /**
+     * The size of every file in bytes.
+     */
+    @Param({"4096", "262144"})
+    public int size;
+
+    /**
+     * The directory holding the repository and the source files.
+     */
+    private Path directory;
+
+    /**
+     * The repository under test.
+     */
+    private SnapshotRepository repository;
+
+    /**
+     * The source files of a batch.
+     */
+    private List<Path> files;
+
+    /**
+     * Makes the content of every batch new, so no file is deduplicated against an earlier batch.
+     */
+    private long batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("durability-benchmark");
+        this.repository = new SnapshotRepository(this.directory);
+        this.repository.setDurabilityLevel(this.durabilityLevel);
+        Path sourceDir = Files.createDirectories(this.directory.resolve("source"));
+        Random random = new Random(1);
+        byte[] content = new byte[this.size];
+        this.files = new ArrayList<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            random.nextBytes(content);
+            this.files.add(Files.write(sourceDir.resolve("file" + i), content));
+        }
+    }
+
+    /**
+     * Stamps the batch number into the first bytes of every source file, outside of the measured time.
+     */
+    @Setup(Level.Invocation)
+    public void nextBatch() throws IOException {
+        this.batch++;
+        byte[] stamp = ByteBuffer.allocate(Long.BYTES).putLong(this.batch).array();
+        for (Path file : this.files) {
+            byte[] content = Files.readAllBytes(file);
+            System.arraycopy(stamp, 0, content, 0, stamp.length);
+            Files.write(file, content);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.directory.toFile());
+    }
+
+    @Benchmark
+    public SnapshotManifest storeBatch() throws IOException {
+        ManifestEntry root = new ManifestEntry("", true);
+        for (Path file : this.files) {
+            ManifestEntry entry = new ManifestEntry(file.getFileName().toString(), false);
+            entry.setSize(this.size);
+            entry.setContentHash(this.repository.storeObject(file));
+            root.getChildren().add(entry);
+        }
+        SnapshotManifest manifest = new SnapshotManifest();
+        manifest.setRoot(root);
+        this.repository.awaitDurable(manifest);
+        return manifest;
+    }
+}
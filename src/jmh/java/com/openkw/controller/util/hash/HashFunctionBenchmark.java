@@ -0,0 +1,86 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of every built in hash function on one core. The score is the time per input, the
+ * throughput in bytes per second is the input size divided by it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashFunctionBenchmark {
+
+    /**
+     * The name of the measured hash function.
+     */
+    @Param({HashFunctions.CRC32C, HashFunctions.XXH64, HashFunctions.MURMUR3_128, HashFunctions.SHA_256,
+            HashFunctions.SHA_512_256, HashFunctions.BLAKE3})
+    public String function;
+
+    /**
+     * The size of the hashed input in bytes: a small file, a pipeline chunk and a large block.
+     */
+    @Param({"4096", "65536", "4194304"})
+    public int size;
+
+    /**
+     * The measured hash function.
+     */
+    private HashFunction hashFunction;
+
+    /**
+     * The random input.
+     */
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        this.hashFunction = HashFunctions.forName(this.function);
+        this.data = new byte[this.size];
+        new Random(1).nextBytes(this.data);
+    }
+
+    /**
+     * @return the digest, returned so the hashing cannot be optimized away.
+     */
+    @Benchmark
+    public byte[] hash() {
+        Hasher hasher = this.hashFunction.newHasher();
+        hasher.update(this.data, 0, this.data.length);
+        return hasher.digest();
+    }
+}
@@ -18,6 +18,8 @@
 package com.openkw.controller;
 
 import com.openkw.controller.service.BackupProcessControl;
+import com.openkw.controller.service.ReplicationProcessControl;
+import com.openkw.controller.service.RestoreProcessControl;
 import com.openkw.controller.util.SettingsSerializer;
 import com.openkw.model.AppModel;
 import com.openkw.view.AppView;
@@ -42,6 +44,15 @@ public class AppController {
      * Instance to start the backup process
      */
     private BackupProcessControl backupProcessControl;
+    /**
+     * Instance to start a restore of a snapshot
+     */
+    private RestoreProcessControl restoreProcessControl;
+
+    /**
+     * Instance to start a replication of the repository
+     */
+    private ReplicationProcessControl replicationProcessControl;
 
     /**
      * @param appModel the mvc data model
@@ -50,6 +61,8 @@ public class AppController {
         this.appModel = appModel;
         this.settingsSerializer = new SettingsSerializer(this);
         this.backupProcessControl = new BackupProcessControl(this);
+        this.restoreProcessControl = new RestoreProcessControl(this);
+        this.replicationProcessControl = new ReplicationProcessControl(this);
     }
 
     /**
@@ -59,6 +72,7 @@ public class AppController {
     public void rebuildView() {
         this.getAppView().getAppInfoWindow().dispose();
         this.getAppView().getMainWindow().dispose();
+        this.getAppView().getRestoreWindow().dispose();
         this.setAppView(new AppView(this));
         this.getAppView().getMainWindow().setVisible(true);
     }
@@ -96,4 +110,20 @@ public class AppController {
     public void setBackupProcessControl(BackupProcessControl backupProcessControl) {
         this.backupProcessControl = backupProcessControl;
     }
+
+    public RestoreProcessControl getRestoreProcessControl() {
+        return restoreProcessControl;
+    }
+
+    public void setRestoreProcessControl(RestoreProcessControl restoreProcessControl) {
+        this.restoreProcessControl = restoreProcessControl;
+    }
+
+    public ReplicationProcessControl getReplicationProcessControl() {
+        return replicationProcessControl;
+    }
+
+    public void setReplicationProcessControl(ReplicationProcessControl replicationProcessControl) {
+        this.replicationProcessControl = replicationProcessControl;
+    }
 }
@@ -0,0 +1,112 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.listener.mainwindow;
+
+import com.openkw.controller.AppController;
+import com.openkw.controller.util.FileSizeUtility;
+import com.openkw.model.snapshot.PathTimeline;
+import com.openkw.model.snapshot.TimelineVersion;
+import com.openkw.view.customcomponents.PathFileChooser;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+
+/**
+ * This listener lets the user choose a file of the data directory, shows all its backed up versions and restores
+ * the chosen version.
+ */
+public class FileHistoryMenuItemListener implements ActionListener {
+
+    /**
+     * The mvc controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * @param appController the mvc controller instance.
+     */
+    public FileHistoryMenuItemListener(AppController appController) {
+        this.appController = appController;
+    }
+
+    /**
+     * This method asks the user for a file, the version to restore and the target directory, opens the restore
+     * window and starts the restore.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        ResourceBundle languageRB = this.appController.getAppModel().getLanguageResourceBundle();
+        JFrame mainWindow = this.appController.getAppView().getMainWindow();
+        JFileChooser fileChooser = new JFileChooser(this.appController.getAppModel().getDataFileDirPath());
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        fileChooser.setMultiSelectionEnabled(false);
+        if (fileChooser.showOpenDialog(mainWindow) != JFileChooser.APPROVE_OPTION
+                || fileChooser.getSelectedFile() == null) {
+            return;
+        }
+        PathTimeline timeline;
+        try {
+            timeline = this.appController.getRestoreProcessControl()
+                    .getTimeline(fileChooser.getSelectedFile().toPath());
+        } catch (IOException | IllegalArgumentException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        List<TimelineVersion> versions = new ArrayList<>();
+        List<String> versionTitles = new ArrayList<>();
+        if (timeline != null) {
+            //The newest version is shown first
+            for (int i = timeline.getVersions().size() - 1; i >= 0; i--) {
+                TimelineVersion version = timeline.getVersions().get(i);
+                if (!version.isDeleted()) {
+                    versions.add(version);
+                    versionTitles.add(version.getSnapshotName() + " ("
+                            + FileSizeUtility.getRecommendedFileSizePresentation(version.getSize()) + ")");
+                }
+            }
+        }
+        if (versions.isEmpty()) {
+            JOptionPane.showMessageDialog(mainWindow,
+                    languageRB.getString("FileHistoryMenuItemListener.noVersionsMessage"));
+            return;
+        }
+        Object versionTitle = JOptionPane.showInputDialog(mainWindow,
+                languageRB.getString("FileHistoryMenuItemListener.chooseVersionMessage"),
+                languageRB.getString("MainWindow.fileHistoryMenuItem"), JOptionPane.QUESTION_MESSAGE, null,
+                versionTitles.toArray(), versionTitles.get(0));
+        if (versionTitle == null) {
+            return;
+        }
+        TimelineVersion version = versions.get(versionTitles.indexOf(versionTitle));
+        PathFileChooser pathFileChooser = new PathFileChooser(this.appController);
+        if (pathFileChooser.showOpenDialog(mainWindow) == JFileChooser.APPROVE_OPTION) {
+            File chosenDirectory = pathFileChooser.getSelectedFile();
+            if (chosenDirectory != null && chosenDirectory.exists()) {
+                this.appController.getAppView().getRestoreWindow().setVisible(true);
+                this.appController.getRestoreProcessControl().startRestore(version.getSnapshotName(),
+                        timeline.getPath(), "", chosenDirectory.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.listener.mainwindow;
+
+import com.openkw.controller.AppController;
+import com.openkw.controller.util.SettingsSerializer;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+/**
+ * This listener uploads the backups of the currently set backup directory into the remote storage, or downloads
+ * them from it into the backup directory. Only what the other side lacks is transferred.
+ */
+public class RemoteStorageMenuItemListener implements ActionListener {
+
+    /**
+     * The mvc controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * True if this listener downloads from the remote storage, false if it uploads.
+     */
+    private final boolean download;
+
+    /**
+     * @param appController the mvc controller instance.
+     * @param download      true if this listener downloads from the remote storage, false if it uploads.
+     */
+    public RemoteStorageMenuItemListener(AppController appController, boolean download) {
+        this.appController = appController;
+        this.download = download;
+    }
+
+    /**
+     * This method starts the transfer and reports its result once it has finished. If no remote storage has been
+     * set up the user is told where to set it up.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        ResourceBundle languageRB = this.appController.getAppModel().getLanguageResourceBundle();
+        JFrame mainWindow = this.appController.getAppView().getMainWindow();
+        if (this.appController.getAppModel().getRemoteStorage() == null) {
+            JOptionPane.showMessageDialog(mainWindow, MessageFormat.format(
+                    languageRB.getString("RemoteStorageMenuItemListener.notSetUpMessage"),
+                    SettingsSerializer.SETTINGS_PATH + SettingsSerializer.SETTINGS_FILE_POST_FIX));
+            return;
+        }
+        String title = languageRB.getString(this.download ? "MainWindow.downloadMenuItem"
+                : "MainWindow.uploadMenuItem");
+        boolean started;
+        try {
+            started = this.appController.getReplicationProcessControl().startRemoteReplication(this.download,
+                    (replicator, failure) -> SwingUtilities.invokeLater(() -> {
+                        String message = failure == null
+                                ? MessageFormat.format(
+                                languageRB.getString("RemoteStorageMenuItemListener.finishedMessage"),
+                                replicator.getReplicatedSnapshotCount(), replicator.getTransferredObjectCount(),
+                                replicator.getPrunedSnapshotCount())
+                                : MessageFormat.format(
+                                languageRB.getString("ReplicateMenuItemListener.failedMessage"),
+                                failure.getMessage());
+                        JOptionPane.showMessageDialog(mainWindow, message, title,
+                                failure == null ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.ERROR_MESSAGE);
+                    }));
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(mainWindow, MessageFormat.format(
+                    languageRB.getString("ReplicateMenuItemListener.failedMessage"), ex.getMessage()), title,
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!started) {
+            JOptionPane.showMessageDialog(mainWindow,
+                    languageRB.getString("ReplicateMenuItemListener.runningMessage"));
+        }
+    }
+}
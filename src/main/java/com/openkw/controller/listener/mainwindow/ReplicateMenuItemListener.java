@@ -0,0 +1,81 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.listener.mainwindow;
+
+import com.openkw.controller.AppController;
+import com.openkw.view.customcomponents.PathFileChooser;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+/**
+ * This listener lets the user choose a second backup directory and replicates the backups of the currently set
+ * backup directory into it. Only what the second directory lacks is copied.
+ */
+public class ReplicateMenuItemListener implements ActionListener {
+
+    /**
+     * The mvc controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * @param appController the mvc controller instance.
+     */
+    public ReplicateMenuItemListener(AppController appController) {
+        this.appController = appController;
+    }
+
+    /**
+     * This method asks the user for the directory of the replica, starts the replication and reports its result
+     * once it has finished.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        ResourceBundle languageRB = this.appController.getAppModel().getLanguageResourceBundle();
+        JFrame mainWindow = this.appController.getAppView().getMainWindow();
+        PathFileChooser pathFileChooser = new PathFileChooser(this.appController);
+        if (pathFileChooser.showOpenDialog(mainWindow) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File chosenDirectory = pathFileChooser.getSelectedFile();
+        if (chosenDirectory == null || !chosenDirectory.exists()) {
+            return;
+        }
+        boolean started = this.appController.getReplicationProcessControl().startReplication(
+                chosenDirectory.toPath(), (replicator, failure) -> SwingUtilities.invokeLater(() -> {
+                    String message = failure == null
+                            ? MessageFormat.format(languageRB.getString("ReplicateMenuItemListener.finishedMessage"),
+                            replicator.getReplicatedSnapshotCount(), replicator.getCopiedObjectCount(),
+                            replicator.getPrunedSnapshotCount())
+                            : MessageFormat.format(languageRB.getString("ReplicateMenuItemListener.failedMessage"),
+                            failure.getMessage());
+                    JOptionPane.showMessageDialog(mainWindow, message,
+                            languageRB.getString("MainWindow.replicateMenuItem"),
+                            failure == null ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.ERROR_MESSAGE);
+                }));
+        if (!started) {
+            JOptionPane.showMessageDialog(mainWindow,
+                    languageRB.getString("ReplicateMenuItemListener.runningMessage"));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.listener.mainwindow;
+
+import com.openkw.controller.AppController;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+import com.openkw.view.customcomponents.PathFileChooser;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+
+/**
+ * This listener lets the user choose a backup, a file selection and a target directory and starts the restore.
+ */
+public class RestoreMenuItemListener implements ActionListener {
+
+    /**
+     * The amount of catalog records read per page of the snapshot list.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The mvc controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * @param appController the mvc controller instance.
+     */
+    public RestoreMenuItemListener(AppController appController) {
+        this.appController = appController;
+    }
+
+    /**
+     * This method asks the user for the backup to restore, the files to restore and the target directory,
+     * opens the restore window and starts the restore.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        ResourceBundle languageRB = this.appController.getAppModel().getLanguageResourceBundle();
+        JFrame mainWindow = this.appController.getAppView().getMainWindow();
+        String snapshotName = chooseSnapshot(languageRB, mainWindow);
+        if (snapshotName == null) {
+            return;
+        }
+        String glob = JOptionPane.showInputDialog(mainWindow,
+                languageRB.getString("RestoreMenuItemListener.globMessage"), "");
+        if (glob == null) {
+            return;
+        }
+        PathFileChooser pathFileChooser = new PathFileChooser(this.appController);
+        if (pathFileChooser.showOpenDialog(mainWindow) == JFileChooser.APPROVE_OPTION) {
+            File chosenDirectory = pathFileChooser.getSelectedFile();
+            if (chosenDirectory != null && chosenDirectory.exists()) {
+                this.appController.getAppView().getRestoreWindow().setVisible(true);
+                this.appController.getRestoreProcessControl().startRestore(snapshotName, "", glob.trim(),
+                        chosenDirectory.toPath());
+            }
+        }
+    }
+
+    /**
+     * Lets the user choose one of the complete snapshots, page by page, the newest first. Only the catalog records
+     * of the shown page are read, the last entry of a page leads to the next older one.
+     *
+     * @return the name of the chosen snapshot, null if there is none or the user has cancelled.
+     */
+    private String chooseSnapshot(ResourceBundle languageRB, JFrame mainWindow) {
+        String olderSnapshotsEntry = languageRB.getString("RestoreMenuItemListener.olderSnapshotsEntry");
+        long offset = 0;
+        boolean found = false;
+        while (true) {
+            List<SnapshotRecord> page;
+            try {
+                //One record more than shown tells whether there is an older page.
+                page = this.appController.getRestoreProcessControl().listSnapshots(offset, PAGE_SIZE + 1);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return null;
+            }
+            List<String> choices = new ArrayList<>();
+            for (SnapshotRecord record : page.subList(0, Math.min(PAGE_SIZE, page.size()))) {
+                if (record.getStatus() == SnapshotStatus.COMPLETE) {
+                    choices.add(record.getSnapshotName());
+                }
+            }
+            boolean hasOlder = page.size() > PAGE_SIZE;
+            if (choices.isEmpty()) {
+                if (hasOlder) {
+                    //A page of failed or pruned runs only.
+                    offset += PAGE_SIZE;
+                    continue;
+                }
+                if (!found) {
+                    JOptionPane.showMessageDialog(mainWindow,
+                            languageRB.getString("RestoreMenuItemListener.noSnapshotsMessage"));
+                }
+                return null;
+            }
+            found = true;
+            if (hasOlder) {
+                choices.add(olderSnapshotsEntry);
+            }
+            String choice = (String) JOptionPane.showInputDialog(mainWindow,
+                    languageRB.getString("RestoreMenuItemListener.chooseSnapshotMessage"),
+                    languageRB.getString("MainWindow.restoreMenuItem"), JOptionPane.QUESTION_MESSAGE, null,
+                    choices.toArray(), choices.get(0));
+            //Compared by identity, the dialog returns the chosen element itself.
+            if (choice != olderSnapshotsEntry) {
+                return choice;
+            }
+            offset += PAGE_SIZE;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.listener.restorewindow;
+
+import com.openkw.controller.AppController;
+
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+/**
+ * This class serves the purpose to cancel a running restore when the restore window is closed.
+ */
+public class RestoreWindowAdapter extends WindowAdapter {
+
+    /**
+     * The mvc controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * @param appController the mvc controller instance.
+     */
+    public RestoreWindowAdapter(AppController appController) {
+        this.appController = appController;
+    }
+
+    /**
+     * This method cancels the running restore and disposes the restore window.
+     */
+    @Override
+    public void windowClosing(WindowEvent e) {
+        this.appController.getRestoreProcessControl().cancelRestore();
+        this.appController.getAppView().getRestoreWindow().dispose();
+    }
+}
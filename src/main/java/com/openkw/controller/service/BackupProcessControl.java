@@ -18,36 +18,124 @@
 package com.openkw.controller.service;
 
 import com.openkw.controller.AppController;
+import com.openkw.controller.service.gc.GarbageCollector;
+import com.openkw.controller.service.parity.PackParity;
+import com.openkw.controller.service.retention.SnapshotPruner;
+import com.openkw.controller.service.schedule.DeviceGroup;
+import com.openkw.controller.service.schedule.FairScheduler;
+import com.openkw.controller.service.schedule.JobShare;
+import com.openkw.controller.service.scrub.Scrubber;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.service.tier.TierMigrator;
 import com.openkw.controller.util.FileSizeUtility;
+import com.openkw.controller.util.RateLimiter;
+import com.openkw.model.AppModel;
+import com.openkw.model.BackupJob;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class provides methods to invoke the backup task and to measure the time a backup task is running.
+ * This class provides methods to invoke the backup jobs and to measure the time the backup process is running.
+ * The job of the main window and the additional jobs of the settings run concurrently on a FairScheduler.
  */
 public class BackupProcessControl {
 
+    /**
+     * The maximum amount of file operations per second of the garbage collector.
+     */
+    private static final long GC_OPERATIONS_PER_SECOND = 500;
+
+    /**
+     * The minimum time between the end of a scrub cycle and the start of the next one.
+     */
+    private static final long SCRUB_CYCLE_INTERVAL = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * The time the scrub thread waits before checking again whether a scrub cycle is due.
+     */
+    private static final long SCRUB_CHECK_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
     /**
      * The mvc controller instance.
      */
     private final AppController appController;
 
     /**
-     * The timer instance related to the backup timer process.
+     * The scheduler running the backup jobs.
+     */
+    private FairScheduler scheduler;
+
+    /**
+     * The repositories of the backup directories of all jobs by their path, one instance per directory so jobs
+     * sharing a directory share its catalog.
      */
-    private Timer backupTimer;
+    private final Map<Path, SnapshotRepository> repositories = new LinkedHashMap<>();
 
     /**
      * The timer instance related to the time measuring of the process.
      */
     private Timer timeMeasureTimer;
 
+    /**
+     * Runs the prune passes in the background, one at a time.
+     */
+    private final ExecutorService pruneExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "prune");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The thread running the integrity scrubber while the backup process is active.
+     */
+    private Thread scrubThread;
+
+    /**
+     * The backup directories for which a prune pass is queued or running.
+     */
+    private final Set<Path> pruning = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The amount of successful backups of all jobs during the backup process.
+     */
+    private final AtomicInteger backups = new AtomicInteger();
+
+    /**
+     * The amount of failed backups of all jobs during the backup process.
+     */
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /**
+     * The amount of bytes which did not have to be copied during the backup process thanks to move detection.
+     */
+    private final AtomicLong movedBytes = new AtomicLong();
+
+    /**
+     * The amount of snapshots completed during the backup process by backup directory.
+     */
+    private final Map<String, Integer> targetBackupCounts = new LinkedHashMap<>();
+
+    /**
+     * The amount of snapshots which failed during the backup process by backup directory.
+     */
+    private final Map<String, Integer> targetErrorCounts = new LinkedHashMap<>();
+
     /**
      * @param appController The mvc controller instance.
      */
@@ -56,31 +144,157 @@ public class BackupProcessControl {
     }
 
     /**
-     * This method starts the backup process.
+     * This method starts the backup process: every job gets its share in a new scheduler and is triggered at its
+     * interval.
      */
     private void runBackupTask() {
-        //In case the backup folder does not exist yet making sure to create it.
-        Path buFolderPath = Paths.get(this.appController.getAppModel().getBackupDirPath());
-        if (Files.notExists(buFolderPath)) {
-            try {
-                Files.createDirectory(buFolderPath);
-            } catch (IOException e) {
-                e.printStackTrace();
+        AppModel appModel = this.appController.getAppModel();
+        List<BackupJob> jobs = collectJobs(appModel);
+        this.repositories.clear();
+        for (BackupJob job : jobs) {
+            for (Path buFolderPath : getTargetDirs(job)) {
+                //In case the backup folder does not exist yet making sure to create it.
+                if (Files.notExists(buFolderPath)) {
+                    try {
+                        Files.createDirectories(buFolderPath);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                this.repositories.computeIfAbsent(buFolderPath, path -> {
+                    SnapshotRepository repository = new SnapshotRepository(path,
+                            appModel.getEncryptionPassphrase());
+                    repository.setMappedReadThreshold(appModel.getMappedReadThresholdMegabytes() * 1024L * 1024L);
+                    repository.setDurabilityLevel(appModel.getDurabilityLevel());
+                    repository.setCopyMode(appModel.getCopyMode());
+                    return repository;
+                });
+            }
+            if (job.getArchiveDirPath() != null && !job.getArchiveDirPath().isEmpty()) {
+                try {
+                    this.repositories.get(getTargetDirs(job).get(0)).attachArchive(
+                            Paths.get(job.getArchiveDirPath()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
 
         //Update the model backup folder size representation
-        String fileSizePresentation = FileSizeUtility.getRecommendedFileSizePresentation(
-                this.appController.getAppModel().getBackupDirPath());
-        if (fileSizePresentation != null) {
-            this.appController.getAppModel().getRunningProcessModel().setBackupFolderSize(
-                    fileSizePresentation);
+        updateBackupFolderSize();
+
+        int workerBudget = appModel.getWorkerBudget();
+        int hashParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / workerBudget);
+        this.scheduler = new FairScheduler(workerBudget, appModel.getDeviceStreamLimit(),
+                appModel.getDeviceStreamLimits());
+        for (BackupJob job : jobs) {
+            List<Path> directories = new ArrayList<>();
+            directories.add(Paths.get(job.getDataFileDirPath()));
+            List<SnapshotRepository> jobRepositories = new ArrayList<>();
+            for (Path backupDir : getTargetDirs(job)) {
+                directories.add(backupDir);
+                jobRepositories.add(this.repositories.get(backupDir));
+            }
+            JobShare share = this.scheduler.register(job.getName(), job.getWeight(),
+                    directories.toArray(new Path[0]));
+            this.scheduler.schedule(share,
+                    new BackupTimerTask(this.appController, job, jobRepositories, share, hashParallelism),
+                    job.getInterval().getMillis());
+        }
+    }
+
+    /**
+     * @param job the job.
+     * @return the normalized paths of the backup directory and the mirror directories of the job, without
+     * duplicates.
+     */
+    private static List<Path> getTargetDirs(BackupJob job) {
+        List<Path> targetDirs = new ArrayList<>();
+        targetDirs.add(Paths.get(job.getBackupDirPath()).toAbsolutePath().normalize());
+        if (job.getMirrorDirPaths() != null) {
+            for (String mirrorDirPath : job.getMirrorDirPaths()) {
+                Path mirrorDir = Paths.get(mirrorDirPath).toAbsolutePath().normalize();
+                if (!targetDirs.contains(mirrorDir)) {
+                    targetDirs.add(mirrorDir);
+                }
+            }
+        }
+        return targetDirs;
+    }
+
+    /**
+     * @param appModel the model containing the paths of the main window and the additional jobs.
+     * @return the job of the main window followed by the additional jobs.
+     */
+    private static List<BackupJob> collectJobs(AppModel appModel) {
+        List<BackupJob> jobs = new ArrayList<>();
+        BackupJob mainJob = new BackupJob("main", appModel.getDataFileDirPath(), appModel.getBackupDirPath(),
+                appModel.getCurrentInterval());
+        mainJob.setMirrorDirPaths(appModel.getMirrorDirPaths());
+        mainJob.setArchiveDirPath(appModel.getArchiveDirPath());
+        jobs.add(mainJob);
+        for (BackupJob job : appModel.getBackupJobs()) {
+            if (job.getDataFileDirPath() != null && job.getBackupDirPath() != null) {
+                jobs.add(job);
+            }
         }
+        return jobs;
+    }
 
-        int interval = this.appController.getAppModel().getCurrentInterval().getMillis();
-        this.backupTimer = new Timer();
-        BackupTimerTask backupTimerTask = new BackupTimerTask(this.appController);
-        this.backupTimer.scheduleAtFixedRate(backupTimerTask, interval, interval);
+    /**
+     * Counts a successful backup of one of the jobs.
+     *
+     * @param savedBytes the amount of bytes which did not have to be copied thanks to move detection.
+     */
+    public void recordBackup(long savedBytes) {
+        this.appController.getAppModel().getRunningProcessModel().setBackupCount(this.backups.incrementAndGet());
+        this.appController.getAppModel().getRunningProcessModel()
+                .setMovedBytesSaved(this.movedBytes.addAndGet(savedBytes));
+        updateBackupFolderSize();
+    }
+
+    /**
+     * Counts a failed backup of one of the jobs.
+     */
+    public void recordError() {
+        this.appController.getAppModel().getRunningProcessModel().setErrorCount(this.errors.incrementAndGet());
+    }
+
+    /**
+     * Counts a snapshot which has been completed in one backup directory.
+     *
+     * @param backupDir the backup directory.
+     */
+    public synchronized void recordTargetBackup(Path backupDir) {
+        this.targetBackupCounts.merge(backupDir.toString(), 1, Integer::sum);
+        this.appController.getAppModel().getRunningProcessModel()
+                .setTargetBackupCounts(new LinkedHashMap<>(this.targetBackupCounts));
+    }
+
+    /**
+     * Counts a snapshot which could not be completed in one backup directory while the job may have succeeded in
+     * its other directories.
+     *
+     * @param backupDir the backup directory.
+     */
+    public synchronized void recordTargetError(Path backupDir) {
+        this.targetErrorCounts.merge(backupDir.toString(), 1, Integer::sum);
+        this.appController.getAppModel().getRunningProcessModel()
+                .setTargetErrorCounts(new LinkedHashMap<>(this.targetErrorCounts));
+    }
+
+    /**
+     * This method updates the RunningProcessModel to represent the summed size of the repositories of all backup
+     * directories. The browsable snapshot folders are left out, they mostly consist of hard links onto the objects
+     * and walking them would take longer with every snapshot.
+     */
+    private void updateBackupFolderSize() {
+        long bytes = 0;
+        for (SnapshotRepository repository : new ArrayList<>(this.repositories.values())) {
+            bytes += Math.max(0, FileSizeUtility.getFileSizeBytes(repository.getRepositoryPath().toString()));
+        }
+        this.appController.getAppModel().getRunningProcessModel().setBackupFolderSize(
+                FileSizeUtility.getRecommendedFileSizePresentation(bytes));
     }
 
     /**
@@ -99,6 +313,9 @@ public class BackupProcessControl {
                 long seconds = TimeUnit.SECONDS.toSeconds(this.seconds) % 60;
                 String timeString = String.format("%02d:%02d:%02d", hours, minutes, seconds);
                 appController.getAppModel().getRunningProcessModel().setTimeElapsed(timeString);
+                DeviceGroup bottleneck = scheduler.getBottleneck();
+                appController.getAppModel().getRunningProcessModel().setBottleneckDevice(
+                        bottleneck != null ? bottleneck.getName() : "-");
             }
         }, 1000, 1000);
     }
@@ -109,6 +326,41 @@ public class BackupProcessControl {
     public void startBackupProcess() {
         runBackupTask();
         runTimeMeasuringTask();
+        runScrubber();
+    }
+
+    /**
+     * This method starts the integrity scrubber in the background, it checks the backup directories of all jobs
+     * one after the other. A running scrub cycle is continued from its cursor, otherwise a new cycle is started once
+     * the last one is old enough.
+     */
+    private void runScrubber() {
+        long bytesPerSecond = this.appController.getAppModel().getScrubMegabytesPerSecond() * 1024L * 1024L;
+        RateLimiter rateLimiter = new RateLimiter(bytesPerSecond);
+        List<Scrubber> scrubbers = new ArrayList<>();
+        for (SnapshotRepository repository : this.repositories.values()) {
+            scrubbers.add(new Scrubber(repository, Runtime.getRuntime().availableProcessors(), rateLimiter,
+                    this.appController.getAppModel().getRunningProcessModel()));
+        }
+        this.scrubThread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    for (Scrubber scrubber : scrubbers) {
+                        try {
+                            scrubber.scrubIfDue(SCRUB_CYCLE_INTERVAL);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    Thread.sleep(SCRUB_CHECK_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                //The backup process has been stopped, the progress is kept in the cursor.
+            }
+        }, "scrub");
+        this.scrubThread.setDaemon(true);
+        this.scrubThread.setPriority(Thread.MIN_PRIORITY);
+        this.scrubThread.start();
     }
 
     /**
@@ -116,18 +368,78 @@ public class BackupProcessControl {
      * to the backup process.
      */
     public void stopBackupProcess() {
-        this.backupTimer.cancel();
+        this.scheduler.shutdown();
         this.timeMeasureTimer.cancel();
+        this.scrubThread.interrupt();
         resetModelValues();
     }
 
+    /**
+     * This method starts a pass which prunes the snapshots not covered by the retention policy and collects the
+     * objects no longer referenced in the background. A repository with an archive directory migrates its older
+     * snapshots into the archive afterwards and adds the new packs to parity stripes. The call returns
+     * immediately, if a pass for the same repository is still queued or running no new pass is started.
+     *
+     * @param repository the repository to prune.
+     */
+    public void startPrune(SnapshotRepository repository) {
+        Path repositoryPath = repository.getRepositoryPath();
+        if (!this.pruning.add(repositoryPath)) {
+            return;
+        }
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        SnapshotPruner snapshotPruner = new SnapshotPruner(repository,
+                this.appController.getAppModel().getRetentionPolicy(), parallelism);
+        GarbageCollector garbageCollector = new GarbageCollector(repository, parallelism,
+                new RateLimiter(GC_OPERATIONS_PER_SECOND));
+        this.pruneExecutor.execute(() -> {
+            try {
+                long reclaimedBytes = snapshotPruner.prune();
+                //Objects of pruned snapshots are parked by this pass and deleted by one of the next passes
+                if (snapshotPruner.getPrunedSnapshotCount() > 0 || garbageCollector.hasPendingFossils()) {
+                    reclaimedBytes += garbageCollector.collect();
+                }
+                this.appController.getAppModel().getRunningProcessModel().setReclaimedBytes(reclaimedBytes);
+                if (repository.getArchive() != null) {
+                    AppModel appModel = this.appController.getAppModel();
+                    RateLimiter tierRateLimiter = new RateLimiter(appModel.getTierMegabytesPerSecond() * 1024L * 1024L);
+                    TierMigrator tierMigrator = new TierMigrator(repository, appModel.getHotSnapshotCount(),
+                            tierRateLimiter);
+                    tierMigrator.migrate();
+                    appModel.getRunningProcessModel().setArchivedBytes(tierMigrator.getArchivedBytes());
+                    new PackParity(repository.getArchive(), tierRateLimiter).protect(
+                            appModel.getParityDataShardCount(), appModel.getParityShardCount());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                this.pruning.remove(repositoryPath);
+            }
+        });
+    }
+
     /**
      * This method resets the values that are being used for the representation of the backup process.
      */
-    private void resetModelValues() {
+    private synchronized void resetModelValues() {
+        this.backups.set(0);
+        this.errors.set(0);
+        this.movedBytes.set(0);
+        this.targetBackupCounts.clear();
+        this.targetErrorCounts.clear();
         this.appController.getAppModel().getRunningProcessModel().setTimeElapsed("00:00:00");
         this.appController.getAppModel().getRunningProcessModel().setBackupFolderSize("0");
         this.appController.getAppModel().getRunningProcessModel().setErrorCount(0);
         this.appController.getAppModel().getRunningProcessModel().setBackupCount(0);
+        this.appController.getAppModel().getRunningProcessModel().setMovedBytesSaved(0);
+        this.appController.getAppModel().getRunningProcessModel().setReclaimedBytes(0);
+        this.appController.getAppModel().getRunningProcessModel().setArchivedBytes(0);
+        this.appController.getAppModel().getRunningProcessModel().setScrubVerifiedBytes(0);
+        this.appController.getAppModel().getRunningProcessModel().setScrubCorruptCount(0);
+        this.appController.getAppModel().getRunningProcessModel().setBottleneckDevice("-");
+        this.appController.getAppModel().getRunningProcessModel().setTargetBackupCounts(new LinkedHashMap<>());
+        this.appController.getAppModel().getRunningProcessModel().setTargetErrorCounts(new LinkedHashMap<>());
     }
 }
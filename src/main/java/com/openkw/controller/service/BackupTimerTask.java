@@ -18,20 +18,31 @@
 package com.openkw.controller.service;
 
 import com.openkw.controller.AppController;
-import com.openkw.controller.util.FileSizeUtility;
-import org.apache.commons.io.FileUtils;
+import com.openkw.controller.service.schedule.JobShare;
+import com.openkw.controller.service.snapshot.ManifestBuilder;
+import com.openkw.controller.service.snapshot.SnapshotCatalog;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.service.snapshot.TimelineIndex;
+import com.openkw.model.BackupJob;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
 
-import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.time.LocalDateTime;
-import java.util.Date;
-import java.util.TimerTask;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * This timer task is invoked when the backup process is being started.
+ * This task runs one backup of a backup job. It is triggered by the FairScheduler at the interval of the job,
+ * concurrently with the tasks of the other jobs. A job with mirrors reads its data directory once and writes the
+ * snapshot into all of its backup directories, every directory gets its own catalog record which is completed or
+ * failed on its own.
  */
-public class BackupTimerTask extends TimerTask {
+public class BackupTimerTask implements Runnable {
 
     /**
      * The mvc controller instance.
@@ -39,67 +50,244 @@ public class BackupTimerTask extends TimerTask {
     private final AppController appController;
 
     /**
-     * The amount of IOErrors thrown during the task process.
+     * The job this task backs up.
      */
-    private int errors = 0;
+    private final BackupJob job;
 
     /**
-     * The amount of successful backups during the task process.
+     * The repositories of the backup directory and the mirror directories of the job, shared with the other jobs
+     * using the same directories.
      */
-    private int backups = 0;
+    private final List<SnapshotRepository> repositories;
 
     /**
-     * @param appController the mvc controller instance.
+     * The share of the job inside the scheduler, used to take I/O permits.
      */
-    public BackupTimerTask(AppController appController) {
+    private final JobShare share;
+
+    /**
+     * The amount of hash workers of every build, the part of the worker budget one job gets.
+     */
+    private final int hashParallelism;
+
+    /**
+     * The manifest of the last snapshot by repository, used to detect which files have changed since then.
+     */
+    private final Map<SnapshotRepository, SnapshotManifest> previousManifests = new HashMap<>();
+
+    /**
+     * @param appController   the mvc controller instance.
+     * @param job             the job this task backs up.
+     * @param repositories    the repositories of the backup directory and the mirror directories of the job, the
+     *                        backup directory first.
+     * @param share           the share of the job inside the scheduler.
+     * @param hashParallelism the amount of hash workers of every build.
+     */
+    public BackupTimerTask(AppController appController, BackupJob job, List<SnapshotRepository> repositories,
+                           JobShare share, int hashParallelism) {
         this.appController = appController;
+        this.job = job;
+        this.repositories = repositories;
+        this.share = share;
+        this.hashParallelism = hashParallelism;
     }
 
     /**
-     * @return a string representation of the current time in the format -> DAY MONTH HH-MM AM/PM
+     * Returns the manifest of the last snapshot of the given data directory in the given repository. On the first
+     * run of this task the repository is asked for the latest manifest of the directory, afterwards the one of the
+     * previous run is used.
+     *
+     * @param repository the repository.
+     * @param sourceDir  the data directory.
+     * @return the previous manifest, null if there is none for this data directory.
+     * @throws IOException if the manifest could not be read.
      */
-    private String getTimeStamp() {
-        StringBuilder sb = new StringBuilder();
-        LocalDateTime time = LocalDateTime.now();
-        sb.append(time.getDayOfMonth())
-                .append(" ")
-                .append(time.getMonth())
-                .append(" ")
-                .append(new SimpleDateFormat("hh-mm a").format(new Date()));
-        return sb.toString();
+    private SnapshotManifest getPreviousManifest(SnapshotRepository repository, Path sourceDir) throws IOException {
+        String sourcePath = sourceDir.toAbsolutePath().toString();
+        SnapshotManifest previousManifest = this.previousManifests.get(repository);
+        if (previousManifest == null) {
+            previousManifest = repository.findLatestManifest(sourcePath);
+            this.previousManifests.put(repository, previousManifest);
+        }
+        if (previousManifest != null && !previousManifest.getSourcePath().equals(sourcePath)) {
+            return null;
+        }
+        return previousManifest;
     }
 
     /**
-     * This method updates the RunningProcessModel to represent the currents backup directory size.
+     * Records the new snapshot in the per path timeline index. A failure does not fail the backup, the index is
+     * rebuilt from the manifests on the next run.
+     *
+     * @param repository the repository of the snapshot.
+     * @param previous   the manifest of the previous snapshot of the data directory, may be null.
+     * @param manifest   the manifest of the new snapshot.
      */
-    private void updateBackupFolderSizeRepresentation() {
-        String fileSizePresentation = FileSizeUtility.getRecommendedFileSizePresentation(
-                this.appController.getAppModel().getBackupDirPath());
-        if (fileSizePresentation != null) {
-            this.appController.getAppModel().getRunningProcessModel().setBackupFolderSize(
-                    fileSizePresentation);
+    private void updateTimelineIndex(SnapshotRepository repository, SnapshotManifest previous,
+                                     SnapshotManifest manifest) {
+        try {
+            new TimelineIndex(repository).update(previous, manifest);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     /**
-     * Creates a backup from the currently set data file directory and saves it in the currently set backup directory.
+     * Creates a backup from the data directory of the job and saves it in the backup directories of the job.
+     * Only files which changed since the previous snapshot are copied into the repositories, the browsable backup
+     * folders link the unchanged files. The backup counts as successful if at least one directory received it.
      */
     @Override
     public void run() {
-        String backupDirTitle = "Backup " + getTimeStamp();
-        String fileDirPath = appController.getAppModel().getDataFileDirPath();
-        String backupDirPath = appController.getAppModel().getBackupDirPath();
+        BackupProcessControl backupProcessControl = this.appController.getBackupProcessControl();
+        Path sourceDir = Paths.get(this.job.getDataFileDirPath());
+        String sourcePath = sourceDir.toAbsolutePath().toString();
+        List<TargetRun> started = new ArrayList<>();
+        for (SnapshotRepository repository : this.repositories) {
+            TargetRun targetRun = new TargetRun(repository);
+            try {
+                targetRun.catalog = repository.getCatalog();
+                targetRun.record = targetRun.catalog.begin(sourcePath);
+                targetRun.previous = getPreviousManifest(repository, sourceDir);
+                started.add(targetRun);
+            } catch (IOException e) {
+                e.printStackTrace();
+                markFailed(targetRun);
+            }
+        }
+        if (started.isEmpty()) {
+            backupProcessControl.recordError();
+            return;
+        }
+        TargetRun primary = started.get(0);
+        SnapshotManifest manifest;
+        ManifestBuilder manifestBuilder = new ManifestBuilder(primary.repository);
         try {
-            FileUtils.copyDirectoryToDirectory(new File(fileDirPath),
-                    new File(backupDirPath + "\\" + backupDirTitle));
-            backups++;
-            appController.getAppModel().getRunningProcessModel().setBackupCount(backups);
-            updateBackupFolderSizeRepresentation();
+            List<SnapshotRepository> mirrors = new ArrayList<>();
+            for (TargetRun targetRun : started.subList(1, started.size())) {
+                mirrors.add(targetRun.repository);
+            }
+            manifestBuilder.setMirrors(mirrors);
+            manifestBuilder.setIoShare(this.share);
+            manifestBuilder.setHashParallelism(this.hashParallelism);
+            manifestBuilder.setSealParallelism(this.hashParallelism);
+            manifest = manifestBuilder.build(sourceDir, primary.record.getSnapshotName(), primary.previous);
+            this.appController.getAppModel().getRunningProcessModel()
+                    .setPipelineMetrics(this.job.getName() + ": " + manifestBuilder.getPipelineMetrics());
         } catch (IOException e) {
             e.printStackTrace();
-            errors++;
-            appController.getAppModel().getRunningProcessModel().setErrorCount(errors);
+            for (TargetRun targetRun : started) {
+                markFailed(targetRun);
+            }
+            backupProcessControl.recordError();
+            return;
+        }
+        boolean succeeded = false;
+        for (TargetRun targetRun : started) {
+            IOException failure = manifestBuilder.getTargetFailure(targetRun.repository);
+            if (failure == null) {
+                try {
+                    completeTarget(targetRun, manifest, sourceDir, manifestBuilder);
+                    backupProcessControl.recordTargetBackup(targetRun.repository.getRepositoryPath());
+                    backupProcessControl.startPrune(targetRun.repository);
+                    succeeded = true;
+                    continue;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            failure.printStackTrace();
+            markFailed(targetRun);
+        }
+        if (succeeded) {
+            backupProcessControl.recordBackup(manifestBuilder.getMovedBytes());
+        } else {
+            backupProcessControl.recordError();
         }
     }
-}
 
+    /**
+     * Publishes the snapshot in one backup directory: the browsable folder, the manifest, the catalog record and
+     * the timeline index. Every directory gets its own copy of the manifest carrying the name and id of its record.
+     *
+     * @param targetRun       the run of the backup directory.
+     * @param built           the manifest built from the data directory.
+     * @param sourceDir       the data directory.
+     * @param manifestBuilder the builder which built the manifest.
+     * @throws IOException if the snapshot could not be published.
+     */
+    private void completeTarget(TargetRun targetRun, SnapshotManifest built, Path sourceDir,
+                                ManifestBuilder manifestBuilder) throws IOException {
+        SnapshotRepository repository = targetRun.repository;
+        SnapshotManifest manifest = new SnapshotManifest();
+        manifest.setSnapshotId(targetRun.record.getId());
+        manifest.setSnapshotName(targetRun.record.getSnapshotName());
+        manifest.setCreatedAt(built.getCreatedAt());
+        manifest.setSourcePath(built.getSourcePath());
+        manifest.setRoot(built.getRoot());
+        repository.materialize(manifest,
+                repository.getSnapshotFolder(manifest.getSnapshotName()).resolve(sourceDir.getFileName()));
+        repository.writeManifest(manifest);
+        targetRun.catalog.complete(targetRun.record, manifest, manifestBuilder.getStoredFileCount(),
+                manifestBuilder.getStoredBytes());
+        this.previousManifests.put(repository, manifest);
+        updateTimelineIndex(repository, targetRun.previous, manifest);
+    }
+
+    /**
+     * Marks the run of one backup directory as failed, in the snapshot catalog if it has been registered there.
+     *
+     * @param targetRun the run of the backup directory.
+     */
+    private void markFailed(TargetRun targetRun) {
+        markFailed(targetRun.catalog, targetRun.record);
+        this.appController.getBackupProcessControl().recordTargetError(targetRun.repository.getRepositoryPath());
+    }
+
+    /**
+     * Marks a run as failed in the snapshot catalog if it has been registered there.
+     *
+     * @param catalog the snapshot catalog, may be null.
+     * @param record  the record of the run, may be null.
+     */
+    private void markFailed(SnapshotCatalog catalog, SnapshotRecord record) {
+        if (catalog == null || record == null || record.getStatus() == SnapshotStatus.COMPLETE) {
+            return;
+        }
+        try {
+            catalog.fail(record);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The state of one backup directory during a run.
+     */
+    private static class TargetRun {
+
+        /**
+         * The repository of the backup directory.
+         */
+        private final SnapshotRepository repository;
+
+        /**
+         * The snapshot catalog of the repository, null until it has been opened.
+         */
+        private SnapshotCatalog catalog;
+
+        /**
+         * The catalog record of the run, null until the run has been registered.
+         */
+        private SnapshotRecord record;
+
+        /**
+         * The manifest of the previous snapshot of the data directory in this repository, may be null.
+         */
+        private SnapshotManifest previous;
+
+        private TargetRun(SnapshotRepository repository) {
+            this.repository = repository;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service;
+
+import com.openkw.controller.AppController;
+import com.openkw.controller.service.gc.GarbageCollector;
+import com.openkw.controller.service.replication.RemoteReplicator;
+import com.openkw.controller.service.replication.Replicator;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.service.storage.StorageBackend;
+import com.openkw.controller.service.storage.StorageBackends;
+import com.openkw.model.StorageSettings;
+import com.openkw.controller.util.RateLimiter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.BiConsumer;
+
+/**
+ * This class provides methods to replicate the repository of the currently set backup directory into a second
+ * backup directory or a remote storage in the background.
+ */
+public class ReplicationProcessControl {
+
+    /**
+     * The maximum amount of file operations per second of the garbage collector of the replica.
+     */
+    private static final long GC_OPERATIONS_PER_SECOND = 500;
+
+    /**
+     * The mvc controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * The thread of the running replication, null if no replication has been started yet.
+     */
+    private Thread replicationThread;
+
+    /**
+     * @param appController The mvc controller instance.
+     */
+    public ReplicationProcessControl(AppController appController) {
+        this.appController = appController;
+    }
+
+    /**
+     * This method starts bringing the replica in the given directory in line with the repository of the currently
+     * set backup directory. Objects of snapshots which have been pruned in the replica are collected afterwards.
+     *
+     * @param replicaDir the backup directory of the replica.
+     * @param onFinish   called on the replication thread with the replicator and the failure, which is null if the
+     *                   replication succeeded.
+     * @return false if a replication is still running and no new one has been started.
+     */
+    public synchronized boolean startReplication(Path replicaDir, BiConsumer<Replicator, Exception> onFinish) {
+        if (this.replicationThread != null && this.replicationThread.isAlive()) {
+            return false;
+        }
+        String passphrase = this.appController.getAppModel().getEncryptionPassphrase();
+        SnapshotRepository source = new SnapshotRepository(
+                Paths.get(this.appController.getAppModel().getBackupDirPath()), passphrase);
+        SnapshotRepository replica = new SnapshotRepository(replicaDir, passphrase);
+        replica.setDurabilityLevel(this.appController.getAppModel().getDurabilityLevel());
+        long bytesPerSecond = this.appController.getAppModel().getReplicationMegabytesPerSecond() * 1024L * 1024L;
+        Replicator replicator = new Replicator(source, replica, Replicator.DEFAULT_PARALLELISM,
+                bytesPerSecond > 0 ? new RateLimiter(bytesPerSecond) : null);
+        this.replicationThread = new Thread(() -> {
+            Exception failure = null;
+            try {
+                replicator.replicate();
+                if (replicator.getPrunedSnapshotCount() > 0) {
+                    new GarbageCollector(replica, Replicator.DEFAULT_PARALLELISM,
+                            new RateLimiter(GC_OPERATIONS_PER_SECOND)).collect();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                failure = e;
+            } catch (InterruptedException e) {
+                failure = e;
+                Thread.currentThread().interrupt();
+            }
+            onFinish.accept(replicator, failure);
+        }, "replication");
+        this.replicationThread.setDaemon(true);
+        this.replicationThread.start();
+        return true;
+    }
+
+    /**
+     * This method starts bringing the copy in the remote storage in line with the repository of the currently set
+     * backup directory, or the other way round to restore a lost backup directory from the remote storage.
+     *
+     * @param download true to download into the backup directory, false to upload into the remote storage.
+     * @param onFinish called on the replication thread with the replicator and the failure, which is null if the
+     *                 replication succeeded.
+     * @return false if a replication is still running and no new one has been started.
+     * @throws IllegalStateException if no remote storage has been set up.
+     */
+    public synchronized boolean startRemoteReplication(boolean download,
+                                                       BiConsumer<RemoteReplicator, Exception> onFinish) {
+        StorageSettings storageSettings = this.appController.getAppModel().getRemoteStorage();
+        if (storageSettings == null) {
+            throw new IllegalStateException("No remote storage has been set up");
+        }
+        if (this.replicationThread != null && this.replicationThread.isAlive()) {
+            return false;
+        }
+        SnapshotRepository repository = new SnapshotRepository(
+                Paths.get(this.appController.getAppModel().getBackupDirPath()),
+                this.appController.getAppModel().getEncryptionPassphrase());
+        repository.setDurabilityLevel(this.appController.getAppModel().getDurabilityLevel());
+        StorageBackend backend = StorageBackends.open(storageSettings);
+        RemoteReplicator replicator = new RemoteReplicator(repository, backend);
+        this.replicationThread = new Thread(() -> {
+            Exception failure = null;
+            try {
+                if (download) {
+                    replicator.download();
+                    if (replicator.getPrunedSnapshotCount() > 0) {
+                        new GarbageCollector(repository, Replicator.DEFAULT_PARALLELISM,
+                                new RateLimiter(GC_OPERATIONS_PER_SECOND)).collect();
+                    }
+                } else {
+                    replicator.upload();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                failure = e;
+            } catch (InterruptedException e) {
+                failure = e;
+                Thread.currentThread().interrupt();
+            } finally {
+                backend.close();
+            }
+            onFinish.accept(replicator, failure);
+        }, "replication");
+        this.replicationThread.setDaemon(true);
+        this.replicationThread.start();
+        return true;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service;
+
+import com.openkw.controller.AppController;
+import com.openkw.controller.service.restore.RestoreEngine;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.service.snapshot.TimelineIndex;
+import com.openkw.model.RestoreProcessModel;
+import com.openkw.model.snapshot.PathTimeline;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * This class provides methods to run and cancel a restore of a snapshot in the background.
+ */
+public class RestoreProcessControl {
+
+    /**
+     * The mvc controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * The engine of the currently running restore, null if no restore has been started yet.
+     */
+    private RestoreEngine restoreEngine;
+
+    /**
+     * @param appController The mvc controller instance.
+     */
+    public RestoreProcessControl(AppController appController) {
+        this.appController = appController;
+    }
+
+    /**
+     * Lists a page of the snapshot catalog of the currently set backup directory, only the records of the page are
+     * read.
+     *
+     * @param offset the amount of newer records to skip.
+     * @param limit  the maximum amount of records to return.
+     * @return the records of the page regardless of their status, the newest first. Fewer than limit records are
+     * returned only for the last page.
+     * @throws IOException if the catalog could not be read.
+     */
+    public List<SnapshotRecord> listSnapshots(long offset, int limit) throws IOException {
+        return getRepository().getCatalog().list(offset, limit);
+    }
+
+    /**
+     * Looks up all recorded versions of a file of the currently set data directory.
+     *
+     * @param file the file, has to be located inside the data directory.
+     * @return the timeline of the file, null if no snapshot has contained the file.
+     * @throws IOException if the timeline index could not be read.
+     */
+    public PathTimeline getTimeline(Path file) throws IOException {
+        Path sourceDir = Paths.get(this.appController.getAppModel().getDataFileDirPath()).toAbsolutePath();
+        Path relativePath = sourceDir.relativize(file.toAbsolutePath());
+        StringBuilder sb = new StringBuilder();
+        for (Path name : relativePath) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(name);
+        }
+        return new TimelineIndex(getRepository()).getTimeline(sourceDir.toString(), sb.toString());
+    }
+
+    /**
+     * This method starts restoring the selected files of a snapshot into the target directory in the background.
+     *
+     * @param snapshotName the name of the snapshot.
+     * @param subtree      the path of the directory or file to restore relative to the data directory, an empty
+     *                     string restores the whole snapshot.
+     * @param glob         a glob pattern selecting the files to restore, null or empty restores all files.
+     * @param targetDir    the directory to restore the files to.
+     */
+    public void startRestore(String snapshotName, String subtree, String glob, Path targetDir) {
+        SnapshotRepository repository = getRepository();
+        RestoreProcessModel restoreProcessModel = this.appController.getAppModel().getRestoreProcessModel();
+        this.restoreEngine = new RestoreEngine(repository, restoreProcessModel,
+                Runtime.getRuntime().availableProcessors());
+        RestoreEngine engine = this.restoreEngine;
+        Thread restoreThread = new Thread(() -> {
+            try {
+                SnapshotManifest manifest = repository.readManifest(snapshotName);
+                if (manifest == null) {
+                    throw new IOException("There is no manifest for " + snapshotName);
+                }
+                engine.restore(manifest, subtree, glob, targetDir);
+            } catch (IOException e) {
+                e.printStackTrace();
+                restoreProcessModel.setErrorCount(restoreProcessModel.getErrorCount() + 1);
+                restoreProcessModel.setRunning(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "restore");
+        restoreThread.setDaemon(true);
+        restoreThread.start();
+    }
+
+    /**
+     * This method cancels the running restore, files which are currently being written are finished.
+     */
+    public void cancelRestore() {
+        if (this.restoreEngine != null) {
+            this.restoreEngine.cancel();
+        }
+    }
+
+    /**
+     * @return the repository of the currently set backup directory.
+     */
+    private SnapshotRepository getRepository() {
+        return new SnapshotRepository(Paths.get(this.appController.getAppModel().getBackupDirPath()),
+                this.appController.getAppModel().getEncryptionPassphrase());
+    }
+}
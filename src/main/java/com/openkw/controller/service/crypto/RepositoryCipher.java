@@ -0,0 +1,472 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.crypto;
+
+import com.openkw.controller.service.snapshot.ObjectReader;
+import com.openkw.controller.util.SparseFileOutputStream;
+import com.openkw.model.snapshot.EncryptionConfig;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * This class encrypts and decrypts the files of an encrypted repository. Every file is sealed in independent chunks
+ * with AES-GCM, so chunks can be sealed in parallel and read at random positions. The JCE uses the AES and carry-less
+ * multiplication instructions of the CPU where available.
+ * A sealed file starts with a header of the magic bytes, the chunk size and a random 128 bit file id. Every chunk
+ * follows as ciphertext plus tag. Every file is sealed with its own key, derived from the repository key and the
+ * file id with HKDF-SHA256, and the nonce of a chunk is its index. The additional authenticated data is the header,
+ * the chunk index and whether it is the last chunk, so chunks can neither be swapped between files, reordered nor
+ * cut off.
+ * Nonces only repeat if two files draw the same file id. The chance of that stays below 2^-32 for up to 2^48 files
+ * per repository. Files sealed by earlier versions use the repository key itself with the nonce of a 64 bit file
+ * id followed by the chunk index. They stay readable, but a repository sealing that way reaches the same chance
+ * after about 2^16 files and a likely nonce reuse at about 2^32 files.
+ * A chunk of zeros is stored as zeros and a tag sealed with a zero flag in the associated data. Written through a
+ * SparseFileOutputStream those zeros become holes, so sparse files stay sparse in encrypted repositories too, at
+ * the price of revealing which chunks are empty.
+ */
+public class RepositoryCipher {
+
+    /**
+     * The name of the cipher inside the repository configuration.
+     */
+    public static final String ALGORITHM = "AES-256-GCM";
+
+    /**
+     * The name of the key derivation function inside the repository configuration.
+     */
+    public static final String KEY_DERIVATION = "PBKDF2WithHmacSHA256";
+
+    /**
+     * The iteration count of the key derivation of new repositories.
+     */
+    public static final int DEFAULT_ITERATIONS = 600000;
+
+    /**
+     * The amount of plain bytes per chunk of new repositories.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The magic bytes every sealed file starts with.
+     */
+    static final byte[] MAGIC = "DBTSEAL2".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The magic bytes of files sealed with the repository key and a 64 bit file id, which are only read.
+     */
+    private static final byte[] LEGACY_MAGIC = "DBTSEAL1".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The length of the random file id.
+     */
+    private static final int FILE_ID_LENGTH = 16;
+
+    /**
+     * The length of the random file id of legacy files.
+     */
+    private static final int LEGACY_FILE_ID_LENGTH = 8;
+
+    /**
+     * The length of the header of a sealed file.
+     */
+    static final int HEADER_LENGTH = MAGIC.length + Integer.BYTES + FILE_ID_LENGTH;
+
+    /**
+     * The length of the header of a legacy file.
+     */
+    private static final int LEGACY_HEADER_LENGTH = LEGACY_MAGIC.length + Integer.BYTES + LEGACY_FILE_ID_LENGTH;
+
+    /**
+     * The HKDF info deriving the key of a file, followed by the file id.
+     */
+    private static final byte[] FILE_KEY_INFO = "DataBackupTool file key".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The length of the authentication tag of every chunk.
+     */
+    static final int TAG_LENGTH = 16;
+
+    /**
+     * The plain text sealed into the key check of the configuration.
+     */
+    private static final byte[] KEY_CHECK = "DataBackupTool key check".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The source of salts and file ids.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The key derived from the passphrase.
+     */
+    private final SecretKey key;
+
+    /**
+     * The amount of plain bytes per chunk of new files.
+     */
+    private final int chunkSize;
+
+    /**
+     * The pseudorandom key the file keys are expanded from, extracted from the repository key with HKDF-SHA256.
+     */
+    private final SecretKey fileKeyDerivation;
+
+    /**
+     * One HMAC per thread keyed with the pseudorandom key, a Mac instance is not thread safe.
+     */
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * The key of the file most recently sealed or opened by the current thread, so it is derived once per file.
+     */
+    private final ThreadLocal<FileKey> fileKeys = ThreadLocal.withInitial(FileKey::new);
+
+    /**
+     * One cipher per thread, a cipher instance is not thread safe.
+     */
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not supported by this JVM", e);
+        }
+    });
+
+    /**
+     * @param key       the key derived from the passphrase.
+     * @param chunkSize the amount of plain bytes per chunk of new files.
+     */
+    private RepositoryCipher(SecretKey key, int chunkSize) {
+        this.key = key;
+        this.chunkSize = chunkSize;
+        try {
+            //HKDF-Extract without salt, the salt is all zeros.
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(new byte[mac.getMacLength()], "HmacSHA256"));
+            this.fileKeyDerivation = new SecretKeySpec(mac.doFinal(key.getEncoded()), "HmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not supported by this JVM", e);
+        }
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac threadMac = Mac.getInstance("HmacSHA256");
+                threadMac.init(this.fileKeyDerivation);
+                return threadMac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 is not supported by this JVM", e);
+            }
+        });
+    }
+
+    /**
+     * Creates the encryption configuration of a new repository with a random salt.
+     *
+     * @param passphrase the passphrase the key is derived from.
+     * @return the configuration, including the sealed key check.
+     * @throws IOException if the key could not be derived.
+     */
+    public static EncryptionConfig createConfig(char[] passphrase) throws IOException {
+        EncryptionConfig config = new EncryptionConfig();
+        config.setAlgorithm(ALGORITHM);
+        config.setKeyDerivation(KEY_DERIVATION);
+        config.setIterations(DEFAULT_ITERATIONS);
+        byte[] salt = new byte[16];
+        RANDOM.nextBytes(salt);
+        config.setSalt(salt);
+        config.setChunkSize(DEFAULT_CHUNK_SIZE);
+        RepositoryCipher cipher = new RepositoryCipher(deriveKey(config, passphrase), DEFAULT_CHUNK_SIZE);
+        byte[] header = cipher.newHeader();
+        byte[] keyCheck = Arrays.copyOf(header, HEADER_LENGTH + KEY_CHECK.length + TAG_LENGTH);
+        cipher.seal(header, 0, true, KEY_CHECK, 0, KEY_CHECK.length, keyCheck, HEADER_LENGTH);
+        config.setKeyCheck(keyCheck);
+        return config;
+    }
+
+    /**
+     * Derives the key of an encrypted repository and checks it against the key check of the configuration.
+     *
+     * @param config     the encryption configuration of the repository.
+     * @param passphrase the passphrase the key is derived from.
+     * @return the cipher of the repository.
+     * @throws IOException if the configuration is not supported or the passphrase is wrong.
+     */
+    public static RepositoryCipher unlock(EncryptionConfig config, char[] passphrase) throws IOException {
+        if (!ALGORITHM.equals(config.getAlgorithm()) || !KEY_DERIVATION.equals(config.getKeyDerivation())) {
+            throw new IOException("Unsupported encryption " + config.getAlgorithm() + " with "
+                    + config.getKeyDerivation());
+        }
+        RepositoryCipher cipher = new RepositoryCipher(deriveKey(config, passphrase), config.getChunkSize());
+        byte[] keyCheck = config.getKeyCheck();
+        int headerLength = getHeaderLength(keyCheck);
+        byte[] plain = new byte[KEY_CHECK.length];
+        try {
+            cipher.open(Arrays.copyOf(keyCheck, headerLength), 0, true, keyCheck, headerLength,
+                    keyCheck.length - headerLength, plain, 0);
+        } catch (IOException e) {
+            throw new IOException("The passphrase of the repository is wrong");
+        }
+        return cipher;
+    }
+
+    /**
+     * @return the AES key derived from the passphrase with the salt and iteration count of the configuration.
+     */
+    private static SecretKey deriveKey(EncryptionConfig config, char[] passphrase) throws IOException {
+        PBEKeySpec spec = new PBEKeySpec(passphrase, config.getSalt(), config.getIterations(), 256);
+        try {
+            byte[] encoded = SecretKeyFactory.getInstance(KEY_DERIVATION).generateSecret(spec).getEncoded();
+            return new SecretKeySpec(encoded, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("The key could not be derived", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * @param prefix at least the magic bytes of a sealed file.
+     * @return the length of the header of the sealed file, -1 if the magic bytes are unknown.
+     */
+    static int getHeaderLength(byte[] prefix) {
+        if (Arrays.equals(prefix, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            return HEADER_LENGTH;
+        }
+        if (Arrays.equals(prefix, 0, LEGACY_MAGIC.length, LEGACY_MAGIC, 0, LEGACY_MAGIC.length)) {
+            return LEGACY_HEADER_LENGTH;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the header belongs to a file sealed with the repository key and a 64 bit file id.
+     */
+    private static boolean isLegacy(byte[] header) {
+        return header.length == LEGACY_HEADER_LENGTH;
+    }
+
+    /**
+     * @return the header of a new sealed file with a random file id.
+     */
+    byte[] newHeader() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC);
+        header.putInt(this.chunkSize);
+        byte[] fileId = new byte[FILE_ID_LENGTH];
+        RANDOM.nextBytes(fileId);
+        header.put(fileId);
+        return header.array();
+    }
+
+    /**
+     * Encrypts one chunk. A chunk of zeros is stored as zeros followed by a tag authenticating it as such, so the
+     * zeros can become a hole of the sealed file.
+     *
+     * @param header the header of the file.
+     * @param index  the index of the chunk inside the file.
+     * @param last   true for the last chunk of the file.
+     * @param src    the buffer containing the plain bytes.
+     * @param offset the position of the plain bytes.
+     * @param length the amount of plain bytes.
+     * @param dst    the buffer receiving the ciphertext and tag, length + TAG_LENGTH bytes.
+     * @param dstOff the position the ciphertext is written to.
+     * @throws IOException if the chunk could not be sealed.
+     */
+    void seal(byte[] header, long index, boolean last, byte[] src, int offset, int length, byte[] dst, int dstOff)
+            throws IOException {
+        seal(header, index, last, ByteBuffer.wrap(src, offset, length), ByteBuffer.wrap(dst, dstOff,
+                length + TAG_LENGTH));
+    }
+
+    /**
+     * Encrypts one chunk straight out of a buffer, without copying mapped memory into the heap first.
+     *
+     * @param header the header of the file.
+     * @param index  the index of the chunk inside the file.
+     * @param last   true for the last chunk of the file.
+     * @param src    the plain bytes between position and limit, the position is moved to the limit.
+     * @param dst    the buffer receiving the ciphertext and tag.
+     * @throws IOException if the chunk could not be sealed.
+     */
+    void seal(byte[] header, long index, boolean last, ByteBuffer src, ByteBuffer dst) throws IOException {
+        boolean zero = src.hasRemaining() && SparseFileOutputStream.isZero(src, src.position(), src.remaining());
+        try {
+            Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, header, index, last, zero);
+            if (zero) {
+                dst.put(src);
+                cipher.doFinal(ByteBuffer.allocate(0), dst);
+            } else {
+                cipher.doFinal(src, dst);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("A chunk could not be sealed", e);
+        }
+    }
+
+    /**
+     * Decrypts and authenticates one chunk.
+     *
+     * @param header the header of the file.
+     * @param index  the index of the chunk inside the file.
+     * @param last   true for the last chunk of the file.
+     * @param src    the buffer containing the ciphertext and tag.
+     * @param offset the position of the ciphertext.
+     * @param length the length of the ciphertext including the tag.
+     * @param dst    the buffer receiving length - TAG_LENGTH plain bytes.
+     * @param dstOff the position the plain bytes are written to.
+     * @throws IOException if the chunk has been modified, cut off or belongs to another position or file.
+     */
+    void open(byte[] header, long index, boolean last, byte[] src, int offset, int length, byte[] dst, int dstOff)
+            throws IOException {
+        int plainLength = length - TAG_LENGTH;
+        try {
+            if (plainLength > 0 && SparseFileOutputStream.isZero(ByteBuffer.wrap(src), offset, plainLength)) {
+                //Either a chunk of zeros or, by a negligible chance, a ciphertext of zeros.
+                try {
+                    initCipher(Cipher.DECRYPT_MODE, header, index, last, true)
+                            .doFinal(src, offset + plainLength, TAG_LENGTH);
+                    Arrays.fill(dst, dstOff, dstOff + plainLength, (byte) 0);
+                    return;
+                } catch (AEADBadTagException e) {
+                    //Not a chunk of zeros, open it as a regular chunk.
+                }
+            }
+            initCipher(Cipher.DECRYPT_MODE, header, index, last, false).doFinal(src, offset, length, dst, dstOff);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Chunk " + index + " of a sealed file failed authentication", e);
+        }
+    }
+
+    /**
+     * @return the cipher of the current thread initialized with the key of the file and the nonce and associated
+     * data of the chunk.
+     */
+    private Cipher initCipher(int mode, byte[] header, long index, boolean last, boolean zero)
+            throws GeneralSecurityException {
+        Cipher cipher = this.ciphers.get();
+        cipher.init(mode, getFileKey(header), new GCMParameterSpec(TAG_LENGTH * 8, nonce(header, index)));
+        cipher.updateAAD(associatedData(header, index, last, zero));
+        return cipher;
+    }
+
+    /**
+     * Derives the key of a file with HKDF-Expand of the pseudorandom key, the info being a label and the file id.
+     * Legacy files are sealed with the repository key itself.
+     *
+     * @return the key sealing the chunks of the file with the given header.
+     */
+    private SecretKey getFileKey(byte[] header) {
+        if (isLegacy(header)) {
+            return this.key;
+        }
+        FileKey fileKey = this.fileKeys.get();
+        if (fileKey.header != header) {
+            Mac mac = this.macs.get();
+            mac.update(FILE_KEY_INFO);
+            mac.update(header, HEADER_LENGTH - FILE_ID_LENGTH, FILE_ID_LENGTH);
+            mac.update((byte) 1);
+            fileKey.key = new SecretKeySpec(mac.doFinal(), "AES");
+            fileKey.header = header;
+        }
+        return fileKey.key;
+    }
+
+    /**
+     * @return the nonce of a chunk: the chunk index, legacy files put their file id in front of it.
+     */
+    private static byte[] nonce(byte[] header, long index) {
+        ByteBuffer nonce = ByteBuffer.allocate(LEGACY_FILE_ID_LENGTH + Integer.BYTES);
+        if (isLegacy(header)) {
+            if (index > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("Too many chunks in one sealed file");
+            }
+            nonce.put(header, LEGACY_HEADER_LENGTH - LEGACY_FILE_ID_LENGTH, LEGACY_FILE_ID_LENGTH);
+            nonce.putInt((int) index);
+        } else {
+            nonce.position(nonce.capacity() - Long.BYTES);
+            nonce.putLong(index);
+        }
+        return nonce.array();
+    }
+
+    /**
+     * @return the additional authenticated data of a chunk.
+     */
+    private static byte[] associatedData(byte[] header, long index, boolean last, boolean zero) {
+        ByteBuffer data = ByteBuffer.allocate(header.length + Long.BYTES + 1);
+        data.put(header);
+        data.putLong(index);
+        data.put((byte) ((last ? 1 : 0) | (zero ? 2 : 0)));
+        return data.array();
+    }
+
+    /**
+     * @param target the stream receiving the sealed file, it is closed together with the returned stream.
+     * @return a stream sealing everything written into it.
+     * @throws IOException if the header could not be written.
+     */
+    public SealedOutputStream newOutputStream(OutputStream target) throws IOException {
+        return new SealedOutputStream(this, target);
+    }
+
+    /**
+     * @param file the sealed file.
+     * @return a reader of the plain content of the file.
+     * @throws IOException if the file could not be opened or its header is corrupt.
+     */
+    public ObjectReader newReader(Path file) throws IOException {
+        return new SealedObjectReader(this, file);
+    }
+
+    /**
+     * The derived key of a file, remembered together with the header it belongs to.
+     */
+    private static class FileKey {
+
+        /**
+         * The header of the file, compared by identity since every stream keeps its header.
+         */
+        private byte[] header;
+
+        /**
+         * The key of the file.
+         */
+        private SecretKey key;
+    }
+
+    //Only getters from here
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+}
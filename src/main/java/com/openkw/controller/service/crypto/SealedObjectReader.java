@@ -0,0 +1,182 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.crypto;
+
+import com.openkw.controller.service.snapshot.ObjectReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This reader provides the plain content of a sealed file. Chunks are opened on demand, the most recently opened
+ * chunk is kept so sequential reads open every chunk once.
+ */
+public class SealedObjectReader implements ObjectReader {
+
+    /**
+     * The cipher of the repository.
+     */
+    private final RepositoryCipher cipher;
+
+    /**
+     * The channel of the sealed file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The header of the sealed file.
+     */
+    private final byte[] header;
+
+    /**
+     * The amount of plain bytes per chunk of this file.
+     */
+    private final int chunkSize;
+
+    /**
+     * The amount of chunks of this file.
+     */
+    private final long chunkCount;
+
+    /**
+     * The amount of plain bytes of the last chunk.
+     */
+    private final int lastLength;
+
+    /**
+     * The size of the plain content.
+     */
+    private final long size;
+
+    /**
+     * The index of the cached chunk, -1 if nothing is cached.
+     */
+    private long cachedIndex = -1;
+
+    /**
+     * The plain bytes of the cached chunk.
+     */
+    private final byte[] cachedPlain;
+
+    /**
+     * The buffer the sealed chunks are read into.
+     */
+    private final byte[] sealed;
+
+    /**
+     * @param cipher the cipher of the repository.
+     * @param path   the path of the sealed file.
+     * @throws IOException if the file could not be opened or its header is corrupt.
+     */
+    SealedObjectReader(RepositoryCipher cipher, Path path) throws IOException {
+        this.cipher = cipher;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer magic = ByteBuffer.allocate(RepositoryCipher.MAGIC.length);
+            readFully(magic, 0);
+            int headerLength = RepositoryCipher.getHeaderLength(magic.array());
+            if (headerLength < 0) {
+                throw new IOException(path + " is not a sealed file");
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            readFully(header, 0);
+            this.header = header.array();
+            this.chunkSize = header.getInt(RepositoryCipher.MAGIC.length);
+            if (this.chunkSize <= 0) {
+                throw new IOException(path + " has a corrupt header");
+            }
+            long sealedChunk = (long) this.chunkSize + RepositoryCipher.TAG_LENGTH;
+            long body = this.channel.size() - this.header.length;
+            long rest = body % sealedChunk;
+            if (body < RepositoryCipher.TAG_LENGTH || (rest > 0 && rest < RepositoryCipher.TAG_LENGTH)) {
+                throw new IOException(path + " has been cut off");
+            }
+            this.chunkCount = body / sealedChunk + (rest > 0 ? 1 : 0);
+            this.lastLength = rest > 0 ? (int) rest - RepositoryCipher.TAG_LENGTH : this.chunkSize;
+            this.size = (this.chunkCount - 1) * this.chunkSize + this.lastLength;
+            this.cachedPlain = new byte[this.chunkSize];
+            this.sealed = new byte[(int) sealedChunk];
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) throws IOException {
+        if (position >= this.size) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && position < this.size) {
+            long chunk = position / this.chunkSize;
+            int length = load(chunk);
+            int offset = (int) (position - chunk * this.chunkSize);
+            int n = Math.min(dst.remaining(), length - offset);
+            dst.put(this.cachedPlain, offset, n);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Opens the given chunk into the cache unless it is cached already.
+     *
+     * @return the amount of plain bytes of the chunk.
+     */
+    private int load(long chunk) throws IOException {
+        boolean last = chunk == this.chunkCount - 1;
+        int length = last ? this.lastLength : this.chunkSize;
+        if (chunk != this.cachedIndex) {
+            this.cachedIndex = -1;
+            int sealedLength = length + RepositoryCipher.TAG_LENGTH;
+            long offset = this.header.length + chunk * (this.chunkSize + RepositoryCipher.TAG_LENGTH);
+            readFully(ByteBuffer.wrap(this.sealed, 0, sealedLength), offset);
+            this.cipher.open(this.header, chunk, last, this.sealed, 0, sealedLength, this.cachedPlain, 0);
+            this.cachedIndex = chunk;
+        }
+        return length;
+    }
+
+    /**
+     * Fills the buffer from the given position of the sealed file.
+     */
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = this.channel.read(dst, position);
+            if (read == -1) {
+                throw new IOException("Unexpected end of a sealed file");
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
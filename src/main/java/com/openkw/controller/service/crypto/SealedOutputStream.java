@@ -0,0 +1,243 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.stream.IntStream;
+
+/**
+ * This output stream seals everything written into it chunk by chunk. A full chunk is only sealed once more data
+ * arrives, so the last chunk is known when the stream is closed. Large buffers written through write(ByteBuffer)
+ * are sealed on all cores of the common fork join pool and written in order.
+ */
+public class SealedOutputStream extends OutputStream implements WritableByteChannel {
+
+    /**
+     * The amount of chunks sealed in parallel at once, bounding the memory of one write.
+     */
+    private static final int PARALLEL_BATCH = 64;
+
+    /**
+     * False on single core machines, where splitting the work only adds overhead.
+     */
+    private static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * The cipher of the repository.
+     */
+    private final RepositoryCipher cipher;
+
+    /**
+     * The stream receiving the sealed file.
+     */
+    private final OutputStream out;
+
+    /**
+     * The header of the sealed file.
+     */
+    private final byte[] header;
+
+    /**
+     * The amount of plain bytes per chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * The plain bytes of the current chunk.
+     */
+    private final byte[] plain;
+
+    /**
+     * The amount of bytes inside the current chunk.
+     */
+    private int plainLength;
+
+    /**
+     * The buffer receiving the sealed current chunk.
+     */
+    private final byte[] sealed;
+
+    /**
+     * The index of the current chunk.
+     */
+    private long index;
+
+    /**
+     * The amount of plain bytes written into the stream.
+     */
+    private long plainSize;
+
+    /**
+     * True once the stream has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * @param cipher the cipher of the repository.
+     * @param out    the stream receiving the sealed file, closed together with this stream.
+     * @throws IOException if the header could not be written.
+     */
+    SealedOutputStream(RepositoryCipher cipher, OutputStream out) throws IOException {
+        this.cipher = cipher;
+        this.out = out;
+        this.header = cipher.newHeader();
+        this.chunkSize = cipher.getChunkSize();
+        this.plain = new byte[this.chunkSize];
+        this.sealed = new byte[this.chunkSize + RepositoryCipher.TAG_LENGTH];
+        out.write(this.header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.plainLength == this.chunkSize) {
+                sealCurrent(false);
+            }
+            int n = Math.min(len, this.chunkSize - this.plainLength);
+            System.arraycopy(b, off, this.plain, this.plainLength, n);
+            this.plainLength += n;
+            this.plainSize += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer. All full chunks which are followed by more data are sealed in
+     * parallel, the rest is buffered as usual.
+     *
+     * @param src the bytes to write, its position is moved to its limit.
+     * @return the amount of bytes written.
+     * @throws IOException if a chunk could not be sealed or written.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = src.remaining();
+        if (this.plainLength > 0 && src.hasRemaining()) {
+            if (this.plainLength == this.chunkSize) {
+                sealCurrent(false);
+            } else {
+                int n = Math.min(src.remaining(), this.chunkSize - this.plainLength);
+                src.get(this.plain, this.plainLength, n);
+                this.plainLength += n;
+                this.plainSize += n;
+                if (this.plainLength == this.chunkSize && src.hasRemaining()) {
+                    sealCurrent(false);
+                }
+            }
+        }
+        int fullChunks = src.hasRemaining() && this.plainLength == 0 ? (src.remaining() - 1) / this.chunkSize : 0;
+        while (fullChunks > 0) {
+            int batch = Math.min(fullChunks, PARALLEL_BATCH);
+            sealParallel(src, batch);
+            fullChunks -= batch;
+        }
+        if (src.hasRemaining()) {
+            int n = src.remaining();
+            byte[] rest = new byte[Math.min(n, this.chunkSize)];
+            while (src.hasRemaining()) {
+                int len = Math.min(src.remaining(), rest.length);
+                src.get(rest, 0, len);
+                write(rest, 0, len);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Seals the next chunks of the buffer in parallel and writes them in order.
+     */
+    private void sealParallel(ByteBuffer src, int count) throws IOException {
+        ByteBuffer base = src.slice();
+        long firstIndex = this.index;
+        byte[][] results = new byte[count][];
+        try {
+            IntStream indices = IntStream.range(0, count);
+            (PARALLEL ? indices.parallel() : indices).forEach(i -> {
+                ByteBuffer chunk = base.duplicate();
+                chunk.position(i * this.chunkSize).limit((i + 1) * this.chunkSize);
+                byte[] result = new byte[this.chunkSize + RepositoryCipher.TAG_LENGTH];
+                try {
+                    this.cipher.seal(this.header, firstIndex + i, false, chunk, ByteBuffer.wrap(result));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                results[i] = result;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (byte[] result : results) {
+            this.out.write(result);
+        }
+        this.index += count;
+        this.plainSize += (long) count * this.chunkSize;
+        src.position(src.position() + count * this.chunkSize);
+    }
+
+    /**
+     * Seals and writes the buffered chunk.
+     */
+    private void sealCurrent(boolean last) throws IOException {
+        this.cipher.seal(this.header, this.index, last, this.plain, 0, this.plainLength, this.sealed, 0);
+        this.out.write(this.sealed, 0, this.plainLength + RepositoryCipher.TAG_LENGTH);
+        this.index++;
+        this.plainLength = 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Seals the buffered bytes as the last chunk and closes the target stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            sealCurrent(true);
+        } finally {
+            this.out.close();
+        }
+    }
+
+    //Only getters from here
+
+    public long getPlainSize() {
+        return plainSize;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.delta;
+
+import com.openkw.controller.service.snapshot.DeltaObjectWriter;
+import com.openkw.controller.service.snapshot.ObjectReader;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.util.hash.Hasher;
+import com.openkw.model.snapshot.ManifestEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class stores modified large files as a block level delta against their previous version, using the rsync
+ * algorithm: the previous version is split into blocks, and a window sliding over the new file is matched against
+ * these blocks by a weak rolling checksum, confirmed by a strong hash. Matching blocks are stored as references into
+ * the previous version, everything else as literal data.
+ */
+public class BlockDeltaEncoder {
+
+    /**
+     * Files smaller than this are always stored whole.
+     */
+    public static final long MIN_FILE_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * If more than this share of the file turns out to be literal data the delta is abandoned and the file is
+     * stored whole, the delta would only slow down restores.
+     */
+    private static final double MAX_LITERAL_SHARE = 0.5;
+
+    /**
+     * The smallest block size used for signatures.
+     */
+    private static final int MIN_BLOCK_SIZE = 4 * 1024;
+
+    /**
+     * The largest block size used for signatures.
+     */
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * The minimum size of the read buffer.
+     */
+    private static final int MIN_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The repository where the deltas are stored.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The amount of literal bytes written by the last successful encode() call.
+     */
+    private long literalBytes;
+
+    /**
+     * @param repository the repository where the deltas are stored.
+     */
+    public BlockDeltaEncoder(SnapshotRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Stores the file as a block delta against its previous version if enough of the previous version can be
+     * reused.
+     *
+     * @param path     the path of the file.
+     * @param entry    the new entry of the file, its size has to be set.
+     * @param previous the entry of the same path in the previous manifest, may be null.
+     * @return the content hash of the file, null if the file has to be stored whole.
+     * @throws IOException if a file could not be read or the delta could not be stored.
+     */
+    public String encode(Path path, ManifestEntry entry, ManifestEntry previous) throws IOException {
+        if (previous == null || previous.isDirectory()
+                || entry.getSize() < MIN_FILE_SIZE
+                || previous.getSize() < MIN_FILE_SIZE
+                || !this.repository.hasObject(previous.getContentHash())) {
+            return null;
+        }
+        int chainDepth = this.repository.getChainDepth(previous.getContentHash());
+        if (chainDepth >= TailCapture.MAX_CHAIN_DEPTH) {
+            return null;
+        }
+        BlockSignature signature;
+        try (ObjectReader baseReader = this.repository.openObject(previous.getContentHash())) {
+            signature = BlockSignature.compute(baseReader, chooseBlockSize(previous.getSize()),
+                    this.repository.getBlockHashFunction());
+        }
+        Path deltaFile = this.repository.createTempFile();
+        try {
+            String hash;
+            try (InputStream in = Files.newInputStream(path);
+                 DeltaObjectWriter writer = new DeltaObjectWriter(
+                         this.repository.newObjectOutputStream(deltaFile), previous.getContentHash(),
+                         chainDepth + 1)) {
+                hash = encode(in, signature, writer, (long) (entry.getSize() * MAX_LITERAL_SHARE));
+            }
+            if (hash == null) {
+                return null;
+            }
+            this.repository.storeDelta(hash, deltaFile);
+            return hash;
+        } finally {
+            Files.deleteIfExists(deltaFile);
+        }
+    }
+
+    /**
+     * Slides a window over the new content and writes copy and literal instructions.
+     *
+     * @param in              the stream of the new content.
+     * @param signature       the block signature of the previous version.
+     * @param writer          the writer of the delta.
+     * @param maxLiteralBytes the amount of literal bytes after which the delta is abandoned.
+     * @return the content hash of the new content, null if the delta has been abandoned.
+     * @throws IOException if the content could not be read or the delta could not be written.
+     */
+    private String encode(InputStream in, BlockSignature signature, DeltaObjectWriter writer, long maxLiteralBytes)
+            throws IOException {
+        int blockSize = signature.getBlockSize();
+        Hasher contentHasher = this.repository.newContentHasher();
+        RollingChecksum checksum = new RollingChecksum();
+        byte[] buffer = new byte[Math.max(MIN_BUFFER_SIZE, blockSize * 4)];
+        int filled = 0;
+        int position = 0;
+        int literalStart = 0;
+        boolean endOfStream = false;
+        boolean checksumValid = false;
+        this.literalBytes = 0;
+        while (true) {
+            if (!endOfStream && position + blockSize + 1 > filled) {
+                //Flush the pending literal and move the unprocessed bytes to the front of the buffer.
+                writeLiteral(writer, buffer, literalStart, position);
+                System.arraycopy(buffer, position, buffer, 0, filled - position);
+                filled -= position;
+                position = 0;
+                literalStart = 0;
+                while (filled < buffer.length) {
+                    int read = in.read(buffer, filled, buffer.length - filled);
+                    if (read == -1) {
+                        endOfStream = true;
+                        break;
+                    }
+                    contentHasher.update(buffer, filled, read);
+                    filled += read;
+                }
+                if (this.literalBytes > maxLiteralBytes) {
+                    return null;
+                }
+            }
+            if (position + blockSize > filled) {
+                break;
+            }
+            if (!checksumValid) {
+                checksum.reset(buffer, position, blockSize);
+                checksumValid = true;
+            }
+            int weak = checksum.getValue();
+            if (signature.containsWeak(weak)) {
+                int block = signature.findBlock(weak, signature.strongHash(buffer, position, blockSize));
+                if (block >= 0) {
+                    writeLiteral(writer, buffer, literalStart, position);
+                    writer.copy((long) block * blockSize, blockSize);
+                    position += blockSize;
+                    literalStart = position;
+                    checksumValid = false;
+                    continue;
+                }
+            }
+            if (position + blockSize < filled) {
+                checksum.roll(buffer[position], buffer[position + blockSize]);
+            } else {
+                checksumValid = false;
+            }
+            position++;
+        }
+        writeLiteral(writer, buffer, literalStart, filled);
+        if (this.literalBytes > maxLiteralBytes) {
+            return null;
+        }
+        return contentHasher.digestHex();
+    }
+
+    /**
+     * Writes the literal bytes between start and end.
+     */
+    private void writeLiteral(DeltaObjectWriter writer, byte[] buffer, int start, int end) throws IOException {
+        if (end > start) {
+            writer.literal(buffer, start, end - start);
+            this.literalBytes += end - start;
+        }
+    }
+
+    /**
+     * Chooses a block size close to the square root of the file size, like rsync does.
+     *
+     * @param size the size of the previous version.
+     * @return the block size, a power of two.
+     */
+    static int chooseBlockSize(long size) {
+        int blockSize = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE, (long) Math.sqrt(size)));
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    //Only getters from here
+
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+}
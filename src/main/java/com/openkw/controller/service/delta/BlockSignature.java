@@ -0,0 +1,172 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.delta;
+
+import com.openkw.controller.service.snapshot.ObjectReader;
+import com.openkw.controller.util.hash.HashFunction;
+import com.openkw.controller.util.hash.Hasher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the block signatures of a stored object: the weak rolling checksum and a strong hash of every
+ * full block. It is used by the BlockDeltaEncoder to find blocks of the previous version inside a modified file.
+ */
+public class BlockSignature {
+
+    /**
+     * The amount of bytes of the strong hash which are kept per block.
+     */
+    private static final int STRONG_HASH_BYTES = 16;
+
+    /**
+     * The amount of bits of the weak checksum filter.
+     */
+    private static final int FILTER_BITS = 20;
+
+    /**
+     * The size of each block.
+     */
+    private final int blockSize;
+
+    /**
+     * The hash function of the strong hashes.
+     */
+    private final HashFunction blockHash;
+
+    /**
+     * A filter over the weak checksums of all blocks, it answers most lookups of non matching windows without
+     * touching the map.
+     */
+    private final BitSet weakFilter = new BitSet(1 << FILTER_BITS);
+
+    /**
+     * The block indexes per weak checksum.
+     */
+    private final Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+
+    /**
+     * The truncated strong hashes per block index.
+     */
+    private final List<byte[]> strongHashes = new ArrayList<>();
+
+    /**
+     * @param blockSize the size of each block.
+     * @param blockHash the hash function of the strong hashes.
+     */
+    private BlockSignature(int blockSize, HashFunction blockHash) {
+        this.blockSize = blockSize;
+        this.blockHash = blockHash;
+    }
+
+    /**
+     * Reads the whole object and computes the signature of all its full blocks.
+     *
+     * @param reader    the reader of the stored object.
+     * @param blockSize the size of each block.
+     * @param blockHash the hash function of the strong hashes.
+     * @return the signature of the object.
+     * @throws IOException if the object could not be read.
+     */
+    public static BlockSignature compute(ObjectReader reader, int blockSize, HashFunction blockHash)
+            throws IOException {
+        BlockSignature signature = new BlockSignature(blockSize, blockHash);
+        byte[] block = new byte[blockSize];
+        long blockCount = reader.size() / blockSize;
+        for (long i = 0; i < blockCount; i++) {
+            ByteBuffer buffer = ByteBuffer.wrap(block);
+            long position = i * blockSize;
+            while (buffer.hasRemaining()) {
+                int read = reader.read(position + buffer.position(), buffer);
+                if (read <= 0) {
+                    throw new IOException("Stored object is shorter than its recorded size");
+                }
+            }
+            int weak = RollingChecksum.of(block, 0, blockSize);
+            signature.weakFilter.set(filterIndex(weak));
+            signature.blocksByWeak.computeIfAbsent(weak, k -> new ArrayList<>()).add((int) i);
+            signature.strongHashes.add(signature.strongHash(block, 0, blockSize));
+        }
+        return signature;
+    }
+
+    /**
+     * @param data   the buffer containing the block.
+     * @param offset the start of the block.
+     * @param length the size of the block.
+     * @return the truncated strong hash of the block.
+     */
+    byte[] strongHash(byte[] data, int offset, int length) {
+        Hasher hasher = this.blockHash.newHasher();
+        hasher.update(data, offset, length);
+        byte[] hash = hasher.digest();
+        return hash.length > STRONG_HASH_BYTES ? Arrays.copyOf(hash, STRONG_HASH_BYTES) : hash;
+    }
+
+    /**
+     * @param weak the weak checksum of a window.
+     * @return true if any block has the given weak checksum.
+     */
+    public boolean containsWeak(int weak) {
+        return this.weakFilter.get(filterIndex(weak)) && this.blocksByWeak.containsKey(weak);
+    }
+
+    /**
+     * @return the bit of the weak checksum filter for the given weak checksum.
+     */
+    private static int filterIndex(int weak) {
+        return (weak ^ (weak >>> FILTER_BITS)) & ((1 << FILTER_BITS) - 1);
+    }
+
+    /**
+     * Looks up the block matching a window. The strong hash is only computed lazily by the caller if the weak
+     * checksum matches.
+     *
+     * @param weak   the weak checksum of the window.
+     * @param strong the truncated strong hash of the window.
+     * @return the block index, -1 if no block matches.
+     */
+    public int findBlock(int weak, byte[] strong) {
+        List<Integer> candidates = this.blocksByWeak.get(weak);
+        if (candidates != null) {
+            for (int index : candidates) {
+                if (Arrays.equals(this.strongHashes.get(index), strong)) {
+                    return index;
+                }
+            }
+        }
+        return -1;
+    }
+
+    //Only getters from here
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return strongHashes.size();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.delta;
+
+/**
+ * The weak rolling checksum of the rsync algorithm. The checksum of a window can be moved forward by one byte in
+ * constant time, which makes it cheap to test every offset of a file against the blocks of a previous version.
+ */
+public class RollingChecksum {
+
+    /**
+     * The sum of all bytes of the window, modulo 2^16.
+     */
+    private int a;
+
+    /**
+     * The sum of the weighted bytes of the window, modulo 2^16.
+     */
+    private int b;
+
+    /**
+     * The size of the window.
+     */
+    private int length;
+
+    /**
+     * Resets the checksum to the given window.
+     *
+     * @param data   the buffer containing the window.
+     * @param offset the start of the window.
+     * @param length the size of the window.
+     */
+    public void reset(byte[] data, int offset, int length) {
+        int sumA = 0;
+        int sumB = 0;
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xFF;
+            sumA += value;
+            sumB += (length - i) * value;
+        }
+        this.a = sumA & 0xFFFF;
+        this.b = sumB & 0xFFFF;
+        this.length = length;
+    }
+
+    /**
+     * Moves the window forward by one byte.
+     *
+     * @param outByte the byte leaving the window at the front.
+     * @param inByte  the byte entering the window at the end.
+     */
+    public void roll(byte outByte, byte inByte) {
+        int out = outByte & 0xFF;
+        this.a = (this.a - out + (inByte & 0xFF)) & 0xFFFF;
+        this.b = (this.b - this.length * out + this.a) & 0xFFFF;
+    }
+
+    /**
+     * @return the checksum of the current window.
+     */
+    public int getValue() {
+        return this.a | (this.b << 16);
+    }
+
+    /**
+     * Computes the checksum of a single block without keeping any state.
+     *
+     * @param data   the buffer containing the block.
+     * @param offset the start of the block.
+     * @param length the size of the block.
+     * @return the checksum of the block.
+     */
+    public static int of(byte[] data, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, length);
+        return checksum.getValue();
+    }
+}
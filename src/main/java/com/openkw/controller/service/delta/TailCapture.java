@@ -0,0 +1,134 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.delta;
+
+import com.openkw.controller.service.snapshot.DeltaObjectWriter;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.util.hash.Hasher;
+import com.openkw.model.snapshot.ManifestEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class recognizes files which have only grown since the previous snapshot, like log or journal files, and
+ * stores only the appended tail as a delta against the previous version.
+ * The previous version is stored under its content hash, so a file has only grown if the hash of its first
+ * previous-size bytes equals the previous content hash. The prefix is read once and the hasher state is reused to
+ * hash the whole file, so no byte is read twice.
+ */
+public class TailCapture {
+
+    /**
+     * Files smaller than this are always stored whole, a delta would not save anything worth its overhead.
+     */
+    public static final long MIN_PREVIOUS_SIZE = 1024 * 1024;
+
+    /**
+     * The maximum amount of deltas which may have to be resolved to read an object. If the previous version is
+     * already at this depth the file is stored whole again.
+     */
+    public static final int MAX_CHAIN_DEPTH = 16;
+
+    /**
+     * The size of the buffer used to read the file.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The repository where the tail deltas are stored.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * @param repository the repository where the tail deltas are stored.
+     */
+    public TailCapture(SnapshotRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Stores the file as a tail delta against its previous version if it has only grown.
+     *
+     * @param path     the path of the file.
+     * @param entry    the new entry of the file, its size has to be set.
+     * @param previous the entry of the same path in the previous manifest, may be null.
+     * @return the content hash of the file, null if the file has not only grown and has to be stored whole.
+     * @throws IOException if the file could not be read or the delta could not be stored.
+     */
+    public String capture(Path path, ManifestEntry entry, ManifestEntry previous) throws IOException {
+        if (previous == null || previous.isDirectory()
+                || previous.getSize() < MIN_PREVIOUS_SIZE
+                || entry.getSize() <= previous.getSize()
+                || !this.repository.hasObject(previous.getContentHash())) {
+            return null;
+        }
+        int chainDepth = this.repository.getChainDepth(previous.getContentHash());
+        if (chainDepth >= MAX_CHAIN_DEPTH) {
+            return null;
+        }
+        Hasher hasher = this.repository.newContentHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            long remaining = previous.getSize();
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    return null;
+                }
+                hasher.update(buffer, 0, read);
+                remaining -= read;
+            }
+            if (!previous.getContentHash().equals(prefixHash(hasher))) {
+                return null;
+            }
+            Path deltaFile = this.repository.createTempFile();
+            try {
+                try (DeltaObjectWriter writer = new DeltaObjectWriter(
+                        this.repository.newObjectOutputStream(deltaFile), previous.getContentHash(),
+                        chainDepth + 1)) {
+                    writer.copy(0, previous.getSize());
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        hasher.update(buffer, 0, read);
+                        writer.literal(buffer, 0, read);
+                    }
+                }
+                String hash = hasher.digestHex();
+                this.repository.storeDelta(hash, deltaFile);
+                return hash;
+            } finally {
+                Files.deleteIfExists(deltaFile);
+            }
+        }
+    }
+
+    /**
+     * @param hasher the hasher fed with the prefix, it keeps its state.
+     * @return the hash of the prefix, null if the hasher can not be copied.
+     */
+    private static String prefixHash(Hasher hasher) {
+        try {
+            return hasher.copy().digestHex();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.gc;
+
+import com.openkw.controller.service.snapshot.DeltaObjectReader;
+import com.openkw.controller.service.snapshot.SnapshotCatalog;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.util.RateLimiter;
+import com.openkw.controller.util.ReadOnlyFileUtility;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class reclaims the objects of the repository which are no longer referenced by any complete snapshot.
+ * <p>
+ * Backups keep running while a collection is in progress, which is made safe by collecting in two generations:
+ * <ol>
+ * <li>A pass marks the live objects by reading the remaining manifests in parallel and following the base chains
+ * of delta objects. Every other object is moved into the fossils directory. Afterwards the id of the newest
+ * snapshot in the catalog is saved as the fence of this generation.</li>
+ * <li>A later pass deletes the fossils, but only once every backup up to the fence has finished. Fossils which are
+ * referenced by a snapshot completed in the meantime are moved back instead.</li>
+ * </ol>
+ * A backup which started after the fossils had been parked never sees them, the repository moves a fossil back as
+ * soon as it is asked for it. All file operations are rate limited so a collection does not starve the backups.
+ */
+public class GarbageCollector {
+
+    /**
+     * The name of the file inside the gc directory which contains the fence of the parked fossils.
+     */
+    private static final String FENCE_FILE = "FENCE";
+
+    /**
+     * Backups which have been running for longer than this are considered to have been interrupted and do not
+     * hold back the deletion of the fossils.
+     */
+    private static final long STALE_BACKUP_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The repository to collect.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The amount of threads reading manifests and sweeping objects.
+     */
+    private final int parallelism;
+
+    /**
+     * Limits the amount of file operations per second.
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     * The amount of objects parked as fossils by the last pass.
+     */
+    private final AtomicInteger fossilizedCount = new AtomicInteger();
+
+    /**
+     * The amount of fossils deleted by the last pass.
+     */
+    private final AtomicInteger deletedCount = new AtomicInteger();
+
+    /**
+     * The amount of errors thrown during the last pass.
+     */
+    private final AtomicInteger errorCount = new AtomicInteger();
+
+    /**
+     * @param repository  the repository to collect.
+     * @param parallelism the amount of threads reading manifests and sweeping objects.
+     * @param rateLimiter limits the amount of file operations per second.
+     */
+    public GarbageCollector(SnapshotRepository repository, int parallelism, RateLimiter rateLimiter) {
+        this.repository = repository;
+        this.parallelism = parallelism;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Runs one collection pass.
+     *
+     * @return the amount of bytes freed by deleting fossils.
+     * @throws IOException          if the catalog, a manifest or the objects directory could not be read.
+     * @throws InterruptedException if the thread has been interrupted.
+     */
+    public long collect() throws IOException, InterruptedException {
+        this.fossilizedCount.set(0);
+        this.deletedCount.set(0);
+        this.errorCount.set(0);
+        SnapshotCatalog catalog = this.repository.getCatalog();
+        List<SnapshotRecord> records = catalog.list(0, Integer.MAX_VALUE);
+        long fence = readFence();
+        boolean fencePassed = fence >= 0 && isFencePassed(records, fence);
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism);
+        try {
+            Set<String> live = mark(records, executor);
+            if (this.errorCount.get() > 0) {
+                //An incomplete live set would park referenced objects.
+                throw new IOException("Not all manifests could be read, the collection has been aborted");
+            }
+            long reclaimedBytes = processFossils(live, fencePassed, executor);
+            sweep(live, executor);
+            writeFence(catalog.getLatestId());
+            return reclaimedBytes;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true if the fossils directory contains objects waiting for their deletion.
+     * @throws IOException if the directory could not be read.
+     */
+    public boolean hasPendingFossils() throws IOException {
+        Path fossilsPath = this.repository.getFossilsPath();
+        if (Files.notExists(fossilsPath)) {
+            return false;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(fossilsPath)) {
+            return stream.iterator().hasNext();
+        }
+    }
+
+    /**
+     * Collects the hashes of all objects referenced by the complete snapshots, including the bases of delta
+     * objects. The manifests are read in parallel.
+     */
+    private Set<String> mark(List<SnapshotRecord> records, ExecutorService executor)
+            throws IOException, InterruptedException {
+        Set<String> live = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>();
+        for (SnapshotRecord record : records) {
+            if (record.getStatus() != SnapshotStatus.COMPLETE) {
+                continue;
+            }
+            futures.add(executor.submit(() -> {
+                this.rateLimiter.acquire(1);
+                SnapshotManifest manifest = this.repository.readManifest(record.getSnapshotName());
+                if (manifest != null) {
+                    markEntry(manifest.getRoot(), live);
+                }
+                return null;
+            }));
+        }
+        await(futures);
+        return live;
+    }
+
+    /**
+     * Adds the objects of the subtree and the base chains of its delta objects to the live set.
+     */
+    private void markEntry(ManifestEntry entry, Set<String> live) throws IOException {
+        if (entry.isDirectory()) {
+            for (ManifestEntry child : entry.getChildren()) {
+                markEntry(child, live);
+            }
+            return;
+        }
+        String hash = entry.getContentHash();
+        while (hash != null && live.add(hash)) {
+            hash = readBaseHash(hash);
+        }
+    }
+
+    /**
+     * @return the hash of the base object if the object is stored as a delta, null otherwise.
+     */
+    private String readBaseHash(String hash) throws IOException {
+        Path deltaPath = this.repository.getDeltaPath(hash);
+        if (Files.notExists(deltaPath)) {
+            //A delta parked by the previous pass may be referenced again.
+            deltaPath = this.repository.getFossilPath(deltaPath);
+            if (Files.notExists(deltaPath) || Files.exists(this.repository.getObjectPath(hash))) {
+                return null;
+            }
+        }
+        try (DeltaObjectReader reader = new DeltaObjectReader(deltaPath, this.repository)) {
+            return reader.getBaseHash();
+        } catch (NoSuchFileException e) {
+            //Resurrected or deleted concurrently, the next pass sees the current state.
+            return null;
+        }
+    }
+
+    /**
+     * Moves the live fossils back and, if the fence has been passed, deletes the other ones.
+     *
+     * @return the amount of bytes freed.
+     */
+    private long processFossils(Set<String> live, boolean fencePassed, ExecutorService executor)
+            throws IOException, InterruptedException {
+        Path fossilsPath = this.repository.getFossilsPath();
+        if (Files.notExists(fossilsPath)) {
+            return 0;
+        }
+        AtomicLong reclaimedBytes = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(fossilsPath)) {
+            for (Path fossil : stream) {
+                String hash = SnapshotRepository.getHashOfObjectFile(fossil);
+                if (!live.contains(hash) && !fencePassed) {
+                    continue;
+                }
+                futures.add(executor.submit(() -> {
+                    this.rateLimiter.acquire(1);
+                    if (live.contains(hash)) {
+                        this.repository.resurrect(this.repository.getObjectFileOfFossil(fossil));
+                    } else {
+                        try {
+                            long size = Files.size(fossil);
+                            ReadOnlyFileUtility.delete(fossil);
+                            reclaimedBytes.addAndGet(size);
+                            this.deletedCount.incrementAndGet();
+                        } catch (NoSuchFileException e) {
+                            //Resurrected by a backup in the meantime.
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+        await(futures);
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * Parks every object which is not live as a fossil. The sub directories of the objects directory are swept in
+     * parallel.
+     */
+    private void sweep(Set<String> live, ExecutorService executor) throws IOException, InterruptedException {
+        Path objectsPath = this.repository.getObjectsPath();
+        if (Files.notExists(objectsPath)) {
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(objectsPath)) {
+            for (Path subDir : stream) {
+                futures.add(executor.submit(() -> {
+                    try (DirectoryStream<Path> objects = Files.newDirectoryStream(subDir)) {
+                        for (Path objectFile : objects) {
+                            if (!live.contains(SnapshotRepository.getHashOfObjectFile(objectFile))) {
+                                this.rateLimiter.acquire(1);
+                                try {
+                                    this.repository.fossilize(objectFile);
+                                    this.fossilizedCount.incrementAndGet();
+                                } catch (NoSuchFileException e) {
+                                    //Removed concurrently, nothing to park.
+                                }
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+        await(futures);
+    }
+
+    /**
+     * @return true if every backup which may have seen the fossils before they have been parked has finished.
+     */
+    private static boolean isFencePassed(List<SnapshotRecord> records, long fence) {
+        long staleLimit = System.currentTimeMillis() - STALE_BACKUP_MILLIS;
+        for (SnapshotRecord record : records) {
+            if (record.getId() <= fence && record.getStatus() == SnapshotStatus.RUNNING
+                    && record.getStartedAt() > staleLimit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for all tasks, errors of single tasks are counted and do not abort the pass.
+     */
+    private void await(List<Future<?>> futures) throws InterruptedException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                this.errorCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the fence of the parked fossils, -1 if it is unknown.
+     */
+    private long readFence() throws IOException {
+        Path fenceFile = this.repository.getGcPath().resolve(FENCE_FILE);
+        if (Files.notExists(fenceFile)) {
+            return -1;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(fenceFile), StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Saves the fence of the parked fossils.
+     */
+    private void writeFence(long fence) throws IOException {
+        Files.createDirectories(this.repository.getGcPath());
+        Path tempFile = this.repository.createTempFile();
+        try {
+            Files.write(tempFile, Long.toString(fence).getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, this.repository.getGcPath().resolve(FENCE_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    //Only getters from here
+
+    public int getFossilizedCount() {
+        return fossilizedCount.get();
+    }
+
+    public int getDeletedCount() {
+        return deletedCount.get();
+    }
+
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.nio;
+
+import com.openkw.model.snapshot.ManifestEntry;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * The basic attributes of a file or directory of a snapshot, taken from its manifest entry.
+ */
+public class SnapshotFileAttributes implements BasicFileAttributes {
+
+    /**
+     * The manifest entry of the file or directory.
+     */
+    private final ManifestEntry entry;
+
+    /**
+     * @param entry the manifest entry of the file or directory.
+     */
+    public SnapshotFileAttributes(ManifestEntry entry) {
+        this.entry = entry;
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return FileTime.fromMillis(this.entry.getLastModified());
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return lastModifiedTime();
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return lastModifiedTime();
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return !this.entry.isDirectory();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return this.entry.isDirectory();
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return this.entry.getSize();
+    }
+
+    /**
+     * @return the content hash for files and the tree hash for directories, equal contents share the same key.
+     */
+    @Override
+    public Object fileKey() {
+        return this.entry.getDigest();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.nio;
+
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+
+import java.net.URI;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A read only file system presenting one snapshot of the backup repository. Directory listings and attributes come
+ * from the manifest, file contents are read lazily from the stored objects when a file is opened, so no part of the
+ * snapshot has to be extracted to disk.
+ */
+public class SnapshotFileSystem extends FileSystem {
+
+    /**
+     * The provider which created this file system.
+     */
+    private final SnapshotFileSystemProvider provider;
+
+    /**
+     * The repository containing the stored file contents.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The manifest of the presented snapshot.
+     */
+    private final SnapshotManifest manifest;
+
+    /**
+     * The key of this file system inside the provider, the scheme specific part of its URI.
+     */
+    private final String key;
+
+    /**
+     * The only file store of this file system.
+     */
+    private final SnapshotFileStore fileStore;
+
+    /**
+     * Whether this file system is still open.
+     */
+    private volatile boolean open = true;
+
+    /**
+     * @param provider   the provider which created this file system.
+     * @param repository the repository containing the stored file contents.
+     * @param manifest   the manifest of the presented snapshot.
+     * @param key        the key of this file system inside the provider.
+     */
+    SnapshotFileSystem(SnapshotFileSystemProvider provider, SnapshotRepository repository,
+                       SnapshotManifest manifest, String key) {
+        this.provider = provider;
+        this.repository = repository;
+        this.manifest = manifest;
+        this.key = key;
+        this.fileStore = new SnapshotFileStore(this);
+    }
+
+    /**
+     * @param path a path of this file system.
+     * @return the manifest entry of the path, null if the snapshot does not contain it.
+     */
+    ManifestEntry findEntry(SnapshotPath path) {
+        ManifestEntry entry = this.manifest.getRoot();
+        for (String name : path.getAbsoluteNames()) {
+            if (!entry.isDirectory()) {
+                return null;
+            }
+            entry = entry.findChild(name);
+            if (entry == null) {
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * @param path a path of this file system.
+     * @return the URI of the path.
+     */
+    URI toUri(SnapshotPath path) {
+        return URI.create(SnapshotFileSystemProvider.SCHEME + ":" + this.key
+                + SnapshotFileSystemProvider.SEPARATOR + SnapshotFileSystemProvider.encodePath(path.getAbsoluteNames()));
+    }
+
+    @Override
+    public FileSystemProvider provider() {
+        return this.provider;
+    }
+
+    @Override
+    public void close() {
+        if (this.open) {
+            this.open = false;
+            this.provider.removeFileSystem(this.key);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.singletonList(new SnapshotPath(this, true));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.singletonList(this.fileStore);
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Collections.singleton("basic");
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        StringBuilder sb = new StringBuilder(first);
+        for (String part : more) {
+            if (!part.isEmpty()) {
+                sb.append('/').append(part);
+            }
+        }
+        return SnapshotPath.parse(this, sb.toString());
+    }
+
+    /**
+     * Supports the glob and regex syntax of the default file system, matched against the path string.
+     */
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+        return path -> matcher.matches(Paths.get(path.toString()));
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("Snapshots do not store owners");
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Snapshots can not change");
+    }
+
+    //Only getters from here
+
+    public SnapshotRepository getRepository() {
+        return repository;
+    }
+
+    public SnapshotManifest getManifest() {
+        return manifest;
+    }
+
+    FileStore getFileStore() {
+        return fileStore;
+    }
+}
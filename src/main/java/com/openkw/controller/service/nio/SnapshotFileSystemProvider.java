@@ -0,0 +1,420 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.nio;
+
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This provider presents snapshots of a backup repository as read only file systems.
+ * <p>
+ * URIs have the form {@code snapshot:<backup directory URI>!<snapshot name>!<path>}, where the snapshot name and the
+ * path elements are URL encoded. The backup directory URI must not contain a '!'. The easiest way to open a
+ * snapshot is newFileSystem(Path, String). Snapshots of encrypted repositories need the passphrase in the environment
+ * map under the key PASSPHRASE.
+ */
+public class SnapshotFileSystemProvider extends FileSystemProvider {
+
+    /**
+     * The URI scheme of this provider.
+     */
+    public static final String SCHEME = "snapshot";
+
+    /**
+     * Separates the backup directory, the snapshot name and the path inside a URI.
+     */
+    static final String SEPARATOR = "!";
+
+    /**
+     * The key of the environment map holding the passphrase of an encrypted repository.
+     */
+    public static final String PASSPHRASE = "passphrase";
+
+    /**
+     * The open file systems by the scheme specific part of their URI without the path.
+     */
+    private final Map<String, SnapshotFileSystem> fileSystems = new ConcurrentHashMap<>();
+
+    /**
+     * Opens a snapshot as a file system.
+     *
+     * @param backupDir    the backup directory containing the repository.
+     * @param snapshotName the name of the snapshot.
+     * @return the new file system, has to be closed by the caller.
+     * @throws IOException if the manifest of the snapshot could not be read.
+     */
+    public static FileSystem newFileSystem(Path backupDir, String snapshotName) throws IOException {
+        return FileSystems.newFileSystem(toUri(backupDir, snapshotName), Collections.emptyMap(),
+                SnapshotFileSystemProvider.class.getClassLoader());
+    }
+
+    /**
+     * @param backupDir    the backup directory containing the repository.
+     * @param snapshotName the name of the snapshot.
+     * @return the URI of the file system presenting the snapshot.
+     */
+    public static URI toUri(Path backupDir, String snapshotName) {
+        return URI.create(SCHEME + ":" + backupDir.toAbsolutePath().toUri() + SEPARATOR + encode(snapshotName));
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        String key = getKey(uri);
+        int separator = key.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("The URI does not name a snapshot: " + uri);
+        }
+        Object passphrase = env.get(PASSPHRASE);
+        SnapshotRepository repository = new SnapshotRepository(Paths.get(URI.create(key.substring(0, separator))),
+                passphrase != null ? passphrase.toString() : null);
+        String snapshotName = decode(key.substring(separator + 1));
+        SnapshotManifest manifest = repository.readManifest(snapshotName);
+        if (manifest == null) {
+            throw new NoSuchFileException(snapshotName);
+        }
+        SnapshotFileSystem fileSystem = new SnapshotFileSystem(this, repository, manifest, key);
+        if (this.fileSystems.putIfAbsent(key, fileSystem) != null) {
+            throw new FileSystemAlreadyExistsException(key);
+        }
+        return fileSystem;
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        SnapshotFileSystem fileSystem = this.fileSystems.get(getKey(uri));
+        if (fileSystem == null) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+        return fileSystem;
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        String raw = uri.getRawSchemeSpecificPart();
+        String key = getKey(uri);
+        String encodedPath = raw.length() > key.length() ? raw.substring(key.length() + 1) : "/";
+        List<String> names = new ArrayList<>();
+        for (String name : encodedPath.split("/")) {
+            if (!name.isEmpty()) {
+                names.add(decode(name));
+            }
+        }
+        return new SnapshotPath((SnapshotFileSystem) getFileSystem(uri), true, names.toArray(new String[0]));
+    }
+
+    /**
+     * Removes a closed file system from the open file systems.
+     *
+     * @param key the key of the file system.
+     */
+    void removeFileSystem(String key) {
+        this.fileSystems.remove(key);
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attrs) throws IOException {
+        for (OpenOption option : options) {
+            if (option != StandardOpenOption.READ && option != LinkOption.NOFOLLOW_LINKS) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+        SnapshotPath snapshotPath = toSnapshotPath(path);
+        ManifestEntry entry = getEntry(snapshotPath);
+        if (entry.isDirectory()) {
+            throw new IOException(path + " is a directory");
+        }
+        return new SnapshotByteChannel(snapshotPath.getFileSystem().getRepository().openObject(entry.getContentHash()));
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        SnapshotPath snapshotPath = toSnapshotPath(dir);
+        ManifestEntry entry = getEntry(snapshotPath);
+        if (!entry.isDirectory()) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        List<Path> children = new ArrayList<>();
+        for (ManifestEntry child : entry.getChildren()) {
+            Path childPath = snapshotPath.resolve(child.getName());
+            if (filter == null || filter.accept(childPath)) {
+                children.add(childPath);
+            }
+        }
+        return new DirectoryStream<Path>() {
+            private boolean iterated;
+
+            @Override
+            public Iterator<Path> iterator() {
+                if (this.iterated) {
+                    throw new IllegalStateException("The directory stream has already been iterated");
+                }
+                this.iterated = true;
+                return children.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        }
+        if (!(path instanceof SnapshotPath) || !(path2 instanceof SnapshotPath)) {
+            return false;
+        }
+        return toSnapshotPath(path).toRealPath().equals(toSnapshotPath(path2).toRealPath());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null && fileName.toString().startsWith(".");
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        return toSnapshotPath(path).getFileSystem().getFileStore();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        getEntry(toSnapshotPath(path));
+        for (AccessMode mode : modes) {
+            if (mode == AccessMode.WRITE) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        SnapshotPath snapshotPath = toSnapshotPath(path);
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return new SnapshotFileAttributes(getEntry(snapshotPath));
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (type != BasicFileAttributes.class && type != SnapshotFileAttributes.class) {
+            throw new UnsupportedOperationException("Only basic file attributes are supported");
+        }
+        return (A) new SnapshotFileAttributes(getEntry(toSnapshotPath(path)));
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        String names = attributes;
+        int viewSeparator = attributes.indexOf(':');
+        if (viewSeparator >= 0) {
+            if (!"basic".equals(attributes.substring(0, viewSeparator))) {
+                throw new UnsupportedOperationException("Only basic file attributes are supported");
+            }
+            names = attributes.substring(viewSeparator + 1);
+        }
+        SnapshotFileAttributes attrs = new SnapshotFileAttributes(getEntry(toSnapshotPath(path)));
+        Map<String, Object> all = new HashMap<>();
+        all.put("lastModifiedTime", attrs.lastModifiedTime());
+        all.put("lastAccessTime", attrs.lastAccessTime());
+        all.put("creationTime", attrs.creationTime());
+        all.put("size", attrs.size());
+        all.put("isRegularFile", attrs.isRegularFile());
+        all.put("isDirectory", attrs.isDirectory());
+        all.put("isSymbolicLink", attrs.isSymbolicLink());
+        all.put("isOther", attrs.isOther());
+        all.put("fileKey", attrs.fileKey());
+        Map<String, Object> result = new HashMap<>();
+        for (String name : names.split(",")) {
+            if (name.equals("*")) {
+                result.putAll(all);
+            } else if (all.containsKey(name)) {
+                result.put(name, all.get(name));
+            } else {
+                throw new IllegalArgumentException("Unknown attribute " + name);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    /**
+     * @param path a path of a snapshot file system.
+     * @return the manifest entry of the path.
+     * @throws NoSuchFileException if the snapshot does not contain the path.
+     */
+    private static ManifestEntry getEntry(SnapshotPath path) throws NoSuchFileException {
+        ManifestEntry entry = path.getFileSystem().findEntry(path);
+        if (entry == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return entry;
+    }
+
+    /**
+     * @param path any path.
+     * @return the path as a path of a snapshot file system.
+     */
+    private static SnapshotPath toSnapshotPath(Path path) {
+        if (!(path instanceof SnapshotPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (SnapshotPath) path;
+    }
+
+    /**
+     * @param uri a URI of this provider.
+     * @return the scheme specific part of the URI up to the path.
+     */
+    private static String getKey(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("The URI scheme is not " + SCHEME + ": " + uri);
+        }
+        String raw = uri.getRawSchemeSpecificPart();
+        int nameSeparator = raw.indexOf(SEPARATOR);
+        int pathSeparator = nameSeparator < 0 ? -1 : raw.indexOf(SEPARATOR, nameSeparator + 1);
+        return pathSeparator < 0 ? raw : raw.substring(0, pathSeparator);
+    }
+
+    /**
+     * @param names the name elements of an absolute path.
+     * @return the URL encoded path string.
+     */
+    static String encodePath(String[] names) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            sb.append('/').append(encode(name));
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    /**
+     * @return the URL encoded value.
+     */
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 is always supported", e);
+        }
+    }
+
+    /**
+     * @return the URL decoded value.
+     */
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 is always supported", e);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A path inside a SnapshotFileSystem. The root "/" represents the data directory of the snapshot, '/' is the only
+ * separator. Relative paths are resolved against the root.
+ */
+public class SnapshotPath implements Path {
+
+    /**
+     * The file system this path belongs to.
+     */
+    private final SnapshotFileSystem fileSystem;
+
+    /**
+     * Whether this path starts at the root.
+     */
+    private final boolean absolute;
+
+    /**
+     * The name elements of this path, none of them is empty.
+     */
+    private final String[] names;
+
+    /**
+     * @param fileSystem the file system this path belongs to.
+     * @param absolute   whether this path starts at the root.
+     * @param names      the name elements of this path, none of them may be empty.
+     */
+    SnapshotPath(SnapshotFileSystem fileSystem, boolean absolute, String... names) {
+        this.fileSystem = fileSystem;
+        this.absolute = absolute;
+        this.names = names;
+    }
+
+    /**
+     * Parses a path string, empty name elements caused by repeated separators are dropped.
+     *
+     * @param fileSystem the file system the path belongs to.
+     * @param path       the path string.
+     * @return the parsed path.
+     */
+    static SnapshotPath parse(SnapshotFileSystem fileSystem, String path) {
+        List<String> names = new ArrayList<>();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return new SnapshotPath(fileSystem, path.startsWith("/"), names.toArray(new String[0]));
+    }
+
+    /**
+     * @return the name elements of the normalized absolute form of this path.
+     */
+    String[] getAbsoluteNames() {
+        return ((SnapshotPath) toAbsolutePath().normalize()).names;
+    }
+
+    /**
+     * @param other any path.
+     * @return the given path as a path of this file system.
+     */
+    private SnapshotPath check(Path other) {
+        if (!(other instanceof SnapshotPath) || ((SnapshotPath) other).fileSystem != this.fileSystem) {
+            throw new ProviderMismatchException();
+        }
+        return (SnapshotPath) other;
+    }
+
+    @Override
+    public SnapshotFileSystem getFileSystem() {
+        return this.fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return this.absolute;
+    }
+
+    @Override
+    public Path getRoot() {
+        return this.absolute ? new SnapshotPath(this.fileSystem, true) : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        return this.names.length == 0 ? null : new SnapshotPath(this.fileSystem, false, this.names[this.names.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        if (this.names.length == 0 || (this.names.length == 1 && !this.absolute)) {
+            return null;
+        }
+        return new SnapshotPath(this.fileSystem, this.absolute, Arrays.copyOf(this.names, this.names.length - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return this.names.length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        if (index < 0 || index >= this.names.length) {
+            throw new IllegalArgumentException("Invalid name index " + index);
+        }
+        return new SnapshotPath(this.fileSystem, false, this.names[index]);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || endIndex > this.names.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException("Invalid subpath " + beginIndex + " to " + endIndex);
+        }
+        return new SnapshotPath(this.fileSystem, false, Arrays.copyOfRange(this.names, beginIndex, endIndex));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if (!(other instanceof SnapshotPath) || ((SnapshotPath) other).fileSystem != this.fileSystem) {
+            return false;
+        }
+        SnapshotPath path = (SnapshotPath) other;
+        if (path.absolute != this.absolute || path.names.length > this.names.length) {
+            return false;
+        }
+        for (int i = 0; i < path.names.length; i++) {
+            if (!path.names[i].equals(this.names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(this.fileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if (!(other instanceof SnapshotPath) || ((SnapshotPath) other).fileSystem != this.fileSystem) {
+            return false;
+        }
+        SnapshotPath path = (SnapshotPath) other;
+        if (path.absolute) {
+            return equals(path);
+        }
+        if (path.names.length > this.names.length) {
+            return false;
+        }
+        int offset = this.names.length - path.names.length;
+        for (int i = 0; i < path.names.length; i++) {
+            if (!path.names[i].equals(this.names[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(this.fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path normalize() {
+        List<String> normalized = new ArrayList<>();
+        for (String name : this.names) {
+            if (name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                if (!normalized.isEmpty() && !normalized.get(normalized.size() - 1).equals("..")) {
+                    normalized.remove(normalized.size() - 1);
+                    continue;
+                }
+                if (this.absolute) {
+                    //The parent of the root is the root itself.
+                    continue;
+                }
+            }
+            normalized.add(name);
+        }
+        return new SnapshotPath(this.fileSystem, this.absolute, normalized.toArray(new String[0]));
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        SnapshotPath path = check(other);
+        if (path.absolute) {
+            return path;
+        }
+        if (path.names.length == 0) {
+            return this;
+        }
+        String[] resolved = Arrays.copyOf(this.names, this.names.length + path.names.length);
+        System.arraycopy(path.names, 0, resolved, this.names.length, path.names.length);
+        return new SnapshotPath(this.fileSystem, this.absolute, resolved);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(this.fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(this.fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        SnapshotPath path = check(other);
+        if (path.absolute != this.absolute) {
+            throw new IllegalArgumentException("Only paths of the same type can be relativized");
+        }
+        int common = 0;
+        while (common < this.names.length && common < path.names.length
+                && this.names[common].equals(path.names[common])) {
+            common++;
+        }
+        List<String> relative = new ArrayList<>();
+        for (int i = common; i < this.names.length; i++) {
+            relative.add("..");
+        }
+        relative.addAll(Arrays.asList(path.names).subList(common, path.names.length));
+        return new SnapshotPath(this.fileSystem, false, relative.toArray(new String[0]));
+    }
+
+    @Override
+    public URI toUri() {
+        return this.fileSystem.toUri(this);
+    }
+
+    @Override
+    public Path toAbsolutePath() {
+        return this.absolute ? this : new SnapshotPath(this.fileSystem, true, this.names);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        Path real = toAbsolutePath().normalize();
+        if (this.fileSystem.findEntry((SnapshotPath) real) == null) {
+            throw new NoSuchFileException(toString());
+        }
+        return real;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("Snapshot paths are not backed by java.io.File");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("Snapshots can not change");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException("Snapshots can not change");
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        List<Path> elements = new ArrayList<>();
+        for (String name : this.names) {
+            elements.add(new SnapshotPath(this.fileSystem, false, name));
+        }
+        return elements.iterator();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return toString().compareTo(check(other).toString());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SnapshotPath)) {
+            return false;
+        }
+        SnapshotPath path = (SnapshotPath) obj;
+        return path.fileSystem == this.fileSystem && path.absolute == this.absolute
+                && Arrays.equals(path.names, this.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(this.names) + (this.absolute ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        String joined = String.join("/", this.names);
+        return this.absolute ? "/" + joined : joined;
+    }
+}
@@ -0,0 +1,676 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.parity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openkw.controller.service.snapshot.PackStore;
+import com.openkw.controller.util.RateLimiter;
+import com.openkw.controller.util.hash.HashFunctions;
+import com.openkw.controller.util.hash.Hasher;
+import com.openkw.model.snapshot.ParityStripe;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * This class protects the packs of an archive with Reed-Solomon parity instead of full copies. The packs are
+ * grouped into stripes of dataShardCount packs, every stripe gets parityShardCount parity files, so a stripe
+ * survives damage to as many of its files as it has parity files, row by row.
+ * <p>
+ * The shards are encoded and checked in blocks. The checksum of every block is saved with the stripe, so bad
+ * sectors show up as single damaged blocks and only the rows containing them are rebuilt. The stripe keeps a copy
+ * of the index of each of its packs as well, the indexes are small compared to the packs.
+ * <p>
+ * Packs deleted by compacting the archive dissolve their stripe, the remaining packs are grouped again with the
+ * next new packs.
+ */
+public class PackParity {
+
+    /**
+     * The size of the blocks the shards are encoded and checked in.
+     */
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The hash function of the block and index checksums of new stripes, CRC-32C runs on the CRC instructions of
+     * the CPU.
+     */
+    private static final String CHECKSUM = HashFunctions.CRC32C;
+
+    /**
+     * The directory inside the archive directory which contains one directory per stripe.
+     */
+    private static final String PARITY_DIR = "parity";
+
+    /**
+     * The file inside a stripe directory which describes the stripe, written last.
+     */
+    private static final String STRIPE_FILE = "stripe.json";
+
+    /**
+     * The prefix of the parity files inside a stripe directory.
+     */
+    private static final String PARITY_FILE_PREFIX = "parity-";
+
+    /**
+     * The extension of the copies of the pack indexes inside a stripe directory.
+     */
+    private static final String INDEX_COPY_POST_FIX = ".idx";
+
+    /**
+     * The extension of rebuilt files before they replace the damaged ones.
+     */
+    private static final String REPAIR_POST_FIX = ".repair";
+
+    /**
+     * The archive to protect.
+     */
+    private final PackStore archive;
+
+    /**
+     * Limits the amount of bytes read per second.
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     * The Jackson ObjectMapper instance used for serializing the stripes.
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * The amount of packs added to new stripes by the last protection pass.
+     */
+    private int stripedPackCount;
+
+    /**
+     * The size of the parity files written by the last protection pass.
+     */
+    private long parityBytes;
+
+    /**
+     * The amount of stripes dissolved by the last protection pass.
+     */
+    private int dissolvedStripeCount;
+
+    /**
+     * The amount of blocks checked by the last repair pass.
+     */
+    private long verifiedBlockCount;
+
+    /**
+     * The amount of damaged blocks found by the last repair pass.
+     */
+    private long damagedBlockCount;
+
+    /**
+     * The amount of damaged blocks rebuilt by the last repair pass.
+     */
+    private long repairedBlockCount;
+
+    /**
+     * The amount of damaged pack indexes restored from their copies by the last repair pass.
+     */
+    private int repairedIndexCount;
+
+    /**
+     * @param archive     the archive to protect.
+     * @param rateLimiter limits the amount of bytes read per second.
+     */
+    public PackParity(PackStore archive, RateLimiter rateLimiter) {
+        this.archive = archive;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Dissolves the stripes of which packs have been deleted and groups all packs without stripe into new ones.
+     * An incomplete last group is striped as well, it is dissolved and grouped again once new packs arrive.
+     *
+     * @param dataShardCount   the amount of packs per new stripe.
+     * @param parityShardCount the amount of parity files per new stripe, 0 removes all parity.
+     * @throws IOException          if a pack could not be read or a parity file could not be written.
+     * @throws InterruptedException if the thread has been interrupted.
+     */
+    public void protect(int dataShardCount, int parityShardCount) throws IOException, InterruptedException {
+        this.stripedPackCount = 0;
+        this.parityBytes = 0;
+        this.dissolvedStripeCount = 0;
+        Set<String> unstriped = new HashSet<>(this.archive.listPacks());
+        List<ParityStripe> incompleteStripes = new ArrayList<>();
+        for (ParityStripe stripe : readStripes(true)) {
+            boolean deleted = false;
+            for (String packId : stripe.getPackIds()) {
+                deleted |= Files.notExists(this.archive.getPackPath(packId))
+                        && Files.notExists(this.archive.getIndexPath(packId));
+            }
+            if (parityShardCount < 1 || deleted) {
+                dissolve(stripe);
+            } else if (stripe.getPackIds().size() < stripe.getDataShardCount()) {
+                incompleteStripes.add(stripe);
+            } else {
+                unstriped.removeAll(stripe.getPackIds());
+            }
+        }
+        for (ParityStripe stripe : incompleteStripes) {
+            if (unstriped.containsAll(stripe.getPackIds()) && unstriped.size() == stripe.getPackIds().size()) {
+                //Nothing new to add
+                unstriped.clear();
+            } else {
+                dissolve(stripe);
+            }
+        }
+        if (parityShardCount < 1 || unstriped.isEmpty()) {
+            return;
+        }
+        List<String> packIds = new ArrayList<>(unstriped);
+        Collections.sort(packIds);
+        for (int i = 0; i < packIds.size(); i += dataShardCount) {
+            writeStripe(packIds.subList(i, Math.min(packIds.size(), i + dataShardCount)), dataShardCount,
+                    parityShardCount);
+        }
+    }
+
+    /**
+     * Encodes the parity files of one stripe. The description is written last, a stripe directory without it is
+     * unfinished and deleted by the next pass.
+     */
+    private void writeStripe(List<String> packIds, int dataShardCount, int parityShardCount)
+            throws IOException, InterruptedException {
+        ReedSolomon codec = new ReedSolomon(dataShardCount, parityShardCount);
+        ParityStripe stripe = new ParityStripe();
+        stripe.setId(UUID.randomUUID().toString());
+        stripe.setCreatedAt(System.currentTimeMillis());
+        stripe.setDataShardCount(dataShardCount);
+        stripe.setParityShardCount(parityShardCount);
+        stripe.setBlockSize(BLOCK_SIZE);
+        stripe.setChecksum(CHECKSUM);
+        stripe.setPackIds(new ArrayList<>(packIds));
+        int shardCount = dataShardCount + parityShardCount;
+        Path stripeDir = getStripeDir(stripe.getId());
+        Files.createDirectories(stripeDir);
+        FileChannel[] channels = new FileChannel[shardCount];
+        try {
+            long shardSize = 0;
+            for (int i = 0; i < packIds.size(); i++) {
+                channels[i] = FileChannel.open(this.archive.getPackPath(packIds.get(i)), StandardOpenOption.READ);
+                stripe.getPackLengths().add(channels[i].size());
+                shardSize = Math.max(shardSize, channels[i].size());
+            }
+            for (int i = dataShardCount; i < shardCount; i++) {
+                channels[i] = FileChannel.open(getParityPath(stripe.getId(), i - dataShardCount),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            for (int i = 0; i < shardCount; i++) {
+                stripe.getBlockChecksums().add(new ArrayList<>());
+            }
+            byte[][] shards = new byte[shardCount][BLOCK_SIZE];
+            for (long position = 0; position < shardSize; position += BLOCK_SIZE) {
+                for (int i = 0; i < dataShardCount; i++) {
+                    int length = i < packIds.size() ? getBlockLength(stripe, i, position) : 0;
+                    if (length > 0) {
+                        readBlock(channels[i], position, shards[i], length);
+                    }
+                    Arrays.fill(shards[i], length, BLOCK_SIZE, (byte) 0);
+                    stripe.getBlockChecksums().get(i).add(checksum(stripe, shards[i], length));
+                }
+                codec.encode(shards, 0, BLOCK_SIZE);
+                for (int i = dataShardCount; i < shardCount; i++) {
+                    ByteBuffer buffer = ByteBuffer.wrap(shards[i]);
+                    while (buffer.hasRemaining()) {
+                        channels[i].write(buffer);
+                    }
+                    stripe.getBlockChecksums().get(i).add(checksum(stripe, shards[i], BLOCK_SIZE));
+                    this.parityBytes += BLOCK_SIZE;
+                }
+            }
+            for (int i = dataShardCount; i < shardCount; i++) {
+                channels[i].force(true);
+            }
+        } catch (IOException | InterruptedException e) {
+            closeAll(channels);
+            FileUtils.deleteDirectory(stripeDir.toFile());
+            throw e;
+        }
+        closeAll(channels);
+        for (String packId : packIds) {
+            Path indexCopy = stripeDir.resolve(packId + INDEX_COPY_POST_FIX);
+            Files.copy(this.archive.getIndexPath(packId), indexCopy);
+            stripe.getIndexChecksums().add(checksum(stripe, indexCopy));
+        }
+        Path tempFile = stripeDir.resolve(STRIPE_FILE + REPAIR_POST_FIX);
+        this.objectMapper.writeValue(tempFile.toFile(), stripe);
+        Files.move(tempFile, stripeDir.resolve(STRIPE_FILE), StandardCopyOption.ATOMIC_MOVE);
+        this.stripedPackCount += packIds.size();
+    }
+
+    /**
+     * Checks all blocks of all stripes against their checksums and rebuilds the damaged ones from the intact
+     * blocks of the same row. A damaged pack index is restored from the copy of the stripe.
+     *
+     * @return the amount of damaged blocks which could not be rebuilt because too many blocks of their row are
+     * damaged.
+     * @throws IOException          if the parity directory could not be read.
+     * @throws InterruptedException if the thread has been interrupted.
+     */
+    public long repair() throws IOException, InterruptedException {
+        this.verifiedBlockCount = 0;
+        this.damagedBlockCount = 0;
+        this.repairedBlockCount = 0;
+        this.repairedIndexCount = 0;
+        for (ParityStripe stripe : readStripes(false)) {
+            try {
+                repairStripe(stripe);
+            } catch (IOException e) {
+                //Dissolved concurrently or the parity itself is unreadable, the other stripes are still checked.
+                e.printStackTrace();
+            }
+        }
+        return this.damagedBlockCount - this.repairedBlockCount;
+    }
+
+    /**
+     * Helper of repair() which checks and rebuilds one stripe.
+     */
+    private void repairStripe(ParityStripe stripe) throws IOException, InterruptedException {
+        int packCount = stripe.getPackIds().size();
+        for (int i = 0; i < packCount; i++) {
+            String packId = stripe.getPackIds().get(i);
+            if (Files.notExists(this.archive.getPackPath(packId))
+                    && Files.notExists(this.archive.getIndexPath(packId))) {
+                //Deleted by compacting the archive, the stripe is dissolved by the next protection pass.
+                return;
+            }
+        }
+        for (int i = 0; i < packCount; i++) {
+            repairIndex(stripe, i);
+        }
+
+        int dataShardCount = stripe.getDataShardCount();
+        int shardCount = dataShardCount + stripe.getParityShardCount();
+        int rowCount = stripe.getBlockChecksums().get(0).size();
+        boolean[][] damaged = new boolean[shardCount][rowCount];
+        boolean[] damagedShards = new boolean[shardCount];
+        byte[] block = new byte[stripe.getBlockSize()];
+        for (int i = 0; i < shardCount; i++) {
+            if (i >= packCount && i < dataShardCount) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(getShardPath(stripe, i), StandardOpenOption.READ)) {
+                for (int row = 0; row < rowCount; row++) {
+                    damaged[i][row] = !isIntact(stripe, channel, i, row, block);
+                }
+            } catch (IOException e) {
+                Arrays.fill(damaged[i], true);
+            }
+            for (int row = 0; row < rowCount; row++) {
+                this.verifiedBlockCount++;
+                if (damaged[i][row]) {
+                    this.damagedBlockCount++;
+                    damagedShards[i] = true;
+                }
+            }
+        }
+        for (boolean damagedShard : damagedShards) {
+            if (damagedShard) {
+                rebuild(stripe, damaged, damagedShards);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Restores the index of a pack from the copy of the stripe if it is missing or its checksum does not match.
+     */
+    private void repairIndex(ParityStripe stripe, int shard) throws IOException {
+        String packId = stripe.getPackIds().get(shard);
+        long expected = stripe.getIndexChecksums().get(shard);
+        Path indexPath = this.archive.getIndexPath(packId);
+        try {
+            if (checksum(stripe, indexPath) == expected) {
+                return;
+            }
+        } catch (IOException e) {
+            //Missing or unreadable, restored from the copy.
+        }
+        Path indexCopy = getStripeDir(stripe.getId()).resolve(packId + INDEX_COPY_POST_FIX);
+        if (checksum(stripe, indexCopy) != expected) {
+            throw new IOException("The index of pack " + packId + " and its copy are damaged");
+        }
+        Path tempFile = indexPath.resolveSibling(packId + INDEX_COPY_POST_FIX + REPAIR_POST_FIX);
+        Files.copy(indexCopy, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tempFile, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.repairedIndexCount++;
+    }
+
+    /**
+     * Writes every damaged shard again into a repair file, taking intact blocks as they are and rebuilding the
+     * damaged ones from their row. A shard replaces the damaged file only if all of its blocks could be rebuilt.
+     */
+    private void rebuild(ParityStripe stripe, boolean[][] damaged, boolean[] damagedShards)
+            throws IOException, InterruptedException {
+        int dataShardCount = stripe.getDataShardCount();
+        int parityShardCount = stripe.getParityShardCount();
+        int shardCount = dataShardCount + parityShardCount;
+        int packCount = stripe.getPackIds().size();
+        int rowCount = damaged[0].length;
+        int blockSize = stripe.getBlockSize();
+        ReedSolomon codec = new ReedSolomon(dataShardCount, parityShardCount);
+        FileChannel[] inputs = new FileChannel[shardCount];
+        FileChannel[] outputs = new FileChannel[shardCount];
+        boolean[] repairable = new boolean[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                if (i >= packCount && i < dataShardCount) {
+                    continue;
+                }
+                try {
+                    inputs[i] = FileChannel.open(getShardPath(stripe, i), StandardOpenOption.READ);
+                } catch (IOException e) {
+                    //Every block of the shard is marked as damaged already.
+                }
+                if (damagedShards[i]) {
+                    outputs[i] = FileChannel.open(getRepairPath(stripe, i), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                    repairable[i] = true;
+                }
+            }
+            byte[][] shards = new byte[shardCount][blockSize];
+            boolean[] present = new boolean[shardCount];
+            for (int row = 0; row < rowCount; row++) {
+                long position = (long) row * blockSize;
+                int missing = 0;
+                for (int i = 0; i < shardCount; i++) {
+                    int length = getBlockLength(stripe, i, position);
+                    present[i] = !damaged[i][row];
+                    if (present[i] && length > 0) {
+                        readBlock(inputs[i], position, shards[i], length);
+                    }
+                    if (present[i]) {
+                        Arrays.fill(shards[i], length, blockSize, (byte) 0);
+                    } else {
+                        missing++;
+                    }
+                }
+                if (missing > parityShardCount) {
+                    for (int i = 0; i < shardCount; i++) {
+                        repairable[i] &= present[i];
+                    }
+                } else if (missing > 0) {
+                    codec.reconstruct(shards, present, 0, blockSize);
+                    for (int i = 0; i < shardCount; i++) {
+                        if (!present[i] && checksum(stripe, shards[i], getBlockLength(stripe, i, position))
+                                == stripe.getBlockChecksums().get(i).get(row)) {
+                            this.repairedBlockCount++;
+                        } else if (!present[i]) {
+                            repairable[i] = false;
+                        }
+                    }
+                }
+                for (int i = 0; i < shardCount; i++) {
+                    if (outputs[i] != null) {
+                        ByteBuffer buffer = ByteBuffer.wrap(shards[i], 0, getBlockLength(stripe, i, position));
+                        while (buffer.hasRemaining()) {
+                            outputs[i].write(buffer, position + buffer.position());
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < shardCount; i++) {
+                if (outputs[i] != null) {
+                    outputs[i].force(true);
+                }
+            }
+        } finally {
+            closeAll(inputs);
+            closeAll(outputs);
+        }
+        for (int i = 0; i < shardCount; i++) {
+            if (damagedShards[i]) {
+                Path repairPath = getRepairPath(stripe, i);
+                boolean stillStriped = i >= dataShardCount
+                        || Files.exists(this.archive.getIndexPath(stripe.getPackIds().get(i)));
+                if (repairable[i] && stillStriped) {
+                    Files.move(repairPath, getShardPath(stripe, i), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.deleteIfExists(repairPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the block of the shard can be read completely and matches its checksum.
+     */
+    private boolean isIntact(ParityStripe stripe, FileChannel channel, int shard, int row, byte[] block)
+            throws InterruptedException {
+        long position = (long) row * stripe.getBlockSize();
+        int length = getBlockLength(stripe, shard, position);
+        try {
+            if (length > 0) {
+                readBlock(channel, position, block, length);
+            }
+            return checksum(stripe, block, length) == stripe.getBlockChecksums().get(shard).get(row);
+        } catch (IOException e) {
+            //A bad sector or a truncated file
+            return false;
+        }
+    }
+
+    /**
+     * @return the amount of bytes the shard has at the given position inside the block size, 0 behind its end.
+     */
+    private static int getBlockLength(ParityStripe stripe, int shard, long position) {
+        long shardLength;
+        if (shard >= stripe.getDataShardCount()) {
+            shardLength = (long) stripe.getBlockChecksums().get(shard).size() * stripe.getBlockSize();
+        } else if (shard < stripe.getPackIds().size()) {
+            shardLength = stripe.getPackLengths().get(shard);
+        } else {
+            return 0;
+        }
+        return (int) Math.max(0, Math.min(stripe.getBlockSize(), shardLength - position));
+    }
+
+    /**
+     * Reads exactly length bytes at the given position.
+     */
+    private void readBlock(FileChannel channel, long position, byte[] block, int length)
+            throws IOException, InterruptedException {
+        if (this.rateLimiter != null) {
+            this.rateLimiter.acquire(length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(block, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    /**
+     * Reads the descriptions of all finished stripes.
+     *
+     * @param deleteUnfinished true to delete the directories of unfinished stripes, only done by the protection
+     *                         pass which is the only one writing stripes.
+     */
+    private List<ParityStripe> readStripes(boolean deleteUnfinished) throws IOException {
+        List<ParityStripe> stripes = new ArrayList<>();
+        Path parityDir = this.archive.getArchiveDir().resolve(PARITY_DIR);
+        if (Files.notExists(parityDir)) {
+            return stripes;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(parityDir)) {
+            for (Path stripeDir : stream) {
+                Path stripeFile = stripeDir.resolve(STRIPE_FILE);
+                if (Files.exists(stripeFile)) {
+                    stripes.add(this.objectMapper.readValue(stripeFile.toFile(), ParityStripe.class));
+                } else if (deleteUnfinished) {
+                    FileUtils.deleteDirectory(stripeDir.toFile());
+                }
+            }
+        }
+        stripes.sort((a, b) -> a.getId().compareTo(b.getId()));
+        return stripes;
+    }
+
+    /**
+     * Deletes a stripe, its packs are grouped again by the next protection pass.
+     */
+    private void dissolve(ParityStripe stripe) throws IOException {
+        deleteStripe(stripe.getId());
+        this.dissolvedStripeCount++;
+    }
+
+    /**
+     * @return the descriptions of all finished stripes.
+     * @throws IOException if the parity directory or a description could not be read.
+     */
+    public List<ParityStripe> listStripes() throws IOException {
+        return readStripes(false);
+    }
+
+    /**
+     * @param stripe the description of a stripe.
+     * @return the parity files and the index copies of the stripe, everything inside its directory besides the
+     * description.
+     */
+    public List<Path> getStripeFiles(ParityStripe stripe) {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < stripe.getParityShardCount(); i++) {
+            files.add(getParityPath(stripe.getId(), i));
+        }
+        for (String packId : stripe.getPackIds()) {
+            files.add(getStripeDir(stripe.getId()).resolve(packId + INDEX_COPY_POST_FIX));
+        }
+        return files;
+    }
+
+    /**
+     * @param stripeId the id of a stripe.
+     * @return the description of the stripe, a stripe directory without it is unfinished.
+     */
+    public Path getStripeFile(String stripeId) {
+        return getStripeDir(stripeId).resolve(STRIPE_FILE);
+    }
+
+    /**
+     * Deletes a stripe together with its parity files.
+     *
+     * @param stripeId the id of the stripe.
+     * @throws IOException if the stripe directory could not be deleted.
+     */
+    public void deleteStripe(String stripeId) throws IOException {
+        //Without the description the rest is an unfinished stripe, even if the deletion is interrupted
+        Files.deleteIfExists(getStripeFile(stripeId));
+        FileUtils.deleteDirectory(getStripeDir(stripeId).toFile());
+    }
+
+    private Path getStripeDir(String stripeId) {
+        return this.archive.getArchiveDir().resolve(PARITY_DIR).resolve(stripeId);
+    }
+
+    private Path getParityPath(String stripeId, int parityShard) {
+        return getStripeDir(stripeId).resolve(PARITY_FILE_PREFIX + parityShard);
+    }
+
+    private Path getShardPath(ParityStripe stripe, int shard) {
+        return shard < stripe.getDataShardCount() ? this.archive.getPackPath(stripe.getPackIds().get(shard))
+                : getParityPath(stripe.getId(), shard - stripe.getDataShardCount());
+    }
+
+    private Path getRepairPath(ParityStripe stripe, int shard) {
+        return getStripeDir(stripe.getId()).resolve("shard-" + shard + REPAIR_POST_FIX);
+    }
+
+    /**
+     * @return the checksum of the block with the hash function of the stripe, CRC-32 for stripes written before
+     * the hash function has been recorded.
+     */
+    private static long checksum(ParityStripe stripe, byte[] block, int length) {
+        if (stripe.getChecksum() == null) {
+            CRC32 crc = new CRC32();
+            crc.update(block, 0, length);
+            return crc.getValue();
+        }
+        Hasher hasher = HashFunctions.forName(stripe.getChecksum()).newHasher();
+        hasher.update(block, 0, length);
+        return Integer.toUnsignedLong(ByteBuffer.wrap(hasher.digest()).getInt());
+    }
+
+    private static long checksum(ParityStripe stripe, Path file) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        return checksum(stripe, content, content.length);
+    }
+
+    private static void closeAll(FileChannel[] channels) {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    //Only getters from here
+
+    public int getStripedPackCount() {
+        return stripedPackCount;
+    }
+
+    public long getParityBytes() {
+        return parityBytes;
+    }
+
+    public int getDissolvedStripeCount() {
+        return dissolvedStripeCount;
+    }
+
+    public long getVerifiedBlockCount() {
+        return verifiedBlockCount;
+    }
+
+    public long getDamagedBlockCount() {
+        return damagedBlockCount;
+    }
+
+    public long getRepairedBlockCount() {
+        return repairedBlockCount;
+    }
+
+    public int getRepairedIndexCount() {
+        return repairedIndexCount;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.parity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class computes Reed-Solomon parity over the Galois field GF(2^8) and rebuilds lost shards from the remaining
+ * ones. Any dataShardCount of the dataShardCount + parityShardCount shards are enough to rebuild all others.
+ * <p>
+ * The code is systematic, the data shards are stored as they are and only the parity shards are computed. The
+ * encoding matrix is a Vandermonde matrix multiplied with the inverse of its upper square, so its upper rows form
+ * the identity matrix and every square selection of its rows is invertible. Products are looked up in a full
+ * multiplication table, so the inner loops only do a table lookup and an XOR per byte.
+ */
+public class ReedSolomon {
+
+    /**
+     * The maximum amount of data and parity shards together.
+     */
+    public static final int MAX_SHARD_COUNT = 256;
+
+    /**
+     * The generator polynomial of the field, x^8 + x^4 + x^3 + x^2 + 1.
+     */
+    private static final int GENERATOR_POLYNOMIAL = 0x11D;
+
+    /**
+     * The powers of the primitive element 2, twice as long as needed so the sum of two logarithms needs no modulo.
+     */
+    private static final byte[] EXP_TABLE = new byte[510];
+
+    /**
+     * The logarithms to the base of the primitive element 2, undefined for 0.
+     */
+    private static final int[] LOG_TABLE = new int[256];
+
+    /**
+     * The products of all pairs of field elements, MULTIPLICATION_TABLE[a][b] = a * b.
+     */
+    private static final byte[][] MULTIPLICATION_TABLE = new byte[256][256];
+
+    static {
+        int value = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP_TABLE[i] = (byte) value;
+            EXP_TABLE[i + 255] = (byte) value;
+            LOG_TABLE[value] = i;
+            value <<= 1;
+            if (value > 0xFF) {
+                value ^= GENERATOR_POLYNOMIAL;
+            }
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MULTIPLICATION_TABLE[a][b] = EXP_TABLE[LOG_TABLE[a] + LOG_TABLE[b]];
+            }
+        }
+    }
+
+    /**
+     * The amount of shards holding the data.
+     */
+    private final int dataShardCount;
+
+    /**
+     * The amount of shards holding the parity.
+     */
+    private final int parityShardCount;
+
+    /**
+     * The encoding matrix, one row per shard and one column per data shard.
+     */
+    private final byte[][] matrix;
+
+    /**
+     * @param dataShardCount   the amount of shards holding the data.
+     * @param parityShardCount the amount of shards holding the parity.
+     * @throws IllegalArgumentException if a count is not positive or there are more than MAX_SHARD_COUNT shards.
+     */
+    public ReedSolomon(int dataShardCount, int parityShardCount) {
+        if (dataShardCount < 1 || parityShardCount < 1 || dataShardCount + parityShardCount > MAX_SHARD_COUNT) {
+            throw new IllegalArgumentException("Unsupported shard counts " + dataShardCount + "+" + parityShardCount);
+        }
+        this.dataShardCount = dataShardCount;
+        this.parityShardCount = parityShardCount;
+        int shardCount = dataShardCount + parityShardCount;
+        byte[][] vandermonde = new byte[shardCount][dataShardCount];
+        for (int row = 0; row < shardCount; row++) {
+            for (int column = 0; column < dataShardCount; column++) {
+                vandermonde[row][column] = power(row, column);
+            }
+        }
+        byte[][] top = new byte[dataShardCount][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShardCount);
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    /**
+     * Computes the parity shards from the data shards.
+     *
+     * @param shards the data shards followed by the parity shards, all of them at least offset + length long.
+     * @param offset the position inside the shards to start at.
+     * @param length the amount of bytes of every shard to encode.
+     */
+    public void encode(byte[][] shards, int offset, int length) {
+        byte[][] parityRows = new byte[this.parityShardCount][];
+        byte[][] outputs = new byte[this.parityShardCount][];
+        for (int i = 0; i < this.parityShardCount; i++) {
+            parityRows[i] = this.matrix[this.dataShardCount + i];
+            outputs[i] = shards[this.dataShardCount + i];
+        }
+        byte[][] inputs = new byte[this.dataShardCount][];
+        System.arraycopy(shards, 0, inputs, 0, this.dataShardCount);
+        multiplyShards(parityRows, inputs, outputs, offset, length);
+    }
+
+    /**
+     * Rebuilds the missing shards from the present ones.
+     *
+     * @param shards  the data shards followed by the parity shards, all of them at least offset + length long. The
+     *                content of the missing shards is replaced.
+     * @param present which of the shards are intact.
+     * @param offset  the position inside the shards to start at.
+     * @param length  the amount of bytes of every shard to rebuild.
+     * @throws IllegalArgumentException if fewer than dataShardCount shards are present.
+     */
+    public void reconstruct(byte[][] shards, boolean[] present, int offset, int length) {
+        int shardCount = this.dataShardCount + this.parityShardCount;
+        byte[][] subMatrix = new byte[this.dataShardCount][];
+        byte[][] inputs = new byte[this.dataShardCount][];
+        int found = 0;
+        for (int i = 0; i < shardCount && found < this.dataShardCount; i++) {
+            if (present[i]) {
+                subMatrix[found] = this.matrix[i];
+                inputs[found] = shards[i];
+                found++;
+            }
+        }
+        if (found < this.dataShardCount) {
+            throw new IllegalArgumentException("Only " + found + " of " + this.dataShardCount
+                    + " required shards are present");
+        }
+        byte[][] decoding = invert(subMatrix);
+        List<byte[]> dataRows = new ArrayList<>();
+        List<byte[]> dataOutputs = new ArrayList<>();
+        for (int i = 0; i < this.dataShardCount; i++) {
+            if (!present[i]) {
+                dataRows.add(decoding[i]);
+                dataOutputs.add(shards[i]);
+            }
+        }
+        multiplyShards(dataRows.toArray(new byte[0][]), inputs, dataOutputs.toArray(new byte[0][]), offset,
+                length);
+        //All data shards are intact now, the parity is computed from them
+        List<byte[]> parityRows = new ArrayList<>();
+        List<byte[]> parityOutputs = new ArrayList<>();
+        for (int i = this.dataShardCount; i < shardCount; i++) {
+            if (!present[i]) {
+                parityRows.add(this.matrix[i]);
+                parityOutputs.add(shards[i]);
+            }
+        }
+        byte[][] dataShards = new byte[this.dataShardCount][];
+        System.arraycopy(shards, 0, dataShards, 0, this.dataShardCount);
+        multiplyShards(parityRows.toArray(new byte[0][]), dataShards, parityOutputs.toArray(new byte[0][]), offset,
+                length);
+    }
+
+    /**
+     * Multiplies the rows of a matrix with the input shards, outputs[r] = sum of rows[r][c] * inputs[c]. The
+     * outputs are built input by input, so every input is streamed once per output and stays in the cache.
+     */
+    private static void multiplyShards(byte[][] rows, byte[][] inputs, byte[][] outputs, int offset, int length) {
+        int end = offset + length;
+        for (int r = 0; r < rows.length; r++) {
+            byte[] output = outputs[r];
+            byte[] table = MULTIPLICATION_TABLE[rows[r][0] & 0xFF];
+            byte[] input = inputs[0];
+            for (int i = offset; i < end; i++) {
+                output[i] = table[input[i] & 0xFF];
+            }
+            for (int c = 1; c < inputs.length; c++) {
+                table = MULTIPLICATION_TABLE[rows[r][c] & 0xFF];
+                input = inputs[c];
+                for (int i = offset; i < end; i++) {
+                    output[i] ^= table[input[i] & 0xFF];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return base to the power of exponent in the field, 0^0 is 1.
+     */
+    private static byte power(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP_TABLE[(LOG_TABLE[base] * exponent) % 255];
+    }
+
+    /**
+     * @return the product of the two matrices.
+     */
+    private static byte[][] multiply(byte[][] left, byte[][] right) {
+        byte[][] result = new byte[left.length][right[0].length];
+        for (int row = 0; row < left.length; row++) {
+            for (int column = 0; column < right[0].length; column++) {
+                int value = 0;
+                for (int i = 0; i < right.length; i++) {
+                    value ^= MULTIPLICATION_TABLE[left[row][i] & 0xFF][right[i][column] & 0xFF];
+                }
+                result[row][column] = (byte) value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inverts a square matrix by Gauss-Jordan elimination.
+     *
+     * @throws IllegalArgumentException if the matrix is singular.
+     */
+    private static byte[][] invert(byte[][] source) {
+        int size = source.length;
+        byte[][] work = new byte[size][size * 2];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(source[row], 0, work[row], 0, size);
+            work[row][size + row] = 1;
+        }
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (pivot < size && work[pivot][column] == 0) {
+                pivot++;
+            }
+            if (pivot == size) {
+                throw new IllegalArgumentException("The matrix is singular");
+            }
+            byte[] swap = work[column];
+            work[column] = work[pivot];
+            work[pivot] = swap;
+            byte[] scale = MULTIPLICATION_TABLE[EXP_TABLE[255 - LOG_TABLE[work[column][column] & 0xFF]] & 0xFF];
+            for (int i = 0; i < size * 2; i++) {
+                work[column][i] = scale[work[column][i] & 0xFF];
+            }
+            for (int row = 0; row < size; row++) {
+                if (row != column && work[row][column] != 0) {
+                    byte[] factor = MULTIPLICATION_TABLE[work[row][column] & 0xFF];
+                    for (int i = 0; i < size * 2; i++) {
+                        work[row][i] ^= factor[work[column][i] & 0xFF];
+                    }
+                }
+            }
+        }
+        byte[][] inverse = new byte[size][size];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(work[row], size, inverse[row], 0, size);
+        }
+        return inverse;
+    }
+
+    //Only getters from here
+
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+}
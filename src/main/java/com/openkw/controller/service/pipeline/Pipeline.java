@@ -0,0 +1,148 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A chain of stages connected by bounded queues, so reading, hashing and writing of different items overlap
+ * instead of running one after another. Every stage has its own parallelism and records how busy it has been,
+ * which shows the bottleneck of the machine at hand: the busiest stage with full queues in front of it.
+ * The first failure of any worker fails the whole pipeline, the remaining items are drained without processing.
+ */
+public class Pipeline {
+
+    /**
+     * The stages in the order items flow through them.
+     */
+    private final List<PipelineStage<?>> stages = new ArrayList<>();
+
+    /**
+     * The first failure of any worker, null as long as the pipeline did not fail.
+     */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * The time the pipeline has been started at in nanoseconds.
+     */
+    private long startNanos;
+
+    /**
+     * The time all stages finished at in nanoseconds.
+     */
+    private long finishNanos;
+
+    /**
+     * Adds a stage behind the previously added ones.
+     *
+     * @param name        the name of the stage.
+     * @param parallelism the amount of worker threads.
+     * @param capacity    the capacity of each queue of the stage.
+     * @param partitioned true for one queue per worker, so items with the same key keep their order.
+     * @param worker      the work done with each item.
+     * @param <T>         the type of the items.
+     * @return the new stage.
+     */
+    public <T> PipelineStage<T> addStage(String name, int parallelism, int capacity, boolean partitioned,
+                                         StageWorker<T> worker) {
+        PipelineStage<T> stage = new PipelineStage<>(this, name, parallelism, capacity, partitioned, worker);
+        this.stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Starts the workers of all stages.
+     */
+    public void start() {
+        this.startNanos = System.nanoTime();
+        for (PipelineStage<?> stage : this.stages) {
+            stage.start();
+        }
+    }
+
+    /**
+     * Lets the stages finish one after another, so every stage has received all of its items before it is told to
+     * finish.
+     *
+     * @throws IOException if any worker failed, the first failure is rethrown.
+     */
+    public void finish() throws IOException {
+        try {
+            for (PipelineStage<?> stage : this.stages) {
+                stage.finish();
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+            Thread.currentThread().interrupt();
+        }
+        this.finishNanos = System.nanoTime();
+        Throwable cause = this.failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause != null) {
+            throw new IOException("The pipeline failed", cause);
+        }
+    }
+
+    /**
+     * Records a failure, only the first one is kept.
+     *
+     * @param cause the failure.
+     */
+    public void fail(Throwable cause) {
+        this.failure.compareAndSet(null, cause);
+    }
+
+    /**
+     * @return true if any worker failed.
+     */
+    public boolean isFailed() {
+        return this.failure.get() != null;
+    }
+
+    /**
+     * Describes every stage by its parallelism, the share of the time its workers have been busy and the highest
+     * queue depth, like "hash 4x 97% busy, queue 64/64".
+     *
+     * @return the metrics of all stages.
+     */
+    public String describe() {
+        long end = this.finishNanos != 0 ? this.finishNanos : System.nanoTime();
+        long elapsed = Math.max(1, end - this.startNanos);
+        StringBuilder sb = new StringBuilder();
+        for (PipelineStage<?> stage : this.stages) {
+            if (sb.length() > 0) {
+                sb.append(" | ");
+            }
+            long busyPercent = Math.min(100, stage.getBusyNanos() * 100 / (elapsed * stage.getParallelism()));
+            sb.append(stage.getName()).append(' ').append(stage.getParallelism()).append("x ")
+                    .append(busyPercent).append("% busy, queue ").append(stage.getPeakQueueDepth()).append('/')
+                    .append(stage.getCapacity() * (stage.isPartitioned() ? stage.getParallelism() : 1));
+        }
+        return sb.toString();
+    }
+
+    //Only getters from here
+
+    public List<PipelineStage<?>> getStages() {
+        return stages;
+    }
+}
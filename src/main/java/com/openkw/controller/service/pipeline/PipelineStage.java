@@ -0,0 +1,260 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of a pipeline: worker threads taking items from bounded queues. A full queue blocks the previous stage,
+ * so a slow stage throttles the ones in front of it instead of letting the queued items grow without limit.
+ * A shared stage has one queue served by all of its workers. A partitioned stage has one queue and one worker per
+ * lane, items with the same key are processed one after another in the order they have been put.
+ *
+ * @param <T> the type of the items.
+ */
+public class PipelineStage<T> {
+
+    /**
+     * Put into a queue to let the worker serving it finish.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * How long a blocked put or take waits before it checks again whether the pipeline failed.
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * The pipeline the stage belongs to.
+     */
+    private final Pipeline pipeline;
+
+    /**
+     * The name of the stage, used for the thread names and the metrics.
+     */
+    private final String name;
+
+    /**
+     * The amount of worker threads.
+     */
+    private final int parallelism;
+
+    /**
+     * The capacity of each queue.
+     */
+    private final int capacity;
+
+    /**
+     * True if every worker has its own queue.
+     */
+    private final boolean partitioned;
+
+    /**
+     * The queues, one shared by all workers or one per worker.
+     */
+    private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+
+    /**
+     * The work done with each item.
+     */
+    private final StageWorker<T> worker;
+
+    /**
+     * The worker threads.
+     */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * The time all workers together spent processing items in nanoseconds.
+     */
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    /**
+     * The amount of processed items.
+     */
+    private final AtomicLong processedCount = new AtomicLong();
+
+    /**
+     * The highest amount of items waiting in all queues together which has been seen.
+     */
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+    /**
+     * @param pipeline    the pipeline the stage belongs to.
+     * @param name        the name of the stage.
+     * @param parallelism the amount of worker threads.
+     * @param capacity    the capacity of each queue.
+     * @param partitioned true for one queue per worker, false for one shared queue.
+     * @param worker      the work done with each item.
+     */
+    PipelineStage(Pipeline pipeline, String name, int parallelism, int capacity, boolean partitioned,
+                  StageWorker<T> worker) {
+        this.pipeline = pipeline;
+        this.name = name;
+        this.parallelism = Math.max(1, parallelism);
+        this.capacity = Math.max(1, capacity);
+        this.worker = worker;
+        this.partitioned = partitioned;
+        int queueCount = partitioned ? this.parallelism : 1;
+        for (int i = 0; i < queueCount; i++) {
+            this.queues.add(new ArrayBlockingQueue<>(this.capacity));
+        }
+        for (int i = 0; i < this.parallelism; i++) {
+            BlockingQueue<Object> queue = this.queues.get(i % queueCount);
+            Thread thread = new Thread(() -> work(queue), name + "-" + i);
+            thread.setDaemon(true);
+            this.threads.add(thread);
+        }
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    void start() {
+        for (Thread thread : this.threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Puts an item into the shared queue, or into the first lane of a partitioned stage.
+     *
+     * @param item the item.
+     * @throws InterruptedException if the pipeline failed or the caller has been interrupted while waiting.
+     */
+    public void put(T item) throws InterruptedException {
+        put(item, 0);
+    }
+
+    /**
+     * Puts an item into the lane of the given key, waiting while the queue is full.
+     *
+     * @param item the item.
+     * @param key  the key of the lane, items with the same key are processed in order.
+     * @throws InterruptedException if the pipeline failed or the caller has been interrupted while waiting.
+     */
+    public void put(T item, long key) throws InterruptedException {
+        BlockingQueue<Object> queue = this.queues.get((int) Math.floorMod(key, (long) this.queues.size()));
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (this.pipeline.isFailed()) {
+                throw new InterruptedException("The pipeline failed");
+            }
+        }
+        int depth = getQueueDepth();
+        this.peakQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    /**
+     * Lets all workers finish the queued items and waits for them. After the pipeline failed the workers stop on
+     * their own once their queue is empty.
+     *
+     * @throws InterruptedException if the caller has been interrupted while waiting.
+     */
+    void finish() throws InterruptedException {
+        for (int i = 0; i < this.parallelism; i++) {
+            BlockingQueue<Object> queue = this.queues.get(i % this.queues.size());
+            while (!queue.offer(END, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (this.pipeline.isFailed()) {
+                    break;
+                }
+            }
+        }
+        for (Thread thread : this.threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * The loop of a worker thread. After the pipeline failed the remaining items are only drained, so no earlier
+     * stage blocks on a full queue.
+     */
+    @SuppressWarnings("unchecked")
+    private void work(BlockingQueue<Object> queue) {
+        while (true) {
+            Object item;
+            try {
+                item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                this.pipeline.fail(e);
+                return;
+            }
+            if (item == END || (item == null && this.pipeline.isFailed())) {
+                return;
+            }
+            if (item == null || this.pipeline.isFailed()) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                this.worker.process((T) item);
+            } catch (Exception e) {
+                this.pipeline.fail(e);
+            } finally {
+                this.busyNanos.addAndGet(System.nanoTime() - start);
+                this.processedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the amount of items currently waiting in all queues together.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<Object> queue : this.queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    //Only getters from here
+
+    public String getName() {
+        return name;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+}
@@ -0,0 +1,38 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.pipeline;
+
+import java.io.IOException;
+
+/**
+ * The work a pipeline stage does with each of its items.
+ *
+ * @param <T> the type of the items.
+ */
+@FunctionalInterface
+public interface StageWorker<T> {
+
+    /**
+     * Processes one item, usually by handing it to the next stage.
+     *
+     * @param item the item.
+     * @throws IOException          if the item could not be processed, this fails the whole pipeline.
+     * @throws InterruptedException if the worker has been interrupted while waiting for the next stage.
+     */
+    void process(T item) throws IOException, InterruptedException;
+}
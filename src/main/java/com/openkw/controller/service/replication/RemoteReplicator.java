@@ -0,0 +1,508 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openkw.controller.service.snapshot.DeltaObjectReader;
+import com.openkw.controller.service.snapshot.SnapshotCatalog;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.service.snapshot.TimelineIndex;
+import com.openkw.controller.service.storage.StorageBackend;
+import com.openkw.controller.service.storage.StorageObject;
+import com.openkw.controller.util.ReadOnlyFileUtility;
+import com.openkw.model.snapshot.EncryptionConfig;
+import com.openkw.model.snapshot.RepositoryConfig;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps a copy of a repository in a storage backend, which may be a remote object storage. The layout
+ * in the storage follows the repository: "config.json", the stored object files below "objects/" with the same
+ * relative paths, the manifests as "manifests/{snapshot name}.json" and the catalog as "catalog/{id}.json" next to
+ * "catalog/HEAD". The objects already in the storage are looked up with one batched listing instead of one request
+ * per object, and all objects of a snapshot are transferred at the same time, so the latency of the storage is paid
+ * once per snapshot and not once per object. Like the Replicator a manifest and its record follow once all objects
+ * of the snapshot are in place, so an interrupted transfer is continued by the next one.
+ * Objects are transferred as they are stored, encrypted repositories stay encrypted in the storage.
+ */
+public class RemoteReplicator {
+
+    /**
+     * The key of the repository configuration.
+     */
+    private static final String CONFIG_KEY = "config.json";
+
+    /**
+     * The prefix of the keys of the stored object files.
+     */
+    private static final String OBJECTS_PREFIX = "objects/";
+
+    /**
+     * The prefix of the keys of the manifests.
+     */
+    private static final String MANIFESTS_PREFIX = "manifests/";
+
+    /**
+     * The prefix of the keys of the catalog records.
+     */
+    private static final String CATALOG_PREFIX = "catalog/";
+
+    /**
+     * The key of the highest snapshot id in use.
+     */
+    private static final String HEAD_KEY = CATALOG_PREFIX + "HEAD";
+
+    /**
+     * The file extension of serialized manifests and records.
+     */
+    private static final String JSON_POST_FIX = ".json";
+
+    /**
+     * The local repository.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The storage holding the copy.
+     */
+    private final StorageBackend backend;
+
+    /**
+     * The object mapper used to (de-)serialize the configuration, manifests and records.
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * The amount of object files transferred by the last run.
+     */
+    private final AtomicInteger transferredObjectCount = new AtomicInteger();
+
+    /**
+     * The amount of bytes of the object files transferred by the last run.
+     */
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    /**
+     * The amount of snapshots completed in the copy by the last run.
+     */
+    private int replicatedSnapshotCount;
+
+    /**
+     * The amount of snapshots removed from the copy by the last run.
+     */
+    private int prunedSnapshotCount;
+
+    /**
+     * The amount of object files deleted from the storage by the last upload.
+     */
+    private int deletedObjectCount;
+
+    /**
+     * @param repository the local repository.
+     * @param backend    the storage holding the copy, it is not closed by this class.
+     */
+    public RemoteReplicator(SnapshotRepository repository, StorageBackend backend) {
+        this.repository = repository;
+        this.backend = backend;
+    }
+
+    /**
+     * Uploads everything the storage lacks, the oldest snapshot first. Snapshots pruned locally are removed from the
+     * storage, and once the catalog is in line the object files which are no longer stored locally are deleted
+     * from the storage in batches.
+     *
+     * @throws IOException          if the repository could not be read, the storage failed or holds a different
+     *                              repository.
+     * @throws InterruptedException if the upload has been interrupted, it can be continued later.
+     */
+    public void upload() throws IOException, InterruptedException {
+        resetCounts();
+        RepositoryConfig config = this.repository.getConfig();
+        byte[] remoteConfig = await(this.backend.get(CONFIG_KEY));
+        if (remoteConfig == null) {
+            await(this.backend.put(CONFIG_KEY, this.objectMapper.writeValueAsBytes(config)));
+        } else {
+            checkConfig(config, this.objectMapper.readValue(remoteConfig, RepositoryConfig.class));
+        }
+        CompletableFuture<List<StorageObject>> objectListing = this.backend.listAll(OBJECTS_PREFIX);
+        Map<Long, SnapshotRecord> remoteRecords = readRemoteRecords();
+        Set<String> present = ConcurrentHashMap.newKeySet();
+        for (StorageObject object : await(objectListing)) {
+            present.add(object.getKey());
+        }
+        SnapshotCatalog catalog = this.repository.getCatalog();
+        long latestId = catalog.getLatestId();
+        for (long id = 1; id <= latestId; id++) {
+            SnapshotRecord record = catalog.getRecord(id);
+            if (record == null) {
+                continue;
+            }
+            SnapshotRecord remoteRecord = remoteRecords.get(id);
+            if (remoteRecord != null && !remoteRecord.getSnapshotName().equals(record.getSnapshotName())) {
+                throw new IOException(this.backend.getDescription() + " is not a copy of "
+                        + this.repository.getRepositoryPath());
+            }
+            if (remoteRecord != null && remoteRecord.getStatus() == record.getStatus()) {
+                continue;
+            }
+            if (record.getStatus() == SnapshotStatus.COMPLETE) {
+                uploadSnapshot(record, present);
+                this.replicatedSnapshotCount++;
+            } else if (record.getStatus() == SnapshotStatus.PRUNED && remoteRecord != null) {
+                await(this.backend.delete(Arrays.asList(getManifestKey(record.getSnapshotName()))));
+                this.prunedSnapshotCount++;
+            }
+            await(this.backend.put(getRecordKey(id), this.objectMapper.writeValueAsBytes(record)));
+        }
+        await(this.backend.put(HEAD_KEY, Long.toString(latestId).getBytes(StandardCharsets.UTF_8)));
+        deleteRemovedObjects(present);
+    }
+
+    /**
+     * Uploads the missing object files of a snapshot at once, deltas together with their bases, and then its
+     * manifest.
+     */
+    private void uploadSnapshot(SnapshotRecord record, Set<String> present)
+            throws IOException, InterruptedException {
+        SnapshotManifest manifest = this.repository.readManifest(record.getSnapshotName());
+        if (manifest == null) {
+            throw new IOException("There is no manifest for " + record.getSnapshotName());
+        }
+        Set<String> hashes = new HashSet<>();
+        Replicator.collectHashes(manifest.getRoot(), hashes, new HashSet<>());
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for (String hash : hashes) {
+            String current = hash;
+            while (current != null) {
+                if (present.contains(toKey(this.repository.getObjectPath(current)))
+                        || present.contains(toKey(this.repository.getDeltaPath(current)))) {
+                    break;
+                }
+                //Archived objects are copied back into the objects directory first
+                if (!this.repository.hasObject(current)) {
+                    throw new IOException("The object " + current + " is missing in "
+                            + this.repository.getRepositoryPath());
+                }
+                Path objectFile = this.repository.isDelta(current)
+                        ? this.repository.getDeltaPath(current) : this.repository.getObjectPath(current);
+                String key = toKey(objectFile);
+                present.add(key);
+                long size = Files.size(objectFile);
+                uploads.add(this.backend.put(key, objectFile).thenRun(() -> {
+                    this.transferredObjectCount.incrementAndGet();
+                    this.transferredBytes.addAndGet(size);
+                }));
+                if (objectFile.equals(this.repository.getDeltaPath(current))) {
+                    try (DeltaObjectReader reader = new DeltaObjectReader(objectFile, this.repository)) {
+                        current = reader.getBaseHash();
+                    }
+                } else {
+                    current = null;
+                }
+            }
+        }
+        await(CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])));
+        await(this.backend.put(getManifestKey(manifest.getSnapshotName()),
+                this.objectMapper.writeValueAsBytes(manifest)));
+    }
+
+    /**
+     * Deletes the object files from the storage which are neither stored locally, nor parked as fossils by the
+     * garbage collector, nor migrated into the archive. It runs after the manifests of the storage are in line with the local ones, so no
+     * manifest of the storage references them anymore.
+     */
+    private void deleteRemovedObjects(Set<String> present) throws IOException, InterruptedException {
+        List<String> removed = new ArrayList<>();
+        for (String key : present) {
+            Path objectFile = toPath(key);
+            if (Files.notExists(objectFile) && Files.notExists(this.repository.getFossilPath(objectFile))
+                    && !this.repository.isArchived(SnapshotRepository.getHashOfObjectFile(objectFile))) {
+                removed.add(key);
+            }
+        }
+        if (!removed.isEmpty()) {
+            removed.sort(null);
+            await(this.backend.delete(removed));
+            this.deletedObjectCount = removed.size();
+        }
+    }
+
+    /**
+     * Downloads everything the local repository lacks, the oldest snapshot first, so a lost backup directory can
+     * be restored from the storage. Snapshots removed from the storage are removed locally as well, their objects
+     * are left for the garbage collector.
+     *
+     * @throws IOException          if the storage holds no or a different repository, or the repository could not
+     *                              be written.
+     * @throws InterruptedException if the download has been interrupted, it can be continued later.
+     */
+    public void download() throws IOException, InterruptedException {
+        resetCounts();
+        byte[] remoteConfig = await(this.backend.get(CONFIG_KEY));
+        if (remoteConfig == null) {
+            throw new IOException(this.backend.getDescription() + " does not contain a repository");
+        }
+        this.repository.adoptConfig(this.objectMapper.readValue(remoteConfig, RepositoryConfig.class));
+        CompletableFuture<List<StorageObject>> objectListing = this.backend.listAll(OBJECTS_PREFIX);
+        Map<Long, SnapshotRecord> remoteRecords = readRemoteRecords();
+        Map<String, StorageObject> remoteObjects = new HashMap<>();
+        for (StorageObject object : await(objectListing)) {
+            remoteObjects.put(object.getKey(), object);
+        }
+        SnapshotCatalog catalog = this.repository.getCatalog();
+        Set<String> requested = ConcurrentHashMap.newKeySet();
+        for (SnapshotRecord remoteRecord : remoteRecords.values()) {
+            SnapshotRecord record = catalog.getRecord(remoteRecord.getId());
+            if (record != null && !record.getSnapshotName().equals(remoteRecord.getSnapshotName())) {
+                throw new IOException(this.repository.getRepositoryPath() + " is not a copy of "
+                        + this.backend.getDescription());
+            }
+            if (record != null && record.getStatus() == remoteRecord.getStatus()) {
+                continue;
+            }
+            if (remoteRecord.getStatus() == SnapshotStatus.COMPLETE) {
+                downloadSnapshot(remoteRecord, remoteObjects, requested);
+                this.replicatedSnapshotCount++;
+            } else if (remoteRecord.getStatus() == SnapshotStatus.PRUNED && record != null) {
+                Path snapshotFolder = this.repository.getSnapshotFolder(record.getSnapshotName());
+                if (Files.exists(snapshotFolder, LinkOption.NOFOLLOW_LINKS)) {
+                    ReadOnlyFileUtility.deleteDirectory(snapshotFolder);
+                }
+                this.repository.deleteManifest(record.getSnapshotName());
+                this.prunedSnapshotCount++;
+            }
+            catalog.importRecord(remoteRecord);
+        }
+        if (this.replicatedSnapshotCount > 0 || this.prunedSnapshotCount > 0) {
+            new TimelineIndex(this.repository).rebuild();
+        }
+    }
+
+    /**
+     * Downloads the missing objects of a snapshot at once, then its manifest, and builds its browsable folder.
+     */
+    private void downloadSnapshot(SnapshotRecord record, Map<String, StorageObject> remoteObjects,
+                                  Set<String> requested) throws IOException, InterruptedException {
+        byte[] manifestData = await(this.backend.get(getManifestKey(record.getSnapshotName())));
+        if (manifestData == null) {
+            throw new IOException("There is no manifest for " + record.getSnapshotName() + " in "
+                    + this.backend.getDescription());
+        }
+        SnapshotManifest manifest = this.objectMapper.readValue(manifestData, SnapshotManifest.class);
+        Set<String> hashes = new HashSet<>();
+        Replicator.collectHashes(manifest.getRoot(), hashes, new HashSet<>());
+        List<CompletableFuture<Void>> downloads = new ArrayList<>();
+        for (String hash : hashes) {
+            downloads.add(downloadObject(hash, remoteObjects, requested));
+        }
+        await(CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])));
+        this.repository.writeManifest(manifest);
+        Path sourceName = Paths.get(manifest.getSourcePath()).getFileName();
+        if (sourceName != null) {
+            this.repository.materialize(manifest,
+                    this.repository.getSnapshotFolder(manifest.getSnapshotName()).resolve(sourceName.toString()));
+        }
+    }
+
+    /**
+     * Downloads an object unless it is stored locally or requested already. A delta is followed by the chain of
+     * its bases, each base is requested once the delta naming it has arrived.
+     */
+    private CompletableFuture<Void> downloadObject(String hash, Map<String, StorageObject> remoteObjects,
+                                                   Set<String> requested) {
+        if (hash == null || this.repository.hasObject(hash) || !requested.add(hash)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        StorageObject whole = remoteObjects.get(toKey(this.repository.getObjectPath(hash)));
+        StorageObject delta = remoteObjects.get(toKey(this.repository.getDeltaPath(hash)));
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        if (whole == null && delta == null) {
+            failed.completeExceptionally(new IOException("The object " + hash + " is missing in "
+                    + this.backend.getDescription()));
+            return failed;
+        }
+        StorageObject object = whole != null ? whole : delta;
+        Path tempFile;
+        try {
+            tempFile = this.repository.createTempFile();
+        } catch (IOException e) {
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return this.backend.get(object.getKey(), tempFile).thenCompose(done -> {
+            this.transferredObjectCount.incrementAndGet();
+            this.transferredBytes.addAndGet(object.getSize());
+            String baseHash = null;
+            try {
+                if (object == whole) {
+                    this.repository.commitObject(hash, tempFile, FileTime.fromMillis(object.getLastModified()));
+                } else {
+                    try (DeltaObjectReader reader = new DeltaObjectReader(tempFile, this.repository)) {
+                        baseHash = reader.getBaseHash();
+                    }
+                    this.repository.storeDelta(hash, tempFile);
+                }
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            return downloadObject(baseHash, remoteObjects, requested);
+        }).whenComplete((done, failure) -> {
+            if (failure != null) {
+                tempFile.toFile().delete();
+            }
+        });
+    }
+
+    /**
+     * Lists the records of the storage and requests all of them at once.
+     *
+     * @return the records by their id in ascending order.
+     */
+    private Map<Long, SnapshotRecord> readRemoteRecords() throws IOException, InterruptedException {
+        Map<Long, CompletableFuture<byte[]>> requests = new TreeMap<>();
+        for (StorageObject object : await(this.backend.listAll(CATALOG_PREFIX))) {
+            String name = object.getKey().substring(CATALOG_PREFIX.length());
+            if (name.endsWith(JSON_POST_FIX)) {
+                try {
+                    long id = Long.parseLong(name.substring(0, name.length() - JSON_POST_FIX.length()));
+                    requests.put(id, this.backend.get(object.getKey()));
+                } catch (NumberFormatException e) {
+                    //Not a record
+                }
+            }
+        }
+        Map<Long, SnapshotRecord> records = new TreeMap<>();
+        for (Map.Entry<Long, CompletableFuture<byte[]>> request : requests.entrySet()) {
+            byte[] data = await(request.getValue());
+            if (data != null) {
+                records.put(request.getKey(), this.objectMapper.readValue(data, SnapshotRecord.class));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Throws if the configuration of the storage belongs to a repository with a different content hash or
+     * encryption.
+     */
+    private void checkConfig(RepositoryConfig config, RepositoryConfig remoteConfig) throws IOException {
+        EncryptionConfig encryption = config.getEncryption();
+        EncryptionConfig remoteEncryption = remoteConfig.getEncryption();
+        if (!config.getContentHash().equals(remoteConfig.getContentHash())
+                || (encryption == null) != (remoteEncryption == null)
+                || (encryption != null && !Arrays.equals(encryption.getSalt(), remoteEncryption.getSalt()))) {
+            throw new IOException(this.backend.getDescription() + " has a different content hash or encryption");
+        }
+    }
+
+    /**
+     * @return the key of a file inside the repository.
+     */
+    private String toKey(Path file) {
+        return this.repository.getRepositoryPath().relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return the file inside the repository of a key.
+     */
+    private Path toPath(String key) {
+        return this.repository.getRepositoryPath().resolve(key.replace('/', File.separatorChar));
+    }
+
+    private static String getManifestKey(String snapshotName) {
+        return MANIFESTS_PREFIX + snapshotName + JSON_POST_FIX;
+    }
+
+    private static String getRecordKey(long id) {
+        return CATALOG_PREFIX + id + JSON_POST_FIX;
+    }
+
+    /**
+     * Resets the counts before a new run.
+     */
+    private void resetCounts() {
+        this.transferredObjectCount.set(0);
+        this.transferredBytes.set(0);
+        this.replicatedSnapshotCount = 0;
+        this.prunedSnapshotCount = 0;
+        this.deletedObjectCount = 0;
+    }
+
+    /**
+     * Waits for a storage operation.
+     *
+     * @throws IOException if the operation failed.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("The storage operation failed", e.getCause());
+        }
+    }
+
+    //Only getters from here
+
+    public int getTransferredObjectCount() {
+        return transferredObjectCount.get();
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    public int getReplicatedSnapshotCount() {
+        return replicatedSnapshotCount;
+    }
+
+    public int getPrunedSnapshotCount() {
+        return prunedSnapshotCount;
+    }
+
+    public int getDeletedObjectCount() {
+        return deletedObjectCount;
+    }
+}
@@ -0,0 +1,592 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.replication;
+
+import com.openkw.controller.service.parity.PackParity;
+import com.openkw.controller.service.snapshot.DeltaObjectReader;
+import com.openkw.controller.service.snapshot.PackStore;
+import com.openkw.controller.service.snapshot.SnapshotCatalog;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.service.snapshot.TimelineIndex;
+import com.openkw.controller.util.RateLimiter;
+import com.openkw.controller.util.ReadOnlyFileUtility;
+import com.openkw.controller.util.SparseFileOutputStream;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.ParityStripe;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class brings a replica repository in line with its primary. The snapshot catalogs serve as the index: the
+ * records of both repositories are compared id by id and only the snapshots whose record differs are looked at.
+ * For a snapshot the replica lacks, the objects referenced by its manifest which the replica does not store yet are
+ * copied as they are stored, deltas together with their bases, in parallel and within the bandwidth limit. The
+ * manifest and the record follow once all objects are in place, so an interrupted replication leaves no half
+ * copied snapshot behind and the next replication simply continues with the snapshots still missing.
+ * Snapshots pruned in the primary are removed from the replica, their objects are left for its garbage collector.
+ * <p>
+ * If the primary has an archive, the replica gets one as well. The packs and parity stripes are compared by id and
+ * the missing ones are copied as they are, archived objects are never copied back into the objects directory of
+ * the primary. The replica keeps browsable folders for the snapshots which have one in the primary, and drops the
+ * objects the primary has released into its archive, so both repositories are tiered alike.
+ */
+public class Replicator {
+
+    /**
+     * The default amount of objects copied at the same time.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * The directory inside the backup directory of the replica which is attached as its archive directory, unless
+     * the replica has been attached to another one already.
+     */
+    public static final String REPLICA_ARCHIVE_DIR = ".archive";
+
+    /**
+     * The size of the buffer used when copying an object file.
+     */
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The repository which is replicated.
+     */
+    private final SnapshotRepository source;
+
+    /**
+     * The replica.
+     */
+    private final SnapshotRepository target;
+
+    /**
+     * The amount of objects copied at the same time.
+     */
+    private final int parallelism;
+
+    /**
+     * Limits the copied bytes per second, null for no limit.
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     * The amount of copied object files of the last replication.
+     */
+    private final AtomicInteger copiedObjectCount = new AtomicInteger();
+
+    /**
+     * The amount of copied packs of the last replication.
+     */
+    private final AtomicInteger copiedPackCount = new AtomicInteger();
+
+    /**
+     * The amount of copied bytes of the last replication.
+     */
+    private final AtomicLong copiedBytes = new AtomicLong();
+
+    /**
+     * The amount of snapshots completed in the replica by the last replication.
+     */
+    private int replicatedSnapshotCount;
+
+    /**
+     * The amount of snapshots removed from the replica by the last replication.
+     */
+    private int prunedSnapshotCount;
+
+    /**
+     * @param source      the repository which is replicated.
+     * @param target      the replica, it has to be empty or a replica of the source already.
+     * @param parallelism the amount of objects copied at the same time.
+     * @param rateLimiter limits the copied bytes per second, null for no limit.
+     */
+    public Replicator(SnapshotRepository source, SnapshotRepository target, int parallelism,
+                      RateLimiter rateLimiter) {
+        this.source = source;
+        this.target = target;
+        this.parallelism = Math.max(1, parallelism);
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Copies everything the replica lacks, the archive first and then the snapshots, the oldest one first.
+     *
+     * @throws IOException          if the source could not be read, the replica could not be written or the replica
+     *                              belongs to another repository.
+     * @throws InterruptedException if the replication has been interrupted, it can be continued later.
+     */
+    public void replicate() throws IOException, InterruptedException {
+        this.copiedObjectCount.set(0);
+        this.copiedPackCount.set(0);
+        this.copiedBytes.set(0);
+        this.replicatedSnapshotCount = 0;
+        this.prunedSnapshotCount = 0;
+        this.target.adoptConfig(this.source.getConfig());
+        PackStore sourceArchive = this.source.getArchive();
+        if (sourceArchive != null && this.target.getArchive() == null) {
+            this.target.attachArchive(this.target.getRepositoryPath().resolveSibling(REPLICA_ARCHIVE_DIR));
+        }
+        SnapshotCatalog sourceCatalog = this.source.getCatalog();
+        SnapshotCatalog targetCatalog = this.target.getCatalog();
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "replicate");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //Objects known to be stored in the replica, shared by all snapshots of this replication
+        Set<String> present = new HashSet<>();
+        try {
+            //Packs of the primary which the replica may keep, the others are deleted once the snapshots are done
+            Set<String> sourcePackIds = null;
+            if (sourceArchive != null) {
+                sourcePackIds = copyArchive(sourceArchive, this.target.getArchive(), executor);
+            }
+            long latestId = sourceCatalog.getLatestId();
+            for (long id = 1; id <= latestId; id++) {
+                SnapshotRecord record = sourceCatalog.getRecord(id);
+                if (record == null) {
+                    continue;
+                }
+                SnapshotRecord replicaRecord = targetCatalog.getRecord(id);
+                if (replicaRecord != null && !replicaRecord.getSnapshotName().equals(record.getSnapshotName())) {
+                    throw new IOException(this.target.getRepositoryPath() + " is not a replica of "
+                            + this.source.getRepositoryPath());
+                }
+                if (replicaRecord != null && replicaRecord.getStatus() == record.getStatus()) {
+                    continue;
+                }
+                if (record.getStatus() == SnapshotStatus.COMPLETE) {
+                    replicateSnapshot(record, executor, present);
+                    this.replicatedSnapshotCount++;
+                } else if (record.getStatus() == SnapshotStatus.PRUNED && replicaRecord != null) {
+                    removeSnapshot(record);
+                    this.prunedSnapshotCount++;
+                }
+                targetCatalog.importRecord(record);
+            }
+            updateFolders();
+            if (sourceArchive != null) {
+                removeObsoletePacks(sourcePackIds, sourceArchive, this.target.getArchive());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (this.replicatedSnapshotCount > 0 || this.prunedSnapshotCount > 0) {
+            new TimelineIndex(this.target).rebuild();
+        }
+    }
+
+    /**
+     * Copies the missing objects of a snapshot, then its manifest.
+     */
+    private void replicateSnapshot(SnapshotRecord record, ExecutorService executor, Set<String> present)
+            throws IOException, InterruptedException {
+        SnapshotManifest manifest = this.source.readManifest(record.getSnapshotName());
+        if (manifest == null) {
+            throw new IOException("There is no manifest for " + record.getSnapshotName());
+        }
+        Set<String> hashes = new HashSet<>();
+        collectHashes(manifest.getRoot(), hashes, new HashSet<>());
+        List<Future<?>> copies = new ArrayList<>();
+        for (String hash : hashes) {
+            if (present.add(hash)) {
+                copies.add(executor.submit(() -> {
+                    copyObject(hash);
+                    return null;
+                }));
+            }
+        }
+        try {
+            await(copies, record.getSnapshotName());
+        } catch (IOException e) {
+            //The objects of the failed copy are looked up again by the next replication
+            present.removeAll(hashes);
+            throw e;
+        }
+        this.target.writeManifest(manifest);
+    }
+
+    /**
+     * Collects the content hashes of all files below the entry. Directories with a tree hash which has been seen
+     * already reference the same files and are skipped.
+     */
+    static void collectHashes(ManifestEntry entry, Set<String> hashes, Set<String> treeHashes) {
+        if (!entry.isDirectory()) {
+            hashes.add(entry.getContentHash());
+            return;
+        }
+        if (entry.getTreeHash() != null && !treeHashes.add(entry.getTreeHash())) {
+            return;
+        }
+        for (ManifestEntry child : entry.getChildren()) {
+            collectHashes(child, hashes, treeHashes);
+        }
+    }
+
+    /**
+     * Copies an object into the replica unless it is stored there already, in its objects directory or its
+     * archive. A delta is copied together with the chain of its bases.
+     */
+    private void copyObject(String hash) throws IOException, InterruptedException {
+        String current = hash;
+        while (current != null && !this.target.isStoredLocally(current) && !this.target.isArchived(current)) {
+            if (this.source.isStoredLocally(current)) {
+                current = copyStoredObject(current);
+            } else {
+                current = copyArchivedObject(current);
+            }
+            this.copiedObjectCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Copies an object of the objects directory of the primary.
+     *
+     * @return the hash of the base object if the object is a delta, null otherwise.
+     */
+    private String copyStoredObject(String hash) throws IOException, InterruptedException {
+        if (this.source.isDelta(hash)) {
+            Path deltaPath = this.source.getDeltaPath(hash);
+            String baseHash;
+            try (DeltaObjectReader reader = new DeltaObjectReader(deltaPath, this.source)) {
+                baseHash = reader.getBaseHash();
+            }
+            this.target.storeDelta(hash, copyToTempFile(deltaPath));
+            return baseHash;
+        }
+        Path objectPath = this.source.getObjectPath(hash);
+        FileTime lastModified = Files.getLastModifiedTime(objectPath);
+        Path tempFile = copyToTempFile(objectPath);
+        try {
+            this.target.commitObject(hash, tempFile, lastModified);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return null;
+    }
+
+    /**
+     * Extracts an object which the primary only stores in its archive, usually archived after its pack has been
+     * copied. It is not copied back into the objects directory of the primary, that would undo the tiering.
+     *
+     * @return the hash of the base object if the object is a delta, null otherwise.
+     */
+    private String copyArchivedObject(String hash) throws IOException, InterruptedException {
+        PackStore archive = this.source.getArchive();
+        PackStore.PackEntry entry = archive == null ? null : archive.getEntry(hash);
+        if (entry == null) {
+            throw new IOException("The object " + hash + " is missing in " + this.source.getRepositoryPath());
+        }
+        acquire(entry.getRawLength());
+        Path tempFile = this.target.createTempFile();
+        try {
+            archive.extract(hash, tempFile);
+            this.copiedBytes.addAndGet(entry.getRawLength());
+            if (entry.isDelta()) {
+                this.target.storeDelta(hash, tempFile);
+            } else {
+                this.target.commitObject(hash, tempFile, FileTime.fromMillis(entry.getLastModified()));
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return entry.isDelta() ? entry.getBaseHash() : null;
+    }
+
+    /**
+     * Copies the packs and parity stripes of the primary's archive which the replica's archive lacks, as they are.
+     * Packs and stripes never change once they are finished, their ids are enough to compare them.
+     *
+     * @return the ids of the packs of the primary.
+     */
+    private Set<String> copyArchive(PackStore sourceArchive, PackStore targetArchive, ExecutorService executor)
+            throws IOException, InterruptedException {
+        Set<String> sourcePackIds = new HashSet<>(sourceArchive.listPacks());
+        Set<String> targetPackIds = new HashSet<>(targetArchive.listPacks());
+        List<Future<?>> copies = new ArrayList<>();
+        for (String packId : sourcePackIds) {
+            if (!targetPackIds.contains(packId)) {
+                copies.add(executor.submit(() -> {
+                    copyPack(packId, sourceArchive, targetArchive);
+                    return null;
+                }));
+            }
+        }
+        await(copies, "the archive");
+
+        PackParity sourceParity = new PackParity(sourceArchive, null);
+        PackParity targetParity = new PackParity(targetArchive, null);
+        Set<String> targetStripeIds = new HashSet<>();
+        for (ParityStripe stripe : targetParity.listStripes()) {
+            targetStripeIds.add(stripe.getId());
+        }
+        for (ParityStripe stripe : sourceParity.listStripes()) {
+            boolean complete = true;
+            for (String packId : stripe.getPackIds()) {
+                complete &= Files.exists(targetArchive.getIndexPath(packId));
+            }
+            if (complete && !targetStripeIds.contains(stripe.getId())) {
+                copyStripe(stripe, sourceParity, targetParity, targetArchive);
+            }
+        }
+        return sourcePackIds;
+    }
+
+    /**
+     * Copies a pack together with its index. The objects of the pack which the primary has released from its
+     * objects directory are released from the objects directory of the replica as well.
+     */
+    private void copyPack(String packId, PackStore sourceArchive, PackStore targetArchive)
+            throws IOException, InterruptedException {
+        Path packFile = targetArchive.createTempFile();
+        Path indexFile = targetArchive.createTempFile();
+        try {
+            copyFile(sourceArchive.getPackPath(packId), packFile);
+            copyFile(sourceArchive.getIndexPath(packId), indexFile);
+            targetArchive.addPack(packId, packFile, indexFile);
+            this.copiedPackCount.incrementAndGet();
+        } catch (NoSuchFileException e) {
+            //Compacted in the primary in the meantime, its objects are copied with the new pack
+            return;
+        } finally {
+            Files.deleteIfExists(packFile);
+            Files.deleteIfExists(indexFile);
+        }
+        for (PackStore.PackEntry entry : targetArchive.readIndex(packId)) {
+            releaseObject(entry.getHash());
+        }
+    }
+
+    /**
+     * Copies the parity files and index copies of a stripe, the description follows last.
+     */
+    private void copyStripe(ParityStripe stripe, PackParity sourceParity, PackParity targetParity,
+                            PackStore targetArchive) throws IOException, InterruptedException {
+        List<Path> sourceFiles = sourceParity.getStripeFiles(stripe);
+        List<Path> targetFiles = targetParity.getStripeFiles(stripe);
+        try {
+            for (int i = 0; i < sourceFiles.size(); i++) {
+                Files.createDirectories(targetFiles.get(i).getParent());
+                copyFile(sourceFiles.get(i), targetFiles.get(i));
+            }
+            Path tempFile = targetArchive.createTempFile();
+            try {
+                copyFile(sourceParity.getStripeFile(stripe.getId()), tempFile);
+                Files.move(tempFile, targetParity.getStripeFile(stripe.getId()), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (NoSuchFileException e) {
+            //Dissolved in the primary in the meantime
+            targetParity.deleteStripe(stripe.getId());
+        }
+    }
+
+    /**
+     * Deletes the stripes and packs of the replica's archive which the primary's archive does not have anymore.
+     * This runs after the snapshots, the live objects of such a pack have been copied with a newer pack, the
+     * others belong to pruned snapshots only.
+     *
+     * @param sourcePackIds the ids of the packs of the primary when the archive has been copied.
+     */
+    private void removeObsoletePacks(Set<String> sourcePackIds, PackStore sourceArchive, PackStore targetArchive)
+            throws IOException {
+        Set<String> sourceStripeIds = new HashSet<>();
+        for (ParityStripe stripe : new PackParity(sourceArchive, null).listStripes()) {
+            sourceStripeIds.add(stripe.getId());
+        }
+        PackParity targetParity = new PackParity(targetArchive, null);
+        for (ParityStripe stripe : targetParity.listStripes()) {
+            if (!sourceStripeIds.contains(stripe.getId())) {
+                targetParity.deleteStripe(stripe.getId());
+            }
+        }
+        for (String packId : targetArchive.listPacks()) {
+            if (!sourcePackIds.contains(packId)) {
+                targetArchive.deletePack(packId);
+            }
+        }
+    }
+
+    /**
+     * Builds the browsable folders of the snapshots which have one in the primary and deletes the others, the
+     * objects of a deleted folder are released like the primary has released them.
+     */
+    private void updateFolders() throws IOException {
+        for (SnapshotRecord record : this.target.getCatalog().list(0, Integer.MAX_VALUE)) {
+            if (record.getStatus() != SnapshotStatus.COMPLETE) {
+                continue;
+            }
+            Path snapshotFolder = this.target.getSnapshotFolder(record.getSnapshotName());
+            boolean browsable = Files.exists(this.source.getSnapshotFolder(record.getSnapshotName()),
+                    LinkOption.NOFOLLOW_LINKS);
+            if (browsable == Files.exists(snapshotFolder, LinkOption.NOFOLLOW_LINKS)) {
+                continue;
+            }
+            SnapshotManifest manifest = this.target.readManifest(record.getSnapshotName());
+            if (manifest == null) {
+                continue;
+            }
+            if (browsable) {
+                Path sourceName = Paths.get(manifest.getSourcePath()).getFileName();
+                if (sourceName != null) {
+                    this.target.materialize(manifest, snapshotFolder.resolve(sourceName.toString()));
+                }
+            } else {
+                ReadOnlyFileUtility.deleteDirectory(snapshotFolder);
+                Set<String> hashes = new HashSet<>();
+                collectHashes(manifest.getRoot(), hashes, new HashSet<>());
+                for (String hash : hashes) {
+                    releaseObject(hash);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes an archived object from the objects directory of the replica if the primary has released it from
+     * its own, fossils of the primary count as released.
+     */
+    private void releaseObject(String hash) throws IOException {
+        if (Files.exists(this.source.getObjectPath(hash)) || Files.exists(this.source.getDeltaPath(hash))
+                || !this.target.isArchived(hash)) {
+            return;
+        }
+        deleteIfExists(this.target.getObjectPath(hash));
+        deleteIfExists(this.target.getDeltaPath(hash));
+    }
+
+    /**
+     * Copies a stored file as it is into a temp file of the replica.
+     */
+    private Path copyToTempFile(Path storedFile) throws IOException, InterruptedException {
+        Path tempFile = this.target.createTempFile();
+        try {
+            copyFile(storedFile, tempFile);
+        } catch (IOException | InterruptedException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        return tempFile;
+    }
+
+    /**
+     * Copies a file as it is within the bandwidth limit, keeping runs of zero blocks as holes.
+     */
+    private void copyFile(Path sourceFile, Path targetFile) throws IOException, InterruptedException {
+        try (InputStream in = Files.newInputStream(sourceFile);
+             OutputStream out = new SparseFileOutputStream(targetFile)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                acquire(read);
+                out.write(buffer, 0, read);
+                this.copiedBytes.addAndGet(read);
+            }
+        }
+    }
+
+    /**
+     * Waits for all copies, the others are cancelled once one of them has failed.
+     *
+     * @param what the name of the copied snapshot or archive, for the message of a failure.
+     */
+    private static void await(List<Future<?>> copies, String what) throws IOException, InterruptedException {
+        try {
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> copy : copies) {
+                copy.cancel(true);
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("The replication of " + what + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Removes the manifest and the browsable folder of a snapshot pruned in the primary from the replica.
+     */
+    private void removeSnapshot(SnapshotRecord record) throws IOException {
+        Path snapshotFolder = this.target.getSnapshotFolder(record.getSnapshotName());
+        if (Files.exists(snapshotFolder, LinkOption.NOFOLLOW_LINKS)) {
+            ReadOnlyFileUtility.deleteDirectory(snapshotFolder);
+        }
+        this.target.deleteManifest(record.getSnapshotName());
+    }
+
+    private static void deleteIfExists(Path file) throws IOException {
+        try {
+            ReadOnlyFileUtility.delete(file);
+        } catch (NoSuchFileException e) {
+            //Not stored in this form.
+        }
+    }
+
+    private void acquire(long bytes) throws InterruptedException {
+        if (this.rateLimiter != null) {
+            this.rateLimiter.acquire(bytes);
+        }
+    }
+
+    //Only getters from here
+
+    public int getCopiedObjectCount() {
+        return copiedObjectCount.get();
+    }
+
+    public int getCopiedPackCount() {
+        return copiedPackCount.get();
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    public int getReplicatedSnapshotCount() {
+        return replicatedSnapshotCount;
+    }
+
+    public int getPrunedSnapshotCount() {
+        return prunedSnapshotCount;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.restore;
+
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.util.FileSizeUtility;
+import com.openkw.model.RestoreProcessModel;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class restores files of a snapshot from the backup repository into a directory.
+ * A whole snapshot, a subtree or a glob selection of it can be restored. Files are written in parallel directly
+ * from the stored objects, delta objects are reassembled on the fly. Files which are already identical in the
+ * restore directory are skipped. The progress is reported through a RestoreProcessModel.
+ */
+public class RestoreEngine {
+
+    /**
+     * The interval in milliseconds in which the progress model is updated.
+     */
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * The repository containing the stored file contents.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The model the progress is reported to.
+     */
+    private final RestoreProcessModel restoreProcessModel;
+
+    /**
+     * The amount of files restored at the same time.
+     */
+    private final int parallelism;
+
+    /**
+     * The amount of bytes of all processed files, restored or skipped.
+     */
+    private final AtomicLong processedBytes = new AtomicLong();
+
+    /**
+     * The amount of restored files.
+     */
+    private final AtomicInteger restoredFiles = new AtomicInteger();
+
+    /**
+     * The amount of skipped files.
+     */
+    private final AtomicInteger skippedFiles = new AtomicInteger();
+
+    /**
+     * The amount of files which could not be restored.
+     */
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /**
+     * The executor of the running restore, null if no restore is running.
+     */
+    private volatile ExecutorService executor;
+
+    /**
+     * @param repository          the repository containing the stored file contents.
+     * @param restoreProcessModel the model the progress is reported to.
+     * @param parallelism         the amount of files restored at the same time.
+     */
+    public RestoreEngine(SnapshotRepository repository, RestoreProcessModel restoreProcessModel, int parallelism) {
+        this.repository = repository;
+        this.restoreProcessModel = restoreProcessModel;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Restores the selected files of a snapshot and blocks until all files are processed or the restore has been
+     * cancelled.
+     *
+     * @param manifest  the manifest of the snapshot.
+     * @param subtree   the path of the subtree to restore relative to the root entry, an empty string restores the
+     *                  whole snapshot.
+     * @param glob      a glob pattern matched against the file paths relative to the subtree, null or empty
+     *                  selects all files.
+     * @param targetDir the directory which represents the subtree after the restore.
+     * @throws IOException          if the directory structure could not be created.
+     * @throws InterruptedException if the thread has been interrupted while waiting for the restore.
+     */
+    public void restore(SnapshotManifest manifest, String subtree, String glob, Path targetDir)
+            throws IOException, InterruptedException {
+        ManifestEntry root = manifest.findEntry(subtree);
+        if (root == null) {
+            throw new IllegalArgumentException("The snapshot does not contain " + subtree);
+        }
+        PathMatcher matcher = glob == null || glob.isEmpty()
+                ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        List<ManifestEntry> files = new ArrayList<>();
+        List<Path> fileTargets = new ArrayList<>();
+        List<ManifestEntry> dirs = new ArrayList<>();
+        List<Path> dirTargets = new ArrayList<>();
+        if (root.isDirectory()) {
+            collect(root, "", targetDir, matcher, files, fileTargets, dirs, dirTargets);
+        } else {
+            files.add(root);
+            fileTargets.add(targetDir.resolve(root.getName()));
+        }
+        long totalBytes = 0;
+        for (ManifestEntry file : files) {
+            totalBytes += file.getSize();
+        }
+
+        resetProgress(totalBytes);
+        Files.createDirectories(targetDir);
+        for (Path dir : dirTargets) {
+            Files.createDirectories(dir);
+        }
+
+        long startTime = System.currentTimeMillis();
+        Timer progressTimer = new Timer(true);
+        progressTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                updateProgress(startTime);
+            }
+        }, PROGRESS_INTERVAL, PROGRESS_INTERVAL);
+        this.executor = Executors.newFixedThreadPool(this.parallelism);
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                ManifestEntry file = files.get(i);
+                Path target = fileTargets.get(i);
+                this.executor.execute(() -> restoreFile(file, target));
+            }
+            this.executor.shutdown();
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            this.executor.shutdownNow();
+            this.executor = null;
+            progressTimer.cancel();
+            //Directory times are set last, writing the files would change them again.
+            for (int i = dirs.size() - 1; i >= 0; i--) {
+                try {
+                    Files.setLastModifiedTime(dirTargets.get(i), FileTime.fromMillis(dirs.get(i).getLastModified()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            updateProgress(startTime);
+            this.restoreProcessModel.setEta("00:00:00");
+            this.restoreProcessModel.setRunning(false);
+        }
+    }
+
+    /**
+     * Cancels a running restore. Files which are currently being written are finished.
+     */
+    public void cancel() {
+        ExecutorService runningExecutor = this.executor;
+        if (runningExecutor != null) {
+            runningExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects the selected files and all directories which contain selected files.
+     */
+    private void collect(ManifestEntry dir, String relativePath, Path target, PathMatcher matcher,
+                         List<ManifestEntry> files, List<Path> fileTargets,
+                         List<ManifestEntry> dirs, List<Path> dirTargets) {
+        int selectedBefore = files.size();
+        int dirIndex = dirs.size();
+        dirs.add(dir);
+        dirTargets.add(target);
+        for (ManifestEntry child : dir.getChildren()) {
+            String childPath = relativePath.isEmpty() ? child.getName() : relativePath + "/" + child.getName();
+            Path childTarget = target.resolve(child.getName());
+            if (child.isDirectory()) {
+                collect(child, childPath, childTarget, matcher, files, fileTargets, dirs, dirTargets);
+            } else if (matcher == null || matcher.matches(Paths.get(childPath))) {
+                files.add(child);
+                fileTargets.add(childTarget);
+            }
+        }
+        if (matcher != null && files.size() == selectedBefore) {
+            //Nothing selected inside this directory, don't create it.
+            dirs.subList(dirIndex, dirs.size()).clear();
+            dirTargets.subList(dirIndex, dirTargets.size()).clear();
+        }
+    }
+
+    /**
+     * Restores a single file unless it is already identical at the target path.
+     *
+     * @param file   the manifest entry of the file.
+     * @param target the path to restore the file to.
+     */
+    private void restoreFile(ManifestEntry file, Path target) {
+        try {
+            if (isIdentical(file, target)) {
+                this.skippedFiles.incrementAndGet();
+            } else {
+                Path tempFile = target.resolveSibling("." + target.getFileName() + ".restore");
+                try {
+                    this.repository.restoreObject(file.getContentHash(), tempFile);
+                    Files.setLastModifiedTime(tempFile, FileTime.fromMillis(file.getLastModified()));
+                    Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+                this.restoredFiles.incrementAndGet();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            this.errors.incrementAndGet();
+        }
+        this.processedBytes.addAndGet(file.getSize());
+    }
+
+    /**
+     * @param file   the manifest entry of the file.
+     * @param target the path to restore the file to.
+     * @return true if the target already has the content of the file. Files with a different last modified time are
+     * hashed, their time is corrected if the content matches.
+     * @throws IOException if the target could not be read.
+     */
+    private boolean isIdentical(ManifestEntry file, Path target) throws IOException {
+        if (!Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+        if (attrs.size() != file.getSize()) {
+            return false;
+        }
+        if (attrs.lastModifiedTime().toMillis() == file.getLastModified()) {
+            return true;
+        }
+        if (this.repository.hashFile(target).equals(file.getContentHash())) {
+            Files.setLastModifiedTime(target, FileTime.fromMillis(file.getLastModified()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resets the counters and the model for a new restore.
+     */
+    private void resetProgress(long totalBytes) {
+        this.processedBytes.set(0);
+        this.restoredFiles.set(0);
+        this.skippedFiles.set(0);
+        this.errors.set(0);
+        this.restoreProcessModel.setRunning(true);
+        this.restoreProcessModel.setTotalBytes(totalBytes);
+        this.restoreProcessModel.setProcessedBytes(0);
+        this.restoreProcessModel.setRestoredFileCount(0);
+        this.restoreProcessModel.setSkippedFileCount(0);
+        this.restoreProcessModel.setErrorCount(0);
+        this.restoreProcessModel.setThroughput("");
+        this.restoreProcessModel.setEta("");
+    }
+
+    /**
+     * Publishes the counters, the throughput and the estimated remaining time to the model.
+     *
+     * @param startTime the start time of the restore in milliseconds since the epoch.
+     */
+    private void updateProgress(long startTime) {
+        long processed = this.processedBytes.get();
+        this.restoreProcessModel.setProcessedBytes(processed);
+        this.restoreProcessModel.setRestoredFileCount(this.restoredFiles.get());
+        this.restoreProcessModel.setSkippedFileCount(this.skippedFiles.get());
+        this.restoreProcessModel.setErrorCount(this.errors.get());
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        long bytesPerSecond = processed * 1000 / elapsedMillis;
+        this.restoreProcessModel.setThroughput(FileSizeUtility.getRecommendedFileSizePresentation(bytesPerSecond)
+                + "/s");
+        if (bytesPerSecond > 0) {
+            long seconds = (this.restoreProcessModel.getTotalBytes() - processed) / bytesPerSecond;
+            this.restoreProcessModel.setEta(String.format("%02d:%02d:%02d",
+                    TimeUnit.SECONDS.toHours(seconds), TimeUnit.SECONDS.toMinutes(seconds) % 60, seconds % 60));
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.retention;
+
+import com.openkw.controller.service.snapshot.SnapshotCatalog;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.service.snapshot.TimelineIndex;
+import com.openkw.controller.util.ReadOnlyFileUtility;
+import com.openkw.model.RetentionPolicy;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class removes the snapshots which are no longer covered by the retention policy.
+ * <p>
+ * The snapshots of a pass are deleted in parallel. For each snapshot the browsable backup folder and the manifest
+ * are deleted and the catalog record is marked as pruned. Objects in the repository are left untouched, only files
+ * of the backup folder which are copies instead of links onto an object free disk space here.
+ */
+public class SnapshotPruner {
+
+    /**
+     * The repository to prune.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The policy which determines the snapshots to keep.
+     */
+    private final RetentionPolicy retentionPolicy;
+
+    /**
+     * The amount of snapshots deleted in parallel.
+     */
+    private final int parallelism;
+
+    /**
+     * The amount of snapshots pruned by the last pass.
+     */
+    private int prunedSnapshotCount;
+
+    /**
+     * The amount of errors thrown during the last pass.
+     */
+    private final AtomicInteger errorCount = new AtomicInteger();
+
+    /**
+     * @param repository      the repository to prune.
+     * @param retentionPolicy the policy which determines the snapshots to keep.
+     * @param parallelism     the amount of snapshots deleted in parallel.
+     */
+    public SnapshotPruner(SnapshotRepository repository, RetentionPolicy retentionPolicy, int parallelism) {
+        this.repository = repository;
+        this.retentionPolicy = retentionPolicy;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs one prune pass and blocks until all selected snapshots are deleted. Afterwards the versions of the
+     * pruned snapshots are removed from the timeline index, so no timeline refers to a pruned snapshot.
+     *
+     * @return the amount of bytes reclaimed on the backup disk.
+     * @throws IOException          if the catalog could not be read.
+     * @throws InterruptedException if the thread has been interrupted while waiting for the deletions.
+     */
+    public long prune() throws IOException, InterruptedException {
+        this.prunedSnapshotCount = 0;
+        this.errorCount.set(0);
+        SnapshotCatalog catalog = this.repository.getCatalog();
+        List<SnapshotRecord> complete = new ArrayList<>();
+        for (SnapshotRecord record : catalog.list(0, Integer.MAX_VALUE)) {
+            if (record.getStatus() == SnapshotStatus.COMPLETE) {
+                complete.add(record);
+            }
+        }
+        List<SnapshotRecord> prunable = selectPrunable(complete, this.retentionPolicy, System.currentTimeMillis());
+        if (prunable.isEmpty()) {
+            return 0;
+        }
+
+        TimelineIndex timelineIndex = new TimelineIndex(this.repository);
+        TimelineIndex.PendingRemoval timelineRemoval = timelineIndex.prepareRemoval(complete, prunable);
+        Set<String> prunedNames = ConcurrentHashMap.newKeySet();
+        AtomicLong reclaimedBytes = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism);
+        try {
+            for (SnapshotRecord record : prunable) {
+                executor.execute(() -> {
+                    try {
+                        reclaimedBytes.addAndGet(deleteSnapshot(catalog, record));
+                        prunedNames.add(record.getSnapshotName());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        this.errorCount.incrementAndGet();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        this.prunedSnapshotCount = prunable.size() - this.errorCount.get();
+        timelineIndex.removeSnapshots(timelineRemoval, prunedNames);
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * Selects the snapshots which are not covered by the retention policy. The newest snapshot of every data
+     * directory is always kept, so the next backup can still be compared against it.
+     *
+     * @param records         the records of the complete snapshots, the newest first.
+     * @param retentionPolicy the policy which determines the snapshots to keep.
+     * @param now             the current time in milliseconds since the epoch.
+     * @return the records of the snapshots to prune.
+     */
+    public static List<SnapshotRecord> selectPrunable(List<SnapshotRecord> records, RetentionPolicy retentionPolicy,
+                                                      long now) {
+        long keepAllLimit = now - TimeUnit.HOURS.toMillis(retentionPolicy.getKeepAllHours());
+        long hourlyLimit = now - TimeUnit.DAYS.toMillis(retentionPolicy.getKeepHourlyDays());
+        long dailyLimit = now - TimeUnit.DAYS.toMillis(retentionPolicy.getKeepDailyDays());
+        Set<String> keptSources = new HashSet<>();
+        Set<String> keptHours = new HashSet<>();
+        Set<String> keptDays = new HashSet<>();
+        List<SnapshotRecord> prunable = new ArrayList<>();
+        for (SnapshotRecord record : records) {
+            long time = record.getStartedAt();
+            LocalDateTime localTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+            //The buckets are kept per data directory, the first snapshot of a bucket is the newest one
+            String hourBucket = record.getSourcePath() + '\0' + localTime.truncatedTo(ChronoUnit.HOURS);
+            String dayBucket = record.getSourcePath() + '\0' + localTime.toLocalDate();
+            boolean keep = keptSources.add(record.getSourcePath())
+                    || time >= keepAllLimit
+                    || (time >= hourlyLimit && !keptHours.contains(hourBucket))
+                    || (time >= dailyLimit && !keptDays.contains(dayBucket));
+            if (keep) {
+                keptHours.add(hourBucket);
+                keptDays.add(dayBucket);
+            } else {
+                prunable.add(record);
+            }
+        }
+        return prunable;
+    }
+
+    /**
+     * Deletes the backup folder and the manifest of a snapshot and marks it as pruned in the catalog.
+     *
+     * @return the amount of bytes reclaimed on the backup disk.
+     */
+    private long deleteSnapshot(SnapshotCatalog catalog, SnapshotRecord record) throws IOException {
+        long reclaimedBytes = 0;
+        Path snapshotFolder = this.repository.getSnapshotFolder(record.getSnapshotName());
+        SnapshotManifest manifest = this.repository.readManifest(record.getSnapshotName());
+        if (manifest != null) {
+            Path sourceName = Paths.get(manifest.getSourcePath()).getFileName();
+            if (sourceName != null) {
+                reclaimedBytes += countCopiedBytes(manifest.getRoot(), snapshotFolder.resolve(sourceName.toString()));
+            }
+        }
+        if (Files.exists(snapshotFolder, LinkOption.NOFOLLOW_LINKS)) {
+            ReadOnlyFileUtility.deleteDirectory(snapshotFolder);
+        }
+        reclaimedBytes += this.repository.deleteManifest(record.getSnapshotName());
+        catalog.markPruned(record);
+        return reclaimedBytes;
+    }
+
+    /**
+     * Sums up the sizes of the files inside the backup folder which are copies of their objects, deleting a hard
+     * link onto an object does not free any disk space.
+     */
+    private long countCopiedBytes(ManifestEntry entry, Path target) throws IOException {
+        if (entry.isDirectory()) {
+            long bytes = 0;
+            for (ManifestEntry child : entry.getChildren()) {
+                bytes += countCopiedBytes(child, target.resolve(child.getName()));
+            }
+            return bytes;
+        }
+        if (Files.notExists(target, LinkOption.NOFOLLOW_LINKS)) {
+            return 0;
+        }
+        Path objectPath = this.repository.getObjectPath(entry.getContentHash());
+        if (Files.exists(objectPath) && Files.isSameFile(objectPath, target)) {
+            return 0;
+        }
+        return Files.size(target);
+    }
+
+    //Only getters from here
+
+    public int getPrunedSnapshotCount() {
+        return prunedSnapshotCount;
+    }
+
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+}
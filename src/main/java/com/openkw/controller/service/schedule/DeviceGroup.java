@@ -0,0 +1,124 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.schedule;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class groups the jobs of the FairScheduler by the device their source or backup directory lives on.
+ * Only a limited amount of runs may stream from or to a device at the same time, so jobs on the same disk are run
+ * one after the other instead of fighting over the disk head while jobs on different devices run in parallel.
+ * All state is guarded by the scheduler.
+ */
+public class DeviceGroup {
+
+    /**
+     * The scheduler this group belongs to.
+     */
+    private final FairScheduler scheduler;
+
+    /**
+     * The id of the device, the device number where the file system provides one.
+     */
+    private final String id;
+
+    /**
+     * The human readable name of the device, the description of its file store.
+     */
+    private final String name;
+
+    /**
+     * The amount of runs which may use the device at the same time.
+     */
+    int streamLimit;
+
+    /**
+     * The amount of runs currently using the device.
+     */
+    int activeStreams;
+
+    /**
+     * @param scheduler   the scheduler this group belongs to.
+     * @param id          the id of the device.
+     * @param name        the human readable name of the device.
+     * @param streamLimit the amount of runs which may use the device at the same time, at least 1.
+     */
+    DeviceGroup(FairScheduler scheduler, String id, String name, int streamLimit) {
+        this.scheduler = scheduler;
+        this.id = id;
+        this.name = name;
+        this.streamLimit = Math.max(1, streamLimit);
+    }
+
+    /**
+     * Resolves the device of the given path. Paths which do not exist yet are resolved by their nearest existing
+     * parent.
+     *
+     * @param path the path of a source or backup directory.
+     * @return the id of the device followed by its human readable name, the path itself if it cannot be resolved.
+     */
+    static String[] resolve(Path path) {
+        Path existing = path.toAbsolutePath().normalize();
+        while (existing != null && Files.notExists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return new String[]{path.toString(), path.toString()};
+        }
+        try {
+            FileStore store = Files.getFileStore(existing);
+            String id;
+            try {
+                //The device number tells different partitions of one disk apart just like different disks, but it
+                //is the finest grouping available without platform specific code.
+                id = "dev:" + Files.getAttribute(existing, "unix:dev");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                id = "store:" + store.name();
+            }
+            return new String[]{id, store.toString()};
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new String[]{path.toString(), path.toString()};
+        }
+    }
+
+    //Only getters from here
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStreamLimit() {
+        synchronized (this.scheduler) {
+            return streamLimit;
+        }
+    }
+
+    public int getActiveStreams() {
+        synchronized (this.scheduler) {
+            return activeStreams;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.schedule;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the backup jobs of the process concurrently within a global worker budget.
+ * Every job triggers itself at its interval. A trigger queues a run of the job unless one is queued or running
+ * already, and the workers always take the queued run of the job which has received the least run time relative
+ * to its weight. On top of that the jobs share as many I/O permits as there are workers, handed out by the same
+ * rule regarding the bytes read. This is start time fair queueing: a job which has been idle starts at the virtual
+ * time of the jobs being served instead of its old one, so it cannot claim the idle time as credit.
+ * Additionally every job belongs to the DeviceGroups of its directories and a run is only started while all of its
+ * devices have a free stream. A queued run which waits for a device reserves it, so runs queued later cannot
+ * overtake it on that device and starve it.
+ */
+public class FairScheduler {
+
+    /**
+     * The amount of runs and I/O permits which may be active at the same time.
+     */
+    private final int workerBudget;
+
+    /**
+     * The registered jobs.
+     */
+    private final List<JobShare> shares = new ArrayList<>();
+
+    /**
+     * The devices of the registered jobs by their id.
+     */
+    private final Map<String, DeviceGroup> devices = new LinkedHashMap<>();
+
+    /**
+     * The amount of runs which may use a device at the same time unless configured otherwise for the device.
+     */
+    private final int defaultStreamLimit;
+
+    /**
+     * The configured stream limits by device name or id.
+     */
+    private final Map<String, Integer> streamLimits;
+
+    /**
+     * Triggers the jobs at their intervals.
+     */
+    private final ScheduledExecutorService trigger;
+
+    /**
+     * The amount of I/O permits currently not taken.
+     */
+    private int freeIoPermits;
+
+    /**
+     * The run virtual time of the run taken last.
+     */
+    private double runSystemTime;
+
+    /**
+     * The I/O virtual time of the permit handed out last.
+     */
+    private double ioSystemTime;
+
+    /**
+     * True once the scheduler has been shut down.
+     */
+    private boolean shutdown;
+
+    /**
+     * Creates a scheduler which does not limit the runs per device beyond the worker budget.
+     *
+     * @param workerBudget the amount of runs and I/O permits which may be active at the same time, at least 1.
+     */
+    public FairScheduler(int workerBudget) {
+        this(workerBudget, workerBudget, Map.of());
+    }
+
+    /**
+     * @param workerBudget       the amount of runs and I/O permits which may be active at the same time, at least 1.
+     * @param defaultStreamLimit the amount of runs which may use one device at the same time, at least 1.
+     * @param streamLimits       stream limits overriding the default for single devices, by the device name shown
+     *                           to the user or the device id.
+     */
+    public FairScheduler(int workerBudget, int defaultStreamLimit, Map<String, Integer> streamLimits) {
+        this.workerBudget = Math.max(1, workerBudget);
+        this.defaultStreamLimit = Math.max(1, defaultStreamLimit);
+        this.streamLimits = streamLimits;
+        this.freeIoPermits = this.workerBudget;
+        this.trigger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-trigger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < this.workerBudget; i++) {
+            Thread worker = new Thread(this::work, "job-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * @param name        the name of the job.
+     * @param weight      the share of the job relative to the other jobs, at least 1.
+     * @param directories the directories the job reads from or writes to, a run takes a stream of each of their
+     *                    devices.
+     * @return the share of the new job.
+     */
+    public synchronized JobShare register(String name, int weight, Path... directories) {
+        List<DeviceGroup> jobDevices = new ArrayList<>();
+        for (Path directory : directories) {
+            String[] device = DeviceGroup.resolve(directory);
+            DeviceGroup group = this.devices.computeIfAbsent(device[0], id -> new DeviceGroup(this, id, device[1],
+                    this.streamLimits.getOrDefault(device[1],
+                            this.streamLimits.getOrDefault(id, this.defaultStreamLimit))));
+            if (!jobDevices.contains(group)) {
+                jobDevices.add(group);
+            }
+        }
+        JobShare share = new JobShare(this, name, weight, jobDevices);
+        this.shares.add(share);
+        return share;
+    }
+
+    /**
+     * Triggers the job at a fixed rate, the first time after one interval.
+     *
+     * @param share          the share of the job.
+     * @param run            the work of one run.
+     * @param intervalMillis the interval in milliseconds.
+     */
+    public void schedule(JobShare share, Runnable run, long intervalMillis) {
+        this.trigger.scheduleAtFixedRate(() -> submit(share, run), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a run of the job.
+     *
+     * @param share the share of the job.
+     * @param run   the work of the run.
+     * @return false if the trigger has been dropped because a run of the job is queued or running already.
+     */
+    public synchronized boolean submit(JobShare share, Runnable run) {
+        if (this.shutdown) {
+            return false;
+        }
+        if (share.pending != null || share.running) {
+            share.skippedTriggers++;
+            return false;
+        }
+        share.pending = run;
+        share.submittedAt = System.nanoTime();
+        share.runVirtualTime = Math.max(share.runVirtualTime, this.runSystemTime);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * The loop of every worker.
+     */
+    private void work() {
+        try {
+            while (true) {
+                JobShare share;
+                Runnable run;
+                synchronized (this) {
+                    while ((share = nextRun()) == null) {
+                        if (this.shutdown) {
+                            return;
+                        }
+                        wait();
+                    }
+                    run = share.pending;
+                    share.pending = null;
+                    share.running = true;
+                    for (DeviceGroup device : share.devices) {
+                        device.activeStreams++;
+                    }
+                    share.lastQueueMillis = (System.nanoTime() - share.submittedAt) / 1000000;
+                    this.runSystemTime = share.runVirtualTime;
+                }
+                long start = System.nanoTime();
+                try {
+                    run.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    synchronized (this) {
+                        share.running = false;
+                        share.completedRuns++;
+                        share.runVirtualTime += (double) (System.nanoTime() - start) / share.getWeight();
+                        for (DeviceGroup device : share.devices) {
+                            device.activeStreams--;
+                        }
+                        //Runs waiting for one of the devices may be started now
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            //The scheduler has been shut down.
+        }
+    }
+
+    /**
+     * @return the share with a queued run which may use its devices and has the lowest run virtual time, null if
+     * there is no such run.
+     */
+    private JobShare nextRun() {
+        if (this.shutdown) {
+            return null;
+        }
+        Set<DeviceGroup> reserved = new HashSet<>();
+        for (JobShare share : queuedByVirtualTime()) {
+            boolean startable = true;
+            for (DeviceGroup device : share.devices) {
+                if (device.activeStreams >= device.streamLimit || reserved.contains(device)) {
+                    startable = false;
+                    break;
+                }
+            }
+            if (startable) {
+                return share;
+            }
+            reserved.addAll(share.devices);
+        }
+        return null;
+    }
+
+    /**
+     * @return the shares with a queued run, the one with the lowest run virtual time first.
+     */
+    private List<JobShare> queuedByVirtualTime() {
+        List<JobShare> queued = new ArrayList<>();
+        for (JobShare share : this.shares) {
+            if (share.pending != null) {
+                queued.add(share);
+            }
+        }
+        queued.sort(Comparator.comparingDouble(share -> share.runVirtualTime));
+        return queued;
+    }
+
+    /**
+     * Determines the device most queued runs are waiting for. A run only counts for the devices which have no free
+     * stream, runs waiting for a worker alone do not count.
+     *
+     * @return the bottleneck device, null if no queued run is waiting for a device.
+     */
+    public synchronized DeviceGroup getBottleneck() {
+        Map<DeviceGroup, Integer> waiting = new LinkedHashMap<>();
+        for (JobShare share : queuedByVirtualTime()) {
+            for (DeviceGroup device : share.devices) {
+                if (device.activeStreams >= device.streamLimit) {
+                    waiting.merge(device, 1, Integer::sum);
+                }
+            }
+        }
+        DeviceGroup bottleneck = null;
+        for (Map.Entry<DeviceGroup, Integer> entry : waiting.entrySet()) {
+            if (bottleneck == null || entry.getValue() > waiting.get(bottleneck)) {
+                bottleneck = entry.getKey();
+            }
+        }
+        return bottleneck;
+    }
+
+    /**
+     * Implementation of JobShare.acquireIo().
+     */
+    synchronized void acquireIo(JobShare share, long bytes) throws InterruptedException {
+        if (share.ioWaiting == 0 && share.ioActive == 0) {
+            share.ioVirtualTime = Math.max(share.ioVirtualTime, this.ioSystemTime);
+        }
+        share.ioWaiting++;
+        try {
+            while (this.freeIoPermits == 0 || !isNextIo(share)) {
+                wait();
+            }
+        } finally {
+            share.ioWaiting--;
+        }
+        this.freeIoPermits--;
+        share.ioActive++;
+        this.ioSystemTime = share.ioVirtualTime;
+        share.ioVirtualTime += (double) bytes / share.getWeight();
+        notifyAll();
+    }
+
+    /**
+     * @return true if no other job waiting for a permit has a lower I/O virtual time.
+     */
+    private boolean isNextIo(JobShare share) {
+        for (JobShare other : this.shares) {
+            if (other != share && other.ioWaiting > 0 && other.ioVirtualTime < share.ioVirtualTime) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Implementation of JobShare.releaseIo().
+     */
+    synchronized void releaseIo(JobShare share) {
+        this.freeIoPermits++;
+        share.ioActive--;
+        notifyAll();
+    }
+
+    /**
+     * Stops triggering the jobs and drops the queued runs. Running runs are finished, the workers end afterwards.
+     */
+    public void shutdown() {
+        this.trigger.shutdownNow();
+        synchronized (this) {
+            this.shutdown = true;
+            for (JobShare share : this.shares) {
+                share.pending = null;
+            }
+            notifyAll();
+        }
+    }
+
+    //Only getters from here
+
+    public int getWorkerBudget() {
+        return workerBudget;
+    }
+
+    public synchronized List<JobShare> getShares() {
+        return new ArrayList<>(shares);
+    }
+
+    public synchronized List<DeviceGroup> getDevices() {
+        return new ArrayList<>(devices.values());
+    }
+}
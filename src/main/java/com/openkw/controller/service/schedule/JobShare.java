@@ -0,0 +1,160 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.schedule;
+
+import java.util.List;
+
+/**
+ * This class is the handle of one job inside the FairScheduler. It carries the virtual times the fair queueing is
+ * based on and gives the job access to the shared I/O permits. All state is guarded by the scheduler.
+ */
+public class JobShare {
+
+    /**
+     * The scheduler this share belongs to.
+     */
+    private final FairScheduler scheduler;
+
+    /**
+     * The name of the job.
+     */
+    private final String name;
+
+    /**
+     * The weight of the job, the virtual times grow by the consumed service divided by the weight.
+     */
+    private final int weight;
+
+    /**
+     * The devices the job reads from or writes to, a run takes one stream of each.
+     */
+    final List<DeviceGroup> devices;
+
+    /**
+     * The run waiting for a worker, null if none is waiting.
+     */
+    Runnable pending;
+
+    /**
+     * True while a run of the job is executed.
+     */
+    boolean running;
+
+    /**
+     * The virtual time of the job regarding run time, in nanoseconds divided by the weight.
+     */
+    double runVirtualTime;
+
+    /**
+     * The virtual time of the job regarding I/O, in bytes divided by the weight.
+     */
+    double ioVirtualTime;
+
+    /**
+     * The amount of threads of the job waiting for an I/O permit.
+     */
+    int ioWaiting;
+
+    /**
+     * The amount of I/O permits held by the job.
+     */
+    int ioActive;
+
+    /**
+     * The amount of completed runs.
+     */
+    long completedRuns;
+
+    /**
+     * The amount of triggers which have been dropped because the previous run had not finished yet.
+     */
+    long skippedTriggers;
+
+    /**
+     * The time the current run waited for a worker in milliseconds, or the last run if none is waiting.
+     */
+    long lastQueueMillis;
+
+    /**
+     * The time the pending run has been submitted in nanoseconds.
+     */
+    long submittedAt;
+
+    /**
+     * @param scheduler the scheduler this share belongs to.
+     * @param name      the name of the job.
+     * @param weight    the weight of the job, at least 1.
+     * @param devices   the devices the job reads from or writes to.
+     */
+    JobShare(FairScheduler scheduler, String name, int weight, List<DeviceGroup> devices) {
+        this.scheduler = scheduler;
+        this.name = name;
+        this.weight = Math.max(1, weight);
+        this.devices = devices;
+    }
+
+    /**
+     * Waits until the job may read the given amount of bytes. While jobs compete for the permits the job which has
+     * read the least bytes relative to its weight goes first, so a huge job cannot starve small ones.
+     *
+     * @param bytes the amount of bytes about to be read, charged to the job.
+     * @throws InterruptedException if the thread has been interrupted while waiting.
+     */
+    public void acquireIo(long bytes) throws InterruptedException {
+        this.scheduler.acquireIo(this, bytes);
+    }
+
+    /**
+     * Returns a permit taken by acquireIo().
+     */
+    public void releaseIo() {
+        this.scheduler.releaseIo(this);
+    }
+
+    //Only getters from here
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public List<DeviceGroup> getDevices() {
+        return devices;
+    }
+
+    public long getCompletedRuns() {
+        synchronized (this.scheduler) {
+            return completedRuns;
+        }
+    }
+
+    public long getSkippedTriggers() {
+        synchronized (this.scheduler) {
+            return skippedTriggers;
+        }
+    }
+
+    public long getLastQueueMillis() {
+        synchronized (this.scheduler) {
+            return lastQueueMillis;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.scrub;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openkw.controller.service.parity.PackParity;
+import com.openkw.controller.service.snapshot.DeltaObjectReader;
+import com.openkw.controller.service.snapshot.ObjectReader;
+import com.openkw.controller.service.snapshot.PackStore;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.util.RateLimiter;
+import com.openkw.controller.util.hash.Hasher;
+import com.openkw.model.RunningProcessModel;
+import com.openkw.model.snapshot.CorruptObject;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.ScrubReport;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class rereads the stored objects of a repository and compares their content with their content hash to
+ * detect silent corruption of the backup disk.
+ * <p>
+ * A scrub cycle walks the object directories in sorted order and verifies the objects of one directory in parallel.
+ * After each directory the progress is saved as the cursor, so a cycle interrupted by stopping the backup process
+ * or the program is resumed where it stopped. Reading is throttled to a fixed amount of bytes per second. A
+ * finished cycle is saved as a JSON report, listing the corrupt objects together with the files of the data
+ * directories which could be used to repair them.
+ * At the end of a cycle the packs of the archive directory are checked against their parity stripes, damaged
+ * blocks are rebuilt right away.
+ */
+public class Scrubber {
+
+    /**
+     * The name of the directory inside the repository which contains the scrub state.
+     */
+    private static final String SCRUB_DIR = "scrub";
+
+    /**
+     * The name of the file which contains the progress of the running cycle.
+     */
+    private static final String CURSOR_FILE = "cursor.json";
+
+    /**
+     * The name of the file which contains the report of the last finished cycle.
+     */
+    private static final String REPORT_FILE = "report.json";
+
+    /**
+     * The size of the buffer used to read an object.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The repository to scrub.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The amount of objects verified in parallel.
+     */
+    private final int parallelism;
+
+    /**
+     * Limits the amount of bytes read per second.
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     * The model which displays the progress, may be null.
+     */
+    private final RunningProcessModel runningProcessModel;
+
+    /**
+     * The Jackson ObjectMapper instance used for serializing the cursor and the report.
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param repository          the repository to scrub.
+     * @param parallelism         the amount of objects verified in parallel.
+     * @param rateLimiter         limits the amount of bytes read per second.
+     * @param runningProcessModel the model which displays the progress, may be null.
+     */
+    public Scrubber(SnapshotRepository repository, int parallelism, RateLimiter rateLimiter,
+                    RunningProcessModel runningProcessModel) {
+        this.repository = repository;
+        this.parallelism = parallelism;
+        this.rateLimiter = rateLimiter;
+        this.runningProcessModel = runningProcessModel;
+    }
+
+    /**
+     * Continues the running cycle, or starts a new one if the last cycle has finished longer than the given
+     * interval ago. The call blocks until the cycle has finished or the thread has been interrupted.
+     *
+     * @param cycleIntervalMillis the minimum time between the end of a cycle and the start of the next one.
+     * @return the report of the finished cycle, null if no cycle has been due.
+     * @throws IOException          if the objects or the scrub state could not be read or written.
+     * @throws InterruptedException if the thread has been interrupted, the progress is kept in the cursor.
+     */
+    public ScrubReport scrubIfDue(long cycleIntervalMillis) throws IOException, InterruptedException {
+        ScrubReport report = readState(CURSOR_FILE);
+        if (report == null) {
+            ScrubReport lastReport = readState(REPORT_FILE);
+            if (lastReport != null && System.currentTimeMillis() - lastReport.getFinishedAt() < cycleIntervalMillis) {
+                return null;
+            }
+            report = new ScrubReport();
+            report.setStartedAt(System.currentTimeMillis());
+        }
+        return scrub(report);
+    }
+
+    /**
+     * @return the report of the last finished cycle, null if no cycle has finished yet.
+     * @throws IOException if the report could not be read.
+     */
+    public ScrubReport getLastReport() throws IOException {
+        return readState(REPORT_FILE);
+    }
+
+    /**
+     * Verifies all object directories behind the cursor of the report.
+     */
+    private ScrubReport scrub(ScrubReport report) throws IOException, InterruptedException {
+        List<Path> directories = new ArrayList<>();
+        Path objectsPath = this.repository.getObjectsPath();
+        if (Files.exists(objectsPath)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(objectsPath)) {
+                for (Path directory : stream) {
+                    if (report.getCursor() == null
+                            || directory.getFileName().toString().compareTo(report.getCursor()) > 0) {
+                        directories.add(directory);
+                    }
+                }
+            }
+        }
+        Collections.sort(directories);
+        AtomicLong verifiedObjects = new AtomicLong(report.getVerifiedObjects());
+        AtomicLong verifiedBytes = new AtomicLong(report.getVerifiedBytes());
+        //Only the worker threads add to the list while a directory is verified, the state is written in between.
+        List<CorruptObject> corruptObjects = Collections.synchronizedList(report.getCorruptObjects());
+        publishProgress(verifiedBytes.get(), corruptObjects.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism);
+        try {
+            for (Path directory : directories) {
+                List<Future<?>> futures = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    for (Path objectFile : stream) {
+                        futures.add(executor.submit(() -> {
+                            verifyObject(objectFile, verifiedObjects, verifiedBytes, corruptObjects);
+                            publishProgress(verifiedBytes.get(), corruptObjects.size());
+                            return null;
+                        }));
+                    }
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                    }
+                }
+                report.setCursor(directory.getFileName().toString());
+                report.setVerifiedObjects(verifiedObjects.get());
+                report.setVerifiedBytes(verifiedBytes.get());
+                writeState(CURSOR_FILE, report);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        report.setVerifiedObjects(verifiedObjects.get());
+        report.setVerifiedBytes(verifiedBytes.get());
+        findRepairCandidates(report.getCorruptObjects());
+        PackStore archive = this.repository.getArchive();
+        if (archive != null) {
+            PackParity parity = new PackParity(archive, this.rateLimiter);
+            parity.repair();
+            report.setDamagedArchiveBlocks(parity.getDamagedBlockCount());
+            report.setRepairedArchiveBlocks(parity.getRepairedBlockCount());
+        }
+        report.setFinishedAt(System.currentTimeMillis());
+        writeState(REPORT_FILE, report);
+        Files.deleteIfExists(getStatePath(CURSOR_FILE));
+        return report;
+    }
+
+    /**
+     * Reads an object and compares its content with the hash in its file name. Delta objects are reassembled, so
+     * a corrupt base object is reported for all deltas depending on it as well.
+     */
+    private void verifyObject(Path objectFile, AtomicLong verifiedObjects, AtomicLong verifiedBytes,
+                              List<CorruptObject> corruptObjects) throws InterruptedException {
+        String hash = SnapshotRepository.getHashOfObjectFile(objectFile);
+        boolean delta = !hash.equals(objectFile.getFileName().toString());
+        String reason = null;
+        long position = 0;
+        try (ObjectReader reader = delta
+                ? new DeltaObjectReader(objectFile, this.repository) : this.repository.openStoredFile(objectFile)) {
+            Hasher hasher = this.repository.newContentHasher();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int read;
+            while ((read = reader.read(position, buffer)) > 0) {
+                this.rateLimiter.acquire(read);
+                hasher.update(buffer.array(), 0, read);
+                buffer.clear();
+                position += read;
+            }
+            if (position != reader.size()) {
+                reason = "Expected " + reader.size() + " bytes but read " + position;
+            } else if (!hasher.digestHex().equals(hash)) {
+                reason = "The content does not match its hash";
+            }
+        } catch (NoSuchFileException e) {
+            //Parked by the garbage collector in the meantime, there is nothing to verify.
+            return;
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedException("The scrubber has been stopped");
+        } catch (IOException e) {
+            reason = "Unreadable: " + e.getMessage();
+        }
+        verifiedObjects.incrementAndGet();
+        verifiedBytes.addAndGet(position);
+        if (reason != null) {
+            CorruptObject corruptObject = new CorruptObject();
+            corruptObject.setHash(hash);
+            corruptObject.setDelta(delta);
+            corruptObject.setReason(reason);
+            corruptObject.setDetectedAt(System.currentTimeMillis());
+            corruptObjects.add(corruptObject);
+        }
+    }
+
+    /**
+     * Looks up the files of the data directories which still match the newest snapshot entry referencing a
+     * corrupt object by size and modification time. Only the newest manifest of every data directory is read.
+     */
+    private void findRepairCandidates(List<CorruptObject> corruptObjects) throws IOException {
+        if (corruptObjects.isEmpty()) {
+            return;
+        }
+        Map<String, CorruptObject> byHash = new HashMap<>();
+        for (CorruptObject corruptObject : corruptObjects) {
+            corruptObject.getRepairCandidates().clear();
+            byHash.put(corruptObject.getHash(), corruptObject);
+        }
+        Set<String> seenSources = new HashSet<>();
+        for (SnapshotRecord record : this.repository.getCatalog().list(0, Integer.MAX_VALUE)) {
+            if (record.getStatus() != SnapshotStatus.COMPLETE || !seenSources.add(record.getSourcePath())) {
+                continue;
+            }
+            SnapshotManifest manifest = this.repository.readManifest(record.getSnapshotName());
+            if (manifest != null) {
+                collectCandidates(manifest.getRoot(), Paths.get(manifest.getSourcePath()), byHash);
+            }
+        }
+    }
+
+    /**
+     * Recursive helper of findRepairCandidates().
+     */
+    private static void collectCandidates(ManifestEntry entry, Path path, Map<String, CorruptObject> byHash) {
+        if (entry.isDirectory()) {
+            for (ManifestEntry child : entry.getChildren()) {
+                collectCandidates(child, path.resolve(child.getName()), byHash);
+            }
+            return;
+        }
+        CorruptObject corruptObject = byHash.get(entry.getContentHash());
+        if (corruptObject == null) {
+            return;
+        }
+        try {
+            if (Files.isRegularFile(path) && Files.size(path) == entry.getSize()
+                    && Files.getLastModifiedTime(path).toMillis() == entry.getLastModified()) {
+                corruptObject.getRepairCandidates().add(path.toString());
+            }
+        } catch (IOException e) {
+            //Not usable as a repair source.
+        }
+    }
+
+    /**
+     * Updates the progress of the model if there is one.
+     */
+    private void publishProgress(long verifiedBytes, int corruptObjectCount) {
+        if (this.runningProcessModel != null) {
+            this.runningProcessModel.setScrubVerifiedBytes(verifiedBytes);
+            this.runningProcessModel.setScrubCorruptCount(corruptObjectCount);
+        }
+    }
+
+    /**
+     * @return the de-serialized state file, null if it does not exist.
+     */
+    private ScrubReport readState(String fileName) throws IOException {
+        Path statePath = getStatePath(fileName);
+        if (Files.notExists(statePath)) {
+            return null;
+        }
+        return this.objectMapper.readValue(statePath.toFile(), ScrubReport.class);
+    }
+
+    /**
+     * Writes a state file by moving a completely written temp file to its place.
+     */
+    private void writeState(String fileName, ScrubReport report) throws IOException {
+        Path statePath = getStatePath(fileName);
+        Files.createDirectories(statePath.getParent());
+        Path tempFile = this.repository.createTempFile();
+        try {
+            this.objectMapper.writerWithDefaultPrettyPrinter().writeValue(tempFile.toFile(), report);
+            Files.move(tempFile, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return the path of the given state file.
+     */
+    private Path getStatePath(String fileName) {
+        return this.repository.getRepositoryPath().resolve(SCRUB_DIR).resolve(fileName);
+    }
+}
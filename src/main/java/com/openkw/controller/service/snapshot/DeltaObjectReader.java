@@ -0,0 +1,226 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * This reader provides the content of an object which is stored as a delta against a base object.
+ * The base object is opened through the repository, so deltas of deltas are resolved transparently. The delta
+ * file itself is read through the repository as well, which decrypts it in encrypted repositories.
+ * See DeltaObjectWriter for the file layout.
+ */
+public class DeltaObjectReader implements ObjectReader {
+
+    /**
+     * The reader of the delta file.
+     */
+    private final ObjectReader stored;
+
+    /**
+     * The instruction types.
+     */
+    private final byte[] types;
+
+    /**
+     * The base offset of a copy or the file position of a literal per instruction.
+     */
+    private final long[] offsets;
+
+    /**
+     * The length per instruction.
+     */
+    private final long[] lengths;
+
+    /**
+     * The position inside the object content where each instruction starts.
+     */
+    private final long[] targetOffsets;
+
+    /**
+     * The size of the object content.
+     */
+    private final long size;
+
+    /**
+     * The amount of deltas which have to be resolved to read the object.
+     */
+    private final int chainDepth;
+
+    /**
+     * The hash of the base object.
+     */
+    private final String baseHash;
+
+    /**
+     * The repository to open the base object from.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The reader of the base object, opened on first use.
+     */
+    private ObjectReader baseReader;
+
+    /**
+     * @param path       the path of the delta file.
+     * @param repository the repository to open the base object from.
+     * @throws IOException if the delta file could not be opened or is corrupt.
+     */
+    public DeltaObjectReader(Path path, SnapshotRepository repository) throws IOException {
+        this.repository = repository;
+        this.stored = repository.openStoredFile(path);
+        try {
+            long fileSize = this.stored.size();
+            ByteBuffer header = ByteBuffer.allocate(DeltaObjectWriter.MAGIC.length);
+            readFully(header, 0);
+            ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES);
+            readFully(trailer, fileSize - Long.BYTES);
+            long footerPosition = trailer.getLong(0);
+            if (!Arrays.equals(header.array(), DeltaObjectWriter.MAGIC)
+                    || footerPosition < DeltaObjectWriter.MAGIC.length || footerPosition >= fileSize) {
+                throw new IOException("Corrupt delta object " + path);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new ObjectReaderInputStream(this.stored, footerPosition)));
+            int count = in.readInt();
+            this.types = new byte[count];
+            this.offsets = new long[count];
+            this.lengths = new long[count];
+            this.targetOffsets = new long[count];
+            long targetOffset = 0;
+            for (int i = 0; i < count; i++) {
+                this.types[i] = in.readByte();
+                this.offsets[i] = in.readLong();
+                this.lengths[i] = in.readLong();
+                this.targetOffsets[i] = targetOffset;
+                targetOffset += this.lengths[i];
+            }
+            this.size = in.readLong();
+            this.chainDepth = in.readInt();
+            this.baseHash = in.readUTF();
+            if (this.size != targetOffset) {
+                throw new IOException("Corrupt delta object " + path);
+            }
+        } catch (IOException | RuntimeException e) {
+            this.stored.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) throws IOException {
+        if (position >= this.size) {
+            return -1;
+        }
+        int total = 0;
+        int index = findInstruction(position);
+        while (dst.hasRemaining() && index < this.types.length) {
+            long inInstruction = position - this.targetOffsets[index];
+            int len = (int) Math.min(dst.remaining(), this.lengths[index] - inInstruction);
+            ByteBuffer slice = dst.duplicate();
+            slice.limit(slice.position() + len);
+            if (this.types[index] == DeltaObjectWriter.COPY) {
+                readBase(this.offsets[index] + inInstruction, slice);
+            } else {
+                readFully(slice, this.offsets[index] + inInstruction);
+            }
+            dst.position(dst.position() + len);
+            position += len;
+            total += len;
+            index++;
+        }
+        return total;
+    }
+
+    /**
+     * @param position a position inside the object content.
+     * @return the index of the instruction which covers the position.
+     */
+    private int findInstruction(long position) {
+        int index = Arrays.binarySearch(this.targetOffsets, position);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        //Skip zero length instructions sharing the same target offset.
+        while (index < this.lengths.length - 1 && this.lengths[index] == 0) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Fills the buffer from the base object.
+     */
+    private void readBase(long position, ByteBuffer dst) throws IOException {
+        if (this.baseReader == null) {
+            this.baseReader = this.repository.openObject(this.baseHash);
+        }
+        while (dst.hasRemaining()) {
+            int read = this.baseReader.read(position, dst);
+            if (read <= 0) {
+                throw new IOException("Base object " + this.baseHash + " is shorter than expected");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Fills the buffer from the delta file.
+     */
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = this.stored.read(position, dst);
+            if (read < 0) {
+                throw new IOException("Unexpected end of delta object");
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.baseReader != null) {
+                this.baseReader.close();
+            }
+        } finally {
+            this.stored.close();
+        }
+    }
+
+    //Only getters from here
+
+    public int getChainDepth() {
+        return chainDepth;
+    }
+
+    public String getBaseHash() {
+        return baseHash;
+    }
+}
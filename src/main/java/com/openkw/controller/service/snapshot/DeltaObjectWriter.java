@@ -0,0 +1,192 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class writes an object as a delta against a base object which is already stored in the repository.
+ * The content is described by a sequence of instructions which either copy a range of the base object or insert
+ * literal bytes which are stored in the delta file itself.
+ * <p>
+ * File layout: the magic bytes, all literal bytes, the footer with the instructions, the target size, the chain
+ * depth and the base hash, followed by the position of the footer as the last eight bytes.
+ */
+public class DeltaObjectWriter implements Closeable {
+
+    /**
+     * The magic bytes every delta file starts with.
+     */
+    public static final byte[] MAGIC = "DBTDELTA".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Instruction type copying a range of the base object.
+     */
+    public static final byte COPY = 0;
+
+    /**
+     * Instruction type inserting literal bytes stored in the delta file.
+     */
+    public static final byte LITERAL = 1;
+
+    /**
+     * The stream of the delta file.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * The hash of the base object.
+     */
+    private final String baseHash;
+
+    /**
+     * The amount of deltas which have to be resolved to read the base object, plus one.
+     */
+    private final int chainDepth;
+
+    /**
+     * The types of the instructions written so far.
+     */
+    private final List<Byte> types = new ArrayList<>();
+
+    /**
+     * The base offset of a copy or the file position of a literal.
+     */
+    private final List<Long> offsets = new ArrayList<>();
+
+    /**
+     * The lengths of the instructions.
+     */
+    private final List<Long> lengths = new ArrayList<>();
+
+    /**
+     * The current position inside the delta file.
+     */
+    private long filePosition;
+
+    /**
+     * The size of the content described so far.
+     */
+    private long targetSize;
+
+    /**
+     * @param target     the stream of the delta file, usually created through
+     *                   SnapshotRepository.newObjectOutputStream(), it is closed together with this writer.
+     * @param baseHash   the hash of the base object.
+     * @param chainDepth the amount of deltas which have to be resolved to read the new object.
+     * @throws IOException if the magic bytes could not be written.
+     */
+    public DeltaObjectWriter(OutputStream target, String baseHash, int chainDepth) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(target, 64 * 1024));
+        this.baseHash = baseHash;
+        this.chainDepth = chainDepth;
+        this.out.write(MAGIC);
+        this.filePosition = MAGIC.length;
+    }
+
+    /**
+     * Appends an instruction copying a range of the base object. Adjacent ranges are merged.
+     *
+     * @param baseOffset the offset inside the base object.
+     * @param length     the amount of bytes to copy.
+     */
+    public void copy(long baseOffset, long length) {
+        if (length <= 0) {
+            return;
+        }
+        int last = this.types.size() - 1;
+        if (last >= 0 && this.types.get(last) == COPY
+                && this.offsets.get(last) + this.lengths.get(last) == baseOffset) {
+            this.lengths.set(last, this.lengths.get(last) + length);
+        } else {
+            addInstruction(COPY, baseOffset, length);
+        }
+        this.targetSize += length;
+    }
+
+    /**
+     * Appends literal bytes. Adjacent literals are merged.
+     *
+     * @param b   the buffer containing the bytes.
+     * @param off the offset inside the buffer.
+     * @param len the amount of bytes.
+     * @throws IOException if the bytes could not be written.
+     */
+    public void literal(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) {
+            return;
+        }
+        this.out.write(b, off, len);
+        int last = this.types.size() - 1;
+        if (last >= 0 && this.types.get(last) == LITERAL
+                && this.offsets.get(last) + this.lengths.get(last) == this.filePosition) {
+            this.lengths.set(last, this.lengths.get(last) + len);
+        } else {
+            addInstruction(LITERAL, this.filePosition, len);
+        }
+        this.filePosition += len;
+        this.targetSize += len;
+    }
+
+    /**
+     * Adds a new instruction to the instruction lists.
+     */
+    private void addInstruction(byte type, long offset, long length) {
+        this.types.add(type);
+        this.offsets.add(offset);
+        this.lengths.add(length);
+    }
+
+    /**
+     * @return the size of the content described so far.
+     */
+    public long getTargetSize() {
+        return this.targetSize;
+    }
+
+    /**
+     * Writes the footer and closes the delta file.
+     *
+     * @throws IOException if the footer could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            long footerPosition = this.filePosition;
+            this.out.writeInt(this.types.size());
+            for (int i = 0; i < this.types.size(); i++) {
+                this.out.writeByte(this.types.get(i));
+                this.out.writeLong(this.offsets.get(i));
+                this.out.writeLong(this.lengths.get(i));
+            }
+            this.out.writeLong(this.targetSize);
+            this.out.writeInt(this.chainDepth);
+            this.out.writeUTF(this.baseHash);
+            this.out.writeLong(footerPosition);
+        } finally {
+            this.out.close();
+        }
+    }
+}
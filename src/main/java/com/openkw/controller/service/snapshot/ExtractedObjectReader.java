@@ -0,0 +1,68 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This reader provides the content of an archived object which has been extracted into a temp file. The temp file
+ * is deleted when the reader is closed.
+ */
+class ExtractedObjectReader implements ObjectReader {
+
+    /**
+     * The reader of the temp file.
+     */
+    private final ObjectReader reader;
+
+    /**
+     * The temp file the object has been extracted into.
+     */
+    private final Path tempFile;
+
+    /**
+     * @param reader   the reader of the temp file.
+     * @param tempFile the temp file the object has been extracted into.
+     */
+    ExtractedObjectReader(ObjectReader reader, Path tempFile) {
+        this.reader = reader;
+        this.tempFile = tempFile;
+    }
+
+    @Override
+    public long size() {
+        return this.reader.size();
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) throws IOException {
+        return this.reader.read(position, dst);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.reader.close();
+        } finally {
+            Files.deleteIfExists(this.tempFile);
+        }
+    }
+}
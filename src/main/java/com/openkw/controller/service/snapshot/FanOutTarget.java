@@ -0,0 +1,308 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One of several repositories the ManifestBuilder writes the same chunks to. Every target has its own queue and
+ * writer thread, so the targets write concurrently and a failure only ends the target it happened in. A target which
+ * is slower than the others paces the read pass through its full queue, a target which makes no progress at all for
+ * the stall time is given up for the rest of the build.
+ */
+class FanOutTarget {
+
+    /**
+     * Put into the queue to let the writer finish.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * How long a blocked put or take waits before it checks the state of the target again.
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * The repository the chunks are written to.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The chunks waiting to be written.
+     */
+    private final BlockingQueue<Object> queue;
+
+    /**
+     * The time without progress after which the target is given up, in nanoseconds.
+     */
+    private final long stallNanos;
+
+    /**
+     * The writer thread.
+     */
+    private final Thread thread;
+
+    /**
+     * The files currently written by their store id, only touched by the writer thread.
+     */
+    private final Map<Long, TargetFile> openFiles = new HashMap<>();
+
+    /**
+     * The failure of the target, null as long as it is healthy.
+     */
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+    /**
+     * The last time the writer took or completed a chunk in nanoseconds.
+     */
+    private volatile long lastProgressNanos;
+
+    /**
+     * @param repository  the repository the chunks are written to.
+     * @param capacity    the amount of chunks which may wait for the writer.
+     * @param stallMillis the time without progress after which the target is given up.
+     */
+    FanOutTarget(SnapshotRepository repository, int capacity, long stallMillis) {
+        this.repository = repository;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+        this.thread = new Thread(this::work, "fan-out-" + repository.getRepositoryPath().getFileName());
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    void start() {
+        this.lastProgressNanos = System.nanoTime();
+        this.thread.start();
+    }
+
+    /**
+     * Queues a chunk for the writer, waiting while the queue is full. Chunks of a failed target are dropped.
+     *
+     * @param piece the chunk.
+     * @throws InterruptedException if the caller has been interrupted while waiting.
+     */
+    void put(Piece piece) throws InterruptedException {
+        while (!isFailed() && !this.queue.offer(piece, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkStalled();
+        }
+    }
+
+    /**
+     * Lets the writer finish the queued chunks and waits for it. The writer of a failed target is interrupted and
+     * not waited for, it discards its temp files once it stops, so a write hanging on a lost share cannot hold back
+     * the build.
+     *
+     * @throws InterruptedException if the caller has been interrupted while waiting.
+     */
+    void finish() throws InterruptedException {
+        while (!isFailed() && !this.queue.offer(END, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkStalled();
+        }
+        while (this.thread.isAlive()) {
+            if (isFailed()) {
+                this.thread.interrupt();
+                return;
+            }
+            this.thread.join(POLL_MILLIS);
+            checkStalled();
+        }
+    }
+
+    /**
+     * Fails the target if the writer did not make progress for the stall time.
+     */
+    private void checkStalled() {
+        if (System.nanoTime() - this.lastProgressNanos > this.stallNanos) {
+            fail(new IOException("The backup target " + this.repository.getRepositoryPath()
+                    + " made no progress for " + TimeUnit.NANOSECONDS.toSeconds(this.stallNanos) + " seconds"));
+        }
+    }
+
+    /**
+     * Records a failure of the target, only the first one is kept.
+     *
+     * @param cause the failure.
+     */
+    void fail(IOException cause) {
+        this.failure.compareAndSet(null, cause);
+    }
+
+    /**
+     * The loop of the writer thread. After the target failed the remaining chunks are only drained.
+     */
+    private void work() {
+        try {
+            while (true) {
+                Object item = this.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == END) {
+                    return;
+                }
+                if (item == null) {
+                    continue;
+                }
+                this.lastProgressNanos = System.nanoTime();
+                if (!isFailed()) {
+                    try {
+                        write((Piece) item);
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                    this.lastProgressNanos = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(new IOException("The writer of " + this.repository.getRepositoryPath() + " has been interrupted"));
+        } finally {
+            discardOpenFiles();
+        }
+    }
+
+    /**
+     * Writes the chunk into the temp file of its file, which becomes the object after the last chunk.
+     */
+    private void write(Piece piece) throws IOException {
+        TargetFile file = this.openFiles.get(piece.storeId);
+        if (file == null) {
+            file = new TargetFile(this.repository.createTempFile());
+            this.openFiles.put(piece.storeId, file);
+            file.out = this.repository.newObjectOutputStream(file.tempFile);
+        }
+        file.out.write(piece.data, 0, piece.length);
+        if (piece.last) {
+            try {
+                file.out.close();
+                this.repository.commitObject(piece.hash, file.tempFile, piece.lastModified);
+            } finally {
+                Files.deleteIfExists(file.tempFile);
+                this.openFiles.remove(piece.storeId);
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the temp files of the files which have not been completed.
+     */
+    private void discardOpenFiles() {
+        for (TargetFile file : this.openFiles.values()) {
+            try {
+                if (file.out != null) {
+                    file.out.close();
+                }
+                Files.deleteIfExists(file.tempFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.openFiles.clear();
+    }
+
+    /**
+     * @return true if the target has failed or has been given up.
+     */
+    boolean isFailed() {
+        return this.failure.get() != null;
+    }
+
+    /**
+     * A chunk of a file as it is handed to every target. The data is shared by all targets and must not be changed.
+     */
+    static class Piece {
+
+        /**
+         * The id of the file inside the build.
+         */
+        private final long storeId;
+
+        /**
+         * The buffer holding the bytes.
+         */
+        private final byte[] data;
+
+        /**
+         * The amount of valid bytes in the buffer.
+         */
+        private final int length;
+
+        /**
+         * True for the last chunk of the file.
+         */
+        private final boolean last;
+
+        /**
+         * The content hash of the file, only set for the last chunk.
+         */
+        private final String hash;
+
+        /**
+         * The last modified time of the file, kept by the stored object.
+         */
+        private final FileTime lastModified;
+
+        Piece(long storeId, byte[] data, int length, boolean last, String hash, FileTime lastModified) {
+            this.storeId = storeId;
+            this.data = data;
+            this.length = length;
+            this.last = last;
+            this.hash = hash;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * A file being written by the target.
+     */
+    private static class TargetFile {
+
+        /**
+         * The temp file which becomes the object.
+         */
+        private final Path tempFile;
+
+        /**
+         * The stream into the temp file.
+         */
+        private OutputStream out;
+
+        private TargetFile(Path tempFile) {
+            this.tempFile = tempFile;
+        }
+    }
+
+    //Only getters from here
+
+    public SnapshotRepository getRepository() {
+        return repository;
+    }
+
+    public IOException getFailure() {
+        return failure.get();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This reader provides the content of an object which is stored as a whole file.
+ */
+public class FileObjectReader implements ObjectReader {
+
+    /**
+     * The channel of the stored file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The size of the stored file.
+     */
+    private final long size;
+
+    /**
+     * @param path the path of the stored file.
+     * @throws IOException if the file could not be opened.
+     */
+    public FileObjectReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = this.channel.size();
+    }
+
+    @Override
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) throws IOException {
+        if (position >= this.size) {
+            return -1;
+        }
+        return this.channel.read(dst, position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.openkw.controller.util.ReadOnlyFileUtility;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class makes new object files durable in groups instead of one by one. A committed file is parked next to
+ * its temp file and flushed by a pool of threads while the backup keeps writing, only a flushed file is moved to
+ * its place and made read-only there, so an object file is never visible with content the disk does not have yet
+ * and never changes afterwards. Many flushes run at the same time, which lets the file system combine them into few
+ * journal commits.
+ * Waiting for a group flushes the directories the files have been moved into, each of them once. Failures are kept
+ * per target until the same file is committed successfully, so every waiter referring to a failed file can detect
+ * it, no matter which waiter came first.
+ */
+class GroupCommit {
+
+    /**
+     * The amount of files flushed at the same time.
+     */
+    private static final int SYNC_PARALLELISM = 16;
+
+    /**
+     * The extension of files which are waiting to be flushed.
+     */
+    private static final String PENDING_POST_FIX = ".pending";
+
+    /**
+     * Flushes and moves the parked files.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The directories files have been moved into since the last wait.
+     */
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The errors of the files which could not be flushed or moved by their target paths.
+     */
+    private final Map<Path, IOException> failures = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of files which are parked and not yet moved.
+     */
+    private int pendingCount;
+
+    GroupCommit() {
+        this.executor = new ThreadPoolExecutor(SYNC_PARALLELISM, SYNC_PARALLELISM, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "group-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Parks a completely written file and moves it to its place once it has been flushed.
+     *
+     * @param tempFile the written file, it is moved away so the caller may delete its path as usual.
+     * @param target   the path the file is moved to.
+     * @throws IOException if the file could not be parked.
+     */
+    void commit(Path tempFile, Path target) throws IOException {
+        Path pendingFile = tempFile.resolveSibling(tempFile.getFileName() + PENDING_POST_FIX);
+        Files.move(tempFile, pendingFile, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            this.pendingCount++;
+        }
+        this.executor.execute(() -> {
+            try {
+                force(pendingFile);
+                Files.createDirectories(target.getParent());
+                Files.move(pendingFile, target, StandardCopyOption.ATOMIC_MOVE);
+                ReadOnlyFileUtility.makeReadOnly(target);
+                this.directories.add(target.getParent());
+                this.directories.add(target.getParent().getParent());
+                this.failures.remove(target);
+            } catch (IOException e) {
+                if (!Files.isRegularFile(target)) {
+                    this.failures.put(target, e);
+                }
+                try {
+                    Files.deleteIfExists(pendingFile);
+                } catch (IOException deleteFailure) {
+                    deleteFailure.printStackTrace();
+                }
+            } finally {
+                synchronized (this) {
+                    this.pendingCount--;
+                    notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all files committed so far have been handled and flushes the directories they have been moved
+     * into. Files which could not be flushed or moved are reported by getFailure().
+     *
+     * @throws IOException if a directory could not be flushed.
+     */
+    void await() throws IOException {
+        synchronized (this) {
+            while (this.pendingCount > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the group commit");
+                }
+            }
+        }
+        List<Path> flushed = new ArrayList<>(this.directories);
+        this.directories.removeAll(flushed);
+        for (int i = 0; i < flushed.size(); i++) {
+            try {
+                forceDirectory(flushed.get(i));
+            } catch (IOException e) {
+                //The next waiter tries again, its files may be in the same directories.
+                this.directories.addAll(flushed.subList(i, flushed.size()));
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return true if a committed file has failed and has not been committed successfully since.
+     */
+    boolean hasFailures() {
+        return !this.failures.isEmpty();
+    }
+
+    /**
+     * @param target the target path of a committed file.
+     * @return the error of the last commit of the file if it could not be flushed or moved, null otherwise.
+     */
+    IOException getFailure(Path target) {
+        return this.failures.get(target);
+    }
+
+    /**
+     * Flushes the content of a file to the disk.
+     *
+     * @param file the file.
+     * @throws IOException if the file could not be flushed.
+     */
+    static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Flushes the entries of a directory to the disk, so files moved into it stay there.
+     *
+     * @param directory the directory.
+     * @throws IOException if the directory could not be flushed.
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            //Directories cannot be opened on Windows, NTFS journals their entries by itself.
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,907 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.openkw.controller.service.delta.BlockDeltaEncoder;
+import com.openkw.controller.service.delta.TailCapture;
+import com.openkw.controller.service.pipeline.Pipeline;
+import com.openkw.controller.service.pipeline.PipelineStage;
+import com.openkw.controller.service.schedule.JobShare;
+import com.openkw.controller.util.hash.HashFunction;
+import com.openkw.controller.util.hash.Hasher;
+import com.openkw.model.CopyMode;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class scans the data directory and builds the manifest of a new snapshot.
+ * It works as the change detector of the backup: a file whose size and last modified time match the previous
+ * manifest keeps its content hash and is neither read nor stored again. Changed and new files are stored in the
+ * repository. Directories whose merkle hash did not change keep the entry of the previous manifest.
+ * Files which have only been moved or renamed are recognized by the MoveDetector and reference the content which
+ * is already stored. Files which have only grown are stored as a tail delta by the TailCapture, other modified
+ * large files as a block delta by the BlockDeltaEncoder.
+ * The work runs as a pipeline: the calling thread scans, the read stage detects moves and deltas and reads the
+ * remaining files in chunks, the hash stage hashes the chunks and the write stage writes them into the repository.
+ * The stages are connected by bounded queues, so reading, hashing and writing of different files overlap. Chunks of
+ * the same file are always handled by the same hash and write worker, in order. In encrypted repositories a seal
+ * stage between the hash and the write stage encrypts the chunks on all cores.
+ * With mirrors the write stage hands every chunk to one FanOutTarget per repository instead, so each file is read
+ * and hashed once and written to all backup directories concurrently. Tail and block deltas are specific to the
+ * content of one repository, so they are not used in that mode and changed files are always stored whole.
+ */
+public class ManifestBuilder {
+
+    /**
+     * The default amount of read workers, more parallel reads rarely help a single disk.
+     */
+    public static final int DEFAULT_READ_PARALLELISM = 2;
+
+    /**
+     * The default amount of write workers.
+     */
+    public static final int DEFAULT_WRITE_PARALLELISM = 2;
+
+    /**
+     * The size of the chunks the read stage reads files in.
+     */
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * The capacity of each queue between the stages, it bounds the memory taken by the chunks in flight.
+     */
+    private static final int QUEUE_CAPACITY = 16;
+
+    /**
+     * The capacity of the queue of every fan-out target, it lets a target fall behind the others for a while
+     * without pacing the read pass.
+     */
+    private static final int TARGET_QUEUE_CAPACITY = 64;
+
+    /**
+     * The default time a fan-out target may make no progress before it is given up for the rest of the build.
+     */
+    public static final long DEFAULT_TARGET_STALL_MILLIS = 60 * 1000;
+
+    /**
+     * The repository where changed file contents are stored.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The amount of files which had to be read and stored during the last build.
+     */
+    private final AtomicInteger storedFileCount = new AtomicInteger();
+
+    /**
+     * The amount of bytes which had to be read and stored during the last build.
+     */
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    /**
+     * The amount of files which have been recognized as moved or renamed during the last build.
+     */
+    private final AtomicInteger movedFileCount = new AtomicInteger();
+
+    /**
+     * The amount of bytes which did not have to be stored because of move detection during the last build.
+     */
+    private final AtomicLong movedBytes = new AtomicLong();
+
+    /**
+     * The amount of files which have been stored as a tail delta during the last build.
+     */
+    private final AtomicInteger tailFileCount = new AtomicInteger();
+
+    /**
+     * The amount of files which have been stored as a block delta during the last build.
+     */
+    private final AtomicInteger blockDeltaFileCount = new AtomicInteger();
+
+    /**
+     * Stores grown files as a delta against their previous version.
+     */
+    private final TailCapture tailCapture;
+
+    /**
+     * Recognizes relocated files of the previous snapshot during a build.
+     */
+    private MoveDetector moveDetector;
+
+    /**
+     * The amount of workers detecting deltas and reading files.
+     */
+    private int readParallelism = DEFAULT_READ_PARALLELISM;
+
+    /**
+     * The amount of workers hashing chunks.
+     */
+    private int hashParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The amount of workers encrypting chunks in encrypted repositories.
+     */
+    private int sealParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The amount of workers writing chunks into the repository.
+     */
+    private int writeParallelism = DEFAULT_WRITE_PARALLELISM;
+
+    /**
+     * The stage detecting deltas and reading the changed files of the current build.
+     */
+    private PipelineStage<FileTask> readStage;
+
+    /**
+     * The stage hashing the chunks of the current build.
+     */
+    private PipelineStage<Chunk> hashStage;
+
+    /**
+     * The stage encrypting the chunks of the current build, null if the repository is not encrypted.
+     */
+    private PipelineStage<Chunk> sealStage;
+
+    /**
+     * The stage writing the chunks of the current build.
+     */
+    private PipelineStage<Chunk> writeStage;
+
+    /**
+     * The id of the last file handed to the hash stage, used as the key of its lane.
+     */
+    private final AtomicLong lastStoreId = new AtomicLong();
+
+    /**
+     * The files whose temp file is currently being written, removed again if a build fails.
+     */
+    private final Set<StoreJob> openJobs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The repositories receiving a copy of every stored file next to the repository, empty for a single target.
+     */
+    private List<SnapshotRepository> mirrors = new ArrayList<>();
+
+    /**
+     * The targets of the current build if there are mirrors, the repository first, null for a single target.
+     */
+    private List<FanOutTarget> targets;
+
+    /**
+     * The time a fan-out target may make no progress before it is given up for the rest of the build.
+     */
+    private long targetStallMillis = DEFAULT_TARGET_STALL_MILLIS;
+
+    /**
+     * The share of the job this builder works for, its I/O permits are taken before a changed file is read. Null
+     * if the builder does not share the I/O with other jobs.
+     */
+    private JobShare ioShare;
+
+    /**
+     * The metrics of the pipeline stages of the last build, like "scan 120 ms | read 2x 35% busy, queue 3/16 | ..".
+     */
+    private String pipelineMetrics = "";
+
+    /**
+     * @param repository the repository where changed file contents are stored.
+     */
+    public ManifestBuilder(SnapshotRepository repository) {
+        this.repository = repository;
+        this.tailCapture = new TailCapture(repository);
+    }
+
+    /**
+     * Scans the given directory and builds the manifest of a new snapshot.
+     *
+     * @param sourceDir    the data directory.
+     * @param snapshotName the name of the new snapshot.
+     * @param previous     the manifest of the previous snapshot of the same directory, may be null.
+     * @return the manifest of the new snapshot.
+     * @throws IOException if a file could not be read or stored.
+     */
+    public SnapshotManifest build(Path sourceDir, String snapshotName, SnapshotManifest previous) throws IOException {
+        this.storedFileCount.set(0);
+        this.storedBytes.set(0);
+        this.movedFileCount.set(0);
+        this.movedBytes.set(0);
+        this.tailFileCount.set(0);
+        this.blockDeltaFileCount.set(0);
+        SnapshotManifest manifest = new SnapshotManifest();
+        manifest.setSnapshotName(snapshotName);
+        manifest.setCreatedAt(System.currentTimeMillis());
+        manifest.setSourcePath(sourceDir.toAbsolutePath().toString());
+        ManifestEntry previousRoot = previous != null ? previous.getRoot() : null;
+        this.moveDetector = new MoveDetector(this.repository, previousRoot);
+        this.targets = this.mirrors.isEmpty() ? null : createTargets();
+        Pipeline pipeline = new Pipeline();
+        this.readStage = pipeline.addStage("read", this.readParallelism, QUEUE_CAPACITY, false, this::read);
+        this.hashStage = pipeline.addStage("hash", this.hashParallelism, QUEUE_CAPACITY, true, this::hash);
+        this.sealStage = this.targets != null || this.repository.getCipher() == null ? null
+                : pipeline.addStage("seal", this.sealParallelism, QUEUE_CAPACITY, true, this::seal);
+        this.writeStage = this.targets != null
+                ? pipeline.addStage("fan-out", this.writeParallelism, QUEUE_CAPACITY, true, this::fanOut)
+                : pipeline.addStage("write", this.writeParallelism, QUEUE_CAPACITY, true, this::write);
+        pipeline.start();
+        long scanStart = System.nanoTime();
+        ManifestEntry root = null;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(sourceDir, BasicFileAttributes.class);
+            root = scanEntry(sourceDir, attrs, previousRoot);
+        } catch (IOException e) {
+            pipeline.fail(e);
+        } catch (InterruptedException e) {
+            //The pipeline failed, finish() reports the cause.
+            pipeline.fail(e);
+        }
+        long scanMillis = (System.nanoTime() - scanStart) / 1000000;
+        try {
+            pipeline.finish();
+        } finally {
+            discardOpenJobs();
+            finishTargets();
+            this.pipelineMetrics = "scan " + scanMillis + " ms | " + pipeline.describe();
+        }
+        if (this.targets != null && !hasHealthyTarget()) {
+            throw new IOException("All backup targets failed", this.targets.get(0).getFailure());
+        }
+        manifest.setRoot(completeEntry(root, previousRoot));
+        return manifest;
+    }
+
+    /**
+     * Creates and starts one fan-out target per repository. The content hash identifies the stored objects, so a
+     * mirror recording a different content hash function cannot take part and fails right away.
+     */
+    private List<FanOutTarget> createTargets() throws IOException {
+        String hashFunction = this.repository.getContentHashFunction().getName();
+        List<SnapshotRepository> repositories = new ArrayList<>();
+        repositories.add(this.repository);
+        repositories.addAll(this.mirrors);
+        List<FanOutTarget> fanOutTargets = new ArrayList<>();
+        for (SnapshotRepository targetRepository : repositories) {
+            FanOutTarget target = new FanOutTarget(targetRepository, TARGET_QUEUE_CAPACITY, this.targetStallMillis);
+            try {
+                if (!targetRepository.getContentHashFunction().getName().equals(hashFunction)) {
+                    target.fail(new IOException(targetRepository.getRepositoryPath()
+                            + " uses a different content hash than " + this.repository.getRepositoryPath()));
+                }
+            } catch (IOException e) {
+                target.fail(e);
+            }
+            target.start();
+            fanOutTargets.add(target);
+        }
+        return fanOutTargets;
+    }
+
+    /**
+     * Lets the fan-out targets write their queued chunks and waits for them.
+     */
+    private void finishTargets() {
+        if (this.targets == null) {
+            return;
+        }
+        for (FanOutTarget target : this.targets) {
+            try {
+                target.finish();
+            } catch (InterruptedException e) {
+                target.fail(new IOException("Interrupted while waiting for " + target.getRepository()
+                        .getRepositoryPath()));
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return true if at least one fan-out target has not failed.
+     */
+    private boolean hasHealthyTarget() {
+        for (FanOutTarget target : this.targets) {
+            if (!target.isFailed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param hash the content hash of an object.
+     * @return true if the object is stored in the repository, or in every healthy target while fanning out.
+     */
+    private boolean isStored(String hash) {
+        if (this.targets == null) {
+            return this.repository.hasObject(hash);
+        }
+        for (FanOutTarget target : this.targets) {
+            if (!target.isFailed() && !target.getRepository().hasObject(hash)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns why a repository did not receive all files of the last build. Without mirrors a failure of the
+     * repository fails the build, so there is never a failure to return.
+     *
+     * @param targetRepository the repository or one of the mirrors.
+     * @return the failure, null if the repository received all files.
+     */
+    public IOException getTargetFailure(SnapshotRepository targetRepository) {
+        if (this.targets == null) {
+            return null;
+        }
+        for (FanOutTarget target : this.targets) {
+            if (target.getRepository() == targetRepository) {
+                return target.getFailure();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the entry of a single file or directory. Unchanged files get their previous content hash right away,
+     * all others are handed to the read stage which sets their content hash later.
+     *
+     * @param path     the path of the file or directory.
+     * @param attrs    the attributes of the file or directory.
+     * @param previous the entry of the same path in the previous manifest, may be null.
+     * @return the new entry, the tree hashes are not computed yet.
+     * @throws IOException          if a directory could not be listed.
+     * @throws InterruptedException if the pipeline failed while waiting for the read stage.
+     */
+    private ManifestEntry scanEntry(Path path, BasicFileAttributes attrs, ManifestEntry previous)
+            throws IOException, InterruptedException {
+        Path fileName = path.getFileName();
+        ManifestEntry entry = new ManifestEntry(fileName != null ? fileName.toString() : path.toString(),
+                attrs.isDirectory());
+        entry.setLastModified(attrs.lastModifiedTime().toMillis());
+        if (attrs.isDirectory()) {
+            List<ManifestEntry> children = new ArrayList<>();
+            long size = 0;
+            for (Path child : listSorted(path)) {
+                BasicFileAttributes childAttrs = Files.readAttributes(child, BasicFileAttributes.class);
+                ManifestEntry previousChild = previous != null && previous.isDirectory()
+                        ? previous.findChild(child.getFileName().toString()) : null;
+                ManifestEntry childEntry = scanEntry(child, childAttrs, previousChild);
+                children.add(childEntry);
+                size += childEntry.getSize();
+            }
+            entry.setChildren(children);
+            entry.setSize(size);
+        } else {
+            entry.setSize(attrs.size());
+            entry.setFileKey(attrs.fileKey() != null ? attrs.fileKey().toString() : null);
+            if (isUnchanged(entry, previous)) {
+                entry.setContentHash(previous.getContentHash());
+            } else {
+                this.readStage.put(new FileTask(path, entry, previous));
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Computes the tree hashes bottom up once all content hashes are known. Directories whose tree hash did not
+     * change are replaced by the previous entry to keep the manifests small in memory.
+     *
+     * @param entry    the scanned entry.
+     * @param previous the entry of the same path in the previous manifest, may be null.
+     * @return the entry to use in the manifest.
+     * @throws IOException if the configuration of the repository could not be read.
+     */
+    private ManifestEntry completeEntry(ManifestEntry entry, ManifestEntry previous) throws IOException {
+        if (!entry.isDirectory()) {
+            return entry;
+        }
+        List<ManifestEntry> children = entry.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            ManifestEntry child = children.get(i);
+            ManifestEntry previousChild = previous != null && previous.isDirectory()
+                    ? previous.findChild(child.getName()) : null;
+            children.set(i, completeEntry(child, previousChild));
+        }
+        entry.setTreeHash(computeTreeHash(entry, this.repository.getContentHashFunction()));
+        if (previous != null && previous.isDirectory() && entry.getTreeHash().equals(previous.getTreeHash())) {
+            //The whole subtree is unchanged, share the previous entry.
+            return previous;
+        }
+        return entry;
+    }
+
+    /**
+     * The work of the read stage: relocated files and files stored as a delta are finished right here, large files
+     * are stored in one mapped pass, all others are read in chunks and handed to the hash stage.
+     */
+    private void read(FileTask task) throws IOException, InterruptedException {
+        if (this.ioShare == null) {
+            readShared(task);
+            return;
+        }
+        this.ioShare.acquireIo(task.entry.getSize());
+        try {
+            readShared(task);
+        } finally {
+            this.ioShare.releaseIo();
+        }
+    }
+
+    /**
+     * Helper of read() doing the work once the I/O permit has been taken.
+     */
+    private void readShared(FileTask task) throws IOException, InterruptedException {
+        ManifestEntry entry = task.entry;
+        ManifestEntry previous = task.previous;
+        String storedHash;
+        if ((storedHash = this.moveDetector.findRelocatedHash(task.path, entry)) != null && isStored(storedHash)) {
+            entry.setContentHash(storedHash);
+            this.movedFileCount.incrementAndGet();
+            this.movedBytes.addAndGet(entry.getSize());
+        } else if (this.targets != null) {
+            //Deltas and mapped stores write into one repository, fanning out always reads in chunks.
+            readChunks(task);
+        } else if ((storedHash = this.tailCapture.capture(task.path, entry, previous)) != null) {
+            entry.setContentHash(storedHash);
+            this.tailFileCount.incrementAndGet();
+            this.storedFileCount.incrementAndGet();
+            this.storedBytes.addAndGet(entry.getSize() - previous.getSize());
+        } else {
+            BlockDeltaEncoder blockDeltaEncoder = new BlockDeltaEncoder(this.repository);
+            if ((storedHash = blockDeltaEncoder.encode(task.path, entry, previous)) != null) {
+                entry.setContentHash(storedHash);
+                this.blockDeltaFileCount.incrementAndGet();
+                this.storedFileCount.incrementAndGet();
+                this.storedBytes.addAndGet(blockDeltaEncoder.getLiteralBytes());
+            } else if (entry.getSize() >= this.repository.getMappedReadThreshold()
+                    && this.repository.getCopyMode() != CopyMode.DIRECT) {
+                entry.setContentHash(this.repository.storeObject(task.path));
+                this.storedFileCount.incrementAndGet();
+                this.storedBytes.addAndGet(entry.getSize());
+            } else {
+                readChunks(task);
+            }
+        }
+    }
+
+    /**
+     * Reads the file in chunks and hands them to the hash stage, the last chunk is marked as such.
+     */
+    private void readChunks(FileTask task) throws IOException, InterruptedException {
+        StoreJob job = new StoreJob(task.entry, Files.getLastModifiedTime(task.path),
+                this.repository.newContentHasher(), this.lastStoreId.incrementAndGet());
+        try (InputStream in = this.repository.newSourceInputStream(task.path)) {
+            Chunk chunk = readChunk(job, in, (int) Math.min(CHUNK_SIZE, task.entry.getSize() + 1));
+            while (true) {
+                Chunk next = chunk.length == chunk.data.length ? readChunk(job, in, CHUNK_SIZE) : null;
+                if (next == null || next.length == 0) {
+                    chunk.last = true;
+                    this.hashStage.put(chunk, job.id);
+                    return;
+                }
+                this.hashStage.put(chunk, job.id);
+                chunk = next;
+            }
+        }
+    }
+
+    /**
+     * @return the next chunk of the stream, it is only shorter than the given size at the end of the stream.
+     */
+    private static Chunk readChunk(StoreJob job, InputStream in, int size) throws IOException {
+        byte[] data = new byte[size];
+        int filled = 0;
+        int read;
+        while (filled < size && (read = in.read(data, filled, size - filled)) != -1) {
+            filled += read;
+        }
+        return new Chunk(job, data, filled);
+    }
+
+    /**
+     * The work of the hash stage.
+     */
+    private void hash(Chunk chunk) throws InterruptedException {
+        StoreJob job = chunk.job;
+        job.hasher.update(chunk.data, 0, chunk.length);
+        if (chunk.last) {
+            job.hash = job.hasher.digestHex();
+        }
+        if (this.sealStage != null) {
+            this.sealStage.put(chunk, job.id);
+        } else {
+            this.writeStage.put(chunk, job.id);
+        }
+    }
+
+    /**
+     * The work of the seal stage: the chunk is encrypted into the bytes the write stage writes as they are.
+     */
+    private void seal(Chunk chunk) throws IOException, InterruptedException {
+        StoreJob job = chunk.job;
+        if (job.sealer == null) {
+            job.sealedBytes = new ByteArrayOutputStream(CHUNK_SIZE + 1024);
+            job.sealer = this.repository.newObjectOutputStream(job.sealedBytes);
+        }
+        job.sealer.write(chunk.data, 0, chunk.length);
+        if (chunk.last) {
+            job.sealer.close();
+        }
+        chunk.sealed = job.sealedBytes.toByteArray();
+        job.sealedBytes.reset();
+        this.writeStage.put(chunk, job.id);
+    }
+
+    /**
+     * The work of the write stage: the chunks are written into a temp file which becomes the object after the last
+     * chunk. Runs of zero blocks are left as holes.
+     */
+    private void write(Chunk chunk) throws IOException {
+        StoreJob job = chunk.job;
+        if (job.out == null) {
+            job.tempFile = this.repository.createTempFile();
+            this.openJobs.add(job);
+            job.out = this.repository.newStoredFileOutputStream(job.tempFile);
+        }
+        if (chunk.sealed != null) {
+            job.out.write(chunk.sealed);
+        } else {
+            job.out.write(chunk.data, 0, chunk.length);
+        }
+        if (chunk.last) {
+            try {
+                job.out.close();
+                this.repository.commitObject(job.hash, job.tempFile, job.lastModified);
+            } finally {
+                Files.deleteIfExists(job.tempFile);
+                this.openJobs.remove(job);
+            }
+            job.entry.setContentHash(job.hash);
+            this.storedFileCount.incrementAndGet();
+            this.storedBytes.addAndGet(job.entry.getSize());
+        }
+    }
+
+    /**
+     * The work of the fan-out stage: the chunk is handed to every healthy target, the file is complete once its
+     * last chunk has been handed over.
+     */
+    private void fanOut(Chunk chunk) throws IOException, InterruptedException {
+        StoreJob job = chunk.job;
+        FanOutTarget.Piece piece = new FanOutTarget.Piece(job.id, chunk.data, chunk.length, chunk.last,
+                chunk.last ? job.hash : null, job.lastModified);
+        for (FanOutTarget target : this.targets) {
+            target.put(piece);
+        }
+        if (!hasHealthyTarget()) {
+            throw new IOException("All backup targets failed", this.targets.get(0).getFailure());
+        }
+        if (chunk.last) {
+            job.entry.setContentHash(job.hash);
+            this.storedFileCount.incrementAndGet();
+            this.storedBytes.addAndGet(job.entry.getSize());
+        }
+    }
+
+    /**
+     * Closes and deletes the temp files of the files which have not been completed because the build failed.
+     */
+    private void discardOpenJobs() {
+        for (StoreJob job : this.openJobs) {
+            try {
+                if (job.out != null) {
+                    job.out.close();
+                }
+                Files.deleteIfExists(job.tempFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.openJobs.clear();
+    }
+
+    /**
+     * @param entry    the new file entry, its hash is not known yet.
+     * @param previous the entry of the same path in the previous manifest, may be null.
+     * @return true if the file metadata matches the previous entry and its content is still stored.
+     */
+    private boolean isUnchanged(ManifestEntry entry, ManifestEntry previous) {
+        return previous != null
+                && !previous.isDirectory()
+                && previous.getSize() == entry.getSize()
+                && previous.getLastModified() == entry.getLastModified()
+                && isStored(previous.getContentHash());
+    }
+
+    /**
+     * @param dir the directory to list.
+     * @return the children of the directory sorted by name.
+     * @throws IOException if the directory could not be listed.
+     */
+    private static List<Path> listSorted(Path dir) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        }
+        children.sort(Comparator.comparing(p -> p.getFileName().toString()));
+        return children;
+    }
+
+    /**
+     * Computes the merkle hash of a directory entry from the name, type, size, last modified time and hash of
+     * each child. The children have to be sorted by name and their hashes have to be computed already.
+     *
+     * @param directory the directory entry.
+     * @param function  the content hash function of the repository.
+     * @return the lower case hex representation of the tree hash.
+     */
+    public static String computeTreeHash(ManifestEntry directory, HashFunction function) {
+        Hasher hasher = function.newHasher();
+        byte[] header = new byte[8];
+        for (ManifestEntry child : directory.getChildren()) {
+            header[0] = (byte) (child.isDirectory() ? 'd' : 'f');
+            hasher.update(header, 0, 1);
+            hasher.update(child.getName().getBytes(StandardCharsets.UTF_8));
+            header[0] = 0;
+            hasher.update(header, 0, 1);
+            updateLong(hasher, header, child.getSize());
+            updateLong(hasher, header, child.getLastModified());
+            hasher.update(child.getDigest().getBytes(StandardCharsets.US_ASCII));
+        }
+        return hasher.digestHex();
+    }
+
+    /**
+     * Feeds the big endian bytes of the given value into the hasher, using the given 8 byte buffer.
+     */
+    private static void updateLong(Hasher hasher, byte[] buffer, long value) {
+        for (int i = 0; i < 8; i++) {
+            buffer[i] = (byte) (value >>> (56 - 8 * i));
+        }
+        hasher.update(buffer, 0, 8);
+    }
+
+    /**
+     * A changed file handed from the scan to the read stage.
+     */
+    private static class FileTask {
+
+        /**
+         * The path of the file.
+         */
+        private final Path path;
+
+        /**
+         * The new entry of the file, its content hash is set when the file has been stored.
+         */
+        private final ManifestEntry entry;
+
+        /**
+         * The entry of the same path in the previous manifest, may be null.
+         */
+        private final ManifestEntry previous;
+
+        private FileTask(Path path, ManifestEntry entry, ManifestEntry previous) {
+            this.path = path;
+            this.entry = entry;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * The state of one file flowing through the hash and write stage in chunks.
+     */
+    private static class StoreJob {
+
+        /**
+         * The new entry of the file.
+         */
+        private final ManifestEntry entry;
+
+        /**
+         * The last modified time of the file, kept by the stored object.
+         */
+        private final FileTime lastModified;
+
+        /**
+         * The hasher fed by the hash stage.
+         */
+        private final Hasher hasher;
+
+        /**
+         * The key of the lanes of the file.
+         */
+        private final long id;
+
+        /**
+         * The content hash, set by the hash stage together with the last chunk.
+         */
+        private String hash;
+
+        /**
+         * The temp file written by the write stage.
+         */
+        private Path tempFile;
+
+        /**
+         * The stream into the temp file.
+         */
+        private OutputStream out;
+
+        /**
+         * The stream encrypting the chunks in encrypted repositories, created by the seal stage.
+         */
+        private OutputStream sealer;
+
+        /**
+         * The buffer receiving the encrypted bytes of the sealer.
+         */
+        private ByteArrayOutputStream sealedBytes;
+
+        private StoreJob(ManifestEntry entry, FileTime lastModified, Hasher hasher, long id) {
+            this.entry = entry;
+            this.lastModified = lastModified;
+            this.hasher = hasher;
+            this.id = id;
+        }
+    }
+
+    /**
+     * A part of a file flowing from the read to the write stage.
+     */
+    private static class Chunk {
+
+        /**
+         * The file the chunk belongs to.
+         */
+        private final StoreJob job;
+
+        /**
+         * The buffer holding the bytes.
+         */
+        private final byte[] data;
+
+        /**
+         * The amount of valid bytes in the buffer.
+         */
+        private final int length;
+
+        /**
+         * True for the last chunk of the file.
+         */
+        private boolean last;
+
+        /**
+         * The encrypted bytes to write instead of the data, set by the seal stage.
+         */
+        private byte[] sealed;
+
+        private Chunk(StoreJob job, byte[] data, int length) {
+            this.job = job;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    //Only getters and setters from here
+
+    public int getStoredFileCount() {
+        return storedFileCount.get();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    public int getMovedFileCount() {
+        return movedFileCount.get();
+    }
+
+    public long getMovedBytes() {
+        return movedBytes.get();
+    }
+
+    public int getTailFileCount() {
+        return tailFileCount.get();
+    }
+
+    public int getBlockDeltaFileCount() {
+        return blockDeltaFileCount.get();
+    }
+
+    public String getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
+    public int getReadParallelism() {
+        return readParallelism;
+    }
+
+    public void setReadParallelism(int readParallelism) {
+        this.readParallelism = readParallelism;
+    }
+
+    public int getHashParallelism() {
+        return hashParallelism;
+    }
+
+    public void setHashParallelism(int hashParallelism) {
+        this.hashParallelism = hashParallelism;
+    }
+
+    public int getSealParallelism() {
+        return sealParallelism;
+    }
+
+    public void setSealParallelism(int sealParallelism) {
+        this.sealParallelism = sealParallelism;
+    }
+
+    public List<SnapshotRepository> getMirrors() {
+        return mirrors;
+    }
+
+    public void setMirrors(List<SnapshotRepository> mirrors) {
+        this.mirrors = mirrors;
+    }
+
+    public long getTargetStallMillis() {
+        return targetStallMillis;
+    }
+
+    public void setTargetStallMillis(long targetStallMillis) {
+        this.targetStallMillis = targetStallMillis;
+    }
+
+    public JobShare getIoShare() {
+        return ioShare;
+    }
+
+    public void setIoShare(JobShare ioShare) {
+        this.ioShare = ioShare;
+    }
+
+    public int getWriteParallelism() {
+        return writeParallelism;
+    }
+
+    public void setWriteParallelism(int writeParallelism) {
+        this.writeParallelism = writeParallelism;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.openkw.model.snapshot.ManifestEntry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class recognizes files which have been moved or renamed since the previous snapshot, so their content can be
+ * referenced instead of being copied again.
+ * A file is matched by its file key (device and inode) together with its size and last modified time. If the file
+ * system does not provide file keys, files with the same size and last modified time are hashed and compared with
+ * the content hashes of the previous snapshot.
+ */
+public class MoveDetector {
+
+    /**
+     * The repository containing the stored file contents.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The root entry of the previous manifest, may be null.
+     */
+    private final ManifestEntry previousRoot;
+
+    /**
+     * The files of the previous manifest by their file key, built on first use.
+     */
+    private Map<String, ManifestEntry> filesByKey;
+
+    /**
+     * The files of the previous manifest by their size, built on first use.
+     */
+    private Map<Long, List<ManifestEntry>> filesBySize;
+
+    /**
+     * @param repository   the repository containing the stored file contents.
+     * @param previousRoot the root entry of the previous manifest, may be null.
+     */
+    public MoveDetector(SnapshotRepository repository, ManifestEntry previousRoot) {
+        this.repository = repository;
+        this.previousRoot = previousRoot;
+    }
+
+    /**
+     * Looks for a file of the previous snapshot which has been relocated to the given path.
+     *
+     * @param path  the current path of the file.
+     * @param entry the new entry of the file, its size, last modified time and file key have to be set.
+     * @return the content hash of the relocated file, null if the file is not a relocated one.
+     * @throws IOException if the file had to be hashed and could not be read.
+     */
+    public String findRelocatedHash(Path path, ManifestEntry entry) throws IOException {
+        if (this.previousRoot == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (this.filesByKey == null) {
+                buildIndex();
+            }
+        }
+        if (entry.getFileKey() != null) {
+            ManifestEntry candidate = this.filesByKey.get(entry.getFileKey());
+            if (candidate != null && matchesMetadata(candidate, entry)
+                    && this.repository.hasObject(candidate.getContentHash())) {
+                return candidate.getContentHash();
+            }
+        }
+        Set<String> candidateHashes = new HashSet<>();
+        for (ManifestEntry candidate : this.filesBySize.getOrDefault(entry.getSize(), new ArrayList<>())) {
+            if (matchesMetadata(candidate, entry) && this.repository.hasObject(candidate.getContentHash())) {
+                candidateHashes.add(candidate.getContentHash());
+            }
+        }
+        if (candidateHashes.isEmpty()) {
+            return null;
+        }
+        String hash = this.repository.hashFile(path);
+        return candidateHashes.contains(hash) ? hash : null;
+    }
+
+    /**
+     * @return true if both entries have the same size and last modified time.
+     */
+    private static boolean matchesMetadata(ManifestEntry candidate, ManifestEntry entry) {
+        return candidate.getSize() == entry.getSize() && candidate.getLastModified() == entry.getLastModified();
+    }
+
+    /**
+     * Indexes all files of the previous manifest by file key and size.
+     */
+    private void buildIndex() {
+        this.filesByKey = new HashMap<>();
+        this.filesBySize = new HashMap<>();
+        indexEntry(this.previousRoot);
+    }
+
+    /**
+     * Recursive helper of buildIndex().
+     */
+    private void indexEntry(ManifestEntry entry) {
+        if (entry.isDirectory()) {
+            for (ManifestEntry child : entry.getChildren()) {
+                indexEntry(child);
+            }
+        } else {
+            if (entry.getFileKey() != null) {
+                this.filesByKey.put(entry.getFileKey(), entry);
+            }
+            this.filesBySize.computeIfAbsent(entry.getSize(), size -> new ArrayList<>()).add(entry);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This interface provides random access to the content of an object stored in the backup repository, regardless of
+ * whether the object is stored as a whole file or as a delta against another object.
+ */
+public interface ObjectReader extends Closeable {
+
+    /**
+     * @return the size of the object content in bytes.
+     */
+    long size();
+
+    /**
+     * Reads bytes of the object content starting at the given position into the buffer.
+     *
+     * @param position the position inside the object content.
+     * @param dst      the buffer to fill, at most dst.remaining() bytes are read.
+     * @return the amount of bytes read, -1 if the position is at or behind the end of the content.
+     * @throws IOException if the stored object could not be read.
+     */
+    int read(long position, ByteBuffer dst) throws IOException;
+}
@@ -0,0 +1,90 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This input stream reads the content of a stored object sequentially through an ObjectReader.
+ */
+public class ObjectReaderInputStream extends InputStream {
+
+    /**
+     * The reader of the stored object, closed together with this stream.
+     */
+    private final ObjectReader reader;
+
+    /**
+     * The position of the next byte to read.
+     */
+    private long position;
+
+    /**
+     * @param reader the reader of the stored object, closed together with this stream.
+     */
+    public ObjectReaderInputStream(ObjectReader reader) {
+        this(reader, 0);
+    }
+
+    /**
+     * @param reader   the reader of the stored object, closed together with this stream.
+     * @param position the position of the first byte to read.
+     */
+    public ObjectReaderInputStream(ObjectReader reader, long position) {
+        this.reader = reader;
+        this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read = this.reader.read(this.position, ByteBuffer.wrap(b, off, len));
+        if (read > 0) {
+            this.position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, this.reader.size() - this.position));
+        this.position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, this.reader.size() - this.position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+}
@@ -0,0 +1,757 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.openkw.controller.util.SparseFileOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class stores objects of a repository in pack files inside an archive directory, which is usually located
+ * on a slower and cheaper disk than the backup directory. A pack holds many objects one after the other, each
+ * compressed on its own with the strongest deflate level, so a single object can be extracted without reading the
+ * rest of the pack. Every pack has an index file listing its objects, the index is written last, so a pack
+ * without index is an unfinished pack and never read. Objects are kept as they are stored in the repository:
+ * deltas stay deltas and encrypted objects stay sealed, which leaves nothing to compress, they are packed as they
+ * are.
+ */
+public class PackStore {
+
+    /**
+     * The default size a pack is closed at once it has been reached.
+     */
+    public static final long DEFAULT_PACK_SIZE = 128L * 1024 * 1024;
+
+    /**
+     * The directory inside the archive directory which contains the packs and their indexes.
+     */
+    private static final String PACKS_DIR = "packs";
+
+    /**
+     * The directory inside the archive directory for packs which are being written.
+     */
+    private static final String TEMP_DIR = "tmp";
+
+    /**
+     * The file extension of a pack.
+     */
+    private static final String PACK_POST_FIX = ".pack";
+
+    /**
+     * The file extension of the index of a pack.
+     */
+    private static final String INDEX_POST_FIX = ".idx";
+
+    /**
+     * The first bytes of every index file.
+     */
+    private static final byte[] INDEX_MAGIC = {'O', 'K', 'W', 'I', 'D', 'X', '0', '1'};
+
+    /**
+     * The size of the buffers used when copying objects into and out of packs.
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The archive directory.
+     */
+    private final Path archiveDir;
+
+    /**
+     * The entries of all packs by the hash of their object.
+     */
+    private final Map<String, PackEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The last modified time of the packs directory when the indexes have been read, a change means that packs
+     * have been added or removed by another instance.
+     */
+    private volatile long loadedModifiedTime = Long.MIN_VALUE;
+
+    /**
+     * @param archiveDir the archive directory.
+     */
+    public PackStore(Path archiveDir) {
+        this.archiveDir = archiveDir;
+    }
+
+    /**
+     * @param hash the content hash of an object.
+     * @return true if the object is stored in one of the packs.
+     * @throws IOException if the indexes could not be read.
+     */
+    public boolean contains(String hash) throws IOException {
+        return getEntry(hash) != null;
+    }
+
+    /**
+     * @param hash the content hash of an object.
+     * @return the entry of the object, null if it is not stored in any pack.
+     * @throws IOException if the indexes could not be read.
+     */
+    public PackEntry getEntry(String hash) throws IOException {
+        PackEntry entry = this.entries.get(hash);
+        if (entry == null && reloadIfChanged()) {
+            entry = this.entries.get(hash);
+        }
+        return entry;
+    }
+
+    /**
+     * Writes an object as it has been stored in the repository into the given file. The checksum of the object is
+     * verified on the way.
+     *
+     * @param hash   the content hash of the object.
+     * @param target the file to write, an existing file is replaced.
+     * @return the entry of the object.
+     * @throws NoSuchFileException if the object is not stored in any pack.
+     * @throws IOException         if the pack could not be read or the object is corrupt.
+     */
+    public PackEntry extract(String hash, Path target) throws IOException {
+        PackEntry entry = getEntry(hash);
+        if (entry == null) {
+            throw new NoSuchFileException(hash);
+        }
+        try {
+            extractEntry(entry, target);
+        } catch (NoSuchFileException e) {
+            //The pack has been repacked by another instance in the meantime
+            reload();
+            entry = getEntry(hash);
+            if (entry == null) {
+                throw e;
+            }
+            extractEntry(entry, target);
+        }
+        return entry;
+    }
+
+    /**
+     * Helper of extract() which reads one entry.
+     */
+    private void extractEntry(PackEntry entry, Path target) throws IOException {
+        CRC32 crc = new CRC32();
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(getPackPath(entry.packId), StandardOpenOption.READ)) {
+            channel.position(entry.offset);
+            InputStream in = new BufferedInputStream(new BoundedChannelInputStream(channel, entry.storedLength),
+                    BUFFER_SIZE);
+            if (entry.compressed) {
+                in = new InflaterInputStream(in);
+            }
+            try (OutputStream out = new SparseFileOutputStream(target)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    written += read;
+                }
+            }
+        }
+        if (written != entry.rawLength || crc.getValue() != entry.crc) {
+            throw new IOException("The archived object " + entry.hash + " in pack " + entry.packId + " is corrupt");
+        }
+    }
+
+    /**
+     * @param compress true to compress the objects, false for objects which do not compress like sealed ones.
+     * @param packSize the size a pack is closed at once it has been reached.
+     * @return a writer adding new packs to this store, it has to be closed to finish the last pack.
+     */
+    public PackWriter newWriter(boolean compress, long packSize) {
+        return new PackWriter(compress, packSize);
+    }
+
+    /**
+     * @return the ids of all finished packs.
+     * @throws IOException if the packs directory could not be read.
+     */
+    public List<String> listPacks() throws IOException {
+        Path packsDir = this.archiveDir.resolve(PACKS_DIR);
+        if (Files.notExists(packsDir)) {
+            return Collections.emptyList();
+        }
+        List<String> packIds = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(packsDir, "*" + INDEX_POST_FIX)) {
+            for (Path indexFile : stream) {
+                String fileName = indexFile.getFileName().toString();
+                packIds.add(fileName.substring(0, fileName.length() - INDEX_POST_FIX.length()));
+            }
+        }
+        Collections.sort(packIds);
+        return packIds;
+    }
+
+    /**
+     * @param packId the id of a pack.
+     * @return the entries of the pack in the order of the pack.
+     * @throws IOException if the index could not be read.
+     */
+    public List<PackEntry> readIndex(String packId) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(getIndexPath(packId)), BUFFER_SIZE))) {
+            byte[] magic = new byte[INDEX_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, INDEX_MAGIC)) {
+                throw new IOException("Corrupt pack index " + packId);
+            }
+            int count = in.readInt();
+            List<PackEntry> packEntries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String hash = in.readUTF();
+                byte flags = in.readByte();
+                String baseHash = in.readUTF();
+                packEntries.add(new PackEntry(packId, hash, (flags & 1) != 0, (flags & 2) != 0,
+                        baseHash.isEmpty() ? null : baseHash, in.readLong(), in.readLong(), in.readLong(),
+                        in.readLong(), in.readLong()));
+            }
+            return packEntries;
+        }
+    }
+
+    /**
+     * Adds a finished pack copied from another store under its id. The index is moved last, so the pack is never
+     * visible without its content.
+     *
+     * @param packId    the id of the pack.
+     * @param packFile  the copy of the pack, created through createTempFile().
+     * @param indexFile the copy of its index, created through createTempFile().
+     * @throws IOException if the files could not be moved or the index could not be read.
+     */
+    public void addPack(String packId, Path packFile, Path indexFile) throws IOException {
+        Files.createDirectories(this.archiveDir.resolve(PACKS_DIR));
+        Files.move(packFile, getPackPath(packId), StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexFile, getIndexPath(packId), StandardCopyOption.ATOMIC_MOVE);
+        for (PackEntry entry : readIndex(packId)) {
+            this.entries.put(entry.hash, entry);
+        }
+    }
+
+    /**
+     * Deletes a pack whose objects have been written to other packs or are no longer needed. The index is deleted
+     * first, so the pack is never visible without its content.
+     *
+     * @param packId the id of the pack.
+     * @return the size of the deleted pack in bytes.
+     * @throws IOException if the pack could not be deleted.
+     */
+    public long deletePack(String packId) throws IOException {
+        Files.deleteIfExists(getIndexPath(packId));
+        this.entries.values().removeIf(entry -> entry.packId.equals(packId));
+        Path packPath = getPackPath(packId);
+        long size = Files.exists(packPath) ? Files.size(packPath) : 0;
+        Files.deleteIfExists(packPath);
+        return size;
+    }
+
+    /**
+     * Deletes packs which have been left unfinished by an interrupted writer.
+     *
+     * @throws IOException if a directory could not be read.
+     */
+    public void deleteUnfinishedPacks() throws IOException {
+        Path packsDir = this.archiveDir.resolve(PACKS_DIR);
+        if (Files.exists(packsDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(packsDir, "*" + PACK_POST_FIX)) {
+                for (Path packFile : stream) {
+                    String fileName = packFile.getFileName().toString();
+                    String packId = fileName.substring(0, fileName.length() - PACK_POST_FIX.length());
+                    if (Files.notExists(getIndexPath(packId))) {
+                        Files.deleteIfExists(packFile);
+                    }
+                }
+            }
+        }
+        Path tempDir = this.archiveDir.resolve(TEMP_DIR);
+        if (Files.exists(tempDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(tempDir)) {
+                for (Path tempFile : stream) {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the store contains no pack.
+     * @throws IOException if the packs directory could not be read.
+     */
+    public boolean isEmpty() throws IOException {
+        return listPacks().isEmpty();
+    }
+
+    /**
+     * Reads the indexes again if packs have been added or removed since they have been read.
+     *
+     * @return true if the indexes have been read.
+     */
+    private boolean reloadIfChanged() throws IOException {
+        Path packsDir = this.archiveDir.resolve(PACKS_DIR);
+        long modifiedTime = Files.exists(packsDir) ? Files.getLastModifiedTime(packsDir).toMillis() : 0;
+        if (modifiedTime == this.loadedModifiedTime) {
+            return false;
+        }
+        reload();
+        return true;
+    }
+
+    /**
+     * Reads all indexes.
+     */
+    private synchronized void reload() throws IOException {
+        Path packsDir = this.archiveDir.resolve(PACKS_DIR);
+        long modifiedTime = Files.exists(packsDir) ? Files.getLastModifiedTime(packsDir).toMillis() : 0;
+        Map<String, PackEntry> loaded = new ConcurrentHashMap<>();
+        for (String packId : listPacks()) {
+            try {
+                for (PackEntry entry : readIndex(packId)) {
+                    loaded.put(entry.hash, entry);
+                }
+            } catch (NoSuchFileException e) {
+                //Deleted by a repack in the meantime.
+            }
+        }
+        this.entries.keySet().retainAll(loaded.keySet());
+        this.entries.putAll(loaded);
+        this.loadedModifiedTime = modifiedTime;
+    }
+
+    /**
+     * @return a new empty file inside the archive directory, to be moved into the packs directory once it is
+     * complete.
+     * @throws IOException if the file could not be created.
+     */
+    public Path createTempFile() throws IOException {
+        Path tempDir = this.archiveDir.resolve(TEMP_DIR);
+        Files.createDirectories(tempDir);
+        return Files.createTempFile(tempDir, "part", null);
+    }
+
+    /**
+     * @param packId the id of a pack.
+     * @return the path of the pack file.
+     */
+    public Path getPackPath(String packId) {
+        return this.archiveDir.resolve(PACKS_DIR).resolve(packId + PACK_POST_FIX);
+    }
+
+    /**
+     * @param packId the id of a pack.
+     * @return the path of the index file of the pack.
+     */
+    public Path getIndexPath(String packId) {
+        return this.archiveDir.resolve(PACKS_DIR).resolve(packId + INDEX_POST_FIX);
+    }
+
+    //Only getters from here
+
+    public Path getArchiveDir() {
+        return archiveDir;
+    }
+
+    /**
+     * This class describes one object inside a pack.
+     */
+    public static class PackEntry {
+
+        /**
+         * The id of the pack.
+         */
+        private final String packId;
+
+        /**
+         * The content hash of the object.
+         */
+        private final String hash;
+
+        /**
+         * True if the object is stored as a delta.
+         */
+        private final boolean delta;
+
+        /**
+         * True if the stored bytes are deflated.
+         */
+        private final boolean compressed;
+
+        /**
+         * The hash of the base object of a delta, null for whole objects.
+         */
+        private final String baseHash;
+
+        /**
+         * The position of the object inside the pack.
+         */
+        private final long offset;
+
+        /**
+         * The amount of bytes the object takes inside the pack.
+         */
+        private final long storedLength;
+
+        /**
+         * The size of the object file as it has been stored in the repository.
+         */
+        private final long rawLength;
+
+        /**
+         * The last modified time of the object file in milliseconds since the epoch.
+         */
+        private final long lastModified;
+
+        /**
+         * The CRC-32 of the object file as it has been stored in the repository.
+         */
+        private final long crc;
+
+        PackEntry(String packId, String hash, boolean delta, boolean compressed, String baseHash, long offset,
+                  long storedLength, long rawLength, long lastModified, long crc) {
+            this.packId = packId;
+            this.hash = hash;
+            this.delta = delta;
+            this.compressed = compressed;
+            this.baseHash = baseHash;
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.rawLength = rawLength;
+            this.lastModified = lastModified;
+            this.crc = crc;
+        }
+
+        //Only getters from here
+
+        public String getPackId() {
+            return packId;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public boolean isDelta() {
+            return delta;
+        }
+
+        public String getBaseHash() {
+            return baseHash;
+        }
+
+        public long getStoredLength() {
+            return storedLength;
+        }
+
+        public long getRawLength() {
+            return rawLength;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * This class appends objects to new packs. A pack is finished once it has reached the pack size or the writer
+     * is closed, only then its objects become visible.
+     */
+    public class PackWriter implements AutoCloseable {
+
+        /**
+         * True to deflate the objects.
+         */
+        private final boolean compress;
+
+        /**
+         * The size a pack is finished at.
+         */
+        private final long packSize;
+
+        /**
+         * Compresses the objects, reused for all of them.
+         */
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+        /**
+         * The id of the current pack, null if no pack is open.
+         */
+        private String packId;
+
+        /**
+         * The temp file of the current pack.
+         */
+        private Path packFile;
+
+        /**
+         * The channel of the current pack.
+         */
+        private FileChannel channel;
+
+        /**
+         * The entries of the current pack.
+         */
+        private final List<PackEntry> packEntries = new ArrayList<>();
+
+        /**
+         * The amount of bytes written into packs.
+         */
+        private long writtenBytes;
+
+        /**
+         * @param compress true to deflate the objects.
+         * @param packSize the size a pack is finished at.
+         */
+        private PackWriter(boolean compress, long packSize) {
+            this.compress = compress;
+            this.packSize = packSize;
+        }
+
+        /**
+         * Appends an object file of the repository. An object which does not get smaller is kept uncompressed.
+         *
+         * @param hash       the content hash of the object.
+         * @param delta      true if the file is a delta file.
+         * @param baseHash   the hash of the base object of a delta, null for whole objects.
+         * @param storedFile the object file or delta file.
+         * @throws IOException if the file could not be read or the pack could not be written.
+         */
+        public void add(String hash, boolean delta, String baseHash, Path storedFile) throws IOException {
+            openPack();
+            long offset = this.channel.position();
+            long rawLength = Files.size(storedFile);
+            long lastModified = Files.getLastModifiedTime(storedFile).toMillis();
+            CRC32 crc = new CRC32();
+            boolean compressed = this.compress && writeObject(storedFile, true, crc);
+            if (!compressed) {
+                //Incompressible, the deflated attempt is overwritten by the plain bytes
+                this.channel.truncate(offset);
+                this.channel.position(offset);
+                crc.reset();
+                writeObject(storedFile, false, crc);
+            }
+            long storedLength = this.channel.position() - offset;
+            this.packEntries.add(new PackEntry(this.packId, hash, delta, compressed, baseHash, offset, storedLength,
+                    rawLength, lastModified, crc.getValue()));
+            this.writtenBytes += storedLength;
+            if (this.channel.position() >= this.packSize) {
+                finishPack();
+            }
+        }
+
+        /**
+         * Copies an object of another pack as it is stored there, without inflating and deflating it again.
+         *
+         * @param entry the entry of the object.
+         * @throws IOException if the other pack could not be read or the pack could not be written.
+         */
+        public void copy(PackEntry entry) throws IOException {
+            openPack();
+            long offset = this.channel.position();
+            try (FileChannel source = FileChannel.open(getPackPath(entry.packId), StandardOpenOption.READ)) {
+                long copied = 0;
+                while (copied < entry.storedLength) {
+                    long transferred = source.transferTo(entry.offset + copied, entry.storedLength - copied,
+                            this.channel);
+                    if (transferred <= 0) {
+                        throw new IOException("The pack " + entry.packId + " is truncated");
+                    }
+                    copied += transferred;
+                }
+            }
+            this.channel.position(offset + entry.storedLength);
+            this.packEntries.add(new PackEntry(this.packId, entry.hash, entry.delta, entry.compressed,
+                    entry.baseHash, offset, entry.storedLength, entry.rawLength, entry.lastModified, entry.crc));
+            this.writtenBytes += entry.storedLength;
+            if (this.channel.position() >= this.packSize) {
+                finishPack();
+            }
+        }
+
+        /**
+         * Writes the object file at the current position of the pack.
+         *
+         * @return true if the written bytes are smaller than the file, always true if not deflated.
+         */
+        private boolean writeObject(Path storedFile, boolean deflate, CRC32 crc) throws IOException {
+            long start = this.channel.position();
+            long rawLength = 0;
+            //The channel stays open for the next objects
+            OutputStream out = new FilterOutputStream(Channels.newOutputStream(this.channel)) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    this.out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            if (deflate) {
+                this.deflater.reset();
+                out = new DeflaterOutputStream(out, this.deflater, BUFFER_SIZE);
+            }
+            try (InputStream in = Files.newInputStream(storedFile);
+                 OutputStream target = new BufferedOutputStream(out, BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    target.write(buffer, 0, read);
+                    rawLength += read;
+                }
+            }
+            return !deflate || this.channel.position() - start < rawLength;
+        }
+
+        /**
+         * Opens a new pack if none is open.
+         */
+        private void openPack() throws IOException {
+            if (this.channel != null) {
+                return;
+            }
+            Path tempDir = PackStore.this.archiveDir.resolve(TEMP_DIR);
+            Files.createDirectories(tempDir);
+            this.packId = UUID.randomUUID().toString();
+            this.packFile = tempDir.resolve(this.packId + PACK_POST_FIX);
+            this.channel = FileChannel.open(this.packFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Moves the current pack into the packs directory and writes its index, which makes its objects visible.
+         */
+        private void finishPack() throws IOException {
+            this.channel.close();
+            this.channel = null;
+            Path packsDir = PackStore.this.archiveDir.resolve(PACKS_DIR);
+            Files.createDirectories(packsDir);
+            Path indexTemp = this.packFile.resolveSibling(this.packId + INDEX_POST_FIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(indexTemp), BUFFER_SIZE))) {
+                out.write(INDEX_MAGIC);
+                out.writeInt(this.packEntries.size());
+                for (PackEntry entry : this.packEntries) {
+                    out.writeUTF(entry.hash);
+                    out.writeByte((entry.delta ? 1 : 0) | (entry.compressed ? 2 : 0));
+                    out.writeUTF(entry.baseHash == null ? "" : entry.baseHash);
+                    out.writeLong(entry.offset);
+                    out.writeLong(entry.storedLength);
+                    out.writeLong(entry.rawLength);
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.crc);
+                }
+            }
+            Files.move(this.packFile, getPackPath(this.packId), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(indexTemp, getIndexPath(this.packId), StandardCopyOption.ATOMIC_MOVE);
+            for (PackEntry entry : this.packEntries) {
+                PackStore.this.entries.put(entry.hash, entry);
+            }
+            this.packEntries.clear();
+        }
+
+        /**
+         * Finishes the current pack.
+         *
+         * @throws IOException if the pack could not be finished.
+         */
+        @Override
+        public void close() throws IOException {
+            this.deflater.end();
+            if (this.channel != null) {
+                if (this.packEntries.isEmpty()) {
+                    this.channel.close();
+                    this.channel = null;
+                    Files.deleteIfExists(this.packFile);
+                } else {
+                    finishPack();
+                }
+            }
+        }
+
+        //Only getters from here
+
+        public long getWrittenBytes() {
+            return writtenBytes;
+        }
+    }
+
+    /**
+     * An input stream over a range of a channel, starting at the current position of the channel.
+     */
+    private static class BoundedChannelInputStream extends InputStream {
+
+        /**
+         * The channel.
+         */
+        private final InputStream in;
+
+        /**
+         * The amount of bytes left.
+         */
+        private long remaining;
+
+        BoundedChannelInputStream(FileChannel channel, long length) {
+            this.in = Channels.newInputStream(channel);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int read = this.in.read(b, off, (int) Math.min(len, this.remaining));
+            if (read > 0) {
+                this.remaining -= read;
+            }
+            return read;
+        }
+    }
+}
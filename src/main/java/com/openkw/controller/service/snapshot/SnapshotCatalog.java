@@ -0,0 +1,439 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps the persistent catalog of all backup runs of a repository.
+ * <p>
+ * Every run gets the next id of a gap free ascending sequence and its own record file, named after the id. The HEAD
+ * file holds the highest id in use, so the latest snapshot is found without listing any directory, pages of the
+ * snapshot list are read by id and the snapshot at a point in time is found by binary search over the ids. The
+ * LATEST file points at the newest complete snapshot of every data directory, so the base of an incremental backup
+ * is found without scanning the records of other data directories or of failed runs.
+ */
+public class SnapshotCatalog {
+
+    /**
+     * The name of the directory inside the repository which contains the catalog.
+     */
+    private static final String CATALOG_DIR = "catalog";
+
+    /**
+     * The name of the file which contains the highest id in use.
+     */
+    private static final String HEAD_FILE = "HEAD";
+
+    /**
+     * The name of the file which maps every data directory to the id of its newest complete snapshot.
+     */
+    private static final String LATEST_FILE = "LATEST";
+
+    /**
+     * The file extension of a serialized record.
+     */
+    private static final String RECORD_POST_FIX = ".json";
+
+    /**
+     * The pattern of the time stamp inside the snapshot names, usable in file names on every platform.
+     */
+    private static final String NAME_TIME_STAMP_PATTERN = "yyyy-MM-dd HH-mm-ss";
+
+    /**
+     * The repository the catalog belongs to.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The path of the catalog directory.
+     */
+    private final Path catalogPath;
+
+    /**
+     * The Jackson ObjectMapper instance used for serializing the records.
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param repository the repository the catalog belongs to.
+     */
+    SnapshotCatalog(SnapshotRepository repository) {
+        this.repository = repository;
+        this.catalogPath = repository.getRepositoryPath().resolve(CATALOG_DIR);
+    }
+
+    /**
+     * Registers a new backup run with the status RUNNING. The snapshot name is built from the start time and the
+     * id, so it is unique even for runs inside the same second.
+     *
+     * @param sourcePath the absolute path of the data directory.
+     * @return the record of the new run.
+     * @throws IOException if the catalog could not be written.
+     */
+    public synchronized SnapshotRecord begin(String sourcePath) throws IOException {
+        long id = getLatestId() + 1;
+        SnapshotRecord record = new SnapshotRecord();
+        record.setId(id);
+        record.setStartedAt(System.currentTimeMillis());
+        record.setSnapshotName("Backup " + new SimpleDateFormat(NAME_TIME_STAMP_PATTERN)
+                .format(new Date(record.getStartedAt())) + " #" + id);
+        record.setSourcePath(sourcePath);
+        record.setStatus(SnapshotStatus.RUNNING);
+        writeRecord(record);
+        writeHead(id);
+        return record;
+    }
+
+    /**
+     * Marks a run as complete after its manifest has been written and saves the counts of the run. Objects which
+     * are still being flushed by a group commit are waited for first, a complete record never refers to content
+     * which could be lost.
+     *
+     * @param record          the record of the run.
+     * @param manifest        the manifest of the snapshot.
+     * @param storedFileCount the amount of files whose content had to be stored.
+     * @param storedBytes     the amount of bytes which had to be stored.
+     * @throws IOException if the catalog could not be written.
+     */
+    public void complete(SnapshotRecord record, SnapshotManifest manifest, long storedFileCount, long storedBytes)
+            throws IOException {
+        this.repository.awaitDurable(manifest);
+        record.setFileCount(countFiles(manifest.getRoot()));
+        record.setTotalBytes(manifest.getRoot().getSize());
+        record.setStoredFileCount(storedFileCount);
+        record.setStoredBytes(storedBytes);
+        record.setStatus(SnapshotStatus.COMPLETE);
+        record.setFinishedAt(System.currentTimeMillis());
+        writeRecord(record);
+        updateLatestComplete(record);
+    }
+
+    /**
+     * Marks a run as failed.
+     *
+     * @param record the record of the run.
+     * @throws IOException if the catalog could not be written.
+     */
+    public void fail(SnapshotRecord record) throws IOException {
+        record.setStatus(SnapshotStatus.FAILED);
+        record.setFinishedAt(System.currentTimeMillis());
+        writeRecord(record);
+    }
+
+    /**
+     * Saves a record of another repository under its own id, used to replicate a catalog. The head moves forward
+     * if the id is higher than all ids in use, so the catalog of a replica keeps the ids of its primary.
+     *
+     * @param record the record to save.
+     * @throws IOException if the catalog could not be written.
+     */
+    public synchronized void importRecord(SnapshotRecord record) throws IOException {
+        writeRecord(record);
+        if (record.getId() > getLatestId()) {
+            writeHead(record.getId());
+        }
+        if (record.getStatus() == SnapshotStatus.COMPLETE) {
+            updateLatestComplete(record);
+        }
+    }
+
+    /**
+     * Marks a snapshot as removed by the retention policy.
+     *
+     * @param record the record of the snapshot.
+     * @throws IOException if the catalog could not be written.
+     */
+    public void markPruned(SnapshotRecord record) throws IOException {
+        record.setStatus(SnapshotStatus.PRUNED);
+        writeRecord(record);
+    }
+
+    /**
+     * @param id the id of the snapshot.
+     * @return the record, null if there is no record with this id.
+     * @throws IOException if the record could not be read.
+     */
+    public SnapshotRecord getRecord(long id) throws IOException {
+        Path recordFile = getRecordFile(id);
+        if (Files.notExists(recordFile)) {
+            return null;
+        }
+        return this.objectMapper.readValue(recordFile.toFile(), SnapshotRecord.class);
+    }
+
+    /**
+     * @return the highest id in use, 0 if the catalog is empty.
+     * @throws IOException if the catalog could not be read.
+     */
+    public long getLatestId() throws IOException {
+        Path headFile = this.catalogPath.resolve(HEAD_FILE);
+        if (Files.notExists(headFile)) {
+            importLegacyManifests();
+            if (Files.notExists(headFile)) {
+                return 0;
+            }
+        }
+        return Long.parseLong(new String(Files.readAllBytes(headFile), StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Looks up the newest complete snapshot of any data directory.
+     *
+     * @return the record, null if there is no complete snapshot.
+     * @throws IOException if the catalog could not be read.
+     */
+    public SnapshotRecord getLatestComplete() throws IOException {
+        return getLatestComplete(null);
+    }
+
+    /**
+     * Looks up the newest complete snapshot of the given data directory, for repositories shared by several jobs.
+     * The record the LATEST file points at is read directly. Only if that snapshot has been pruned since, the
+     * older records are scanned.
+     *
+     * @param sourcePath the absolute path of the data directory, null for any data directory.
+     * @return the record, null if there is no complete snapshot of the data directory.
+     * @throws IOException if the catalog could not be read.
+     */
+    public SnapshotRecord getLatestComplete(String sourcePath) throws IOException {
+        Map<String, Long> latest = readLatestComplete();
+        Long id;
+        if (sourcePath == null) {
+            id = latest.values().stream().max(Long::compare).orElse(null);
+        } else {
+            id = latest.get(sourcePath);
+        }
+        if (id == null) {
+            return null;
+        }
+        for (long i = id; i > 0; i--) {
+            SnapshotRecord record = getRecord(i);
+            if (record != null && record.getStatus() == SnapshotStatus.COMPLETE
+                    && (sourcePath == null || sourcePath.equals(record.getSourcePath()))) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists a page of records, the newest first, regardless of their status.
+     *
+     * @param offset the amount of newer records to skip.
+     * @param limit  the maximum amount of records to return.
+     * @return the records of the page.
+     * @throws IOException if the catalog could not be read.
+     */
+    public List<SnapshotRecord> list(long offset, int limit) throws IOException {
+        List<SnapshotRecord> records = new ArrayList<>();
+        for (long id = getLatestId() - offset; id > 0 && records.size() < limit; id--) {
+            SnapshotRecord record = getRecord(id);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Looks up the newest complete snapshot which has been started at or before the given time. The ids are binary
+     * searched, only the records at the probed ids are read.
+     *
+     * @param timeMillis the point in time in milliseconds since the epoch.
+     * @return the record, null if there is no complete snapshot before the given time.
+     * @throws IOException if the catalog could not be read.
+     */
+    public SnapshotRecord findCompleteAt(long timeMillis) throws IOException {
+        long low = 1;
+        long high = getLatestId();
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            SnapshotRecord record = getRecord(mid);
+            if (record != null && record.getStartedAt() <= timeMillis) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (long id = high; id > 0; id--) {
+            SnapshotRecord record = getRecord(id);
+            if (record != null && record.getStatus() == SnapshotStatus.COMPLETE) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the records for manifests written before the catalog existed, ordered by the time the manifests
+     * have been written.
+     */
+    private synchronized void importLegacyManifests() throws IOException {
+        if (Files.exists(this.catalogPath.resolve(HEAD_FILE))) {
+            return;
+        }
+        long id = 0;
+        for (String snapshotName : this.repository.listManifestNamesByWriteTime()) {
+            SnapshotManifest manifest = this.repository.readManifest(snapshotName);
+            if (manifest == null) {
+                continue;
+            }
+            SnapshotRecord record = new SnapshotRecord();
+            record.setId(++id);
+            record.setSnapshotName(snapshotName);
+            record.setSourcePath(manifest.getSourcePath());
+            record.setStartedAt(manifest.getCreatedAt());
+            record.setFileCount(countFiles(manifest.getRoot()));
+            record.setTotalBytes(manifest.getRoot().getSize());
+            record.setStatus(SnapshotStatus.COMPLETE);
+            record.setFinishedAt(manifest.getCreatedAt());
+            writeRecord(record);
+        }
+        if (id > 0) {
+            writeHead(id);
+        }
+    }
+
+    /**
+     * Moves the pointer of the record's data directory to the record if the record is newer.
+     */
+    private synchronized void updateLatestComplete(SnapshotRecord record) throws IOException {
+        Map<String, Long> latest = readLatestComplete();
+        String key = getSourceKey(record);
+        Long current = latest.get(key);
+        if (current == null || current < record.getId()) {
+            latest.put(key, record.getId());
+            writeLatestComplete(latest);
+        }
+    }
+
+    /**
+     * Reads the pointers to the newest complete snapshots. Catalogs written before the pointers existed are
+     * scanned once and the pointers are saved.
+     *
+     * @return the ids of the newest complete snapshots by data directory, an empty string stands for snapshots
+     * without a recorded data directory.
+     */
+    private synchronized Map<String, Long> readLatestComplete() throws IOException {
+        Path latestFile = this.catalogPath.resolve(LATEST_FILE);
+        if (Files.exists(latestFile)) {
+            return this.objectMapper.readValue(latestFile.toFile(), new TypeReference<Map<String, Long>>() {
+            });
+        }
+        Map<String, Long> latest = new HashMap<>();
+        long latestId = getLatestId();
+        for (long id = latestId; id > 0; id--) {
+            SnapshotRecord record = getRecord(id);
+            if (record != null && record.getStatus() == SnapshotStatus.COMPLETE) {
+                latest.putIfAbsent(getSourceKey(record), id);
+            }
+        }
+        if (latestId > 0) {
+            writeLatestComplete(latest);
+        }
+        return latest;
+    }
+
+    /**
+     * Saves the pointers to the newest complete snapshots.
+     */
+    private void writeLatestComplete(Map<String, Long> latest) throws IOException {
+        Files.createDirectories(this.catalogPath);
+        Path tempFile = this.repository.createTempFile();
+        try {
+            this.objectMapper.writeValue(tempFile.toFile(), latest);
+            this.repository.commitFile(tempFile, this.catalogPath.resolve(LATEST_FILE));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return the key of the record's data directory inside the LATEST file.
+     */
+    private static String getSourceKey(SnapshotRecord record) {
+        return record.getSourcePath() != null ? record.getSourcePath() : "";
+    }
+
+    /**
+     * @return the amount of files inside the subtree of the entry.
+     */
+    private static long countFiles(ManifestEntry entry) {
+        if (!entry.isDirectory()) {
+            return 1;
+        }
+        long count = 0;
+        for (ManifestEntry child : entry.getChildren()) {
+            count += countFiles(child);
+        }
+        return count;
+    }
+
+    /**
+     * Writes a record by moving a completely written temp file to its place.
+     */
+    private void writeRecord(SnapshotRecord record) throws IOException {
+        Path recordFile = getRecordFile(record.getId());
+        Files.createDirectories(recordFile.getParent());
+        Path tempFile = this.repository.createTempFile();
+        try {
+            this.objectMapper.writeValue(tempFile.toFile(), record);
+            this.repository.commitFile(tempFile, recordFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Saves the highest id in use.
+     */
+    private void writeHead(long id) throws IOException {
+        Files.createDirectories(this.catalogPath);
+        Path tempFile = this.repository.createTempFile();
+        try {
+            Files.write(tempFile, Long.toString(id).getBytes(StandardCharsets.UTF_8));
+            this.repository.commitFile(tempFile, this.catalogPath.resolve(HEAD_FILE));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return the path of the record file of the given id, 1000 records per sub directory.
+     */
+    private Path getRecordFile(long id) {
+        return this.catalogPath.resolve(Long.toString(id / 1000)).resolve(id + RECORD_POST_FIX);
+    }
+}
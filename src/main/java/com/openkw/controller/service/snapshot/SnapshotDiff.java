@@ -0,0 +1,138 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents the differences between two snapshots.
+ * Directories with equal tree hashes are skipped without looking at their children, so the work needed to compare
+ * two snapshots only depends on the amount of changed directories.
+ */
+public class SnapshotDiff {
+
+    /**
+     * The relative paths of the files which only exist in the newer snapshot.
+     */
+    private final List<String> added = new ArrayList<>();
+
+    /**
+     * The relative paths of the files which exist in both snapshots with different contents or metadata.
+     */
+    private final List<String> modified = new ArrayList<>();
+
+    /**
+     * The relative paths of the files which only exist in the older snapshot.
+     */
+    private final List<String> removed = new ArrayList<>();
+
+    private SnapshotDiff() {
+    }
+
+    /**
+     * Compares two snapshots. All paths are relative to the root entries and use '/' as the separator.
+     *
+     * @param older the manifest of the older snapshot, may be null to treat every file as added.
+     * @param newer the manifest of the newer snapshot.
+     * @return the differences between the snapshots.
+     */
+    public static SnapshotDiff compare(SnapshotManifest older, SnapshotManifest newer) {
+        SnapshotDiff diff = new SnapshotDiff();
+        diff.compareEntries("", older != null ? older.getRoot() : null, newer.getRoot());
+        return diff;
+    }
+
+    /**
+     * Recursive helper of compare().
+     */
+    private void compareEntries(String path, ManifestEntry older, ManifestEntry newer) {
+        if (older != null && newer != null && older.isDirectory() && newer.isDirectory()) {
+            if (older.getTreeHash().equals(newer.getTreeHash())) {
+                return;
+            }
+            for (ManifestEntry child : newer.getChildren()) {
+                compareEntries(childPath(path, child), older.findChild(child.getName()), child);
+            }
+            for (ManifestEntry child : older.getChildren()) {
+                if (newer.findChild(child.getName()) == null) {
+                    collectFiles(childPath(path, child), child, this.removed);
+                }
+            }
+        } else if (older != null && newer != null && !older.isDirectory() && !newer.isDirectory()) {
+            if (!older.getContentHash().equals(newer.getContentHash())
+                    || older.getSize() != newer.getSize()
+                    || older.getLastModified() != newer.getLastModified()) {
+                this.modified.add(path);
+            }
+        } else {
+            //The entry has been created, deleted or replaced by an entry of the other type.
+            if (older != null) {
+                collectFiles(path, older, this.removed);
+            }
+            if (newer != null) {
+                collectFiles(path, newer, this.added);
+            }
+        }
+    }
+
+    /**
+     * Adds the paths of all files of the given subtree to the target list.
+     */
+    private static void collectFiles(String path, ManifestEntry entry, List<String> target) {
+        if (entry.isDirectory()) {
+            for (ManifestEntry child : entry.getChildren()) {
+                collectFiles(childPath(path, child), child, target);
+            }
+        } else {
+            target.add(path);
+        }
+    }
+
+    /**
+     * @return the relative path of the child inside the directory with the given path.
+     */
+    private static String childPath(String path, ManifestEntry child) {
+        return path.isEmpty() ? child.getName() : path + "/" + child.getName();
+    }
+
+    /**
+     * @return true if both snapshots contain the same files.
+     */
+    public boolean isEmpty() {
+        return this.added.isEmpty() && this.modified.isEmpty() && this.removed.isEmpty();
+    }
+
+    //Only getters from here
+
+    public List<String> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    public List<String> getModified() {
+        return Collections.unmodifiableList(modified);
+    }
+
+    public List<String> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+}
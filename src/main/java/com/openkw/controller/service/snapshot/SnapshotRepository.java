@@ -0,0 +1,1207 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openkw.controller.service.crypto.RepositoryCipher;
+import com.openkw.controller.util.HashUtility;
+import com.openkw.controller.util.MappedFileUtility;
+import com.openkw.controller.util.ReadOnlyFileUtility;
+import com.openkw.controller.util.DirectFileInputStream;
+import com.openkw.controller.util.SparseFileOutputStream;
+import com.openkw.controller.util.hash.HashFunction;
+import com.openkw.controller.util.hash.HashFunctions;
+import com.openkw.controller.util.hash.Hasher;
+import com.openkw.model.CopyMode;
+import com.openkw.model.DurabilityLevel;
+import com.openkw.model.snapshot.EncryptionConfig;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.RepositoryConfig;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class represents the backup repository inside the backup directory.
+ * File contents are stored once per content hash in the objects directory and every snapshot is described by a
+ * manifest. The browsable "Backup ..." folders are built from hard links onto the stored objects, so unchanged
+ * files neither have to be read nor copied again.
+ * An object can also be stored as a delta against another object. Such objects are reassembled when they are read
+ * or restored, they do not appear in the browsable folders.
+ * A repository created with a passphrase seals all objects and deltas with RepositoryCipher. Manifests and the
+ * catalog stay readable, browsable folders are not built because they would expose the plain contents.
+ * Objects are written sparsely, runs of zero blocks become holes of the object file instead of taking space, and
+ * restored files get the same holes.
+ * Objects only referenced by older snapshots can be migrated into the packs of an archive directory. Reads fall
+ * back to the archive transparently, and an archived object which is needed for a browsable folder again is copied
+ * back into the objects directory.
+ */
+public class SnapshotRepository {
+
+    /**
+     * The name of the hidden repository directory inside the backup directory.
+     */
+    public static final String REPOSITORY_DIR = ".repository";
+
+    /**
+     * The content hash of new repositories. BLAKE3 is only faster than SHA-256 where the CPU lacks SHA instructions
+     * which the JVM uses, so SHA-256 stays the default.
+     */
+    public static final String DEFAULT_CONTENT_HASH = HashFunctions.SHA_256;
+
+    /**
+     * The block hash of all repositories, the blocks only have to be told apart from each other.
+     */
+    public static final String DEFAULT_BLOCK_HASH = HashFunctions.MURMUR3_128;
+
+    /**
+     * Files of at least this size are read through memory mapped windows by default.
+     */
+    public static final long DEFAULT_MAPPED_READ_THRESHOLD = 256L * 1024 * 1024;
+
+    /**
+     * The size of the buffer used when copying an object out of the repository.
+     */
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The file inside the repository containing the repository configuration.
+     */
+    private static final String CONFIG_FILE = "config.json";
+
+    /**
+     * The directory inside the repository where the file contents are stored.
+     */
+    private static final String OBJECTS_DIR = "objects";
+
+    /**
+     * The directory inside the repository where the snapshot manifests are stored.
+     */
+    private static final String MANIFESTS_DIR = "manifests";
+
+    /**
+     * The directory inside the repository which contains the state of the garbage collector.
+     */
+    private static final String GC_DIR = "gc";
+
+    /**
+     * The directory inside the gc directory where unreferenced objects are parked before they are deleted.
+     */
+    private static final String FOSSILS_DIR = "fossils";
+
+    /**
+     * The directory inside the repository for partially written files.
+     */
+    private static final String TEMP_DIR = "tmp";
+
+    /**
+     * The file extension of a serialized manifest.
+     */
+    private static final String MANIFEST_POST_FIX = ".json";
+
+    /**
+     * The file extension of an object stored as a delta.
+     */
+    private static final String DELTA_POST_FIX = ".delta";
+
+    /**
+     * The file which contains the path of the archive directory of the repository.
+     */
+    private static final String ARCHIVE_FILE = "archive";
+
+    /**
+     * The root path of the repository.
+     */
+    private final Path repositoryPath;
+
+    /**
+     * The object mapper used to (de-)serialize the manifests.
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * The catalog of all backup runs, created on first use.
+     */
+    private SnapshotCatalog catalog;
+
+    /**
+     * The configuration of the repository, read or created on first use.
+     */
+    private RepositoryConfig config;
+
+    /**
+     * Source files of at least this size are read through memory mapped windows instead of streams.
+     */
+    private long mappedReadThreshold = DEFAULT_MAPPED_READ_THRESHOLD;
+
+    /**
+     * The passphrase of an encrypted repository, null or empty for plain repositories.
+     */
+    private final char[] passphrase;
+
+    /**
+     * The cipher of an encrypted repository, unlocked on first use.
+     */
+    private RepositoryCipher cipher;
+
+    /**
+     * The pack store of the archive directory, null as long as no archive directory has been attached.
+     */
+    private PackStore archive;
+
+    /**
+     * Determines when written files are flushed to the disk.
+     */
+    private DurabilityLevel durabilityLevel = DurabilityLevel.NONE;
+
+    /**
+     * Determines whether files are stored and source files are read through the page cache.
+     */
+    private CopyMode copyMode = CopyMode.BUFFERED;
+
+    /**
+     * Flushes new objects in groups, created on first use with the durability level GROUP_COMMIT.
+     */
+    private GroupCommit groupCommit;
+
+    /**
+     * @param backupDir the backup directory which contains the repository.
+     */
+    public SnapshotRepository(Path backupDir) {
+        this(backupDir, null);
+    }
+
+    /**
+     * @param backupDir  the backup directory which contains the repository.
+     * @param passphrase the passphrase of the repository. A new repository is encrypted if it is not empty, an
+     *                   existing repository keeps whatever it has been created with.
+     */
+    public SnapshotRepository(Path backupDir, String passphrase) {
+        this.repositoryPath = backupDir.resolve(REPOSITORY_DIR);
+        this.passphrase = passphrase == null || passphrase.isEmpty() ? null : passphrase.toCharArray();
+    }
+
+    /**
+     * @param hash the content hash of the object.
+     * @return the path where the object with the given hash is stored.
+     */
+    public Path getObjectPath(String hash) {
+        return this.repositoryPath.resolve(OBJECTS_DIR).resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * @param hash the content hash of the object.
+     * @return the path where the object with the given hash is stored if it is stored as a delta.
+     */
+    public Path getDeltaPath(String hash) {
+        return getObjectPath(hash).resolveSibling(hash + DELTA_POST_FIX);
+    }
+
+    /**
+     * @param hash the content hash of the object.
+     * @return true if an object with the given hash is stored in the repository, either whole or as a delta.
+     */
+    public boolean hasObject(String hash) {
+        return hash != null && locate(hash);
+    }
+
+    /**
+     * Unlike hasObject() this leaves archived objects in the archive, a fossil is moved back though.
+     *
+     * @param hash the content hash of the object.
+     * @return true if the object is stored whole or as a delta inside the objects directory.
+     */
+    public boolean isStoredLocally(String hash) {
+        return hash != null && locateLocal(hash);
+    }
+
+    /**
+     * @param hash the content hash of the object.
+     * @return true if the object is stored as a delta against another object.
+     */
+    public boolean isDelta(String hash) {
+        if (locateLocal(hash)) {
+            return Files.notExists(getObjectPath(hash)) && Files.exists(getDeltaPath(hash));
+        }
+        PackStore.PackEntry entry = getArchivedEntry(hash);
+        return entry != null && entry.isDelta();
+    }
+
+    /**
+     * Checks whether an object is stored. An object which the garbage collector has parked as a fossil is moved
+     * back first and an object which has been migrated into the archive is copied back, so every object which is
+     * referenced again survives the next collection and is available for browsable folders.
+     *
+     * @param hash the content hash of the object.
+     * @return true if the object is stored whole or as a delta.
+     */
+    private boolean locate(String hash) {
+        return locateLocal(hash) || rehydrate(hash);
+    }
+
+    /**
+     * Checks whether an object is stored inside the objects directory, resurrecting it from the fossils.
+     *
+     * @param hash the content hash of the object.
+     * @return true if the object is stored whole or as a delta inside the objects directory.
+     */
+    private boolean locateLocal(String hash) {
+        Path objectPath = getObjectPath(hash);
+        Path deltaPath = getDeltaPath(hash);
+        if (Files.exists(objectPath) || Files.exists(deltaPath)) {
+            return true;
+        }
+        return resurrect(objectPath) || resurrect(deltaPath);
+    }
+
+    /**
+     * Copies an object of the archive back into the objects directory, as whole object or delta just like it has
+     * been stored before it was migrated.
+     *
+     * @param hash the content hash of the object.
+     * @return true if the object is stored inside the objects directory afterwards.
+     */
+    private boolean rehydrate(String hash) {
+        PackStore.PackEntry entry = getArchivedEntry(hash);
+        if (entry == null) {
+            return false;
+        }
+        Path objectFile = entry.isDelta() ? getDeltaPath(hash) : getObjectPath(hash);
+        try {
+            Path tempFile = createTempFile();
+            try {
+                getArchive().extract(hash, tempFile);
+                Files.setLastModifiedTime(tempFile, FileTime.fromMillis(entry.getLastModified()));
+                Files.createDirectories(objectFile.getParent());
+                Files.move(tempFile, objectFile, StandardCopyOption.ATOMIC_MOVE);
+                ReadOnlyFileUtility.makeReadOnly(objectFile);
+            } catch (FileAlreadyExistsException e) {
+                //Copied back concurrently, the existing object is identical.
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return Files.exists(objectFile);
+    }
+
+    /**
+     * @param hash the content hash of the object.
+     * @return true if the object is stored in the archive, no matter whether it is stored in the objects
+     * directory as well.
+     */
+    public boolean isArchived(String hash) {
+        return getArchivedEntry(hash) != null;
+    }
+
+    /**
+     * @param hash the content hash of the object.
+     * @return the pack entry of the object, null if there is no archive or the archive does not contain it.
+     */
+    private PackStore.PackEntry getArchivedEntry(String hash) {
+        try {
+            PackStore packStore = getArchive();
+            return packStore == null ? null : packStore.getEntry(hash);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Attaches the archive directory older snapshots are migrated into. The path is saved inside the repository,
+     * so the repository finds its archive without being attached again.
+     *
+     * @param archiveDir the archive directory.
+     * @throws IOException if the path could not be saved, or the repository has already been attached to
+     *                     another archive which still contains packs.
+     */
+    public synchronized void attachArchive(Path archiveDir) throws IOException {
+        Path normalized = archiveDir.toAbsolutePath().normalize();
+        PackStore current = getArchive();
+        if (current != null) {
+            if (current.getArchiveDir().equals(normalized)) {
+                return;
+            }
+            if (!current.isEmpty()) {
+                throw new IOException(this.repositoryPath + " is still archived in " + current.getArchiveDir());
+            }
+        }
+        Files.createDirectories(normalized);
+        Path tempFile = createTempFile();
+        try {
+            Files.write(tempFile, normalized.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, this.repositoryPath.resolve(ARCHIVE_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        this.archive = new PackStore(normalized);
+    }
+
+    /**
+     * @return the pack store of the archive directory, null if no archive directory has been attached.
+     * @throws IOException if the saved path could not be read.
+     */
+    public synchronized PackStore getArchive() throws IOException {
+        if (this.archive == null) {
+            Path archiveFile = this.repositoryPath.resolve(ARCHIVE_FILE);
+            if (Files.exists(archiveFile)) {
+                String archiveDir = new String(Files.readAllBytes(archiveFile), StandardCharsets.UTF_8).trim();
+                this.archive = new PackStore(Paths.get(archiveDir));
+            }
+        }
+        return this.archive;
+    }
+
+    /**
+     * Moves a fossil back to its place inside the objects directory.
+     *
+     * @param objectFile the path of the object file or delta file inside the objects directory.
+     * @return true if the object file exists afterwards.
+     */
+    public boolean resurrect(Path objectFile) {
+        Path fossilPath = getFossilPath(objectFile);
+        try {
+            Files.createDirectories(objectFile.getParent());
+            Files.move(fossilPath, objectFile, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            //There is no such fossil or it has been deleted concurrently.
+            return Files.exists(objectFile);
+        } catch (FileAlreadyExistsException e) {
+            //The object has been stored again in the meantime, the fossil is an identical copy.
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Files.exists(objectFile);
+        }
+    }
+
+    /**
+     * Parks an object file as a fossil. It is invisible to backups and restores until it is resurrected or
+     * deleted by the garbage collector.
+     *
+     * @param objectFile the path of the object file or delta file inside the objects directory.
+     * @throws IOException if the file could not be moved.
+     */
+    public void fossilize(Path objectFile) throws IOException {
+        Path fossilPath = getFossilPath(objectFile);
+        Files.createDirectories(fossilPath.getParent());
+        Files.move(objectFile, fossilPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param objectFile the path of an object file or delta file inside the objects directory.
+     * @return the path of the corresponding fossil.
+     */
+    public Path getFossilPath(Path objectFile) {
+        return getFossilsPath().resolve(objectFile.getFileName().toString());
+    }
+
+    /**
+     * @param fossil the path of a fossil.
+     * @return the path of the corresponding object file or delta file inside the objects directory.
+     */
+    public Path getObjectFileOfFossil(Path fossil) {
+        String fileName = fossil.getFileName().toString();
+        return getObjectsPath().resolve(fileName.substring(0, 2)).resolve(fileName);
+    }
+
+    /**
+     * @param objectFile the path of an object file or delta file inside the objects directory.
+     * @return the content hash of the object.
+     */
+    public static String getHashOfObjectFile(Path objectFile) {
+        String fileName = objectFile.getFileName().toString();
+        return fileName.endsWith(DELTA_POST_FIX)
+                ? fileName.substring(0, fileName.length() - DELTA_POST_FIX.length()) : fileName;
+    }
+
+    /**
+     * @return the directory which contains all stored objects.
+     */
+    public Path getObjectsPath() {
+        return this.repositoryPath.resolve(OBJECTS_DIR);
+    }
+
+    /**
+     * @return the directory which contains the fossils of the garbage collector.
+     */
+    public Path getFossilsPath() {
+        return getGcPath().resolve(FOSSILS_DIR);
+    }
+
+    /**
+     * @return the directory which contains the state of the garbage collector.
+     */
+    public Path getGcPath() {
+        return this.repositoryPath.resolve(GC_DIR);
+    }
+
+    /**
+     * Opens a stored object for reading. Delta objects are resolved against their base objects.
+     *
+     * @param hash the content hash of the object.
+     * @return a reader of the object content, has to be closed by the caller.
+     * @throws IOException if the object is not stored or could not be opened.
+     */
+    public ObjectReader openObject(String hash) throws IOException {
+        if (!locateLocal(hash)) {
+            PackStore.PackEntry entry = getArchivedEntry(hash);
+            if (entry != null) {
+                return openArchived(hash, entry.isDelta());
+            }
+        }
+        Path objectPath = getObjectPath(hash);
+        if (Files.exists(objectPath)) {
+            return openStoredFile(objectPath);
+        }
+        return new DeltaObjectReader(getDeltaPath(hash), this);
+    }
+
+    /**
+     * Opens an object which is only stored in the archive through a temp file, without copying it back into the
+     * objects directory. Restores of old snapshots leave the objects directory as it is.
+     */
+    private ObjectReader openArchived(String hash, boolean delta) throws IOException {
+        Path tempFile = createTempFile();
+        try {
+            getArchive().extract(hash, tempFile);
+            return new ExtractedObjectReader(delta ? new DeltaObjectReader(tempFile, this)
+                    : openStoredFile(tempFile), tempFile);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file of the objects directory as it is stored, without resolving deltas. Files of encrypted
+     * repositories are decrypted while they are read.
+     *
+     * @param path the path of the stored file.
+     * @return a reader of the plain file content, has to be closed by the caller.
+     * @throws IOException if the file could not be opened or the repository could not be unlocked.
+     */
+    public ObjectReader openStoredFile(Path path) throws IOException {
+        RepositoryCipher repositoryCipher = getCipher();
+        return repositoryCipher == null ? new FileObjectReader(path) : repositoryCipher.newReader(path);
+    }
+
+    /**
+     * @param file the file to create or replace inside the repository.
+     * @return a stream writing the file sparsely as it has to be stored, sealed in encrypted repositories. The
+     * stream is a WritableByteChannel as well, so buffers can be written without copying.
+     * @throws IOException if the file could not be created or the repository could not be unlocked.
+     */
+    public OutputStream newObjectOutputStream(Path file) throws IOException {
+        return newObjectOutputStream(newStoredFileOutputStream(file));
+    }
+
+    /**
+     * @param file the file to create or replace inside the repository.
+     * @return a stream writing the given bytes sparsely as they are, with direct I/O unless the copy mode is
+     * BUFFERED.
+     * @throws IOException if the file could not be created.
+     */
+    public SparseFileOutputStream newStoredFileOutputStream(Path file) throws IOException {
+        return new SparseFileOutputStream(file, this.copyMode != CopyMode.BUFFERED);
+    }
+
+    /**
+     * @param source the file to back up.
+     * @return a stream reading the file, with direct I/O if the copy mode is DIRECT.
+     * @throws IOException if the file could not be opened.
+     */
+    public InputStream newSourceInputStream(Path source) throws IOException {
+        return this.copyMode == CopyMode.DIRECT ? new DirectFileInputStream(source) : Files.newInputStream(source);
+    }
+
+    /**
+     * @param target the stream receiving the stored bytes, closed together with the returned stream.
+     * @return the target itself for plain repositories, a sealing stream for encrypted ones.
+     * @throws IOException if the repository could not be unlocked.
+     */
+    public OutputStream newObjectOutputStream(OutputStream target) throws IOException {
+        RepositoryCipher repositoryCipher = getCipher();
+        if (repositoryCipher == null) {
+            return target;
+        }
+        try {
+            return repositoryCipher.newOutputStream(target);
+        } catch (IOException e) {
+            target.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param hash the content hash of the object.
+     * @return the amount of deltas which have to be resolved to read the object, 0 for whole objects.
+     * @throws IOException if the object could not be opened.
+     */
+    public int getChainDepth(String hash) throws IOException {
+        locate(hash);
+        if (!isDelta(hash)) {
+            return 0;
+        }
+        try (DeltaObjectReader reader = new DeltaObjectReader(getDeltaPath(hash), this)) {
+            return reader.getChainDepth();
+        }
+    }
+
+    /**
+     * Moves a delta file written by a DeltaObjectWriter into the repository. If an object with the same content
+     * already exists the delta file is discarded.
+     *
+     * @param hash      the content hash of the object described by the delta.
+     * @param deltaFile the delta file, usually created through createTempFile().
+     * @throws IOException if the delta could not be stored.
+     */
+    public void storeDelta(String hash, Path deltaFile) throws IOException {
+        try {
+            if (!hasObject(hash)) {
+                moveIntoPlace(deltaFile, getDeltaPath(hash));
+            }
+        } finally {
+            Files.deleteIfExists(deltaFile);
+        }
+    }
+
+    /**
+     * Writes the content of a stored object into the given file, reassembling delta objects. Runs of zero blocks
+     * are left as holes in the file.
+     *
+     * @param hash   the content hash of the object.
+     * @param target the file to write, an existing file is replaced.
+     * @throws IOException if the object could not be read or the file could not be written.
+     */
+    public void restoreObject(String hash, Path target) throws IOException {
+        copySparse(openObject(hash), target);
+    }
+
+    /**
+     * Copies the content of the reader sparsely into the target file and closes the reader.
+     */
+    private static void copySparse(ObjectReader reader, Path target) throws IOException {
+        try (ObjectReader in = reader;
+             SparseFileOutputStream out = new SparseFileOutputStream(target)) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            long position = 0;
+            int read;
+            while ((read = in.read(position, buffer)) > 0) {
+                buffer.flip();
+                out.write(buffer);
+                buffer.clear();
+                position += read;
+            }
+        }
+    }
+
+    /**
+     * Copies the given file into the repository and hashes it in the same pass.
+     * If an object with the same content already exists the copy is discarded. Large files are mapped and written
+     * from the mapped memory, so their content never passes through the heap, unless the copy mode is DIRECT.
+     *
+     * @param source the file to store.
+     * @return the content hash of the stored file.
+     * @throws IOException if the file could not be read or stored.
+     */
+    public String storeObject(Path source) throws IOException {
+        Path tempFile = createTempFile();
+        try {
+            Hasher hasher = null;
+            if (this.copyMode != CopyMode.DIRECT && Files.size(source) >= this.mappedReadThreshold) {
+                hasher = copyMapped(source, tempFile);
+            }
+            if (hasher == null) {
+                hasher = newContentHasher();
+                try (InputStream in = newSourceInputStream(source);
+                     OutputStream out = newObjectOutputStream(tempFile)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        hasher.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+            String hash = hasher.digestHex();
+            commitObject(hash, tempFile, Files.getLastModifiedTime(source));
+            return hash;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Moves a completely written temp file into the objects directory. If an object with the same content
+     * already exists the temp file is left untouched, the caller deletes it.
+     *
+     * @param hash         the content hash of the temp file.
+     * @param tempFile     the temp file created by createTempFile().
+     * @param lastModified the last modified time of the source file, kept by the object.
+     * @throws IOException if the object could not be stored.
+     */
+    public void commitObject(String hash, Path tempFile, FileTime lastModified) throws IOException {
+        Path objectPath = getObjectPath(hash);
+        if (Files.notExists(objectPath)) {
+            Files.setLastModifiedTime(tempFile, lastModified);
+            moveIntoPlace(tempFile, objectPath);
+        }
+    }
+
+    /**
+     * Moves a written object file or delta file into the objects directory as the durability level demands and makes
+     * it read-only there, a stored object is never modified. With GROUP_COMMIT the file appears in its place once it
+     * has been flushed, awaitDurable() waits for that.
+     */
+    private void moveIntoPlace(Path tempFile, Path target) throws IOException {
+        if (this.durabilityLevel == DurabilityLevel.GROUP_COMMIT) {
+            getGroupCommit().commit(tempFile, target);
+            return;
+        }
+        if (this.durabilityLevel == DurabilityLevel.STRICT) {
+            GroupCommit.force(tempFile);
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            ReadOnlyFileUtility.makeReadOnly(target);
+        } catch (FileAlreadyExistsException e) {
+            //Stored concurrently with the same content, the existing object is identical.
+        }
+        if (this.durabilityLevel == DurabilityLevel.STRICT) {
+            GroupCommit.forceDirectory(target.getParent());
+            GroupCommit.forceDirectory(target.getParent().getParent());
+        }
+    }
+
+    /**
+     * Moves a completely written temp file over a file of the repository which has to be replaced atomically, like
+     * a manifest or a catalog record. Unless the durability level is NONE the file and its directory are flushed,
+     * so the new content is durable once the call returns.
+     *
+     * @param tempFile the temp file created by createTempFile().
+     * @param target   the file to create or replace.
+     * @throws IOException if the file could not be moved or flushed.
+     */
+    public void commitFile(Path tempFile, Path target) throws IOException {
+        if (this.durabilityLevel != DurabilityLevel.NONE) {
+            GroupCommit.force(tempFile);
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (this.durabilityLevel != DurabilityLevel.NONE) {
+            GroupCommit.forceDirectory(target.getParent());
+        }
+    }
+
+    /**
+     * Waits until all objects committed so far are durable in the objects directory and checks that none of the
+     * objects the manifest refers to has failed. Several backups may share the repository, each of them learns
+     * about the failures of its own objects. Nothing has to be waited for unless the durability level is
+     * GROUP_COMMIT.
+     *
+     * @param manifest the manifest of the snapshot about to be written or completed.
+     * @throws IOException if an object of the manifest could not be flushed or moved, the snapshot must not be
+     *                     completed then.
+     */
+    public void awaitDurable(SnapshotManifest manifest) throws IOException {
+        GroupCommit pending;
+        synchronized (this) {
+            pending = this.groupCommit;
+        }
+        if (pending != null) {
+            pending.await();
+            if (pending.hasFailures()) {
+                checkCommitted(pending, manifest.getRoot());
+            }
+        }
+    }
+
+    /**
+     * Recursive helper of awaitDurable().
+     */
+    private void checkCommitted(GroupCommit pending, ManifestEntry entry) throws IOException {
+        if (entry.isDirectory()) {
+            for (ManifestEntry child : entry.getChildren()) {
+                checkCommitted(pending, child);
+            }
+            return;
+        }
+        IOException failure = pending.getFailure(getObjectPath(entry.getContentHash()));
+        if (failure == null) {
+            failure = pending.getFailure(getDeltaPath(entry.getContentHash()));
+        }
+        if (failure != null) {
+            throw new IOException("The object " + entry.getContentHash() + " could not be stored durably", failure);
+        }
+    }
+
+    private synchronized GroupCommit getGroupCommit() {
+        if (this.groupCommit == null) {
+            this.groupCommit = new GroupCommit();
+        }
+        return this.groupCommit;
+    }
+
+    /**
+     * Copies and hashes the file through memory mapped windows. The windows are checked for zero blocks, or sealed
+     * on all cores in encrypted repositories, straight out of the mapped memory.
+     *
+     * @return the hasher fed with the whole file, null if the file has been truncated while it was mapped.
+     */
+    private Hasher copyMapped(Path source, Path target) throws IOException {
+        Hasher hasher = newContentHasher();
+        try (OutputStream out = newObjectOutputStream(target)) {
+            WritableByteChannel channel = (WritableByteChannel) out;
+            boolean complete = MappedFileUtility.readMapped(source, window -> {
+                hasher.update(window.duplicate());
+                while (window.hasRemaining()) {
+                    channel.write(window);
+                }
+            });
+            return complete ? hasher : null;
+        }
+    }
+
+    /**
+     * Makes a stored object visible at the given target path with the given last modified time. A hard link is only
+     * used if the object is read-only, so the shared object cannot be changed through the link, and if it already
+     * has the last modified time, which it has taken from the file stored first. Otherwise, or if the file system
+     * does not support hard links, the object is copied.
+     *
+     * @param hash         the content hash of the object.
+     * @param target       the path of the file to create.
+     * @param lastModified the last modified time of the file in milliseconds since the epoch.
+     * @throws IOException if the object could neither be linked nor copied.
+     */
+    public void linkObject(String hash, Path target, long lastModified) throws IOException {
+        locate(hash);
+        Path objectPath = getObjectPath(hash);
+        if (ReadOnlyFileUtility.isReadOnly(objectPath)
+                && Files.getLastModifiedTime(objectPath).toMillis() == lastModified) {
+            try {
+                Files.createLink(target, objectPath);
+                return;
+            } catch (UnsupportedOperationException | IOException e) {
+                //Copied below.
+            }
+        }
+        copySparse(new FileObjectReader(objectPath), target);
+        Files.setLastModifiedTime(target, FileTime.fromMillis(lastModified));
+    }
+
+    /**
+     * Builds the browsable folder of a snapshot by linking all files of the manifest into the target directory.
+     * Files stored as deltas cannot be linked, they are reassembled into full copies, just like objects which could
+     * be written through a link or have another last modified time. Encrypted repositories have no browsable
+     * folders.
+     *
+     * @param manifest  the manifest of the snapshot.
+     * @param targetDir the directory which represents the root entry of the manifest.
+     * @throws IOException if a file or directory could not be created.
+     */
+    public void materialize(SnapshotManifest manifest, Path targetDir) throws IOException {
+        awaitDurable(manifest);
+        if (isEncrypted()) {
+            return;
+        }
+        materializeEntry(manifest.getRoot(), targetDir);
+    }
+
+    /**
+     * Recursive helper of materialize().
+     */
+    private void materializeEntry(ManifestEntry entry, Path target) throws IOException {
+        if (entry.isDirectory()) {
+            Files.createDirectories(target);
+            for (ManifestEntry child : entry.getChildren()) {
+                materializeEntry(child, target.resolve(child.getName()));
+            }
+            Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getLastModified()));
+        } else if (isDelta(entry.getContentHash())) {
+            restoreObject(entry.getContentHash(), target);
+            Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getLastModified()));
+        } else {
+            linkObject(entry.getContentHash(), target, entry.getLastModified());
+        }
+    }
+
+    /**
+     * Serializes the manifest into the repository. The file is written to a temporary location first so a
+     * manifest is never visible half written.
+     *
+     * @param manifest the manifest to save.
+     * @throws IOException if the manifest could not be written.
+     */
+    public void writeManifest(SnapshotManifest manifest) throws IOException {
+        Path manifestPath = getManifestPath(manifest.getSnapshotName());
+        Files.createDirectories(manifestPath.getParent());
+        awaitDurable(manifest);
+        Path tempFile = createTempFile();
+        try {
+            this.objectMapper.writeValue(tempFile.toFile(), manifest);
+            commitFile(tempFile, manifestPath);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @param snapshotName the name of the snapshot.
+     * @return the de-serialized manifest, null if there is no manifest for this snapshot.
+     * @throws IOException if the manifest could not be read.
+     */
+    public SnapshotManifest readManifest(String snapshotName) throws IOException {
+        Path manifestPath = getManifestPath(snapshotName);
+        if (Files.notExists(manifestPath)) {
+            return null;
+        }
+        return this.objectMapper.readValue(manifestPath.toFile(), SnapshotManifest.class);
+    }
+
+    /**
+     * Deletes the manifest of a snapshot.
+     *
+     * @param snapshotName the name of the snapshot.
+     * @return the size of the deleted manifest file in bytes, 0 if there has been no manifest.
+     * @throws IOException if the manifest could not be deleted.
+     */
+    public long deleteManifest(String snapshotName) throws IOException {
+        Path manifestPath = getManifestPath(snapshotName);
+        if (Files.notExists(manifestPath)) {
+            return 0;
+        }
+        long size = Files.size(manifestPath);
+        Files.delete(manifestPath);
+        return size;
+    }
+
+    /**
+     * @param snapshotName the name of the snapshot.
+     * @return the browsable backup folder of the snapshot inside the backup directory.
+     */
+    public Path getSnapshotFolder(String snapshotName) {
+        return this.repositoryPath.getParent().resolve(snapshotName);
+    }
+
+    /**
+     * Looks up the manifest of the newest complete snapshot in the snapshot catalog.
+     *
+     * @return the latest manifest, null if the repository does not contain any snapshot yet.
+     * @throws IOException if the catalog or the manifest could not be read.
+     */
+    public SnapshotManifest findLatestManifest() throws IOException {
+        return findLatestManifest(null);
+    }
+
+    /**
+     * Looks up the manifest of the newest complete snapshot of the given data directory.
+     *
+     * @param sourcePath the absolute path of the data directory, null for any data directory.
+     * @return the latest manifest, null if the repository does not contain a snapshot of the data directory yet.
+     * @throws IOException if the catalog or the manifest could not be read.
+     */
+    public SnapshotManifest findLatestManifest(String sourcePath) throws IOException {
+        SnapshotRecord record = getCatalog().getLatestComplete(sourcePath);
+        return record != null ? readManifest(record.getSnapshotName()) : null;
+    }
+
+    /**
+     * Lists the names of all complete snapshots, the newest first.
+     *
+     * @return the snapshot names.
+     * @throws IOException if the catalog could not be read.
+     */
+    public List<String> listSnapshotNames() throws IOException {
+        SnapshotCatalog snapshotCatalog = getCatalog();
+        List<String> names = new ArrayList<>();
+        for (long id = snapshotCatalog.getLatestId(); id > 0; id--) {
+            SnapshotRecord record = snapshotCatalog.getRecord(id);
+            if (record != null && record.getStatus() == SnapshotStatus.COMPLETE) {
+                names.add(record.getSnapshotName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Looks up the newest snapshot which has been started at or before the given time, for point in time restores.
+     *
+     * @param timeMillis the point in time in milliseconds since the epoch.
+     * @return the manifest, null if there is no snapshot before the given time.
+     * @throws IOException if the catalog or the manifest could not be read.
+     */
+    public SnapshotManifest findManifestAt(long timeMillis) throws IOException {
+        SnapshotRecord record = getCatalog().findCompleteAt(timeMillis);
+        return record != null ? readManifest(record.getSnapshotName()) : null;
+    }
+
+    /**
+     * Lists the names of all manifest files ordered by the time they have been written, the oldest first. This is
+     * only used to import repositories which have been created before the snapshot catalog existed.
+     *
+     * @return the snapshot names.
+     * @throws IOException if the manifests could not be listed.
+     */
+    List<String> listManifestNamesByWriteTime() throws IOException {
+        Path manifestsDir = this.repositoryPath.resolve(MANIFESTS_DIR);
+        List<Path> manifestPaths = new ArrayList<>();
+        if (Files.exists(manifestsDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(manifestsDir, "*" + MANIFEST_POST_FIX)) {
+                for (Path manifestPath : stream) {
+                    manifestPaths.add(manifestPath);
+                }
+            }
+        }
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path manifestPath : manifestPaths) {
+            times.put(manifestPath, Files.getLastModifiedTime(manifestPath));
+        }
+        manifestPaths.sort(Comparator.comparing(times::get));
+        List<String> names = new ArrayList<>();
+        for (Path manifestPath : manifestPaths) {
+            String fileName = manifestPath.getFileName().toString();
+            names.add(fileName.substring(0, fileName.length() - MANIFEST_POST_FIX.length()));
+        }
+        return names;
+    }
+
+    /**
+     * @return the catalog of all backup runs of this repository.
+     */
+    public synchronized SnapshotCatalog getCatalog() {
+        if (this.catalog == null) {
+            this.catalog = new SnapshotCatalog(this);
+        }
+        return this.catalog;
+    }
+
+    /**
+     * Reads the configuration of the repository, or creates it if the repository has none yet. Repositories which
+     * already contain snapshots but no configuration have been created with SHA-256 and stay unencrypted, new
+     * repositories are encrypted if a passphrase is given.
+     *
+     * @return the configuration of this repository.
+     * @throws IOException if the configuration could not be read or written.
+     */
+    public synchronized RepositoryConfig getConfig() throws IOException {
+        if (this.config != null) {
+            return this.config;
+        }
+        Path configPath = this.repositoryPath.resolve(CONFIG_FILE);
+        if (Files.exists(configPath)) {
+            this.config = this.objectMapper.readValue(configPath.toFile(), RepositoryConfig.class);
+            return this.config;
+        }
+        RepositoryConfig newConfig = new RepositoryConfig();
+        if (Files.exists(this.repositoryPath.resolve(OBJECTS_DIR))
+                || Files.exists(this.repositoryPath.resolve(MANIFESTS_DIR))) {
+            newConfig.setContentHash(HashFunctions.SHA_256);
+        } else {
+            newConfig.setContentHash(DEFAULT_CONTENT_HASH);
+            newConfig.setCreatedAt(System.currentTimeMillis());
+            if (this.passphrase != null) {
+                newConfig.setEncryption(RepositoryCipher.createConfig(this.passphrase));
+            }
+        }
+        newConfig.setBlockHash(DEFAULT_BLOCK_HASH);
+        Path tempFile = createTempFile();
+        try {
+            this.objectMapper.writeValue(tempFile.toFile(), newConfig);
+            Files.move(tempFile, configPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        this.config = newConfig;
+        return this.config;
+    }
+
+    /**
+     * Makes this repository use the configuration of another one, so objects can be copied between them as they
+     * are stored. A repository without configuration and contents takes the given configuration over, including its
+     * encryption salt and key check, an existing configuration has to match it.
+     *
+     * @param sourceConfig the configuration of the other repository.
+     * @throws IOException if the configuration could not be written, or the repository has a different content
+     *                     hash or encryption.
+     */
+    public synchronized void adoptConfig(RepositoryConfig sourceConfig) throws IOException {
+        Path configPath = this.repositoryPath.resolve(CONFIG_FILE);
+        if (Files.notExists(configPath) && Files.notExists(this.repositoryPath.resolve(OBJECTS_DIR))
+                && Files.notExists(this.repositoryPath.resolve(MANIFESTS_DIR))) {
+            Path tempFile = createTempFile();
+            try {
+                this.objectMapper.writeValue(tempFile.toFile(), sourceConfig);
+                Files.move(tempFile, configPath, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            this.config = null;
+        }
+        RepositoryConfig ownConfig = getConfig();
+        EncryptionConfig ownEncryption = ownConfig.getEncryption();
+        EncryptionConfig sourceEncryption = sourceConfig.getEncryption();
+        if (!ownConfig.getContentHash().equals(sourceConfig.getContentHash())
+                || (ownEncryption == null) != (sourceEncryption == null)
+                || (ownEncryption != null && !Arrays.equals(ownEncryption.getSalt(), sourceEncryption.getSalt()))) {
+            throw new IOException(this.repositoryPath + " has a different content hash or encryption");
+        }
+    }
+
+    /**
+     * @return true if the objects of this repository are encrypted.
+     * @throws IOException if the configuration could not be read.
+     */
+    public boolean isEncrypted() throws IOException {
+        return getConfig().getEncryption() != null;
+    }
+
+    /**
+     * Derives the key of an encrypted repository from the passphrase on first use.
+     *
+     * @return the cipher of this repository, null if it is not encrypted.
+     * @throws IOException if the repository is encrypted and the passphrase is missing or wrong.
+     */
+    public synchronized RepositoryCipher getCipher() throws IOException {
+        RepositoryConfig repositoryConfig = getConfig();
+        if (repositoryConfig.getEncryption() == null) {
+            return null;
+        }
+        if (this.cipher == null) {
+            if (this.passphrase == null) {
+                throw new IOException("The repository is encrypted, a passphrase is required");
+            }
+            this.cipher = RepositoryCipher.unlock(repositoryConfig.getEncryption(), this.passphrase);
+        }
+        return this.cipher;
+    }
+
+    /**
+     * @return the hash function identifying the stored contents of this repository.
+     * @throws IOException if the configuration could not be read.
+     */
+    public HashFunction getContentHashFunction() throws IOException {
+        return HashFunctions.forName(getConfig().getContentHash());
+    }
+
+    /**
+     * @return the hash function matching blocks of modified files against their previous version.
+     * @throws IOException if the configuration could not be read.
+     */
+    public HashFunction getBlockHashFunction() throws IOException {
+        return HashFunctions.forName(getConfig().getBlockHash());
+    }
+
+    /**
+     * @return a new hasher of the content hash of this repository.
+     * @throws IOException if the configuration could not be read.
+     */
+    public Hasher newContentHasher() throws IOException {
+        return getContentHashFunction().newHasher();
+    }
+
+    /**
+     * Reads the whole file and returns its content hash as it would be stored in this repository.
+     *
+     * @param path the path of the file.
+     * @return the lower case hex representation of the content hash.
+     * @throws IOException if the file or the configuration could not be read.
+     */
+    public String hashFile(Path path) throws IOException {
+        if (Files.size(path) >= this.mappedReadThreshold) {
+            Hasher hasher = newContentHasher();
+            if (MappedFileUtility.readMapped(path, hasher::update)) {
+                return hasher.digestHex();
+            }
+        }
+        return HashUtility.hashFile(path, getContentHashFunction());
+    }
+
+    /**
+     * @param snapshotName the name of the snapshot.
+     * @return the path of the manifest file of the snapshot.
+     */
+    private Path getManifestPath(String snapshotName) {
+        return this.repositoryPath.resolve(MANIFESTS_DIR).resolve(snapshotName + MANIFEST_POST_FIX);
+    }
+
+    /**
+     * @return a new empty file inside the temp directory of the repository.
+     * @throws IOException if the file could not be created.
+     */
+    public Path createTempFile() throws IOException {
+        Path tempDir = this.repositoryPath.resolve(TEMP_DIR);
+        Files.createDirectories(tempDir);
+        return Files.createTempFile(tempDir, "part", null);
+    }
+
+    //Only getters and setters from here
+
+    public Path getRepositoryPath() {
+        return repositoryPath;
+    }
+
+    public long getMappedReadThreshold() {
+        return mappedReadThreshold;
+    }
+
+    public void setMappedReadThreshold(long mappedReadThreshold) {
+        this.mappedReadThreshold = mappedReadThreshold;
+    }
+
+    public DurabilityLevel getDurabilityLevel() {
+        return durabilityLevel;
+    }
+
+    public void setDurabilityLevel(DurabilityLevel durabilityLevel) {
+        this.durabilityLevel = durabilityLevel;
+    }
+
+    public CopyMode getCopyMode() {
+        return copyMode;
+    }
+
+    public void setCopyMode(CopyMode copyMode) {
+        this.copyMode = copyMode;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.openkw.controller.util.HashUtility;
+import com.openkw.controller.util.hash.HashFunction;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class verifies stored snapshots against the hashes recorded in their manifests.
+ * Because every directory carries a merkle hash a single subtree can be verified without reading the rest of the
+ * snapshot.
+ */
+public class SnapshotVerifier {
+
+    /**
+     * The repository containing the stored file contents.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * @param repository the repository containing the stored file contents.
+     */
+    public SnapshotVerifier(SnapshotRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Re-reads all stored files of the given subtree and checks them and the recorded tree hashes.
+     *
+     * @param manifest     the manifest of the snapshot.
+     * @param relativePath the path of the subtree relative to the root entry, an empty string verifies everything.
+     * @return the relative paths of all corrupt or missing entries, empty if the subtree is intact.
+     * @throws IllegalArgumentException if the manifest does not contain the given path.
+     * @throws IOException              if the configuration of the repository could not be read.
+     */
+    public List<String> verify(SnapshotManifest manifest, String relativePath) throws IOException {
+        ManifestEntry entry = manifest.findEntry(relativePath);
+        if (entry == null) {
+            throw new IllegalArgumentException("The snapshot does not contain " + relativePath);
+        }
+        List<String> corrupt = new ArrayList<>();
+        verifyEntry(relativePath == null ? "" : relativePath, entry, this.repository.getContentHashFunction(),
+                corrupt);
+        return corrupt;
+    }
+
+    /**
+     * Recursive helper of verify().
+     */
+    private void verifyEntry(String path, ManifestEntry entry, HashFunction function, List<String> corrupt) {
+        if (entry.isDirectory()) {
+            for (ManifestEntry child : entry.getChildren()) {
+                verifyEntry(path.isEmpty() ? child.getName() : path + "/" + child.getName(), child, function,
+                        corrupt);
+            }
+            if (!ManifestBuilder.computeTreeHash(entry, function).equals(entry.getTreeHash())) {
+                corrupt.add(path);
+            }
+        } else {
+            try (InputStream in = new ObjectReaderInputStream(this.repository.openObject(entry.getContentHash()))) {
+                if (!HashUtility.hashStream(in, function).equals(entry.getContentHash())) {
+                    corrupt.add(path);
+                }
+            } catch (IOException e) {
+                corrupt.add(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,501 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.snapshot;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openkw.controller.util.hash.HashFunctions;
+import com.openkw.controller.util.hash.Hasher;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.PathTimeline;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.TimelineVersion;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * This class maintains a persistent index from file paths to their versions across all snapshots of a repository.
+ * <p>
+ * Each path has its own timeline file inside the repository, named after the hash of the path, so looking up the
+ * history of a file reads exactly one small file and never depends on the amount of snapshots. After each backup
+ * only the timelines of the files which have changed since the previous snapshot are rewritten.
+ */
+public class TimelineIndex {
+
+    /**
+     * The name of the directory inside the repository which contains the timeline files.
+     */
+    private static final String TIMELINE_DIR = "timeline";
+
+    /**
+     * The name of the file which contains the name of the last snapshot recorded in the index per data directory.
+     */
+    private static final String HEADS_FILE = "HEADS";
+
+    /**
+     * The file name post fix of the timeline files.
+     */
+    private static final String TIMELINE_POST_FIX = ".json";
+
+    /**
+     * The locks serializing the updates of the index per repository directory, pruning and several backups may
+     * update the index of one repository at the same time.
+     */
+    private static final Map<Path, ReentrantLock> UPDATE_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * The repository the index belongs to.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The path of the timeline directory.
+     */
+    private final Path timelinePath;
+
+    /**
+     * The Jackson ObjectMapper instance used for serializing the timelines.
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Serializes the updates of the index of the repository.
+     */
+    private final ReentrantLock updateLock;
+
+    /**
+     * @param repository the repository the index belongs to.
+     */
+    public TimelineIndex(SnapshotRepository repository) {
+        this.repository = repository;
+        this.timelinePath = repository.getRepositoryPath().resolve(TIMELINE_DIR);
+        this.updateLock = UPDATE_LOCKS.computeIfAbsent(repository.getRepositoryPath().toAbsolutePath().normalize(),
+                path -> new ReentrantLock());
+    }
+
+    /**
+     * Records a snapshot whose manifest has just been written. The index remembers the last recorded snapshot of
+     * every data directory, so backups of several data directories into one repository may finish in any order. If
+     * the index does not know the previous snapshot of the data directory, because it has not been built yet or a
+     * backup has been interrupted before updating it, the index is rebuilt
+     * from all manifests instead. Updates of the same repository are serialized, so no snapshot is lost when
+     * several backups finish at the same time.
+     *
+     * @param previous the manifest of the previous snapshot of the same data directory, may be null.
+     * @param manifest the manifest of the new snapshot.
+     * @throws IOException if the index could not be read or written.
+     */
+    public void update(SnapshotManifest previous, SnapshotManifest manifest) throws IOException {
+        this.updateLock.lock();
+        try {
+            Map<String, String> heads = readHeads();
+            if (heads == null
+                    || (previous != null && !previous.getSnapshotName().equals(heads.get(manifest.getSourcePath())))) {
+                rebuildIndex();
+            } else {
+                record(previous, manifest);
+                heads.put(manifest.getSourcePath(), manifest.getSnapshotName());
+                writeHeads(heads);
+            }
+        } finally {
+            this.updateLock.unlock();
+        }
+    }
+
+    /**
+     * Discards the index and records all snapshots of the repository again, the oldest first.
+     *
+     * @throws IOException if the manifests could not be read or the index could not be written.
+     */
+    public void rebuild() throws IOException {
+        this.updateLock.lock();
+        try {
+            rebuildIndex();
+        } finally {
+            this.updateLock.unlock();
+        }
+    }
+
+    /**
+     * Helper of rebuild(), has to be called while holding the update lock.
+     */
+    private void rebuildIndex() throws IOException {
+        deleteIndex();
+        Files.createDirectories(this.timelinePath);
+        List<String> snapshotNames = new ArrayList<>(this.repository.listSnapshotNames());
+        Collections.reverse(snapshotNames);
+        Map<String, SnapshotManifest> latestBySource = new HashMap<>();
+        for (String snapshotName : snapshotNames) {
+            SnapshotManifest manifest = this.repository.readManifest(snapshotName);
+            if (manifest == null) {
+                continue;
+            }
+            record(latestBySource.put(manifest.getSourcePath(), manifest), manifest);
+        }
+        Map<String, String> heads = new HashMap<>();
+        for (SnapshotManifest manifest : latestBySource.values()) {
+            heads.put(manifest.getSourcePath(), manifest.getSnapshotName());
+        }
+        writeHeads(heads);
+    }
+
+    /**
+     * Collects the timelines which refer to snapshots about to be pruned, so they can be corrected without a
+     * rebuild. Has to be called before the manifests of the snapshots are deleted.
+     *
+     * @param complete the records of all complete snapshots, the newest first.
+     * @param prunable the records of the snapshots which are going to be pruned.
+     * @return the removal to pass to removeSnapshots() once the snapshots have been deleted.
+     * @throws IOException if a manifest could not be read.
+     */
+    public PendingRemoval prepareRemoval(List<SnapshotRecord> complete, Collection<SnapshotRecord> prunable)
+            throws IOException {
+        PendingRemoval removal = new PendingRemoval();
+        Set<String> prunableNames = new HashSet<>();
+        for (SnapshotRecord record : prunable) {
+            prunableNames.add(record.getSnapshotName());
+        }
+        for (int i = complete.size() - 1; i >= 0; i--) {
+            SnapshotRecord record = complete.get(i);
+            removal.snapshotsBySource.computeIfAbsent(record.getSourcePath(), source -> new ArrayList<>())
+                    .add(record.getSnapshotName());
+        }
+        for (List<String> snapshotNames : removal.snapshotsBySource.values()) {
+            SnapshotManifest previous = null;
+            for (int i = 0; i < snapshotNames.size(); i++) {
+                if (!prunableNames.contains(snapshotNames.get(i))) {
+                    previous = null;
+                    continue;
+                }
+                //A snapshot has versions exactly at the paths which differ from the snapshot before it.
+                if (previous == null && i > 0) {
+                    previous = this.repository.readManifest(snapshotNames.get(i - 1));
+                }
+                SnapshotManifest manifest = this.repository.readManifest(snapshotNames.get(i));
+                if (manifest == null) {
+                    continue;
+                }
+                SnapshotDiff diff = SnapshotDiff.compare(previous, manifest);
+                Set<String> paths = removal.pathsBySource.computeIfAbsent(manifest.getSourcePath(),
+                        source -> new HashSet<>());
+                paths.addAll(diff.getAdded());
+                paths.addAll(diff.getModified());
+                paths.addAll(diff.getRemoved());
+                previous = manifest;
+            }
+        }
+        return removal;
+    }
+
+    /**
+     * Removes the versions of pruned snapshots from the timelines collected by prepareRemoval(). A removed
+     * version which is still current in the next kept snapshot is moved there, so the timelines end up as if they
+     * had been rebuilt from the kept snapshots.
+     *
+     * @param removal       the removal collected before the snapshots have been deleted.
+     * @param snapshotNames the names of the snapshots which have actually been pruned.
+     * @throws IOException if a timeline or a manifest could not be read or a timeline could not be written.
+     */
+    public void removeSnapshots(PendingRemoval removal, Set<String> snapshotNames) throws IOException {
+        this.updateLock.lock();
+        try {
+            if (readHeads() == null) {
+                //Not built yet, the next update builds it from the kept snapshots.
+                return;
+            }
+            Map<String, Long> createdAtByName = new HashMap<>();
+            for (Map.Entry<String, Set<String>> entry : removal.pathsBySource.entrySet()) {
+                Map<String, String> successors = new HashMap<>();
+                String successor = null;
+                List<String> ordered = removal.snapshotsBySource.get(entry.getKey());
+                for (int i = ordered.size() - 1; i >= 0; i--) {
+                    if (snapshotNames.contains(ordered.get(i))) {
+                        successors.put(ordered.get(i), successor);
+                    } else {
+                        successor = ordered.get(i);
+                    }
+                }
+                for (String path : entry.getValue()) {
+                    removeVersions(entry.getKey(), path, successors, createdAtByName);
+                }
+            }
+        } finally {
+            this.updateLock.unlock();
+        }
+    }
+
+    /**
+     * Helper of removeSnapshots(), corrects the timeline of one file.
+     *
+     * @param successors      the next kept snapshot of every pruned snapshot, null if there is none.
+     * @param createdAtByName the creation times of the kept snapshots read so far.
+     */
+    private void removeVersions(String sourcePath, String path, Map<String, String> successors,
+                                Map<String, Long> createdAtByName) throws IOException {
+        PathTimeline timeline = getTimeline(sourcePath, path);
+        if (timeline == null) {
+            return;
+        }
+        List<TimelineVersion> versions = timeline.getVersions();
+        List<TimelineVersion> kept = new ArrayList<>();
+        boolean changed = false;
+        for (int i = 0; i < versions.size(); i++) {
+            TimelineVersion version = versions.get(i);
+            if (successors.containsKey(version.getSnapshotName())) {
+                changed = true;
+                String successor = successors.get(version.getSnapshotName());
+                if (successor == null) {
+                    continue;
+                }
+                long successorCreatedAt = getCreatedAt(successor, createdAtByName);
+                if (i + 1 < versions.size() && versions.get(i + 1).getCreatedAt() <= successorCreatedAt) {
+                    //Replaced by a newer version before the next kept snapshot.
+                    continue;
+                }
+                version.setSnapshotName(successor);
+                version.setCreatedAt(successorCreatedAt);
+            }
+            TimelineVersion latest = kept.isEmpty() ? null : kept.get(kept.size() - 1);
+            if ((latest == null && version.isDeleted()) || (latest != null && isSameVersion(latest, version))) {
+                changed = true;
+            } else {
+                kept.add(version);
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        if (kept.isEmpty()) {
+            Files.deleteIfExists(getTimelineFile(sourcePath, path));
+        } else {
+            timeline.setVersions(kept);
+            writeTimeline(timeline);
+        }
+    }
+
+    /**
+     * @return the creation time of a kept snapshot, read from its manifest once.
+     */
+    private long getCreatedAt(String snapshotName, Map<String, Long> createdAtByName) throws IOException {
+        Long createdAt = createdAtByName.get(snapshotName);
+        if (createdAt == null) {
+            SnapshotManifest manifest = this.repository.readManifest(snapshotName);
+            createdAt = manifest != null ? manifest.getCreatedAt() : Long.MAX_VALUE;
+            createdAtByName.put(snapshotName, createdAt);
+        }
+        return createdAt;
+    }
+
+    /**
+     * @param sourcePath the absolute path of the data directory.
+     * @param path       the path of the file relative to the data directory, using '/' as the separator.
+     * @return the timeline of the file, null if no snapshot has contained the file.
+     * @throws IOException if the timeline could not be read.
+     */
+    public PathTimeline getTimeline(String sourcePath, String path) throws IOException {
+        Path timelineFile = getTimelineFile(sourcePath, path);
+        if (Files.notExists(timelineFile)) {
+            return null;
+        }
+        return this.objectMapper.readValue(timelineFile.toFile(), PathTimeline.class);
+    }
+
+    /**
+     * Adds the changes between the previous and the new snapshot to the timelines.
+     */
+    private void record(SnapshotManifest previous, SnapshotManifest manifest) throws IOException {
+        SnapshotDiff diff = SnapshotDiff.compare(previous, manifest);
+        for (String path : diff.getAdded()) {
+            addVersion(manifest, path, manifest.findEntry(path));
+        }
+        for (String path : diff.getModified()) {
+            addVersion(manifest, path, manifest.findEntry(path));
+        }
+        for (String path : diff.getRemoved()) {
+            addVersion(manifest, path, null);
+        }
+    }
+
+    /**
+     * Adds a version to the timeline of a file unless the timeline already ends with an equal version.
+     *
+     * @param manifest the manifest of the snapshot.
+     * @param path     the relative path of the file.
+     * @param entry    the entry of the file, null if the file has been deleted.
+     */
+    private void addVersion(SnapshotManifest manifest, String path, ManifestEntry entry) throws IOException {
+        PathTimeline timeline = getTimeline(manifest.getSourcePath(), path);
+        if (timeline == null) {
+            if (entry == null) {
+                return;
+            }
+            timeline = new PathTimeline();
+            timeline.setSourcePath(manifest.getSourcePath());
+            timeline.setPath(path);
+        }
+        TimelineVersion latest = timeline.getLatestVersion();
+        if (latest != null && isSameVersion(latest, entry)) {
+            return;
+        }
+        TimelineVersion version = new TimelineVersion();
+        version.setSnapshotName(manifest.getSnapshotName());
+        version.setCreatedAt(manifest.getCreatedAt());
+        if (entry != null) {
+            version.setContentHash(entry.getContentHash());
+            version.setSize(entry.getSize());
+            version.setLastModified(entry.getLastModified());
+        }
+        List<TimelineVersion> versions = timeline.getVersions();
+        int index = versions.size();
+        while (index > 0 && versions.get(index - 1).getCreatedAt() > version.getCreatedAt()) {
+            index--;
+        }
+        versions.add(index, version);
+        writeTimeline(timeline);
+    }
+
+    /**
+     * @return true if both versions describe the same content and metadata or both mark a deletion.
+     */
+    private static boolean isSameVersion(TimelineVersion version, TimelineVersion other) {
+        if (version.isDeleted() || other.isDeleted()) {
+            return version.isDeleted() && other.isDeleted();
+        }
+        return version.getContentHash().equals(other.getContentHash())
+                && version.getSize() == other.getSize()
+                && version.getLastModified() == other.getLastModified();
+    }
+
+    /**
+     * @return true if the version describes the entry, a null entry is equal to a deletion version.
+     */
+    private static boolean isSameVersion(TimelineVersion version, ManifestEntry entry) {
+        if (entry == null) {
+            return version.isDeleted();
+        }
+        return !version.isDeleted()
+                && version.getContentHash().equals(entry.getContentHash())
+                && version.getSize() == entry.getSize()
+                && version.getLastModified() == entry.getLastModified();
+    }
+
+    /**
+     * Writes a timeline file by moving a completely written temp file to its place.
+     */
+    private void writeTimeline(PathTimeline timeline) throws IOException {
+        Path timelineFile = getTimelineFile(timeline.getSourcePath(), timeline.getPath());
+        Files.createDirectories(timelineFile.getParent());
+        Path tempFile = this.repository.createTempFile();
+        try {
+            this.objectMapper.writeValue(tempFile.toFile(), timeline);
+            Files.move(tempFile, timelineFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return the names of the last snapshots recorded in the index by the paths of their data directories, null
+     * if the index has not been built yet.
+     */
+    private Map<String, String> readHeads() throws IOException {
+        Path headsFile = this.timelinePath.resolve(HEADS_FILE);
+        if (Files.notExists(headsFile)) {
+            return null;
+        }
+        return this.objectMapper.readValue(headsFile.toFile(), new TypeReference<Map<String, String>>() {
+        });
+    }
+
+    /**
+     * Saves the names of the last snapshots recorded in the index.
+     */
+    private void writeHeads(Map<String, String> heads) throws IOException {
+        Files.createDirectories(this.timelinePath);
+        Path tempFile = this.repository.createTempFile();
+        try {
+            this.objectMapper.writeValue(tempFile.toFile(), heads);
+            Files.move(tempFile, this.timelinePath.resolve(HEADS_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Deletes all timeline files.
+     */
+    private void deleteIndex() throws IOException {
+        if (Files.notExists(this.timelinePath)) {
+            return;
+        }
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(this.timelinePath)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(Comparator.reverseOrder());
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * @return the path of the timeline file of the given file path, spread over sub directories like the objects.
+     */
+    private Path getTimelineFile(String sourcePath, String path) {
+        Hasher hasher = HashFunctions.forName(HashFunctions.SHA_256).newHasher();
+        hasher.update(sourcePath.getBytes(StandardCharsets.UTF_8));
+        hasher.update(new byte[1]);
+        hasher.update(path.getBytes(StandardCharsets.UTF_8));
+        String hash = hasher.digestHex();
+        return this.timelinePath.resolve(hash.substring(0, 2)).resolve(hash + TIMELINE_POST_FIX);
+    }
+
+    /**
+     * The timelines which refer to snapshots about to be pruned, collected while their manifests still exist.
+     */
+    public static class PendingRemoval {
+
+        /**
+         * The names of all complete snapshots per data directory, the oldest first.
+         */
+        private final Map<String, List<String>> snapshotsBySource = new HashMap<>();
+
+        /**
+         * The relative paths of the files with versions in the pruned snapshots per data directory.
+         */
+        private final Map<String, Set<String>> pathsBySource = new HashMap<>();
+    }
+}
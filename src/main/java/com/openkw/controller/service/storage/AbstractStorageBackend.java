@@ -0,0 +1,96 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.storage;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The base of the storage backends which run blocking operations on a fixed amount of worker threads. The amount
+ * of threads is the amount of operations in flight, further operations queue up until a thread becomes free.
+ */
+abstract class AbstractStorageBackend implements StorageBackend {
+
+    /**
+     * A blocking storage operation.
+     *
+     * @param <T> the type of the result.
+     */
+    interface StorageTask<T> {
+
+        /**
+         * @return the result of the operation.
+         * @throws IOException if the operation failed.
+         */
+        T run() throws IOException;
+    }
+
+    /**
+     * Runs the operations.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * @param maxInFlight the amount of operations running at the same time.
+     * @param threadName  the name of the worker threads.
+     */
+    AbstractStorageBackend(int maxInFlight, String threadName) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxInFlight), runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues an operation.
+     *
+     * @param task the operation.
+     * @param <T>  the type of the result.
+     * @return completes with the result of the operation, exceptionally if it failed or the backend is closed.
+     */
+    <T> CompletableFuture<T> submit(StorageTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            this.executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(task.run());
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IOException(getDescription() + " has been closed", e));
+        }
+        return future;
+    }
+
+    /**
+     * Stops all operations still queued or running.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+}
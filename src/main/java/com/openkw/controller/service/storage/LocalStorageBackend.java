@@ -0,0 +1,212 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A storage backend keeping every value as a file below a root directory, the key being the relative path of the
+ * file. It is meant for mounted network shares and removable disks, where several operations in flight hide the
+ * latency of the share as well.
+ */
+public class LocalStorageBackend extends AbstractStorageBackend {
+
+    /**
+     * The default amount of operations running at the same time.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    /**
+     * The directory below the root for partially written values, it is never listed.
+     */
+    private static final String TEMP_DIR = ".tmp";
+
+    /**
+     * The root directory.
+     */
+    private final Path root;
+
+    /**
+     * @param root        the root directory, created on the first write.
+     * @param maxInFlight the amount of operations running at the same time.
+     */
+    public LocalStorageBackend(Path root, int maxInFlight) {
+        super(maxInFlight, "storage-local");
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, Path source) {
+        return submit(() -> {
+            Path tempFile = createTempFile();
+            try {
+                Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                commit(tempFile, key);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, byte[] data) {
+        return submit(() -> {
+            Path tempFile = createTempFile();
+            try {
+                Files.write(tempFile, data);
+                commit(tempFile, key);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> get(String key, Path target) {
+        return submit(() -> {
+            Path file = resolve(key);
+            if (!Files.isRegularFile(file)) {
+                throw new NoSuchFileException(key);
+            }
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<byte[]> get(String key) {
+        return submit(() -> {
+            Path file = resolve(key);
+            return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+        });
+    }
+
+    /**
+     * Walks the directories in key order and stops once the page is full, so listing a large store page by page
+     * does not read the whole tree for every page. Directories whose keys all lie before startAfter or outside the
+     * prefix are skipped without being read.
+     */
+    @Override
+    public CompletableFuture<StoragePage> list(String prefix, String startAfter, int maxKeys) {
+        return submit(() -> {
+            List<StorageObject> objects = new ArrayList<>();
+            int limit = Math.max(1, Math.min(maxKeys, MAX_PAGE_SIZE));
+            boolean truncated = Files.isDirectory(this.root)
+                    && listDirectory(this.root, "", prefix, startAfter, limit, objects);
+            return new StoragePage(objects, truncated);
+        });
+    }
+
+    /**
+     * Recursive helper of list().
+     *
+     * @return true if the page is full and there are more keys.
+     */
+    private boolean listDirectory(Path directory, String keyPrefix, String prefix, String startAfter, int limit,
+                                  List<StorageObject> objects) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                String name = child.getFileName().toString();
+                if (keyPrefix.isEmpty() && name.equals(TEMP_DIR)) {
+                    continue;
+                }
+                //A directory sorts like its keys, which continue with a slash
+                names.add(Files.isDirectory(child) ? name + "/" : name);
+            }
+        }
+        names.sort(null);
+        for (String name : names) {
+            String key = keyPrefix + name;
+            if (name.endsWith("/")) {
+                boolean inPrefix = key.startsWith(prefix) || prefix.startsWith(key);
+                boolean beforeStart = startAfter != null && key.compareTo(startAfter) < 0
+                        && !startAfter.startsWith(key);
+                if (inPrefix && !beforeStart && listDirectory(directory.resolve(name.substring(0, name.length() - 1)),
+                        key, prefix, startAfter, limit, objects)) {
+                    return true;
+                }
+            } else if (key.startsWith(prefix) && (startAfter == null || key.compareTo(startAfter) > 0)) {
+                if (objects.size() == limit) {
+                    return true;
+                }
+                Path file = directory.resolve(name);
+                objects.add(new StorageObject(key, Files.size(file), Files.getLastModifiedTime(file).toMillis()));
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(List<String> keys) {
+        return submit(() -> {
+            for (String key : keys) {
+                Files.deleteIfExists(resolve(key));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public String getDescription() {
+        return this.root.toString();
+    }
+
+    /**
+     * @param key the key.
+     * @return the file of the key.
+     * @throws IOException if the key leaves the root directory.
+     */
+    private Path resolve(String key) throws IOException {
+        Path file = this.root.resolve(key.replace('/', File.separatorChar)).normalize();
+        if (!file.startsWith(this.root) || file.equals(this.root)) {
+            throw new IOException("Invalid key " + key);
+        }
+        return file;
+    }
+
+    /**
+     * @return a new empty file inside the temp directory.
+     * @throws IOException if the file could not be created.
+     */
+    private Path createTempFile() throws IOException {
+        Path tempDir = this.root.resolve(TEMP_DIR);
+        Files.createDirectories(tempDir);
+        return Files.createTempFile(tempDir, "part", null);
+    }
+
+    /**
+     * Moves a completely written temp file to the place of the key.
+     */
+    private void commit(Path tempFile, String key) throws IOException {
+        Path file = resolve(key);
+        Files.createDirectories(file.getParent());
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
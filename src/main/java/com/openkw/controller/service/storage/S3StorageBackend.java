@@ -0,0 +1,664 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.storage;
+
+import com.openkw.controller.util.HashUtility;
+import com.openkw.model.StorageSettings;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A storage backend for S3 compatible object storages like AWS S3 or MinIO. Requests are signed with AWS signature
+ * version 4 and address the bucket in the path, which every S3 compatible server understands. Files above
+ * MULTIPART_THRESHOLD are uploaded as parts of PART_SIZE which are sent in parallel and streamed from the file, and
+ * deletions are sent as batches of up to 1000 keys. Failed requests are retried if the server reported a temporary
+ * problem or the connection broke.
+ */
+public class S3StorageBackend extends AbstractStorageBackend {
+
+    /**
+     * Files of at least this size are uploaded in parts.
+     */
+    public static final long MULTIPART_THRESHOLD = 16L * 1024 * 1024;
+
+    /**
+     * The size of an uploaded part, S3 requires at least 5 MiB for all parts but the last.
+     */
+    public static final long PART_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * The amount of attempts of a request before its failure is reported.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * The delay before the first retry in milliseconds, it doubles with every further retry.
+     */
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    /**
+     * The timeout for connecting and reading in milliseconds.
+     */
+    private static final int TIMEOUT_MILLIS = 60 * 1000;
+
+    /**
+     * The payload hash of requests whose body is streamed without being hashed first.
+     */
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+    /**
+     * The endpoint without a trailing slash.
+     */
+    private final String endpoint;
+
+    /**
+     * The region used in the signatures.
+     */
+    private final String region;
+
+    /**
+     * The bucket.
+     */
+    private final String bucket;
+
+    /**
+     * The prefix of all keys, empty or ending with a slash.
+     */
+    private final String prefix;
+
+    /**
+     * The access key.
+     */
+    private final String accessKey;
+
+    /**
+     * The secret key.
+     */
+    private final String secretKey;
+
+    /**
+     * @param settings the settings of the storage.
+     */
+    public S3StorageBackend(StorageSettings settings) {
+        super(settings.getMaxInFlight(), "storage-s3");
+        String endpoint = settings.getEndpoint();
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        this.region = settings.getRegion();
+        this.bucket = settings.getBucket();
+        String prefix = settings.getPrefix() == null ? "" : settings.getPrefix();
+        this.prefix = prefix.isEmpty() || prefix.endsWith("/") ? prefix : prefix + "/";
+        this.accessKey = settings.getAccessKey();
+        this.secretKey = settings.getSecretKey();
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, Path source) {
+        long size;
+        try {
+            size = Files.size(source);
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        if (size < MULTIPART_THRESHOLD) {
+            return submit(() -> {
+                send("PUT", objectPath(key), Collections.emptySortedMap(), Collections.emptyMap(),
+                        new Body(() -> Files.newInputStream(source), size, UNSIGNED_PAYLOAD));
+                return null;
+            });
+        }
+        return putMultipart(key, source, size);
+    }
+
+    /**
+     * Uploads a large file in parts. All parts are queued at once, so as many parts are sent in parallel as the
+     * backend allows, and each part is streamed from its slice of the file. A failed upload is aborted so the
+     * storage drops the parts already sent.
+     */
+    private CompletableFuture<Void> putMultipart(String key, Path source, long size) {
+        String path = objectPath(key);
+        return submit(() -> {
+            byte[] response = send("POST", path, query("uploads", ""), Collections.emptyMap(), Body.EMPTY);
+            return parse(response).getDocumentElement().getElementsByTagName("UploadId").item(0).getTextContent();
+        }).thenCompose(uploadId -> {
+            int partCount = (int) ((size + PART_SIZE - 1) / PART_SIZE);
+            List<CompletableFuture<String>> parts = new ArrayList<>();
+            for (int i = 0; i < partCount; i++) {
+                int partNumber = i + 1;
+                long offset = i * PART_SIZE;
+                long length = Math.min(PART_SIZE, size - offset);
+                parts.add(submit(() -> {
+                    SortedMap<String, String> query = query("partNumber", String.valueOf(partNumber));
+                    query.put("uploadId", uploadId);
+                    Body body = new Body(() -> openSlice(source, offset, length), length, UNSIGNED_PAYLOAD);
+                    return sendForHeader("PUT", path, query, body, "ETag");
+                }));
+            }
+            return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenCompose(done -> submit(() -> {
+                StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+                for (int i = 0; i < parts.size(); i++) {
+                    xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                            .append(escapeXml(parts.get(i).join())).append("</ETag></Part>");
+                }
+                xml.append("</CompleteMultipartUpload>");
+                byte[] response = send("POST", path, query("uploadId", uploadId), Collections.emptyMap(),
+                        Body.of(xml.toString().getBytes(StandardCharsets.UTF_8)));
+                //The completion may fail after the status has been sent, the error is reported in the body
+                if ("Error".equals(parse(response).getDocumentElement().getTagName())) {
+                    throw new IOException("The upload of " + key + " failed: " + new String(response,
+                            StandardCharsets.UTF_8));
+                }
+                return (Void) null;
+            })).whenComplete((done, failure) -> {
+                if (failure != null) {
+                    submit(() -> send("DELETE", path, query("uploadId", uploadId), Collections.emptyMap(),
+                            Body.EMPTY));
+                }
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, byte[] data) {
+        return submit(() -> {
+            send("PUT", objectPath(key), Collections.emptySortedMap(), Collections.emptyMap(), Body.of(data));
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> get(String key, Path target) {
+        return submit(() -> {
+            retry(() -> {
+                HttpURLConnection connection = open("GET", objectPath(key), Collections.emptySortedMap(),
+                        Collections.emptyMap(), Body.EMPTY);
+                try {
+                    checkStatus(connection, key);
+                    try (InputStream in = connection.getInputStream()) {
+                        Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    connection.disconnect();
+                }
+                return null;
+            });
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<byte[]> get(String key) {
+        return submit(() -> {
+            try {
+                return send("GET", objectPath(key), Collections.emptySortedMap(), Collections.emptyMap(),
+                        Body.EMPTY);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<StoragePage> list(String prefix, String startAfter, int maxKeys) {
+        return submit(() -> {
+            SortedMap<String, String> query = query("list-type", "2");
+            query.put("prefix", this.prefix + prefix);
+            query.put("max-keys", String.valueOf(Math.max(1, Math.min(maxKeys, MAX_PAGE_SIZE))));
+            if (startAfter != null) {
+                query.put("start-after", this.prefix + startAfter);
+            }
+            Element result = parse(send("GET", bucketPath(), query, Collections.emptyMap(), Body.EMPTY))
+                    .getDocumentElement();
+            List<StorageObject> objects = new ArrayList<>();
+            NodeList contents = result.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element content = (Element) contents.item(i);
+                String lastModified = childText(content, "LastModified");
+                objects.add(new StorageObject(childText(content, "Key").substring(this.prefix.length()),
+                        Long.parseLong(childText(content, "Size")),
+                        lastModified == null ? 0 : Instant.parse(lastModified).toEpochMilli()));
+            }
+            return new StoragePage(objects, Boolean.parseBoolean(childText(result, "IsTruncated")));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(List<String> keys) {
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int start = 0; start < keys.size(); start += MAX_PAGE_SIZE) {
+            List<String> batch = keys.subList(start, Math.min(keys.size(), start + MAX_PAGE_SIZE));
+            batches.add(submit(() -> {
+                StringBuilder xml = new StringBuilder("<Delete><Quiet>true</Quiet>");
+                for (String key : batch) {
+                    xml.append("<Object><Key>").append(escapeXml(this.prefix + key)).append("</Key></Object>");
+                }
+                xml.append("</Delete>");
+                byte[] data = xml.toString().getBytes(StandardCharsets.UTF_8);
+                byte[] response = send("POST", bucketPath(), query("delete", ""),
+                        Collections.singletonMap("content-md5", Base64.getEncoder().encodeToString(md5(data))),
+                        Body.of(data));
+                //Quiet deletions only report the keys which could not be deleted
+                NodeList errors = parse(response).getDocumentElement().getElementsByTagName("Error");
+                if (errors.getLength() > 0) {
+                    Element error = (Element) errors.item(0);
+                    throw new IOException(errors.getLength() + " keys could not be deleted, "
+                            + childText(error, "Key") + ": " + childText(error, "Code"));
+                }
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]));
+    }
+
+    @Override
+    public String getDescription() {
+        return this.endpoint + "/" + this.bucket + "/" + this.prefix;
+    }
+
+    /**
+     * Sends a request and reads the whole response.
+     *
+     * @return the body of the response.
+     * @throws NoSuchFileException if the server answered with 404.
+     * @throws IOException         if the request failed.
+     */
+    private byte[] send(String method, String path, SortedMap<String, String> query, Map<String, String> headers,
+                        Body body) throws IOException {
+        return retry(() -> {
+            HttpURLConnection connection = open(method, path, query, headers, body);
+            try {
+                checkStatus(connection, path);
+                try (InputStream in = connection.getInputStream()) {
+                    return IOUtils.toByteArray(in);
+                }
+            } finally {
+                connection.disconnect();
+            }
+        });
+    }
+
+    /**
+     * Sends a request and returns a header of the response.
+     */
+    private String sendForHeader(String method, String path, SortedMap<String, String> query, Body body,
+                                 String header) throws IOException {
+        return retry(() -> {
+            HttpURLConnection connection = open(method, path, query, Collections.emptyMap(), body);
+            try {
+                checkStatus(connection, path);
+                try (InputStream in = connection.getInputStream()) {
+                    IOUtils.toByteArray(in);
+                }
+                String value = connection.getHeaderField(header);
+                if (value == null) {
+                    throw new IOException("The response to " + method + " " + path + " has no " + header);
+                }
+                return value;
+            } finally {
+                connection.disconnect();
+            }
+        });
+    }
+
+    /**
+     * Runs a request again after a delay if the server reported a temporary problem or the connection broke.
+     */
+    private <T> T retry(StorageTask<T> request) throws IOException {
+        long delay = RETRY_DELAY_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return request.run();
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (IOException e) {
+                boolean temporary = !(e instanceof StatusException) || ((StatusException) e).isTemporary();
+                if (!temporary || attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("The request to " + getDescription() + " has been interrupted", e);
+            }
+            delay *= 2;
+        }
+    }
+
+    /**
+     * Opens a signed connection and sends the body.
+     */
+    private HttpURLConnection open(String method, String path, SortedMap<String, String> query,
+                                   Map<String, String> headers, Body body) throws IOException {
+        String canonicalQuery = canonicalQuery(query);
+        URL url = new URL(this.endpoint + path + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+        SortedMap<String, String> signedHeaders = new TreeMap<>(headers);
+        int port = url.getPort();
+        signedHeaders.put("host", port == -1 || port == url.getDefaultPort() ? url.getHost()
+                : url.getHost() + ":" + port);
+        signedHeaders.put("x-amz-content-sha256", body.payloadHash);
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String time = timeFormat.format(new Date());
+        signedHeaders.put("x-amz-date", time);
+        signedHeaders.put("authorization", sign(method, path, canonicalQuery, signedHeaders, body.payloadHash, time));
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestMethod(method);
+        for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+            if (!header.getKey().equals("host")) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        if (body.length > 0 || method.equals("PUT") || method.equals("POST")) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (InputStream in = body.source.open(); OutputStream out = connection.getOutputStream()) {
+                IOUtils.copyLarge(in, out);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Computes the authorization header of a request as defined by AWS signature version 4.
+     */
+    private String sign(String method, String path, String canonicalQuery, SortedMap<String, String> headers,
+                        String payloadHash, String time) throws IOException {
+        StringBuilder canonicalHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+        }
+        String signedHeaderNames = String.join(";", headers.keySet());
+        String canonicalRequest = method + "\n" + path + "\n" + canonicalQuery + "\n" + canonicalHeaders + "\n"
+                + signedHeaderNames + "\n" + payloadHash;
+        String date = time.substring(0, 8);
+        String scope = date + "/" + this.region + "/s3/aws4_request";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + time + "\n" + scope + "\n"
+                + HashUtility.toHex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+        byte[] key = hmac(("AWS4" + this.secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, this.region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        return "AWS4-HMAC-SHA256 Credential=" + this.accessKey + "/" + scope + ", SignedHeaders=" + signedHeaderNames
+                + ", Signature=" + HashUtility.toHex(hmac(key, stringToSign));
+    }
+
+    /**
+     * Throws if the response is not a success.
+     */
+    private static void checkStatus(HttpURLConnection connection, String path) throws IOException {
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new NoSuchFileException(path);
+        }
+        if (status >= 300) {
+            String message = "";
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                try (InputStream in = error) {
+                    message = new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+                }
+            }
+            throw new StatusException(status, connection.getRequestMethod() + " " + path + " failed with " + status
+                    + (message.isEmpty() ? "" : ": " + message));
+        }
+    }
+
+    /**
+     * @return the path of the bucket.
+     */
+    private String bucketPath() {
+        return "/" + uriEncode(this.bucket, true);
+    }
+
+    /**
+     * @return the path of the object with the given key.
+     */
+    private String objectPath(String key) {
+        return bucketPath() + "/" + uriEncode(this.prefix + key, false);
+    }
+
+    /**
+     * @return a modifiable query with one parameter.
+     */
+    private static SortedMap<String, String> query(String name, String value) {
+        SortedMap<String, String> query = new TreeMap<>();
+        query.put(name, value);
+        return query;
+    }
+
+    /**
+     * @return the query parameters sorted by name and encoded as required by the signature.
+     */
+    private static String canonicalQuery(SortedMap<String, String> query) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(uriEncode(parameter.getKey(), true)).append('=').append(uriEncode(parameter.getValue(), true));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Percent-encodes everything but the unreserved characters of RFC 3986, and the slash if it is kept.
+     */
+    private static String uriEncode(String value, boolean encodeSlash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_'
+                    || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the text with the characters escaped which are not allowed in XML text.
+     */
+    private static String escapeXml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * @return the text of the first child element with the given name, null if there is none.
+     */
+    private static String childText(Element parent, String name) {
+        NodeList children = parent.getElementsByTagName(name);
+        return children.getLength() == 0 ? null : children.item(0).getTextContent();
+    }
+
+    /**
+     * Parses an XML response, documents with a doctype are rejected.
+     */
+    private static Document parse(byte[] xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("The response could not be parsed", e);
+        }
+    }
+
+    /**
+     * Opens a stream over a slice of a file.
+     */
+    private static InputStream openSlice(Path file, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    private static byte[] sha256(byte[] data) throws IOException {
+        return digest("SHA-256", data);
+    }
+
+    private static byte[] md5(byte[] data) throws IOException {
+        return digest("MD5", data);
+    }
+
+    private static byte[] digest(String algorithm, byte[] data) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(algorithm + " is not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Opens the stream of a request body, once for every attempt.
+     */
+    private interface BodySource {
+
+        /**
+         * @return a new stream over the whole body.
+         * @throws IOException if the stream could not be opened.
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * The body of a request.
+     */
+    private static class Body {
+
+        /**
+         * The body of requests without content.
+         */
+        static final Body EMPTY = of(new byte[0]);
+
+        /**
+         * Opens the content.
+         */
+        final BodySource source;
+
+        /**
+         * The length of the content in bytes.
+         */
+        final long length;
+
+        /**
+         * The hex SHA-256 of the content, or UNSIGNED_PAYLOAD for streamed contents.
+         */
+        final String payloadHash;
+
+        Body(BodySource source, long length, String payloadHash) {
+            this.source = source;
+            this.length = length;
+            this.payloadHash = payloadHash;
+        }
+
+        /**
+         * @return a body of bytes in memory, which are signed.
+         */
+        static Body of(byte[] data) {
+            try {
+                return new Body(() -> new ByteArrayInputStream(data), data.length, HashUtility.toHex(sha256(data)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Reports an error status of the server.
+     */
+    private static class StatusException extends IOException {
+
+        /**
+         * The version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The HTTP status.
+         */
+        private final int status;
+
+        StatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        /**
+         * @return true if the request may succeed when it is sent again.
+         */
+        boolean isTemporary() {
+            return this.status >= 500 || this.status == 429;
+        }
+    }
+}
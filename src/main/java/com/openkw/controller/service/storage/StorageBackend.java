@@ -0,0 +1,116 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.storage;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A place where the repository can be stored remotely, addressed by keys which use '/' as the separator. All
+ * operations return at once and complete their future when the operation has finished, so a caller keeps many
+ * operations in flight instead of waiting for each round trip of a remote storage. Every implementation limits the
+ * amount of operations it actually runs at the same time, further operations wait inside the backend.
+ * A future of a failed operation completes exceptionally with an IOException.
+ */
+public interface StorageBackend extends Closeable {
+
+    /**
+     * The maximum amount of keys a page of a listing contains, remote storages return at most this amount anyway.
+     */
+    int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Stores the content of a file under the key, replacing a value stored before. The value becomes visible only
+     * once it has been stored completely. Large files may be uploaded as several parts in parallel.
+     *
+     * @param key    the key.
+     * @param source the file to store.
+     * @return completes when the value has been stored.
+     */
+    CompletableFuture<Void> put(String key, Path source);
+
+    /**
+     * Stores the given bytes under the key, replacing a value stored before.
+     *
+     * @param key  the key.
+     * @param data the bytes to store.
+     * @return completes when the value has been stored.
+     */
+    CompletableFuture<Void> put(String key, byte[] data);
+
+    /**
+     * Writes the value of the key into the given file, replacing the file.
+     *
+     * @param key    the key.
+     * @param target the file to write.
+     * @return completes when the file has been written, exceptionally with a NoSuchFileException if there is no
+     * value for the key.
+     */
+    CompletableFuture<Void> get(String key, Path target);
+
+    /**
+     * Reads a small value completely.
+     *
+     * @param key the key.
+     * @return completes with the bytes of the value, with null if there is no value for the key.
+     */
+    CompletableFuture<byte[]> get(String key);
+
+    /**
+     * Lists one page of the keys with the given prefix in ascending order.
+     *
+     * @param prefix     the prefix of the listed keys, an empty string lists all keys.
+     * @param startAfter only keys after this key are listed, null to start with the first key.
+     * @param maxKeys    the maximum amount of keys of the page, at most MAX_PAGE_SIZE.
+     * @return completes with the page.
+     */
+    CompletableFuture<StoragePage> list(String prefix, String startAfter, int maxKeys);
+
+    /**
+     * Deletes the values of the given keys, keys without value are ignored. Remote storages delete up to
+     * MAX_PAGE_SIZE keys with a single request.
+     *
+     * @param keys the keys to delete.
+     * @return completes when all values have been deleted.
+     */
+    CompletableFuture<Void> delete(List<String> keys);
+
+    /**
+     * Stops all operations still queued or running, further operations fail.
+     */
+    @Override
+    void close();
+
+    /**
+     * @return a short description of the backend for messages.
+     */
+    String getDescription();
+
+    /**
+     * Lists all keys with the given prefix by requesting one page after the other.
+     *
+     * @param prefix the prefix of the listed keys.
+     * @return completes with all keys in ascending order.
+     */
+    default CompletableFuture<List<StorageObject>> listAll(String prefix) {
+        return StoragePage.listFrom(this, prefix, null, new ArrayList<>());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.storage;
+
+import com.openkw.model.StorageSettings;
+
+import java.nio.file.Paths;
+
+/**
+ * Creates the storage backend described by storage settings.
+ */
+public class StorageBackends {
+
+    /**
+     * @param settings the settings of the storage.
+     * @return a new backend, which has to be closed after use.
+     * @throws IllegalArgumentException if the settings are incomplete or of an unknown type.
+     */
+    public static StorageBackend open(StorageSettings settings) {
+        if (StorageSettings.TYPE_LOCAL.equals(settings.getType())) {
+            if (settings.getPath() == null || settings.getPath().isEmpty()) {
+                throw new IllegalArgumentException("The local storage has no path");
+            }
+            return new LocalStorageBackend(Paths.get(settings.getPath()), settings.getMaxInFlight());
+        }
+        if (StorageSettings.TYPE_S3.equals(settings.getType())) {
+            if (settings.getEndpoint() == null || settings.getBucket() == null) {
+                throw new IllegalArgumentException("The S3 storage has no endpoint or bucket");
+            }
+            return new S3StorageBackend(settings);
+        }
+        throw new IllegalArgumentException("Unknown storage type " + settings.getType());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.storage;
+
+/**
+ * This class describes a value stored in a storage backend as returned by a listing.
+ */
+public class StorageObject {
+
+    /**
+     * The key of the value.
+     */
+    private final String key;
+
+    /**
+     * The size of the value in bytes.
+     */
+    private final long size;
+
+    /**
+     * The time the value has been stored in milliseconds since the epoch, 0 if unknown.
+     */
+    private final long lastModified;
+
+    /**
+     * @param key          the key of the value.
+     * @param size         the size of the value in bytes.
+     * @param lastModified the time the value has been stored in milliseconds since the epoch, 0 if unknown.
+     */
+    public StorageObject(String key, long size, long lastModified) {
+        this.key = key;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    //Only getters from here
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.storage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One page of a listing of a storage backend. The next page starts after the key of the last object.
+ */
+public class StoragePage {
+
+    /**
+     * The listed values in ascending key order.
+     */
+    private final List<StorageObject> objects;
+
+    /**
+     * True if there are more keys after the last one of this page.
+     */
+    private final boolean truncated;
+
+    /**
+     * @param objects   the listed values in ascending key order.
+     * @param truncated true if there are more keys after the last one of this page.
+     */
+    public StoragePage(List<StorageObject> objects, boolean truncated) {
+        this.objects = objects;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Requests the page after the given key and the pages following it, used by StorageBackend.listAll().
+     *
+     * @param backend    the backend to list.
+     * @param prefix     the prefix of the listed keys.
+     * @param startAfter the key the page starts after, null for the first page.
+     * @param objects    collects the listed values.
+     * @return completes with the collected values once the last page has arrived.
+     */
+    static CompletableFuture<List<StorageObject>> listFrom(StorageBackend backend, String prefix, String startAfter,
+                                                           List<StorageObject> objects) {
+        return backend.list(prefix, startAfter, StorageBackend.MAX_PAGE_SIZE).thenCompose(page -> {
+            objects.addAll(page.getObjects());
+            if (!page.isTruncated() || page.getObjects().isEmpty()) {
+                return CompletableFuture.completedFuture(objects);
+            }
+            return listFrom(backend, prefix, page.getObjects().get(page.getObjects().size() - 1).getKey(),
+                    objects);
+        });
+    }
+
+    //Only getters from here
+
+    public List<StorageObject> getObjects() {
+        return objects;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
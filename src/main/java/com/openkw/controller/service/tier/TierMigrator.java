@@ -0,0 +1,412 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.service.tier;
+
+import com.openkw.controller.service.snapshot.DeltaObjectReader;
+import com.openkw.controller.service.snapshot.PackStore;
+import com.openkw.controller.service.snapshot.SnapshotRepository;
+import com.openkw.controller.util.RateLimiter;
+import com.openkw.controller.util.ReadOnlyFileUtility;
+import com.openkw.model.snapshot.ManifestEntry;
+import com.openkw.model.snapshot.SnapshotManifest;
+import com.openkw.model.snapshot.SnapshotRecord;
+import com.openkw.model.snapshot.SnapshotStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class keeps the newest snapshots of every data directory browsable in the backup directory and moves the
+ * objects only older snapshots reference into the packs of the archive directory.
+ * <p>
+ * A pass runs in these steps, each of them can be interrupted and is picked up by the next pass:
+ * <ol>
+ * <li>Objects of the newest snapshots which are only stored in the archive are copied back, a missing browsable
+ * folder of such a snapshot is built again.</li>
+ * <li>Objects of older snapshots which are not archived yet are written into new packs.</li>
+ * <li>The browsable folders of the older snapshots are deleted, then the objects directory drops every object
+ * which is archived and not referenced by one of the newest snapshots.</li>
+ * <li>Packs of which less than half is still referenced are rewritten, packs without any referenced object are
+ * deleted.</li>
+ * </ol>
+ * Reads and writes are rate limited, so a pass does not slow the backups down.
+ */
+public class TierMigrator {
+
+    /**
+     * Packs of which a smaller share is referenced are rewritten.
+     */
+    private static final double MIN_LIVE_RATIO = 0.5;
+
+    /**
+     * The repository to migrate.
+     */
+    private final SnapshotRepository repository;
+
+    /**
+     * The amount of newest snapshots per data directory which stay in the backup directory.
+     */
+    private final int hotSnapshotCount;
+
+    /**
+     * Limits the amount of bytes read per second.
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     * The amount of objects written into new packs by the last pass.
+     */
+    private int archivedObjectCount;
+
+    /**
+     * The size of the objects written into new packs by the last pass, as they have been stored in the objects
+     * directory.
+     */
+    private long archivedBytes;
+
+    /**
+     * The size of the new packs written by the last pass.
+     */
+    private long packedBytes;
+
+    /**
+     * The amount of objects copied back into the objects directory by the last pass.
+     */
+    private int rehydratedObjectCount;
+
+    /**
+     * The amount of snapshots whose browsable folder has been deleted by the last pass.
+     */
+    private int releasedSnapshotCount;
+
+    /**
+     * The amount of bytes freed in the objects directory by the last pass.
+     */
+    private long releasedBytes;
+
+    /**
+     * The amount of packs rewritten or deleted by the last pass.
+     */
+    private int compactedPackCount;
+
+    /**
+     * The amount of bytes freed in the archive directory by the last pass.
+     */
+    private long compactedBytes;
+
+    /**
+     * @param repository       the repository to migrate, it has to be attached to an archive directory.
+     * @param hotSnapshotCount the amount of newest snapshots per data directory which stay in the backup directory.
+     * @param rateLimiter      limits the amount of bytes read per second.
+     */
+    public TierMigrator(SnapshotRepository repository, int hotSnapshotCount, RateLimiter rateLimiter) {
+        this.repository = repository;
+        this.hotSnapshotCount = Math.max(1, hotSnapshotCount);
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Runs one migration pass.
+     *
+     * @return the amount of bytes freed in the backup directory.
+     * @throws IOException          if the catalog, a manifest or a pack could not be read or written.
+     * @throws InterruptedException if the thread has been interrupted.
+     */
+    public long migrate() throws IOException, InterruptedException {
+        resetCounts();
+        PackStore archive = this.repository.getArchive();
+        if (archive == null) {
+            return 0;
+        }
+        archive.deleteUnfinishedPacks();
+        List<SnapshotRecord> hotRecords = new ArrayList<>();
+        List<SnapshotRecord> coldRecords = new ArrayList<>();
+        Map<String, Integer> completeCounts = new HashMap<>();
+        for (SnapshotRecord record : this.repository.getCatalog().list(0, Integer.MAX_VALUE)) {
+            if (record.getStatus() == SnapshotStatus.COMPLETE) {
+                int count = completeCounts.merge(String.valueOf(record.getSourcePath()), 1, Integer::sum);
+                (count <= this.hotSnapshotCount ? hotRecords : coldRecords).add(record);
+            }
+        }
+
+        Set<String> hotLive = new LinkedHashSet<>();
+        for (SnapshotRecord record : hotRecords) {
+            SnapshotManifest manifest = this.repository.readManifest(record.getSnapshotName());
+            if (manifest != null) {
+                Set<String> hashes = collectLive(manifest);
+                for (String hash : hashes) {
+                    rehydrate(hash);
+                }
+                hotLive.addAll(hashes);
+                rebuildFolder(manifest);
+            }
+        }
+        Set<String> coldLive = new LinkedHashSet<>();
+        for (SnapshotRecord record : coldRecords) {
+            SnapshotManifest manifest = this.repository.readManifest(record.getSnapshotName());
+            if (manifest != null) {
+                coldLive.addAll(collectLive(manifest));
+            }
+        }
+
+        archive(archive, coldLive, hotLive);
+        for (SnapshotRecord record : coldRecords) {
+            Path snapshotFolder = this.repository.getSnapshotFolder(record.getSnapshotName());
+            if (Files.exists(snapshotFolder, LinkOption.NOFOLLOW_LINKS)) {
+                ReadOnlyFileUtility.deleteDirectory(snapshotFolder);
+                this.releasedSnapshotCount++;
+            }
+        }
+        for (String hash : coldLive) {
+            if (!hotLive.contains(hash) && archive.contains(hash)) {
+                this.releasedBytes += deleteIfExists(this.repository.getObjectPath(hash));
+                this.releasedBytes += deleteIfExists(this.repository.getDeltaPath(hash));
+            }
+        }
+
+        Set<String> live = new HashSet<>(hotLive);
+        live.addAll(coldLive);
+        compact(archive, live);
+        return this.releasedBytes;
+    }
+
+    /**
+     * Writes the objects of the older snapshots which are neither archived yet nor referenced by one of the newest
+     * snapshots into new packs.
+     */
+    private void archive(PackStore archive, Set<String> coldLive, Set<String> hotLive)
+            throws IOException, InterruptedException {
+        PackStore.PackWriter writer = archive.newWriter(!this.repository.isEncrypted(),
+                PackStore.DEFAULT_PACK_SIZE);
+        try (writer) {
+            for (String hash : coldLive) {
+                if (hotLive.contains(hash) || archive.contains(hash) || !this.repository.hasObject(hash)) {
+                    continue;
+                }
+                Path objectPath = this.repository.getObjectPath(hash);
+                boolean delta = Files.notExists(objectPath);
+                Path storedFile = delta ? this.repository.getDeltaPath(hash) : objectPath;
+                try {
+                    long size = Files.size(storedFile);
+                    acquire(size);
+                    writer.add(hash, delta, delta ? readBaseHash(storedFile) : null, storedFile);
+                    this.archivedObjectCount++;
+                    this.archivedBytes += size;
+                } catch (NoSuchFileException e) {
+                    //Parked by the garbage collector in the meantime, the next pass archives it if it is live.
+                }
+            }
+        }
+        this.packedBytes = writer.getWrittenBytes();
+    }
+
+    /**
+     * Rewrites the packs of which less than half is still referenced and deletes the packs without referenced
+     * objects. An object archived twice counts only in the pack the archive resolves it to.
+     */
+    private void compact(PackStore archive, Set<String> live) throws IOException, InterruptedException {
+        List<String> obsoletePacks = new ArrayList<>();
+        try (PackStore.PackWriter writer = archive.newWriter(false, PackStore.DEFAULT_PACK_SIZE)) {
+            for (String packId : archive.listPacks()) {
+                List<PackStore.PackEntry> liveEntries = new ArrayList<>();
+                long totalBytes = 0;
+                long liveBytes = 0;
+                for (PackStore.PackEntry entry : archive.readIndex(packId)) {
+                    totalBytes += entry.getStoredLength();
+                    PackStore.PackEntry current = archive.getEntry(entry.getHash());
+                    if (live.contains(entry.getHash()) && current != null && packId.equals(current.getPackId())) {
+                        liveEntries.add(entry);
+                        liveBytes += entry.getStoredLength();
+                    }
+                }
+                if (liveEntries.isEmpty() || liveBytes < totalBytes * MIN_LIVE_RATIO) {
+                    for (PackStore.PackEntry entry : liveEntries) {
+                        acquire(entry.getStoredLength());
+                        writer.copy(entry);
+                    }
+                    obsoletePacks.add(packId);
+                    this.compactedBytes -= liveBytes;
+                }
+            }
+        }
+        //The copies are visible once the writer is closed, only then the old packs may disappear
+        for (String packId : obsoletePacks) {
+            this.compactedBytes += archive.deletePack(packId);
+            this.compactedPackCount++;
+        }
+    }
+
+    /**
+     * Copies an object of one of the newest snapshots back into the objects directory if it is only archived.
+     */
+    private void rehydrate(String hash) throws IOException, InterruptedException {
+        if (Files.notExists(this.repository.getObjectPath(hash))
+                && Files.notExists(this.repository.getDeltaPath(hash))) {
+            PackStore.PackEntry entry = this.repository.getArchive().getEntry(hash);
+            if (entry != null) {
+                acquire(entry.getStoredLength());
+                if (this.repository.hasObject(hash)) {
+                    this.rehydratedObjectCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the browsable folder of one of the newest snapshots again if it has been deleted while the snapshot
+     * was older than the newest ones.
+     */
+    private void rebuildFolder(SnapshotManifest manifest) throws IOException {
+        Path snapshotFolder = this.repository.getSnapshotFolder(manifest.getSnapshotName());
+        Path sourceName = Paths.get(manifest.getSourcePath()).getFileName();
+        if (sourceName != null && !this.repository.isEncrypted()
+                && Files.notExists(snapshotFolder, LinkOption.NOFOLLOW_LINKS)) {
+            this.repository.materialize(manifest, snapshotFolder.resolve(sourceName.toString()));
+        }
+    }
+
+    /**
+     * @return the hashes of all files of the snapshot together with the base chains of their delta objects.
+     */
+    private Set<String> collectLive(SnapshotManifest manifest) throws IOException {
+        Set<String> hashes = new LinkedHashSet<>();
+        collectHashes(manifest.getRoot(), hashes, new HashSet<>());
+        Set<String> live = new LinkedHashSet<>();
+        for (String hash : hashes) {
+            String current = hash;
+            while (current != null && live.add(current)) {
+                current = getBaseHash(current);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Recursive helper of collectLive(). Subtrees with the same tree hash reference the same files and are
+     * visited once.
+     */
+    private static void collectHashes(ManifestEntry entry, Set<String> hashes, Set<String> treeHashes) {
+        if (!entry.isDirectory()) {
+            hashes.add(entry.getContentHash());
+            return;
+        }
+        if (entry.getTreeHash() != null && !treeHashes.add(entry.getTreeHash())) {
+            return;
+        }
+        for (ManifestEntry child : entry.getChildren()) {
+            collectHashes(child, hashes, treeHashes);
+        }
+    }
+
+    /**
+     * @return the hash of the base object if the object is stored as a delta, null otherwise.
+     */
+    private String getBaseHash(String hash) throws IOException {
+        Path deltaPath = this.repository.getDeltaPath(hash);
+        if (Files.exists(deltaPath) && Files.notExists(this.repository.getObjectPath(hash))) {
+            try {
+                return readBaseHash(deltaPath);
+            } catch (NoSuchFileException e) {
+                //Released concurrently, the archive knows the base as well.
+            }
+        }
+        PackStore.PackEntry entry = this.repository.getArchive().getEntry(hash);
+        return entry == null ? null : entry.getBaseHash();
+    }
+
+    private String readBaseHash(Path deltaPath) throws IOException {
+        try (DeltaObjectReader reader = new DeltaObjectReader(deltaPath, this.repository)) {
+            return reader.getBaseHash();
+        }
+    }
+
+    /**
+     * @return the size of the deleted file, 0 if it did not exist.
+     */
+    private static long deleteIfExists(Path file) throws IOException {
+        try {
+            long size = Files.size(file);
+            ReadOnlyFileUtility.delete(file);
+            return size;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private void acquire(long bytes) throws InterruptedException {
+        if (this.rateLimiter != null) {
+            this.rateLimiter.acquire(bytes);
+        }
+    }
+
+    private void resetCounts() {
+        this.archivedObjectCount = 0;
+        this.archivedBytes = 0;
+        this.packedBytes = 0;
+        this.rehydratedObjectCount = 0;
+        this.releasedSnapshotCount = 0;
+        this.releasedBytes = 0;
+        this.compactedPackCount = 0;
+        this.compactedBytes = 0;
+    }
+
+    //Only getters from here
+
+    public int getArchivedObjectCount() {
+        return archivedObjectCount;
+    }
+
+    public long getArchivedBytes() {
+        return archivedBytes;
+    }
+
+    public long getPackedBytes() {
+        return packedBytes;
+    }
+
+    public int getRehydratedObjectCount() {
+        return rehydratedObjectCount;
+    }
+
+    public int getReleasedSnapshotCount() {
+        return releasedSnapshotCount;
+    }
+
+    public long getReleasedBytes() {
+        return releasedBytes;
+    }
+
+    public int getCompactedPackCount() {
+        return compactedPackCount;
+    }
+
+    public long getCompactedBytes() {
+        return compactedBytes;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This input stream reads a file with direct I/O, so reading it does not push other files out of the page cache.
+ * The file is read in aligned blocks into an aligned buffer. If the file system rejects direct I/O the stream reads
+ * through the page cache instead.
+ */
+public class DirectFileInputStream extends InputStream {
+
+    /**
+     * The size of the aligned buffer, a multiple of the direct I/O alignment.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The buffer of a closed stream, reused by the next stream of the thread. Direct buffers are expensive to
+     * allocate and are only freed by the garbage collector.
+     */
+    private static final ThreadLocal<ByteBuffer> SPARE_BUFFERS = new ThreadLocal<>();
+
+    /**
+     * The path of the read file.
+     */
+    private final Path path;
+
+    /**
+     * The buffer holding the bytes read last, positioned at the next byte to return.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The channel of the read file.
+     */
+    private FileChannel channel;
+
+    /**
+     * True while the file is read with direct I/O.
+     */
+    private boolean direct;
+
+    /**
+     * The file position of the next read.
+     */
+    private long position;
+
+    /**
+     * True once the end of the file has been reached.
+     */
+    private boolean eof;
+
+    /**
+     * @param path the file to read.
+     * @throws IOException if the file could not be opened.
+     */
+    public DirectFileInputStream(Path path) throws IOException {
+        this.path = path;
+        this.channel = DirectIoUtility.openDirect(path, StandardOpenOption.READ);
+        this.direct = this.channel != null;
+        if (!this.direct) {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        ByteBuffer spare = SPARE_BUFFERS.get();
+        SPARE_BUFFERS.remove();
+        this.buffer = spare != null ? spare : DirectIoUtility.allocateAligned(BUFFER_SIZE);
+        this.buffer.clear().flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * Reads the next part of the file into the buffer.
+     *
+     * @return false if the end of the file has been reached.
+     */
+    private boolean fill() throws IOException {
+        if (this.eof) {
+            return false;
+        }
+        this.buffer.clear();
+        int read;
+        if (this.direct && this.position % DirectIoUtility.ALIGNMENT == 0) {
+            try {
+                read = this.channel.read(this.buffer, this.position);
+            } catch (IOException e) {
+                //The file system accepted the direct open but rejects the reads, continuing through the page cache.
+                fallBack();
+                read = this.channel.read(this.buffer, this.position);
+            }
+        } else {
+            if (this.direct) {
+                //A short read left the position unaligned, which only happens at the end of a growing file.
+                fallBack();
+            }
+            read = this.channel.read(this.buffer, this.position);
+        }
+        this.buffer.flip();
+        if (read <= 0) {
+            this.eof = true;
+            return false;
+        }
+        this.position += read;
+        return true;
+    }
+
+    /**
+     * Reopens the file to read the rest through the page cache.
+     */
+    private void fallBack() throws IOException {
+        this.direct = false;
+        this.channel.close();
+        this.channel = FileChannel.open(this.path, StandardOpenOption.READ);
+        this.buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel.isOpen()) {
+            this.channel.close();
+            SPARE_BUFFERS.set(this.buffer);
+        }
+    }
+}
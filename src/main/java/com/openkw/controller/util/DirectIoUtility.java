@@ -0,0 +1,72 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A utility class to read and write files with direct I/O, bypassing the page cache of the operating system. A
+ * backup copies far more data than it ever reads again, caching it would only evict the working set of the other
+ * applications. Direct I/O requires buffers, file positions and lengths aligned to the block size of the device,
+ * callers keep them aligned to ALIGNMENT.
+ */
+public class DirectIoUtility {
+
+    /**
+     * The alignment of direct buffers, positions and lengths, a multiple of the logical block size of common devices.
+     */
+    public static final int ALIGNMENT = 4096;
+
+    /**
+     * Opens a file for direct I/O.
+     *
+     * @param path    the path of the file.
+     * @param options the options to open the file with, DIRECT is added.
+     * @return the channel, null if the file could not be opened for direct I/O.
+     */
+    public static FileChannel openDirect(Path path, OpenOption... options) {
+        OpenOption[] directOptions = Arrays.copyOf(options, options.length + 1);
+        directOptions[options.length] = ExtendedOpenOption.DIRECT;
+        try {
+            if (ALIGNMENT % Files.getFileStore(path.toAbsolutePath().getParent()).getBlockSize() != 0) {
+                return null;
+            }
+            return FileChannel.open(path, directOptions);
+        } catch (UnsupportedOperationException | IOException e) {
+            //Not available on this platform or rejected by the file system with EINVAL, a plain open reports real
+            //problems of the file.
+            return null;
+        }
+    }
+
+    /**
+     * @param size the size of the buffer, a multiple of ALIGNMENT.
+     * @return a direct buffer whose address is aligned to ALIGNMENT.
+     */
+    public static ByteBuffer allocateAligned(int size) {
+        return ByteBuffer.allocateDirect(size + ALIGNMENT).alignedSlice(ALIGNMENT).limit(size).slice();
+    }
+}
@@ -20,6 +20,8 @@ package com.openkw.controller.util;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -35,19 +37,31 @@ public class FileSizeUtility {
      * @return string representation of the file/dir size, -1 if the file does not exist.
      */
     public static String getRecommendedFileSizePresentation(String path) {
-        double size = convertedSize(path, FileSizeType.MB);
-        if (size != -1) {
-            String prefix = "MB";
-            if (size > 1000) {
-                size = size / 1024;
-                prefix = "GB";
-            }
-            return String.format("%.2f ", size) + prefix;
+        long bytes = getFileSizeBytes(path);
+        if (bytes != -1) {
+            return getRecommendedFileSizePresentation(bytes);
         } else {
             return null;
         }
     }
 
+    /**
+     * This method returns the recommended file size representation for the given amount of bytes in the format
+     * 12.30 MB and if bigger then 1 GB 34.5 GB for example.
+     *
+     * @param bytes the size in bytes.
+     * @return string representation of the size.
+     */
+    public static String getRecommendedFileSizePresentation(long bytes) {
+        double size = (double) bytes / FileSizeType.MB.getByteDivisor();
+        String prefix = "MB";
+        if (size > 1000) {
+            size = size / 1024;
+            prefix = "GB";
+        }
+        return String.format("%.2f ", size) + prefix;
+    }
+
     /**
      * Gets the file/dir size in bytes.
      *
@@ -110,18 +124,23 @@ public class FileSizeUtility {
     }
 
     /**
-     * returns the size in byte of the given file by path.
+     * returns the size in byte of the given file by path. Files with several hard links inside the directory, like
+     * the snapshot folders linking into the objects of a repository, are counted once.
      *
      * @param path the path of the file.
      * @return the size in bytes.
      */
     private static long size(Path path) {
         final AtomicLong size = new AtomicLong(0);
+        final Set<Object> fileKeys = new HashSet<>();
         try {
             Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    size.addAndGet(attrs.size());
+                    //Without file keys links cannot be told apart, then every link is counted.
+                    if (attrs.fileKey() == null || fileKeys.add(attrs.fileKey())) {
+                        size.addAndGet(attrs.size());
+                    }
                     return FileVisitResult.CONTINUE;
                 }
 
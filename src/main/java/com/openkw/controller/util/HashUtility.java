@@ -0,0 +1,82 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util;
+
+import com.openkw.controller.util.hash.HashFunction;
+import com.openkw.controller.util.hash.Hasher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A utility class to deal with common hashing related things.
+ */
+public class HashUtility {
+
+    /**
+     * The size of the buffer used when streaming a file through a hash function.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Reads the whole file and returns its hash.
+     *
+     * @param path     the path of the file.
+     * @param function the hash function to use.
+     * @return the lower case hex representation of the hash.
+     * @throws IOException if the file could not be read.
+     */
+    public static String hashFile(Path path, HashFunction function) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return hashStream(in, function);
+        }
+    }
+
+    /**
+     * Reads the stream until its end and returns the hash of the read bytes. The stream is not closed.
+     *
+     * @param in       the stream to read.
+     * @param function the hash function to use.
+     * @return the lower case hex representation of the hash.
+     * @throws IOException if the stream could not be read.
+     */
+    public static String hashStream(InputStream in, HashFunction function) throws IOException {
+        Hasher hasher = function.newHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            hasher.update(buffer, 0, read);
+        }
+        return hasher.digestHex();
+    }
+
+    /**
+     * @param bytes the bytes to convert.
+     * @return the lower case hex representation of the given bytes.
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
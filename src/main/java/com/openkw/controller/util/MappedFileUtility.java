@@ -0,0 +1,83 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A utility class to read large files through memory mapped windows instead of copying them into heap arrays.
+ */
+public class MappedFileUtility {
+
+    /**
+     * The size of each mapped window. It bounds the address space taken by one reader while keeping the amount of
+     * map calls low.
+     */
+    public static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Receives the windows of a mapped file.
+     */
+    @FunctionalInterface
+    public interface WindowConsumer {
+
+        /**
+         * @param window the mapped window, positioned at its start.
+         * @throws IOException if the window could not be processed.
+         */
+        void accept(ByteBuffer window) throws IOException;
+    }
+
+    /**
+     * Maps the file window by window and hands every window to the consumer. The length of the file is taken when it
+     * is opened, bytes appended afterwards are not read.
+     * A file which is truncated while it is mapped makes the access of the vanished pages fail. This is detected and
+     * reported by the return value, the caller has to start over with a stream read in that case.
+     *
+     * @param path     the path of the file.
+     * @param consumer the consumer of the windows.
+     * @return true if the whole file has been read, false if it has been truncated while it was mapped.
+     * @throws IOException if the file could not be read or the consumer failed.
+     */
+    public static boolean readMapped(Path path, WindowConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                try {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    consumer.accept(window);
+                } catch (IOException | InternalError e) {
+                    //The JVM reports the access of a truncated page as an InternalError, native reads as IOException.
+                    if (channel.size() < position + length) {
+                        return false;
+                    }
+                    throw e;
+                }
+                position += length;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util;
+
+/**
+ * A simple thread safe token bucket which limits the rate of background work, for example the amount of file
+ * operations or bytes per second. Up to one second worth of permits can be used in a burst.
+ */
+public class RateLimiter {
+
+    /**
+     * The amount of permits which become available per second.
+     */
+    private final long permitsPerSecond;
+
+    /**
+     * The amount of currently available permits, negative if permits have been borrowed from the future.
+     */
+    private double availablePermits;
+
+    /**
+     * The time of the last refill in nanoseconds.
+     */
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond the amount of permits which become available per second, has to be positive.
+     */
+    public RateLimiter(long permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("The rate has to be positive: " + permitsPerSecond);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.availablePermits = permitsPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes the given amount of permits and blocks until the rate allows it. Requests larger than one second worth
+     * of permits are granted but delay the following requests accordingly.
+     *
+     * @param permits the amount of permits to take.
+     * @throws InterruptedException if the thread has been interrupted while waiting.
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            this.availablePermits = Math.min(this.permitsPerSecond,
+                    this.availablePermits + (now - this.lastRefill) * this.permitsPerSecond / 1e9);
+            this.lastRefill = now;
+            this.availablePermits -= permits;
+            waitNanos = this.availablePermits < 0 ? (long) (-this.availablePermits * 1e9 / this.permitsPerSecond) : 0;
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    //Only getters from here
+
+    public long getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+}
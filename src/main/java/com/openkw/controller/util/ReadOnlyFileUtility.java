@@ -0,0 +1,129 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A utility class to protect stored files against modification. The stored objects of a repository are shared by
+ * all snapshots and may be hard linked into the browsable folders, writing through such a link would silently change
+ * every snapshot. POSIX file systems drop the write permissions, Windows sets the read-only attribute, which also
+ * prevents deleting the file, so files and folders which may contain protected files are deleted through this class.
+ */
+public class ReadOnlyFileUtility {
+
+    /**
+     * The permissions granting write access.
+     */
+    private static final Set<PosixFilePermission> WRITE_PERMISSIONS = EnumSet.of(PosixFilePermission.OWNER_WRITE,
+            PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE);
+
+    /**
+     * Makes a file read-only. This is best effort, a file system without permissions or attributes leaves the file
+     * writable, isReadOnly() tells whether it has worked.
+     *
+     * @param file the file.
+     */
+    public static void makeReadOnly(Path file) {
+        try {
+            PosixFileAttributeView posix = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+            if (posix != null) {
+                Set<PosixFilePermission> permissions = posix.readAttributes().permissions();
+                if (permissions.removeAll(WRITE_PERMISSIONS)) {
+                    posix.setPermissions(permissions);
+                }
+                return;
+            }
+            DosFileAttributeView dos = Files.getFileAttributeView(file, DosFileAttributeView.class);
+            if (dos != null) {
+                dos.setReadOnly(true);
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            //The file stays writable, it is copied instead of linked then.
+        }
+    }
+
+    /**
+     * @param file the file.
+     * @return true if nobody may write the file, regardless of the privileges of the current user.
+     * @throws IOException if the attributes of the file could not be read.
+     */
+    public static boolean isReadOnly(Path file) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        if (posix != null) {
+            Set<PosixFilePermission> permissions = posix.readAttributes().permissions();
+            permissions.retainAll(WRITE_PERMISSIONS);
+            return permissions.isEmpty();
+        }
+        DosFileAttributeView dos = Files.getFileAttributeView(file, DosFileAttributeView.class);
+        return dos != null && dos.readAttributes().isReadOnly();
+    }
+
+    /**
+     * Deletes a file even if it is read-only.
+     *
+     * @param file the file.
+     * @throws NoSuchFileException if the file does not exist.
+     * @throws IOException         if the file could not be deleted.
+     */
+    public static void delete(Path file) throws IOException {
+        try {
+            Files.delete(file);
+        } catch (AccessDeniedException e) {
+            DosFileAttributeView dos = Files.getFileAttributeView(file, DosFileAttributeView.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            if (dos == null || !dos.readAttributes().isReadOnly()) {
+                throw e;
+            }
+            dos.setReadOnly(false);
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Deletes a directory with all its content, read-only files included. Symbolic links are deleted, not followed.
+     *
+     * @param directory the directory.
+     * @throws IOException if a file or directory could not be deleted.
+     */
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    deleteDirectory(child);
+                }
+            }
+        }
+        try {
+            delete(directory);
+        } catch (NoSuchFileException e) {
+            //Deleted concurrently.
+        }
+    }
+}
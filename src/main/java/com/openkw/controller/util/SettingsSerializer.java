@@ -32,12 +32,20 @@ public class SettingsSerializer {
     /**
      * The path where the settings.json is being saved.
      */
-    public static final String SETTINGS_PATH = System.getProperty("user.home") + "\\Documents\\DataBackupToolSettings";
+    public static final String SETTINGS_PATH = Paths.get(System.getProperty("user.home"), "Documents",
+            "DataBackupToolSettings").toString();
 
     /**
      * The prefix for the settings json file
      */
-    public static final String SETTINGS_FILE_POST_FIX = "\\settings.json";
+    public static final String SETTINGS_FILE_POST_FIX = File.separator + "settings.json";
+
+    /**
+     * The path the settings.json has been saved to before the path was built with the separator of the platform.
+     * On other platforms than Windows it is a single file name in the parent of the home directory.
+     */
+    private static final String LEGACY_SETTINGS_FILE = System.getProperty("user.home")
+            + "\\Documents\\DataBackupToolSettings\\settings.json";
 
     /**
      * The mvc controller instance.
@@ -59,13 +67,17 @@ public class SettingsSerializer {
 
     /**
      * This method checks if settings.json is existing.If it does it de-serializes the file into
-     * a SerializationData object and returns it.
+     * a SerializationData object and returns it. Settings saved to the legacy path are read if there are none at the
+     * current path, the next change saves them to the current path.
      *
      * @return the de-serialized settings.json object. Null if there is no object to de-serialize.
      */
     public static SerializationData checkSettings() {
         ObjectMapper objectMapper = new ObjectMapper();
         File settingsDir = new File(SETTINGS_PATH + SETTINGS_FILE_POST_FIX);
+        if (!settingsDir.exists()) {
+            settingsDir = new File(LEGACY_SETTINGS_FILE);
+        }
         if (settingsDir.exists()) {
             try {
                 return objectMapper.readValue(settingsDir, SerializationData.class);
@@ -82,7 +94,7 @@ public class SettingsSerializer {
      */
     public void fireSettingsChanged() {
         File file = new File(SETTINGS_PATH);
-        if (file.exists() || file.mkdir()) {
+        if (file.exists() || file.mkdirs()) {
             if (file.isDirectory()) {
                 this.appController.getAppModel().getSerializationData().updateData(this.appController.getAppModel());
                 try {
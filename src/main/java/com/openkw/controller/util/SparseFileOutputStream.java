@@ -0,0 +1,308 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This output stream writes a file sparsely: blocks which contain only zeros are skipped instead of written, so the
+ * file system leaves holes there which take no space on disk. Data is cut into blocks at fixed file offsets, so a
+ * run of zeros is detected regardless of how the writes are split.
+ * Optionally the file is written with direct I/O, so the written data does not push other files out of the page
+ * cache. Data blocks are copied into an aligned buffer for that, the last block is padded and cut off on close. If
+ * the file system rejects direct I/O the stream continues through the page cache.
+ */
+public class SparseFileOutputStream extends OutputStream implements WritableByteChannel {
+
+    /**
+     * The granularity of hole detection, equal to the block size of common file systems.
+     */
+    public static final int BLOCK_SIZE = 4096;
+
+    /**
+     * A block of zeros to compare against.
+     */
+    private static final ByteBuffer ZEROS = ByteBuffer.allocate(BLOCK_SIZE).asReadOnlyBuffer();
+
+    /**
+     * The size of the aligned buffers direct writes are staged in.
+     */
+    private static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The aligned buffer of each writing thread, shared by all its streams since it is only used within a write.
+     */
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS =
+            ThreadLocal.withInitial(() -> DirectIoUtility.allocateAligned(DIRECT_BUFFER_SIZE));
+
+    /**
+     * The path of the written file.
+     */
+    private final Path path;
+
+    /**
+     * The channel of the written file.
+     */
+    private FileChannel channel;
+
+    /**
+     * True while the file is written with direct I/O. Blocks start at multiples of BLOCK_SIZE, which is a multiple
+     * of the direct I/O alignment.
+     */
+    private boolean direct;
+
+    /**
+     * The bytes of the current partial block.
+     */
+    private final byte[] block = new byte[BLOCK_SIZE];
+
+    /**
+     * The amount of bytes inside the current partial block.
+     */
+    private int blockLength;
+
+    /**
+     * The file position of the current partial block.
+     */
+    private long position;
+
+    /**
+     * The amount of bytes which have been skipped as holes.
+     */
+    private long holeBytes;
+
+    /**
+     * True once the stream has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * @param path the file to create, an existing file is replaced.
+     * @throws IOException if the file could not be created.
+     */
+    public SparseFileOutputStream(Path path) throws IOException {
+        this(path, false);
+    }
+
+    /**
+     * @param path   the file to create, an existing file is replaced.
+     * @param direct true to bypass the page cache if the file system supports direct I/O.
+     * @throws IOException if the file could not be created.
+     */
+    public SparseFileOutputStream(Path path, boolean direct) throws IOException {
+        this.path = path;
+        if (direct) {
+            this.channel = DirectIoUtility.openDirect(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        this.direct = this.channel != null;
+        if (!this.direct) {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SPARSE);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer, whole blocks are taken from the buffer without copying.
+     *
+     * @param src the bytes to write, its position is moved to its limit.
+     * @return the amount of bytes written.
+     * @throws IOException if the bytes could not be written.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (this.blockLength == 0 && src.remaining() >= BLOCK_SIZE) {
+                int blocks = src.remaining() / BLOCK_SIZE * BLOCK_SIZE;
+                ByteBuffer slice = src.slice();
+                slice.limit(blocks);
+                writeBlocks(slice);
+                src.position(src.position() + blocks);
+            } else {
+                int n = Math.min(src.remaining(), BLOCK_SIZE - this.blockLength);
+                src.get(this.block, this.blockLength, n);
+                this.blockLength += n;
+                if (this.blockLength == BLOCK_SIZE) {
+                    writeBlocks(ByteBuffer.wrap(this.block));
+                    this.blockLength = 0;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes whole blocks, runs of data blocks are written with one call and zero blocks are skipped.
+     */
+    private void writeBlocks(ByteBuffer blocks) throws IOException {
+        int dataStart = -1;
+        for (int offset = 0; offset < blocks.limit(); offset += BLOCK_SIZE) {
+            boolean zero = isZero(blocks, offset, BLOCK_SIZE);
+            if (zero && dataStart >= 0) {
+                writeFully(blocks, dataStart, offset);
+                dataStart = -1;
+            } else if (!zero && dataStart < 0) {
+                dataStart = offset;
+            }
+            if (zero) {
+                this.holeBytes += BLOCK_SIZE;
+            }
+        }
+        if (dataStart >= 0) {
+            writeFully(blocks, dataStart, blocks.limit());
+        }
+        this.position += blocks.limit();
+    }
+
+    /**
+     * Writes the given range of the buffer at the matching file position.
+     */
+    private void writeFully(ByteBuffer blocks, int from, int to) throws IOException {
+        ByteBuffer data = blocks.duplicate();
+        data.limit(to).position(from);
+        long filePosition = this.position + from;
+        if (this.direct) {
+            try {
+                writeDirect(data, filePosition);
+                return;
+            } catch (IOException e) {
+                //The file system accepted the direct open but rejects the writes, continuing through the page cache.
+                fallBack();
+                data.limit(to).position(from);
+            }
+        }
+        while (data.hasRemaining()) {
+            filePosition += this.channel.write(data, filePosition);
+        }
+    }
+
+    /**
+     * Writes the data through the aligned buffer of the thread, a partial last block is padded with zeros.
+     */
+    private void writeDirect(ByteBuffer data, long filePosition) throws IOException {
+        ByteBuffer buffer = DIRECT_BUFFERS.get();
+        while (data.hasRemaining()) {
+            buffer.clear();
+            ByteBuffer part = data.duplicate();
+            part.limit(part.position() + Math.min(part.remaining(), buffer.capacity()));
+            buffer.put(part);
+            data.position(part.position());
+            int padding = (BLOCK_SIZE - buffer.position() % BLOCK_SIZE) % BLOCK_SIZE;
+            if (padding > 0) {
+                ByteBuffer zeros = ZEROS.duplicate();
+                zeros.limit(padding);
+                buffer.put(zeros);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                filePosition += this.channel.write(buffer, filePosition);
+            }
+        }
+    }
+
+    /**
+     * Reopens the file to write the rest through the page cache.
+     */
+    private void fallBack() throws IOException {
+        this.direct = false;
+        this.channel.close();
+        this.channel = FileChannel.open(this.path, StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+    }
+
+    /**
+     * @param buffer the buffer to check.
+     * @param offset the offset of the range inside the buffer.
+     * @param length the length of the range.
+     * @return true if the range contains only zeros.
+     */
+    public static boolean isZero(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer range = buffer.duplicate();
+        for (int end = offset + length; offset < end; offset += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, end - offset);
+            range.limit(offset + n).position(offset);
+            ByteBuffer zeros = ZEROS.duplicate();
+            zeros.limit(n);
+            if (range.mismatch(zeros) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    /**
+     * Writes the last partial block, cuts off the padding of direct I/O and extends the file over a trailing hole.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            if (this.blockLength > 0) {
+                if (isZero(ByteBuffer.wrap(this.block), 0, this.blockLength)) {
+                    this.holeBytes += this.blockLength;
+                } else {
+                    writeFully(ByteBuffer.wrap(this.block, 0, this.blockLength), 0, this.blockLength);
+                }
+                this.position += this.blockLength;
+            }
+            if (this.direct && this.channel.size() > this.position) {
+                this.channel.truncate(this.position);
+            }
+            if (this.channel.size() < this.position) {
+                if (this.direct) {
+                    fallBack();
+                }
+                //A file channel cannot be extended without writing, the last byte ends the trailing hole.
+                this.channel.write(ByteBuffer.allocate(1), this.position - 1);
+                this.holeBytes--;
+            }
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    //Only getters from here
+
+    public long getHoleBytes() {
+        return holeBytes;
+    }
+}
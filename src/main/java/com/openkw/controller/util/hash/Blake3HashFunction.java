@@ -0,0 +1,298 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+import java.util.Arrays;
+
+/**
+ * BLAKE3 with 256 bit output, a cryptographic hash which is considerably faster than SHA-256 where the CPU has no
+ * SHA instructions. This is a plain sequential implementation of the reference algorithm without SIMD.
+ */
+public class Blake3HashFunction implements HashFunction {
+
+    /**
+     * The length of a chunk in bytes.
+     */
+    private static final int CHUNK_LENGTH = 1024;
+
+    /**
+     * The length of a block in bytes.
+     */
+    private static final int BLOCK_LENGTH = 64;
+
+    /**
+     * The flag of the first block of a chunk.
+     */
+    private static final int CHUNK_START = 1;
+
+    /**
+     * The flag of the last block of a chunk.
+     */
+    private static final int CHUNK_END = 2;
+
+    /**
+     * The flag of parent nodes of the tree.
+     */
+    private static final int PARENT = 4;
+
+    /**
+     * The flag of the root node of the tree.
+     */
+    private static final int ROOT = 8;
+
+    /**
+     * The initial chaining value, equal to the one of SHA-256.
+     */
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+
+    /**
+     * The message word indices of each of the seven rounds, the permutation of the reference applied ahead of time.
+     */
+    private static final int[][] SCHEDULE = new int[7][16];
+
+    static {
+        int[] permutation = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+        for (int i = 0; i < 16; i++) {
+            SCHEDULE[0][i] = i;
+        }
+        for (int round = 1; round < 7; round++) {
+            for (int i = 0; i < 16; i++) {
+                SCHEDULE[round][i] = SCHEDULE[round - 1][permutation[i]];
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return HashFunctions.BLAKE3;
+    }
+
+    @Override
+    public int getBits() {
+        return 256;
+    }
+
+    @Override
+    public boolean isCryptographic() {
+        return true;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Blake3Hasher();
+    }
+
+    /**
+     * The compression function, writing the first eight words of the output into out.
+     *
+     * @param cv       the input chaining value.
+     * @param m        the sixteen message words.
+     * @param counter  the chunk counter.
+     * @param blockLen the amount of valid bytes in the block.
+     * @param flags    the domain flags.
+     * @param out      the array receiving the new chaining value, may be cv itself.
+     */
+    private static void compress(int[] cv, int[] m, long counter, int blockLen, int flags, int[] out) {
+        int s0 = cv[0], s1 = cv[1], s2 = cv[2], s3 = cv[3], s4 = cv[4], s5 = cv[5], s6 = cv[6], s7 = cv[7];
+        int s8 = IV[0], s9 = IV[1], s10 = IV[2], s11 = IV[3];
+        int s12 = (int) counter, s13 = (int) (counter >>> 32), s14 = blockLen, s15 = flags;
+        for (int[] w : SCHEDULE) {
+            //The columns
+            s0 += s4 + m[w[0]]; s12 = Integer.rotateRight(s12 ^ s0, 16); s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+            s0 += s4 + m[w[1]]; s12 = Integer.rotateRight(s12 ^ s0, 8); s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+            s1 += s5 + m[w[2]]; s13 = Integer.rotateRight(s13 ^ s1, 16); s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+            s1 += s5 + m[w[3]]; s13 = Integer.rotateRight(s13 ^ s1, 8); s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+            s2 += s6 + m[w[4]]; s14 = Integer.rotateRight(s14 ^ s2, 16); s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+            s2 += s6 + m[w[5]]; s14 = Integer.rotateRight(s14 ^ s2, 8); s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+            s3 += s7 + m[w[6]]; s15 = Integer.rotateRight(s15 ^ s3, 16); s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+            s3 += s7 + m[w[7]]; s15 = Integer.rotateRight(s15 ^ s3, 8); s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+            //The diagonals
+            s0 += s5 + m[w[8]]; s15 = Integer.rotateRight(s15 ^ s0, 16); s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+            s0 += s5 + m[w[9]]; s15 = Integer.rotateRight(s15 ^ s0, 8); s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+            s1 += s6 + m[w[10]]; s12 = Integer.rotateRight(s12 ^ s1, 16); s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+            s1 += s6 + m[w[11]]; s12 = Integer.rotateRight(s12 ^ s1, 8); s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+            s2 += s7 + m[w[12]]; s13 = Integer.rotateRight(s13 ^ s2, 16); s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+            s2 += s7 + m[w[13]]; s13 = Integer.rotateRight(s13 ^ s2, 8); s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+            s3 += s4 + m[w[14]]; s14 = Integer.rotateRight(s14 ^ s3, 16); s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+            s3 += s4 + m[w[15]]; s14 = Integer.rotateRight(s14 ^ s3, 8); s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+        }
+        out[0] = s0 ^ s8;
+        out[1] = s1 ^ s9;
+        out[2] = s2 ^ s10;
+        out[3] = s3 ^ s11;
+        out[4] = s4 ^ s12;
+        out[5] = s5 ^ s13;
+        out[6] = s6 ^ s14;
+        out[7] = s7 ^ s15;
+    }
+
+    /**
+     * The streaming state of BLAKE3 in its plain hashing mode.
+     */
+    private static class Blake3Hasher implements Hasher {
+
+        /**
+         * The chaining value of the current chunk.
+         */
+        private int[] cv = IV.clone();
+
+        /**
+         * The index of the current chunk.
+         */
+        private long chunkCounter;
+
+        /**
+         * The bytes of the current, not yet compressed block.
+         */
+        private byte[] block = new byte[BLOCK_LENGTH];
+
+        /**
+         * The amount of bytes inside the current block.
+         */
+        private int blockLength;
+
+        /**
+         * The amount of compressed blocks of the current chunk.
+         */
+        private int blocksCompressed;
+
+        /**
+         * The chaining values of completed subtrees, at most one per level.
+         */
+        private int[][] cvStack = new int[54][];
+
+        /**
+         * The amount of chaining values on the stack.
+         */
+        private int cvStackLength;
+
+        /**
+         * Reused buffer of message words.
+         */
+        private final int[] words = new int[16];
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            int end = offset + length;
+            while (offset < end) {
+                if (this.blockLength == BLOCK_LENGTH) {
+                    if (this.blocksCompressed == CHUNK_LENGTH / BLOCK_LENGTH - 1) {
+                        finishChunk();
+                    } else {
+                        compressBlock(0);
+                    }
+                }
+                int take = Math.min(BLOCK_LENGTH - this.blockLength, end - offset);
+                System.arraycopy(data, offset, this.block, this.blockLength, take);
+                this.blockLength += take;
+                offset += take;
+            }
+        }
+
+        /**
+         * Compresses the full current block into the chaining value of the chunk.
+         */
+        private void compressBlock(int extraFlags) {
+            int flags = (this.blocksCompressed == 0 ? CHUNK_START : 0) | extraFlags;
+            loadWords(this.block, this.words);
+            compress(this.cv, this.words, this.chunkCounter, this.blockLength, flags, this.cv);
+            this.blocksCompressed++;
+            this.blockLength = 0;
+        }
+
+        /**
+         * Completes the current chunk, which is known not to be the last one, and merges it into the tree.
+         */
+        private void finishChunk() {
+            compressBlock(CHUNK_END);
+            int[] chunkCv = this.cv;
+            long totalChunks = this.chunkCounter + 1;
+            while ((totalChunks & 1) == 0) {
+                int[] left = this.cvStack[--this.cvStackLength];
+                chunkCv = parentCv(left, chunkCv, 0);
+                totalChunks >>= 1;
+            }
+            this.cvStack[this.cvStackLength++] = chunkCv;
+            this.cv = IV.clone();
+            this.chunkCounter++;
+            this.blocksCompressed = 0;
+        }
+
+        /**
+         * @return the chaining value of a parent node.
+         */
+        private int[] parentCv(int[] left, int[] right, int extraFlags) {
+            System.arraycopy(left, 0, this.words, 0, 8);
+            System.arraycopy(right, 0, this.words, 8, 8);
+            int[] out = new int[8];
+            compress(IV, this.words, 0, BLOCK_LENGTH, PARENT | extraFlags, out);
+            return out;
+        }
+
+        @Override
+        public byte[] digest() {
+            int flags = (this.blocksCompressed == 0 ? CHUNK_START : 0) | CHUNK_END;
+            Arrays.fill(this.block, this.blockLength, BLOCK_LENGTH, (byte) 0);
+            loadWords(this.block, this.words);
+            int[] out = new int[8];
+            if (this.cvStackLength == 0) {
+                compress(this.cv, this.words, this.chunkCounter, this.blockLength, flags | ROOT, out);
+            } else {
+                compress(this.cv, this.words, this.chunkCounter, this.blockLength, flags, out);
+                for (int i = this.cvStackLength - 1; i >= 0; i--) {
+                    out = parentCv(this.cvStack[i], out, i == 0 ? ROOT : 0);
+                }
+            }
+            byte[] result = new byte[32];
+            for (int i = 0; i < 8; i++) {
+                result[4 * i] = (byte) out[i];
+                result[4 * i + 1] = (byte) (out[i] >>> 8);
+                result[4 * i + 2] = (byte) (out[i] >>> 16);
+                result[4 * i + 3] = (byte) (out[i] >>> 24);
+            }
+            return result;
+        }
+
+        @Override
+        public Hasher copy() {
+            Blake3Hasher copy = new Blake3Hasher();
+            copy.cv = this.cv.clone();
+            copy.chunkCounter = this.chunkCounter;
+            copy.block = this.block.clone();
+            copy.blockLength = this.blockLength;
+            copy.blocksCompressed = this.blocksCompressed;
+            copy.cvStack = this.cvStack.clone();
+            copy.cvStackLength = this.cvStackLength;
+            return copy;
+        }
+
+        /**
+         * Converts a block into little endian message words.
+         */
+        private static void loadWords(byte[] block, int[] words) {
+            for (int i = 0; i < 16; i++) {
+                words[i] = (block[4 * i] & 0xFF)
+                        | (block[4 * i + 1] & 0xFF) << 8
+                        | (block[4 * i + 2] & 0xFF) << 16
+                        | (block[4 * i + 3] & 0xFF) << 24;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC-32C, computed by the hardware CRC instructions of the CPU where the JVM supports it. It is meant for fast
+ * integrity checks only, not for identifying contents.
+ */
+public class Crc32cHashFunction implements HashFunction {
+
+    @Override
+    public String getName() {
+        return HashFunctions.CRC32C;
+    }
+
+    @Override
+    public int getBits() {
+        return 32;
+    }
+
+    @Override
+    public boolean isCryptographic() {
+        return false;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Crc32cHasher();
+    }
+
+    /**
+     * The hasher of CRC-32C. The state of java.util.zip.CRC32C cannot be copied.
+     */
+    private static class Crc32cHasher implements Hasher {
+
+        /**
+         * The checksum holding the state.
+         */
+        private final CRC32C crc = new CRC32C();
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            this.crc.update(data, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            this.crc.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            int value = (int) this.crc.getValue();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+
+        @Override
+        public Hasher copy() {
+            throw new UnsupportedOperationException("The state of CRC-32C cannot be copied");
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+/**
+ * This interface describes a hash algorithm which can be used inside the backup repository. Implementations are
+ * looked up by their name through HashFunctions, further implementations can be registered as a service provider
+ * of this interface.
+ */
+public interface HashFunction {
+
+    /**
+     * @return the unique name of the algorithm, recorded in the repository configuration.
+     */
+    String getName();
+
+    /**
+     * @return the length of the produced hashes in bits.
+     */
+    int getBits();
+
+    /**
+     * @return true if the algorithm is collision resistant and may therefore be used to identify contents.
+     */
+    boolean isCryptographic();
+
+    /**
+     * @return a new hasher in its initial state.
+     */
+    Hasher newHasher();
+}
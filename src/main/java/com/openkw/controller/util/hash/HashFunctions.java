@@ -0,0 +1,106 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The registry of all known hash functions. Besides the built in ones further implementations are discovered as
+ * service providers of HashFunction.
+ */
+public class HashFunctions {
+
+    /**
+     * The name of CRC-32C, used for fast integrity checks.
+     */
+    public static final String CRC32C = "crc32c";
+
+    /**
+     * The name of XXH64, used for change detection.
+     */
+    public static final String XXH64 = "xxh64";
+
+    /**
+     * The name of the 128 bit MurmurHash3, used for change detection.
+     */
+    public static final String MURMUR3_128 = "murmur3-128";
+
+    /**
+     * The name of SHA-256, the content hash of all repositories created before the hash became configurable.
+     */
+    public static final String SHA_256 = "sha-256";
+
+    /**
+     * The name of SHA-512/256, which is faster than SHA-256 on 64 bit CPUs without SHA instructions.
+     */
+    public static final String SHA_512_256 = "sha-512/256";
+
+    /**
+     * The name of BLAKE3.
+     */
+    public static final String BLAKE3 = "blake3";
+
+    /**
+     * All known hash functions by their name.
+     */
+    private static final Map<String, HashFunction> FUNCTIONS = new LinkedHashMap<>();
+
+    static {
+        register(new Crc32cHashFunction());
+        register(new Xxh64HashFunction());
+        register(new Murmur3HashFunction());
+        register(new MessageDigestHashFunction(SHA_256, "SHA-256"));
+        register(new MessageDigestHashFunction(SHA_512_256, "SHA-512/256"));
+        register(new Blake3HashFunction());
+        for (HashFunction function : ServiceLoader.load(HashFunction.class)) {
+            register(function);
+        }
+    }
+
+    /**
+     * Adds a hash function, built in functions cannot be replaced.
+     */
+    private static void register(HashFunction function) {
+        FUNCTIONS.putIfAbsent(function.getName(), function);
+    }
+
+    /**
+     * @param name the name of the hash function.
+     * @return the hash function.
+     * @throws IllegalArgumentException if there is no hash function with this name.
+     */
+    public static HashFunction forName(String name) {
+        HashFunction function = FUNCTIONS.get(name);
+        if (function == null) {
+            throw new IllegalArgumentException("Unknown hash function " + name);
+        }
+        return function;
+    }
+
+    /**
+     * @return all known hash functions.
+     */
+    public static List<HashFunction> list() {
+        return Collections.unmodifiableList(new ArrayList<>(FUNCTIONS.values()));
+    }
+}
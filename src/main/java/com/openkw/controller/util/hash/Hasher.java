@@ -0,0 +1,92 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+import com.openkw.controller.util.HashUtility;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This interface represents the running state of a hash computation. A hasher is not thread safe.
+ */
+public interface Hasher {
+
+    /**
+     * Feeds bytes into the hash computation.
+     *
+     * @param data   the array containing the bytes.
+     * @param offset the position of the first byte.
+     * @param length the amount of bytes.
+     */
+    void update(byte[] data, int offset, int length);
+
+    /**
+     * Finishes the hash computation, afterwards the hasher must not be used anymore.
+     *
+     * @return the hash of all fed bytes.
+     */
+    byte[] digest();
+
+    /**
+     * Creates an independent hasher with the same state, used to take the hash of a prefix while continuing with
+     * the whole content.
+     *
+     * @return the copy.
+     * @throws UnsupportedOperationException if the state of the algorithm cannot be copied.
+     */
+    Hasher copy();
+
+    /**
+     * Feeds all bytes of the array into the hash computation.
+     *
+     * @param data the bytes.
+     */
+    default void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    /**
+     * Feeds the remaining bytes of the buffer into the hash computation, afterwards the buffer has no bytes
+     * remaining. Implementations which can read direct or mapped buffers in place override this, the default copies
+     * the bytes through a small heap array.
+     *
+     * @param buffer the bytes.
+     */
+    default void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            update(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Finishes the hash computation, afterwards the hasher must not be used anymore.
+     *
+     * @return the lower case hex representation of the hash.
+     */
+    default String digestHex() {
+        return HashUtility.toHex(digest());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A hash function backed by a message digest of the Java security providers, like SHA-256.
+ */
+public class MessageDigestHashFunction implements HashFunction {
+
+    /**
+     * The name of the algorithm inside the repository configuration.
+     */
+    private final String name;
+
+    /**
+     * The name of the message digest algorithm.
+     */
+    private final String algorithm;
+
+    /**
+     * The length of the produced hashes in bits.
+     */
+    private final int bits;
+
+    /**
+     * @param name      the name of the algorithm inside the repository configuration.
+     * @param algorithm the name of the message digest algorithm.
+     */
+    public MessageDigestHashFunction(String name, String algorithm) {
+        this.name = name;
+        this.algorithm = algorithm;
+        this.bits = newDigest().getDigestLength() * 8;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public int getBits() {
+        return this.bits;
+    }
+
+    @Override
+    public boolean isCryptographic() {
+        return true;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new DigestHasher(newDigest());
+    }
+
+    /**
+     * @return a new message digest instance of the algorithm.
+     */
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(this.algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(this.algorithm + " is not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * The hasher of a message digest.
+     */
+    private static class DigestHasher implements Hasher {
+
+        /**
+         * The message digest holding the state.
+         */
+        private final MessageDigest digest;
+
+        /**
+         * @param digest the message digest holding the state.
+         */
+        private DigestHasher(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            this.digest.update(data, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            this.digest.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            return this.digest.digest();
+        }
+
+        @Override
+        public Hasher copy() {
+            try {
+                return new DigestHasher((MessageDigest) this.digest.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new UnsupportedOperationException(this.digest.getAlgorithm() + " cannot be copied", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+/**
+ * MurmurHash3 in its x64 128 bit variant, a fast non cryptographic hash meant for change detection where 64 bits
+ * are not enough. The hash is written as two little endian longs, like most other implementations do.
+ */
+public class Murmur3HashFunction implements HashFunction {
+
+    /**
+     * The first mixing constant.
+     */
+    private static final long C1 = 0x87C37B91114253D5L;
+
+    /**
+     * The second mixing constant.
+     */
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    @Override
+    public String getName() {
+        return HashFunctions.MURMUR3_128;
+    }
+
+    @Override
+    public int getBits() {
+        return 128;
+    }
+
+    @Override
+    public boolean isCryptographic() {
+        return false;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Murmur3Hasher();
+    }
+
+    /**
+     * @return the mixed first half of a block.
+     */
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    /**
+     * @return the mixed second half of a block.
+     */
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    /**
+     * The final avalanche of a 64 bit half.
+     */
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * The streaming state of MurmurHash3 with seed 0.
+     */
+    private static class Murmur3Hasher implements Hasher {
+
+        /**
+         * The first half of the state.
+         */
+        private long h1;
+
+        /**
+         * The second half of the state.
+         */
+        private long h2;
+
+        /**
+         * The amount of bytes fed so far.
+         */
+        private long totalLength;
+
+        /**
+         * The bytes of the incomplete block.
+         */
+        private byte[] buffer = new byte[16];
+
+        /**
+         * The amount of bytes inside the buffer.
+         */
+        private int bufferLength;
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            this.totalLength += length;
+            int end = offset + length;
+            if (this.bufferLength > 0) {
+                int fill = Math.min(16 - this.bufferLength, length);
+                System.arraycopy(data, offset, this.buffer, this.bufferLength, fill);
+                this.bufferLength += fill;
+                offset += fill;
+                if (this.bufferLength < 16) {
+                    return;
+                }
+                block(this.buffer, 0);
+                this.bufferLength = 0;
+            }
+            while (offset + 16 <= end) {
+                block(data, offset);
+                offset += 16;
+            }
+            System.arraycopy(data, offset, this.buffer, 0, end - offset);
+            this.bufferLength = end - offset;
+        }
+
+        /**
+         * Consumes one 16 byte block.
+         */
+        private void block(byte[] data, int offset) {
+            this.h1 ^= mixK1(Xxh64HashFunction.readLong(data, offset));
+            this.h1 = Long.rotateLeft(this.h1, 27) + this.h2;
+            this.h1 = this.h1 * 5 + 0x52DCE729;
+            this.h2 ^= mixK2(Xxh64HashFunction.readLong(data, offset + 8));
+            this.h2 = Long.rotateLeft(this.h2, 31) + this.h1;
+            this.h2 = this.h2 * 5 + 0x38495AB5;
+        }
+
+        @Override
+        public byte[] digest() {
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = this.bufferLength - 1; i >= 8; i--) {
+                k2 |= (this.buffer[i] & 0xFFL) << ((i - 8) * 8);
+            }
+            for (int i = Math.min(this.bufferLength, 8) - 1; i >= 0; i--) {
+                k1 |= (this.buffer[i] & 0xFFL) << (i * 8);
+            }
+            if (this.bufferLength > 8) {
+                this.h2 ^= mixK2(k2);
+            }
+            if (this.bufferLength > 0) {
+                this.h1 ^= mixK1(k1);
+            }
+            this.h1 ^= this.totalLength;
+            this.h2 ^= this.totalLength;
+            this.h1 += this.h2;
+            this.h2 += this.h1;
+            this.h1 = fmix64(this.h1);
+            this.h2 = fmix64(this.h2);
+            this.h1 += this.h2;
+            this.h2 += this.h1;
+            byte[] result = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                result[i] = (byte) (this.h1 >>> (8 * i));
+                result[i + 8] = (byte) (this.h2 >>> (8 * i));
+            }
+            return result;
+        }
+
+        @Override
+        public Hasher copy() {
+            Murmur3Hasher copy = new Murmur3Hasher();
+            copy.h1 = this.h1;
+            copy.h2 = this.h2;
+            copy.totalLength = this.totalLength;
+            copy.buffer = this.buffer.clone();
+            copy.bufferLength = this.bufferLength;
+            return copy;
+        }
+    }
+}
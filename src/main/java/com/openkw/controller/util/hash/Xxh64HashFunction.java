@@ -0,0 +1,263 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.controller.util.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XXH64, a fast 64 bit non cryptographic hash, meant for change detection. The hash is written big endian, so its
+ * hex representation equals the canonical representation of the reference implementation.
+ */
+public class Xxh64HashFunction implements HashFunction {
+
+    /**
+     * The primes of the reference implementation.
+     */
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    /**
+     * See PRIME64_1.
+     */
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    /**
+     * See PRIME64_1.
+     */
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    /**
+     * See PRIME64_1.
+     */
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    /**
+     * See PRIME64_1.
+     */
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    @Override
+    public String getName() {
+        return HashFunctions.XXH64;
+    }
+
+    @Override
+    public int getBits() {
+        return 64;
+    }
+
+    @Override
+    public boolean isCryptographic() {
+        return false;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Xxh64Hasher();
+    }
+
+    /**
+     * @return the little endian long at the given position.
+     */
+    static long readLong(byte[] data, int offset) {
+        return (data[offset] & 0xFFL)
+                | (data[offset + 1] & 0xFFL) << 8
+                | (data[offset + 2] & 0xFFL) << 16
+                | (data[offset + 3] & 0xFFL) << 24
+                | (data[offset + 4] & 0xFFL) << 32
+                | (data[offset + 5] & 0xFFL) << 40
+                | (data[offset + 6] & 0xFFL) << 48
+                | (data[offset + 7] & 0xFFL) << 56;
+    }
+
+    /**
+     * @return the little endian unsigned int at the given position.
+     */
+    private static long readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFFL)
+                | (data[offset + 1] & 0xFFL) << 8
+                | (data[offset + 2] & 0xFFL) << 16
+                | (data[offset + 3] & 0xFFL) << 24;
+    }
+
+    /**
+     * Mixes one long of input into an accumulator.
+     */
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME64_2, 31) * PRIME64_1;
+    }
+
+    /**
+     * Merges an accumulator into the converged hash.
+     */
+    private static long mergeRound(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME64_1 + PRIME64_4;
+    }
+
+    /**
+     * The streaming state of XXH64 with seed 0.
+     */
+    private static class Xxh64Hasher implements Hasher {
+
+        /**
+         * The four accumulators of the stripes.
+         */
+        private long v1 = PRIME64_1 + PRIME64_2;
+        /**
+         * See v1.
+         */
+        private long v2 = PRIME64_2;
+        /**
+         * See v1.
+         */
+        private long v3 = 0;
+        /**
+         * See v1.
+         */
+        private long v4 = -PRIME64_1;
+
+        /**
+         * The amount of bytes fed so far.
+         */
+        private long totalLength;
+
+        /**
+         * The bytes of the incomplete stripe.
+         */
+        private byte[] buffer = new byte[32];
+
+        /**
+         * The amount of bytes inside the buffer.
+         */
+        private int bufferLength;
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            this.totalLength += length;
+            int end = offset + length;
+            if (this.bufferLength > 0) {
+                int fill = Math.min(32 - this.bufferLength, length);
+                System.arraycopy(data, offset, this.buffer, this.bufferLength, fill);
+                this.bufferLength += fill;
+                offset += fill;
+                if (this.bufferLength < 32) {
+                    return;
+                }
+                stripe(this.buffer, 0);
+                this.bufferLength = 0;
+            }
+            while (offset + 32 <= end) {
+                stripe(data, offset);
+                offset += 32;
+            }
+            System.arraycopy(data, offset, this.buffer, 0, end - offset);
+            this.bufferLength = end - offset;
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                Hasher.super.update(buffer);
+                return;
+            }
+            //Fill up a pending stripe, then read the stripes straight out of the direct or mapped memory.
+            while (this.bufferLength > 0 && buffer.hasRemaining()) {
+                update(new byte[]{buffer.get()}, 0, 1);
+            }
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            ByteBuffer littleEndian = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            int stripes = littleEndian.remaining() / 32;
+            for (int i = 0; i < stripes; i++) {
+                int offset = i * 32;
+                this.v1 = round(this.v1, littleEndian.getLong(offset));
+                this.v2 = round(this.v2, littleEndian.getLong(offset + 8));
+                this.v3 = round(this.v3, littleEndian.getLong(offset + 16));
+                this.v4 = round(this.v4, littleEndian.getLong(offset + 24));
+            }
+            this.totalLength += stripes * 32L;
+            buffer.position(buffer.position() + stripes * 32);
+            int rest = buffer.remaining();
+            buffer.get(this.buffer, 0, rest);
+            this.bufferLength = rest;
+            this.totalLength += rest;
+        }
+
+        /**
+         * Consumes one 32 byte stripe.
+         */
+        private void stripe(byte[] data, int offset) {
+            this.v1 = round(this.v1, readLong(data, offset));
+            this.v2 = round(this.v2, readLong(data, offset + 8));
+            this.v3 = round(this.v3, readLong(data, offset + 16));
+            this.v4 = round(this.v4, readLong(data, offset + 24));
+        }
+
+        @Override
+        public byte[] digest() {
+            long h;
+            if (this.totalLength >= 32) {
+                h = Long.rotateLeft(this.v1, 1) + Long.rotateLeft(this.v2, 7)
+                        + Long.rotateLeft(this.v3, 12) + Long.rotateLeft(this.v4, 18);
+                h = mergeRound(h, this.v1);
+                h = mergeRound(h, this.v2);
+                h = mergeRound(h, this.v3);
+                h = mergeRound(h, this.v4);
+            } else {
+                h = PRIME64_5;
+            }
+            h += this.totalLength;
+            int offset = 0;
+            while (offset + 8 <= this.bufferLength) {
+                h ^= round(0, readLong(this.buffer, offset));
+                h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+                offset += 8;
+            }
+            if (offset + 4 <= this.bufferLength) {
+                h ^= readInt(this.buffer, offset) * PRIME64_1;
+                h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+                offset += 4;
+            }
+            while (offset < this.bufferLength) {
+                h ^= (this.buffer[offset] & 0xFFL) * PRIME64_5;
+                h = Long.rotateLeft(h, 11) * PRIME64_1;
+                offset++;
+            }
+            h ^= h >>> 33;
+            h *= PRIME64_2;
+            h ^= h >>> 29;
+            h *= PRIME64_3;
+            h ^= h >>> 32;
+            byte[] result = new byte[8];
+            for (int i = 0; i < 8; i++) {
+                result[i] = (byte) (h >>> (56 - 8 * i));
+            }
+            return result;
+        }
+
+        @Override
+        public Hasher copy() {
+            Xxh64Hasher copy = new Xxh64Hasher();
+            copy.v1 = this.v1;
+            copy.v2 = this.v2;
+            copy.v3 = this.v3;
+            copy.v4 = this.v4;
+            copy.totalLength = this.totalLength;
+            copy.buffer = this.buffer.clone();
+            copy.bufferLength = this.bufferLength;
+            return copy;
+        }
+    }
+}
@@ -22,7 +22,11 @@ import com.openkw.controller.util.SettingsSerializer;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
 
 /**
@@ -55,12 +59,115 @@ public class AppModel {
      */
     private Interval currentInterval;
 
+    /**
+     * The policy which determines the snapshots to keep when old snapshots are pruned.
+     */
+    private RetentionPolicy retentionPolicy;
+
+    /**
+     * The maximum read rate of the integrity scrubber in megabytes per second.
+     */
+    private int scrubMegabytesPerSecond;
+
+    /**
+     * The size in megabytes from which source files are read through memory mapped windows.
+     */
+    private int mappedReadThresholdMegabytes;
+
+    /**
+     * The passphrase new repositories are encrypted with and encrypted repositories are unlocked with, empty for
+     * plain repositories.
+     */
+    private String encryptionPassphrase;
+
+    /**
+     * The bandwidth limit of the replication in megabytes per second, 0 for no limit.
+     */
+    private int replicationMegabytesPerSecond;
+
+    /**
+     * The backup jobs running next to the job of the main window, each with its own source, target and interval.
+     */
+    private List<BackupJob> backupJobs;
+
+    /**
+     * Further backup directories of the job of the main window, receiving the same snapshots as the backup
+     * directory.
+     */
+    private List<String> mirrorDirPaths;
+
+    /**
+     * The path of the slower directory older snapshots of the backup directory are migrated into, empty to keep
+     * all snapshots in the backup directory.
+     */
+    private String archiveDirPath;
+
+    /**
+     * The amount of newest snapshots per data directory which are kept browsable in the backup directory when an
+     * archive directory is set.
+     */
+    private int hotSnapshotCount;
+
+    /**
+     * The maximum amount of megabytes per second read while snapshots are migrated into the archive directory.
+     */
+    private int tierMegabytesPerSecond;
+
+    /**
+     * The amount of packs of the archive directory which are grouped into one parity stripe.
+     */
+    private int parityDataShardCount;
+
+    /**
+     * The amount of parity files per stripe of packs, as many packs of a stripe can be lost and rebuilt. 0 turns
+     * the parity off.
+     */
+    private int parityShardCount;
+
+    /**
+     * Determines when new snapshot files are flushed to the disk.
+     */
+    private DurabilityLevel durabilityLevel;
+
+    /**
+     * Determines whether backups copy files through the page cache.
+     */
+    private CopyMode copyMode;
+
+    /**
+     * The amount of backup jobs running at the same time, 0 to derive it from the processor count.
+     */
+    private int workerBudget;
+
+    /**
+     * The amount of backup runs which may read from or write to one device at the same time, 1 avoids seek
+     * contention on spinning disks.
+     */
+    private int deviceStreamLimit;
+
+    /**
+     * Stream limits overriding the default for single devices, by the device name shown while the backup process
+     * is running.
+     */
+    private Map<String, Integer> deviceStreamLimits;
+
+    /**
+     * The storage the repository of the backup directory is replicated to, null if none has been set up.
+     */
+    private StorageSettings remoteStorage;
+
     /**
      * This model is containing data which is being used to display the current state of the process
      * to the user through the GUI.
      */
     private RunningProcessModel runningProcessModel;
 
+    /**
+     * This model is containing data which is being used to display the current state of a restore
+     * to the user through the GUI.
+     */
+    private RestoreProcessModel restoreProcessModel;
+
     /**
      * The currently set path which will be used by the BackupProcessControl to determine where to save the backup.
      */
@@ -77,6 +184,7 @@ public class AppModel {
      */
     public AppModel() {
         this.runningProcessModel = new RunningProcessModel();
+        this.restoreProcessModel = new RestoreProcessModel();
         this.propertyChangeSupport = new PropertyChangeSupport(this);
         this.serializationData = loadInitialSerializationData();
         this.languageResourceBundle = ResourceBundle.getBundle("language", serializationData.getCurrentLanguage());
@@ -84,6 +192,38 @@ public class AppModel {
         this.dataFileDirPath = serializationData.getDataFileDirPath();
         this.backupDirPath = serializationData.getBackupDirPath();
         this.currentInterval = serializationData.getCurrentInterval();
+        this.retentionPolicy = serializationData.getRetentionPolicy() != null
+                ? serializationData.getRetentionPolicy() : new RetentionPolicy();
+        this.scrubMegabytesPerSecond = serializationData.getScrubMegabytesPerSecond() > 0
+                ? serializationData.getScrubMegabytesPerSecond() : 20;
+        this.mappedReadThresholdMegabytes = serializationData.getMappedReadThresholdMegabytes() > 0
+                ? serializationData.getMappedReadThresholdMegabytes() : 256;
+        this.encryptionPassphrase = serializationData.getEncryptionPassphrase() != null
+                ? serializationData.getEncryptionPassphrase() : "";
+        this.replicationMegabytesPerSecond = Math.max(0, serializationData.getReplicationMegabytesPerSecond());
+        this.backupJobs = serializationData.getBackupJobs() != null
+                ? serializationData.getBackupJobs() : new ArrayList<>();
+        this.mirrorDirPaths = serializationData.getMirrorDirPaths() != null
+                ? serializationData.getMirrorDirPaths() : new ArrayList<>();
+        this.archiveDirPath = serializationData.getArchiveDirPath() != null
+                ? serializationData.getArchiveDirPath() : "";
+        this.hotSnapshotCount = serializationData.getHotSnapshotCount() > 0
+                ? serializationData.getHotSnapshotCount() : 10;
+        this.tierMegabytesPerSecond = serializationData.getTierMegabytesPerSecond() > 0
+                ? serializationData.getTierMegabytesPerSecond() : 20;
+        this.parityDataShardCount = serializationData.getParityDataShardCount() > 0
+                ? serializationData.getParityDataShardCount() : 4;
+        this.parityShardCount = Math.max(0, serializationData.getParityShardCount());
+        this.durabilityLevel = serializationData.getDurabilityLevel() != null
+                ? serializationData.getDurabilityLevel() : DurabilityLevel.GROUP_COMMIT;
+        this.copyMode = serializationData.getCopyMode() != null
+                ? serializationData.getCopyMode() : CopyMode.BUFFERED;
+        this.workerBudget = serializationData.getWorkerBudget();
+        this.deviceStreamLimit = serializationData.getDeviceStreamLimit() > 0
+                ? serializationData.getDeviceStreamLimit() : 1;
+        this.deviceStreamLimits = serializationData.getDeviceStreamLimits() != null
+                ? serializationData.getDeviceStreamLimits() : new LinkedHashMap<>();
+        this.remoteStorage = serializationData.getRemoteStorage();
     }
 
     /**
@@ -185,4 +325,163 @@ public class AppModel {
     public void setRunningProcessModel(RunningProcessModel runningProcessModel) {
         this.runningProcessModel = runningProcessModel;
     }
+
+    public RestoreProcessModel getRestoreProcessModel() {
+        return restoreProcessModel;
+    }
+
+    public void setRestoreProcessModel(RestoreProcessModel restoreProcessModel) {
+        this.restoreProcessModel = restoreProcessModel;
+    }
+
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+    }
+
+    public int getScrubMegabytesPerSecond() {
+        return scrubMegabytesPerSecond;
+    }
+
+    public void setScrubMegabytesPerSecond(int scrubMegabytesPerSecond) {
+        this.scrubMegabytesPerSecond = scrubMegabytesPerSecond;
+    }
+
+    public int getMappedReadThresholdMegabytes() {
+        return mappedReadThresholdMegabytes;
+    }
+
+    public void setMappedReadThresholdMegabytes(int mappedReadThresholdMegabytes) {
+        this.mappedReadThresholdMegabytes = mappedReadThresholdMegabytes;
+    }
+
+    public String getEncryptionPassphrase() {
+        return encryptionPassphrase;
+    }
+
+    public void setEncryptionPassphrase(String encryptionPassphrase) {
+        this.encryptionPassphrase = encryptionPassphrase;
+    }
+
+    public int getReplicationMegabytesPerSecond() {
+        return replicationMegabytesPerSecond;
+    }
+
+    public void setReplicationMegabytesPerSecond(int replicationMegabytesPerSecond) {
+        this.replicationMegabytesPerSecond = replicationMegabytesPerSecond;
+    }
+
+    public List<BackupJob> getBackupJobs() {
+        return backupJobs;
+    }
+
+    public void setBackupJobs(List<BackupJob> backupJobs) {
+        this.backupJobs = backupJobs;
+    }
+
+    public List<String> getMirrorDirPaths() {
+        return mirrorDirPaths;
+    }
+
+    public void setMirrorDirPaths(List<String> mirrorDirPaths) {
+        this.mirrorDirPaths = mirrorDirPaths;
+    }
+
+    public String getArchiveDirPath() {
+        return archiveDirPath;
+    }
+
+    public void setArchiveDirPath(String archiveDirPath) {
+        this.archiveDirPath = archiveDirPath;
+    }
+
+    public int getHotSnapshotCount() {
+        return hotSnapshotCount;
+    }
+
+    public void setHotSnapshotCount(int hotSnapshotCount) {
+        this.hotSnapshotCount = hotSnapshotCount;
+    }
+
+    public int getTierMegabytesPerSecond() {
+        return tierMegabytesPerSecond;
+    }
+
+    public void setTierMegabytesPerSecond(int tierMegabytesPerSecond) {
+        this.tierMegabytesPerSecond = tierMegabytesPerSecond;
+    }
+
+    public int getParityDataShardCount() {
+        return parityDataShardCount;
+    }
+
+    public void setParityDataShardCount(int parityDataShardCount) {
+        this.parityDataShardCount = parityDataShardCount;
+    }
+
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    public void setParityShardCount(int parityShardCount) {
+        this.parityShardCount = parityShardCount;
+    }
+
+    public DurabilityLevel getDurabilityLevel() {
+        return durabilityLevel;
+    }
+
+    public void setDurabilityLevel(DurabilityLevel durabilityLevel) {
+        this.durabilityLevel = durabilityLevel;
+    }
+
+    public CopyMode getCopyMode() {
+        return copyMode;
+    }
+
+    public void setCopyMode(CopyMode copyMode) {
+        this.copyMode = copyMode;
+    }
+
+    /**
+     * @return the amount of backup jobs running at the same time, derived from the processor count if not set.
+     */
+    public int getWorkerBudget() {
+        return workerBudget > 0 ? workerBudget : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    public int getConfiguredWorkerBudget() {
+        return workerBudget;
+    }
+
+    public void setWorkerBudget(int workerBudget) {
+        this.workerBudget = workerBudget;
+    }
+
+    public int getDeviceStreamLimit() {
+        return deviceStreamLimit;
+    }
+
+    public void setDeviceStreamLimit(int deviceStreamLimit) {
+        this.deviceStreamLimit = deviceStreamLimit;
+    }
+
+    public Map<String, Integer> getDeviceStreamLimits() {
+        return deviceStreamLimits;
+    }
+
+    public void setDeviceStreamLimits(Map<String, Integer> deviceStreamLimits) {
+        this.deviceStreamLimits = deviceStreamLimits;
+    }
+
+    public StorageSettings getRemoteStorage() {
+        return remoteStorage;
+    }
+
+    public void setRemoteStorage(StorageSettings remoteStorage) {
+        this.remoteStorage = remoteStorage;
+    }
 }
@@ -0,0 +1,147 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class describes one backup job: which data directory is backed up into which backup directory and how
+ * often. Jobs run concurrently, their weight decides the share of the worker budget a job gets while jobs compete.
+ */
+public class BackupJob {
+
+    /**
+     * The name of the job, used for the names of its threads and in the log.
+     */
+    private String name;
+
+    /**
+     * The path of the data directory which is backed up.
+     */
+    private String dataFileDirPath;
+
+    /**
+     * The path of the backup directory containing the repository.
+     */
+    private String backupDirPath;
+
+    /**
+     * The paths of further backup directories receiving the same snapshots, each file is read once and written to
+     * all of them.
+     */
+    private List<String> mirrorDirPaths;
+
+    /**
+     * The path of the slower directory older snapshots are migrated into, null or empty to keep all snapshots in
+     * the backup directory.
+     */
+    private String archiveDirPath;
+
+    /**
+     * The interval in which the job runs.
+     */
+    private Interval interval;
+
+    /**
+     * The share of the worker budget relative to the other jobs, a job of weight 2 is served twice as often as a
+     * job of weight 1 while both are waiting.
+     */
+    private int weight;
+
+    /**
+     * Initializes a job with the default interval and weight, used by the de-serialization.
+     */
+    public BackupJob() {
+        this.interval = Interval.TEN;
+        this.weight = 1;
+        this.mirrorDirPaths = new ArrayList<>();
+    }
+
+    /**
+     * @param name            the name of the job.
+     * @param dataFileDirPath the path of the data directory which is backed up.
+     * @param backupDirPath   the path of the backup directory containing the repository.
+     * @param interval        the interval in which the job runs.
+     */
+    public BackupJob(String name, String dataFileDirPath, String backupDirPath, Interval interval) {
+        this();
+        this.name = name;
+        this.dataFileDirPath = dataFileDirPath;
+        this.backupDirPath = backupDirPath;
+        this.interval = interval;
+    }
+
+    //Only getters and setters from here
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getDataFileDirPath() {
+        return dataFileDirPath;
+    }
+
+    public void setDataFileDirPath(String dataFileDirPath) {
+        this.dataFileDirPath = dataFileDirPath;
+    }
+
+    public String getBackupDirPath() {
+        return backupDirPath;
+    }
+
+    public void setBackupDirPath(String backupDirPath) {
+        this.backupDirPath = backupDirPath;
+    }
+
+    public List<String> getMirrorDirPaths() {
+        return mirrorDirPaths;
+    }
+
+    public void setMirrorDirPaths(List<String> mirrorDirPaths) {
+        this.mirrorDirPaths = mirrorDirPaths;
+    }
+
+    public String getArchiveDirPath() {
+        return archiveDirPath;
+    }
+
+    public void setArchiveDirPath(String archiveDirPath) {
+        this.archiveDirPath = archiveDirPath;
+    }
+
+    public Interval getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Interval interval) {
+        this.interval = interval;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+}
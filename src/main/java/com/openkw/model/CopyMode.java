@@ -0,0 +1,38 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model;
+
+/**
+ * Those modes determine whether a backup copies files through the page cache of the operating system.
+ */
+public enum CopyMode {
+    /**
+     * Files are read and written through the page cache, the fastest mode if nothing else runs on the machine.
+     */
+    BUFFERED,
+    /**
+     * Stored files are written with direct I/O, so the written data does not evict the working set of other
+     * applications. The changed files are still read through the page cache.
+     */
+    DIRECT_WRITE,
+    /**
+     * Changed files are read and stored files are written with direct I/O, the backup leaves the page cache alone.
+     * Large files are not mapped in this mode, since mapping always goes through the page cache.
+     */
+    DIRECT
+}
@@ -0,0 +1,39 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model;
+
+/**
+ * Those levels determine how a repository makes sure that a completed snapshot survives a power loss.
+ */
+public enum DurabilityLevel {
+    /**
+     * Files are never flushed, the operating system writes them back whenever it likes. A power loss shortly
+     * after a backup can leave snapshots which are recorded as complete but whose objects are empty.
+     */
+    NONE,
+    /**
+     * New objects are flushed in parallel batches while the backup is still running and the directories they have
+     * been moved into are flushed once per snapshot. The manifest and the catalog record are written only after
+     * all of them are durable.
+     */
+    GROUP_COMMIT,
+    /**
+     * Every file is flushed before it is moved into place and every directory right after the move.
+     */
+    STRICT
+}
@@ -0,0 +1,165 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+
+/**
+ * This class is containing data which is being used to display the current state of a restore
+ * to the user through the GUI.
+ */
+public class RestoreProcessModel {
+
+    /**
+     * The connection from model through view goes through this object.
+     */
+    private final PropertyChangeSupport propertyChangeSupport;
+
+    /**
+     * The amount of files which have been written to the restore directory.
+     */
+    private int restoredFileCount;
+
+    /**
+     * The amount of files which have been skipped because they were already identical in the restore directory.
+     */
+    private int skippedFileCount;
+
+    /**
+     * The amount of files which could not be restored.
+     */
+    private int errorCount;
+
+    /**
+     * The amount of bytes which have been processed so far, restored or skipped.
+     */
+    private long processedBytes;
+
+    /**
+     * The amount of bytes of all selected files.
+     */
+    private long totalBytes;
+
+    /**
+     * Represents the current throughput in this format -> XXX MB/s or XXX GB/s
+     */
+    private String throughput;
+
+    /**
+     * Represents the estimated remaining time in this format -> hh:mm:ss
+     */
+    private String eta;
+
+    /**
+     * Whether a restore is currently running.
+     */
+    private boolean running;
+
+    public RestoreProcessModel() {
+        this.propertyChangeSupport = new PropertyChangeSupport(this);
+        this.restoredFileCount = 0;
+        this.skippedFileCount = 0;
+        this.errorCount = 0;
+        this.processedBytes = 0;
+        this.totalBytes = 0;
+        this.throughput = "";
+        this.eta = "";
+        this.running = false;
+    }
+
+    public void addPropertyChangeListener(PropertyChangeListener propertyChangeListener) {
+        this.propertyChangeSupport.addPropertyChangeListener(propertyChangeListener);
+    }
+
+    public void removePropertyChangeListener(PropertyChangeListener propertyChangeListener) {
+        this.propertyChangeSupport.removePropertyChangeListener(propertyChangeListener);
+    }
+
+    public int getRestoredFileCount() {
+        return restoredFileCount;
+    }
+
+    public void setRestoredFileCount(int restoredFileCount) {
+        this.propertyChangeSupport.firePropertyChange("restoredFileCount", this.restoredFileCount, restoredFileCount);
+        this.restoredFileCount = restoredFileCount;
+    }
+
+    public int getSkippedFileCount() {
+        return skippedFileCount;
+    }
+
+    public void setSkippedFileCount(int skippedFileCount) {
+        this.propertyChangeSupport.firePropertyChange("skippedFileCount", this.skippedFileCount, skippedFileCount);
+        this.skippedFileCount = skippedFileCount;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public void setErrorCount(int errorCount) {
+        this.propertyChangeSupport.firePropertyChange("errorCount", this.errorCount, errorCount);
+        this.errorCount = errorCount;
+    }
+
+    public long getProcessedBytes() {
+        return processedBytes;
+    }
+
+    public void setProcessedBytes(long processedBytes) {
+        this.propertyChangeSupport.firePropertyChange("processedBytes", this.processedBytes, processedBytes);
+        this.processedBytes = processedBytes;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.propertyChangeSupport.firePropertyChange("totalBytes", this.totalBytes, totalBytes);
+        this.totalBytes = totalBytes;
+    }
+
+    public String getThroughput() {
+        return throughput;
+    }
+
+    public void setThroughput(String throughput) {
+        this.propertyChangeSupport.firePropertyChange("throughput", this.throughput, throughput);
+        this.throughput = throughput;
+    }
+
+    public String getEta() {
+        return eta;
+    }
+
+    public void setEta(String eta) {
+        this.propertyChangeSupport.firePropertyChange("eta", this.eta, eta);
+        this.eta = eta;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void setRunning(boolean running) {
+        this.propertyChangeSupport.firePropertyChange("running", this.running, running);
+        this.running = running;
+    }
+}
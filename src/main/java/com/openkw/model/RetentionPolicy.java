@@ -0,0 +1,76 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model;
+
+/**
+ * This class describes which snapshots are kept when old snapshots are pruned, following the
+ * grandfather-father-son scheme: recent snapshots are all kept, older ones are thinned out to one per hour and
+ * then to one per day, everything older is pruned. The newest snapshot of every data directory is always kept.
+ */
+public class RetentionPolicy {
+
+    /**
+     * The amount of hours in which all snapshots are kept.
+     */
+    private int keepAllHours;
+
+    /**
+     * The amount of days in which the newest snapshot of every hour is kept.
+     */
+    private int keepHourlyDays;
+
+    /**
+     * The amount of days in which the newest snapshot of every day is kept.
+     */
+    private int keepDailyDays;
+
+    /**
+     * Initializes the default policy: all snapshots for 24 hours, hourly ones for a week and daily ones for a year.
+     */
+    public RetentionPolicy() {
+        this.keepAllHours = 24;
+        this.keepHourlyDays = 7;
+        this.keepDailyDays = 365;
+    }
+
+    //Only getters and setters from here
+
+    public int getKeepAllHours() {
+        return keepAllHours;
+    }
+
+    public void setKeepAllHours(int keepAllHours) {
+        this.keepAllHours = keepAllHours;
+    }
+
+    public int getKeepHourlyDays() {
+        return keepHourlyDays;
+    }
+
+    public void setKeepHourlyDays(int keepHourlyDays) {
+        this.keepHourlyDays = keepHourlyDays;
+    }
+
+    public int getKeepDailyDays() {
+        return keepDailyDays;
+    }
+
+    public void setKeepDailyDays(int keepDailyDays) {
+        this.keepDailyDays = keepDailyDays;
+    }
+}
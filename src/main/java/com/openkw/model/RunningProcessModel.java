@@ -19,6 +19,8 @@ package com.openkw.model;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class is containing data which is being used to display the current state of the process
@@ -54,12 +56,67 @@ public class RunningProcessModel {
      */
     private String backupFolderSize;
 
+    /**
+     * The amount of bytes which did not have to be copied during an active process because the files have only
+     * been moved or renamed inside the data directory.
+     */
+    private long movedBytesSaved;
+
+    /**
+     * The amount of bytes freed on the backup disk by the last pass which pruned old snapshots.
+     */
+    private long reclaimedBytes;
+
+    /**
+     * The amount of bytes verified by the current scrub cycle.
+     */
+    private long scrubVerifiedBytes;
+
+    /**
+     * The amount of corrupt objects found by the current scrub cycle.
+     */
+    private int scrubCorruptCount;
+
+    /**
+     * The metrics of the backup pipeline stages during the last backup, showing the bottleneck stage.
+     */
+    private String pipelineMetrics;
+
+    /**
+     * The device most queued backup runs are currently waiting for, "-" if no run waits for a device.
+     */
+    private String bottleneckDevice;
+
+    /**
+     * The amount of successful backups by backup directory, a job with mirrors counts once per directory.
+     */
+    private Map<String, Integer> targetBackupCounts;
+
+    /**
+     * The amount of failed backups by backup directory.
+     */
+    private Map<String, Integer> targetErrorCounts;
+
+    /**
+     * The amount of bytes the last migration has moved from the backup directory into the archive directory.
+     */
+    private long archivedBytes;
+
     public RunningProcessModel() {
         this.propertyChangeSupport = new PropertyChangeSupport(this);
         this.backupCount = 0;
         this.errorCount = 0;
         this.timeElapsed = "";
         this.backupFolderSize = "";
+        this.movedBytesSaved = 0;
+        this.reclaimedBytes = 0;
+        this.scrubVerifiedBytes = 0;
+        this.scrubCorruptCount = 0;
+        this.pipelineMetrics = "";
+        this.bottleneckDevice = "-";
+        this.targetBackupCounts = new LinkedHashMap<>();
+        this.targetErrorCounts = new LinkedHashMap<>();
+        this.archivedBytes = 0;
     }
 
     public void addPropertyChangeListener(PropertyChangeListener propertyChangeListener) {
@@ -106,4 +163,87 @@ public class RunningProcessModel {
         this.backupFolderSize = backupFolderSize;
     }
 
+    public long getMovedBytesSaved() {
+        return movedBytesSaved;
+    }
+
+    public void setMovedBytesSaved(long movedBytesSaved) {
+        this.propertyChangeSupport.firePropertyChange("movedBytesSaved", this.movedBytesSaved, movedBytesSaved);
+        this.movedBytesSaved = movedBytesSaved;
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    public void setReclaimedBytes(long reclaimedBytes) {
+        this.propertyChangeSupport.firePropertyChange("reclaimedBytes", this.reclaimedBytes, reclaimedBytes);
+        this.reclaimedBytes = reclaimedBytes;
+    }
+
+    public long getScrubVerifiedBytes() {
+        return scrubVerifiedBytes;
+    }
+
+    public void setScrubVerifiedBytes(long scrubVerifiedBytes) {
+        this.propertyChangeSupport.firePropertyChange("scrubVerifiedBytes", this.scrubVerifiedBytes,
+                scrubVerifiedBytes);
+        this.scrubVerifiedBytes = scrubVerifiedBytes;
+    }
+
+    public int getScrubCorruptCount() {
+        return scrubCorruptCount;
+    }
+
+    public void setScrubCorruptCount(int scrubCorruptCount) {
+        this.propertyChangeSupport.firePropertyChange("scrubCorruptCount", this.scrubCorruptCount,
+                scrubCorruptCount);
+        this.scrubCorruptCount = scrubCorruptCount;
+    }
+
+    public String getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
+    public void setPipelineMetrics(String pipelineMetrics) {
+        this.propertyChangeSupport.firePropertyChange("pipelineMetrics", this.pipelineMetrics, pipelineMetrics);
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    public String getBottleneckDevice() {
+        return bottleneckDevice;
+    }
+
+    public void setBottleneckDevice(String bottleneckDevice) {
+        this.propertyChangeSupport.firePropertyChange("bottleneckDevice", this.bottleneckDevice, bottleneckDevice);
+        this.bottleneckDevice = bottleneckDevice;
+    }
+
+    public Map<String, Integer> getTargetBackupCounts() {
+        return targetBackupCounts;
+    }
+
+    public void setTargetBackupCounts(Map<String, Integer> targetBackupCounts) {
+        this.propertyChangeSupport.firePropertyChange("targetBackupCounts", this.targetBackupCounts, targetBackupCounts);
+        this.targetBackupCounts = targetBackupCounts;
+    }
+
+    public Map<String, Integer> getTargetErrorCounts() {
+        return targetErrorCounts;
+    }
+
+    public void setTargetErrorCounts(Map<String, Integer> targetErrorCounts) {
+        this.propertyChangeSupport.firePropertyChange("targetErrorCounts", this.targetErrorCounts, targetErrorCounts);
+        this.targetErrorCounts = targetErrorCounts;
+    }
+
+    public long getArchivedBytes() {
+        return archivedBytes;
+    }
+
+    public void setArchivedBytes(long archivedBytes) {
+        this.propertyChangeSupport.firePropertyChange("archivedBytes", this.archivedBytes, archivedBytes);
+        this.archivedBytes = archivedBytes;
+    }
+
 }
@@ -17,7 +17,12 @@
  */
 package com.openkw.model;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * This class has the purpose to cache settings data and will be always updated if any of the important settings will
@@ -47,16 +52,121 @@ public class SerializationData {
      */
     private Locale currentLanguage;
 
+    /**
+     * The currently set policy which determines the snapshots to keep when old snapshots are pruned.
+     */
+    private RetentionPolicy retentionPolicy;
+
+    /**
+     * The currently set maximum read rate of the integrity scrubber in megabytes per second.
+     */
+    private int scrubMegabytesPerSecond;
+
+    /**
+     * The currently set size in megabytes from which source files are read through memory mapped windows.
+     */
+    private int mappedReadThresholdMegabytes;
+
+    /**
+     * The currently set passphrase new repositories are encrypted with, empty for plain repositories.
+     */
+    private String encryptionPassphrase;
+
+    /**
+     * The currently set bandwidth limit of the replication in megabytes per second, 0 for no limit.
+     */
+    private int replicationMegabytesPerSecond;
+
+    /**
+     * The currently set backup jobs running next to the job of the main window.
+     */
+    private List<BackupJob> backupJobs;
+
+    /**
+     * The currently set further backup directories of the job of the main window.
+     */
+    private List<String> mirrorDirPaths;
+
+    /**
+     * The currently set directory older snapshots are migrated into.
+     */
+    private String archiveDirPath;
+
+    /**
+     * The currently set amount of snapshots kept browsable in the backup directory.
+     */
+    private int hotSnapshotCount;
+
+    /**
+     * The currently set speed limit of the migration into the archive directory in megabytes per second.
+     */
+    private int tierMegabytesPerSecond;
+
+    /**
+     * The currently set amount of packs per parity stripe.
+     */
+    private int parityDataShardCount;
+
+    /**
+     * The currently set amount of parity files per stripe, 0 if the parity is turned off.
+     */
+    private int parityShardCount;
+
+    /**
+     * The currently set durability level of new snapshot files.
+     */
+    private DurabilityLevel durabilityLevel;
+
+    /**
+     * The currently set copy mode of backups.
+     */
+    private CopyMode copyMode;
+
+    /**
+     * The currently set amount of backup jobs running at the same time, 0 to derive it from the processor count.
+     */
+    private int workerBudget;
+
+    /**
+     * The currently set amount of backup runs which may use one device at the same time.
+     */
+    private int deviceStreamLimit;
+
+    /**
+     * The currently set stream limits overriding the default for single devices, by device name.
+     */
+    private Map<String, Integer> deviceStreamLimits;
+
+    /**
+     * The currently set storage the repository is replicated to, null if none has been set up.
+     */
+    private StorageSettings remoteStorage;
+
     /**
      * This constructor is there to initialize default values which are being used in case there is no
      * serialized data yet.
      */
     public SerializationData() {
         String userDir = System.getProperty("user.home");
-        this.dataFileDirPath = userDir + "\\Documents";
-        this.backupDirPath = userDir + "\\Documents\\DataBackup";
+        this.dataFileDirPath = Paths.get(userDir, "Documents").toString();
+        this.backupDirPath = Paths.get(userDir, "Documents", "DataBackup").toString();
         this.currentInterval = Interval.TEN;
         this.currentLanguage = Locale.getDefault();
+        this.retentionPolicy = new RetentionPolicy();
+        this.scrubMegabytesPerSecond = 20;
+        this.mappedReadThresholdMegabytes = 256;
+        this.encryptionPassphrase = "";
+        this.replicationMegabytesPerSecond = 50;
+        this.backupJobs = new ArrayList<>();
+        this.mirrorDirPaths = new ArrayList<>();
+        this.archiveDirPath = "";
+        this.hotSnapshotCount = 10;
+        this.tierMegabytesPerSecond = 20;
+        this.parityDataShardCount = 4;
+        this.durabilityLevel = DurabilityLevel.GROUP_COMMIT;
+        this.copyMode = CopyMode.BUFFERED;
+        this.deviceStreamLimit = 1;
+        this.deviceStreamLimits = new LinkedHashMap<>();
     }
 
     /**
@@ -70,6 +180,24 @@ public class SerializationData {
         this.backupDirPath = appModel.getBackupDirPath();
         this.currentInterval = appModel.getCurrentInterval();
         this.currentLanguage = appModel.getCurrentLanguage();
+        this.retentionPolicy = appModel.getRetentionPolicy();
+        this.scrubMegabytesPerSecond = appModel.getScrubMegabytesPerSecond();
+        this.mappedReadThresholdMegabytes = appModel.getMappedReadThresholdMegabytes();
+        this.encryptionPassphrase = appModel.getEncryptionPassphrase();
+        this.replicationMegabytesPerSecond = appModel.getReplicationMegabytesPerSecond();
+        this.backupJobs = appModel.getBackupJobs();
+        this.mirrorDirPaths = appModel.getMirrorDirPaths();
+        this.archiveDirPath = appModel.getArchiveDirPath();
+        this.hotSnapshotCount = appModel.getHotSnapshotCount();
+        this.tierMegabytesPerSecond = appModel.getTierMegabytesPerSecond();
+        this.parityDataShardCount = appModel.getParityDataShardCount();
+        this.parityShardCount = appModel.getParityShardCount();
+        this.durabilityLevel = appModel.getDurabilityLevel();
+        this.copyMode = appModel.getCopyMode();
+        this.workerBudget = appModel.getConfiguredWorkerBudget();
+        this.deviceStreamLimit = appModel.getDeviceStreamLimit();
+        this.deviceStreamLimits = appModel.getDeviceStreamLimits();
+        this.remoteStorage = appModel.getRemoteStorage();
     }
 
     //Only getters and setters from here
@@ -106,4 +234,148 @@ public class SerializationData {
         this.currentLanguage = currentLanguage;
     }
 
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+    }
+
+    public int getScrubMegabytesPerSecond() {
+        return scrubMegabytesPerSecond;
+    }
+
+    public void setScrubMegabytesPerSecond(int scrubMegabytesPerSecond) {
+        this.scrubMegabytesPerSecond = scrubMegabytesPerSecond;
+    }
+
+    public int getMappedReadThresholdMegabytes() {
+        return mappedReadThresholdMegabytes;
+    }
+
+    public void setMappedReadThresholdMegabytes(int mappedReadThresholdMegabytes) {
+        this.mappedReadThresholdMegabytes = mappedReadThresholdMegabytes;
+    }
+
+    public String getEncryptionPassphrase() {
+        return encryptionPassphrase;
+    }
+
+    public void setEncryptionPassphrase(String encryptionPassphrase) {
+        this.encryptionPassphrase = encryptionPassphrase;
+    }
+
+    public int getReplicationMegabytesPerSecond() {
+        return replicationMegabytesPerSecond;
+    }
+
+    public void setReplicationMegabytesPerSecond(int replicationMegabytesPerSecond) {
+        this.replicationMegabytesPerSecond = replicationMegabytesPerSecond;
+    }
+
+    public List<BackupJob> getBackupJobs() {
+        return backupJobs;
+    }
+
+    public void setBackupJobs(List<BackupJob> backupJobs) {
+        this.backupJobs = backupJobs;
+    }
+
+    public List<String> getMirrorDirPaths() {
+        return mirrorDirPaths;
+    }
+
+    public void setMirrorDirPaths(List<String> mirrorDirPaths) {
+        this.mirrorDirPaths = mirrorDirPaths;
+    }
+
+    public String getArchiveDirPath() {
+        return archiveDirPath;
+    }
+
+    public void setArchiveDirPath(String archiveDirPath) {
+        this.archiveDirPath = archiveDirPath;
+    }
+
+    public int getHotSnapshotCount() {
+        return hotSnapshotCount;
+    }
+
+    public void setHotSnapshotCount(int hotSnapshotCount) {
+        this.hotSnapshotCount = hotSnapshotCount;
+    }
+
+    public int getTierMegabytesPerSecond() {
+        return tierMegabytesPerSecond;
+    }
+
+    public void setTierMegabytesPerSecond(int tierMegabytesPerSecond) {
+        this.tierMegabytesPerSecond = tierMegabytesPerSecond;
+    }
+
+    public int getParityDataShardCount() {
+        return parityDataShardCount;
+    }
+
+    public void setParityDataShardCount(int parityDataShardCount) {
+        this.parityDataShardCount = parityDataShardCount;
+    }
+
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    public void setParityShardCount(int parityShardCount) {
+        this.parityShardCount = parityShardCount;
+    }
+
+    public DurabilityLevel getDurabilityLevel() {
+        return durabilityLevel;
+    }
+
+    public void setDurabilityLevel(DurabilityLevel durabilityLevel) {
+        this.durabilityLevel = durabilityLevel;
+    }
+
+    public CopyMode getCopyMode() {
+        return copyMode;
+    }
+
+    public void setCopyMode(CopyMode copyMode) {
+        this.copyMode = copyMode;
+    }
+
+    public int getWorkerBudget() {
+        return workerBudget;
+    }
+
+    public void setWorkerBudget(int workerBudget) {
+        this.workerBudget = workerBudget;
+    }
+
+    public int getDeviceStreamLimit() {
+        return deviceStreamLimit;
+    }
+
+    public void setDeviceStreamLimit(int deviceStreamLimit) {
+        this.deviceStreamLimit = deviceStreamLimit;
+    }
+
+    public Map<String, Integer> getDeviceStreamLimits() {
+        return deviceStreamLimits;
+    }
+
+    public void setDeviceStreamLimits(Map<String, Integer> deviceStreamLimits) {
+        this.deviceStreamLimits = deviceStreamLimits;
+    }
+
+
+    public StorageSettings getRemoteStorage() {
+        return remoteStorage;
+    }
+
+    public void setRemoteStorage(StorageSettings remoteStorage) {
+        this.remoteStorage = remoteStorage;
+    }
 }
@@ -0,0 +1,164 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model;
+
+/**
+ * This class describes a storage backend the repository can be replicated to: a local or mounted directory, or a
+ * bucket of an S3 compatible object storage.
+ */
+public class StorageSettings {
+
+    /**
+     * The type of a local or mounted directory.
+     */
+    public static final String TYPE_LOCAL = "local";
+
+    /**
+     * The type of an S3 compatible object storage.
+     */
+    public static final String TYPE_S3 = "s3";
+
+    /**
+     * The type of the backend, TYPE_LOCAL or TYPE_S3.
+     */
+    private String type;
+
+    /**
+     * The root directory of a local backend.
+     */
+    private String path;
+
+    /**
+     * The endpoint of an S3 backend like "https://s3.eu-central-1.amazonaws.com" or "http://localhost:9000".
+     */
+    private String endpoint;
+
+    /**
+     * The region of an S3 backend, used for the request signatures.
+     */
+    private String region;
+
+    /**
+     * The bucket of an S3 backend.
+     */
+    private String bucket;
+
+    /**
+     * The key prefix all keys of an S3 backend are stored below, may be empty.
+     */
+    private String prefix;
+
+    /**
+     * The access key of an S3 backend.
+     */
+    private String accessKey;
+
+    /**
+     * The secret key of an S3 backend.
+     */
+    private String secretKey;
+
+    /**
+     * The maximum amount of requests in flight at the same time.
+     */
+    private int maxInFlight;
+
+    /**
+     * Initializes the settings with the defaults, used by the de-serialization.
+     */
+    public StorageSettings() {
+        this.type = TYPE_S3;
+        this.region = "us-east-1";
+        this.prefix = "";
+        this.maxInFlight = 32;
+    }
+
+    //Only getters and setters from here
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(String bucket) {
+        this.bucket = bucket;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getAccessKey() {
+        return accessKey;
+    }
+
+    public void setAccessKey(String accessKey) {
+        this.accessKey = accessKey;
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    public void setSecretKey(String secretKey) {
+        this.secretKey = secretKey;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class describes a stored object whose content does not match its content hash.
+ */
+public class CorruptObject {
+
+    /**
+     * The content hash of the object, equal to its file name inside the repository.
+     */
+    private String hash;
+
+    /**
+     * Whether the object is stored as a delta against another object.
+     */
+    private boolean delta;
+
+    /**
+     * A short description of the detected problem.
+     */
+    private String reason;
+
+    /**
+     * The time the corruption has been detected in milliseconds since the epoch.
+     */
+    private long detectedAt;
+
+    /**
+     * Files of the data directories which still have the original content according to their size and
+     * modification time and can be used to repair the object.
+     */
+    private List<String> repairCandidates = new ArrayList<>();
+
+    //Only getters and setters from here
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    public long getDetectedAt() {
+        return detectedAt;
+    }
+
+    public void setDetectedAt(long detectedAt) {
+        this.detectedAt = detectedAt;
+    }
+
+    public List<String> getRepairCandidates() {
+        return repairCandidates;
+    }
+
+    public void setRepairCandidates(List<String> repairCandidates) {
+        this.repairCandidates = repairCandidates;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+/**
+ * This class describes how the contents of an encrypted repository are sealed. It is part of the repository
+ * configuration, the key itself is never stored but derived from the passphrase.
+ */
+public class EncryptionConfig {
+
+    /**
+     * The cipher sealing every chunk of a stored file.
+     */
+    private String algorithm;
+
+    /**
+     * The function deriving the key from the passphrase.
+     */
+    private String keyDerivation;
+
+    /**
+     * The iteration count of the key derivation.
+     */
+    private int iterations;
+
+    /**
+     * The random salt of the key derivation.
+     */
+    private byte[] salt;
+
+    /**
+     * A known value sealed with the key, used to tell a wrong passphrase apart from corrupt objects.
+     */
+    private byte[] keyCheck;
+
+    /**
+     * The amount of plain bytes sealed per chunk.
+     */
+    private int chunkSize;
+
+    //Only getters and setters from here
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public String getKeyDerivation() {
+        return keyDerivation;
+    }
+
+    public void setKeyDerivation(String keyDerivation) {
+        this.keyDerivation = keyDerivation;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public void setSalt(byte[] salt) {
+        this.salt = salt;
+    }
+
+    public byte[] getKeyCheck() {
+        return keyCheck;
+    }
+
+    public void setKeyCheck(byte[] keyCheck) {
+        this.keyCheck = keyCheck;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+}
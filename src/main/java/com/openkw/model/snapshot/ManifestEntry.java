@@ -0,0 +1,182 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a single file or directory inside a snapshot manifest.
+ * Files carry the hash of their content, directories carry a merkle hash (tree hash) which is built from
+ * the metadata and hashes of all their children. Two directories with the same tree hash have identical contents,
+ * which makes it possible to skip whole subtrees when comparing snapshots.
+ */
+public class ManifestEntry {
+
+    /**
+     * The file or directory name, without any parent path.
+     */
+    private String name;
+
+    /**
+     * Whether this entry represents a directory.
+     */
+    private boolean directory;
+
+    /**
+     * The size in bytes. For directories this is the summed size of all files of the subtree.
+     */
+    private long size;
+
+    /**
+     * The last modified time in milliseconds since the epoch.
+     */
+    private long lastModified;
+
+    /**
+     * The file system specific identity of a file (for example device and inode), null if the file system does
+     * not provide one. It is used to recognize files which have been moved or renamed.
+     */
+    private String fileKey;
+
+    /**
+     * The content hash of a file, null for directories.
+     */
+    private String contentHash;
+
+    /**
+     * The merkle hash of a directory, null for files.
+     */
+    private String treeHash;
+
+    /**
+     * The children of a directory sorted by name, empty for files.
+     */
+    private List<ManifestEntry> children = new ArrayList<>();
+
+    public ManifestEntry() {
+    }
+
+    /**
+     * @param name      the file or directory name.
+     * @param directory whether this entry represents a directory.
+     */
+    public ManifestEntry(String name, boolean directory) {
+        this.name = name;
+        this.directory = directory;
+    }
+
+    /**
+     * @return the content hash for files and the tree hash for directories.
+     */
+    @JsonIgnore
+    public String getDigest() {
+        return this.directory ? this.treeHash : this.contentHash;
+    }
+
+    /**
+     * Looks up a direct child by its name. The children are sorted by name so a binary search is used.
+     *
+     * @param childName the name of the child.
+     * @return the child entry, null if there is no such child.
+     */
+    public ManifestEntry findChild(String childName) {
+        int low = 0;
+        int high = this.children.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = this.children.get(mid).getName().compareTo(childName);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return this.children.get(mid);
+            }
+        }
+        return null;
+    }
+
+    //Only getters and setters from here
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(boolean directory) {
+        this.directory = directory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public void setFileKey(String fileKey) {
+        this.fileKey = fileKey;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getTreeHash() {
+        return treeHash;
+    }
+
+    public void setTreeHash(String treeHash) {
+        this.treeHash = treeHash;
+    }
+
+    public List<ManifestEntry> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<ManifestEntry> children) {
+        this.children = children;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class describes a group of packs of the archive which are protected by Reed-Solomon parity. Every pack is
+ * one data shard, the parity shards are stored next to this description in the parity directory. The checksums of
+ * all blocks tell which blocks are damaged, any blocks of a row can be rebuilt as long as no more of them are
+ * damaged than there are parity shards. It is serialized in JSON format.
+ */
+public class ParityStripe {
+
+    /**
+     * The id of the stripe, equal to the name of its directory inside the parity directory.
+     */
+    private String id;
+
+    /**
+     * The creation time of the stripe in milliseconds since the epoch.
+     */
+    private long createdAt;
+
+    /**
+     * The amount of data shards of the stripe, packs missing to fill them count as empty shards.
+     */
+    private int dataShardCount;
+
+    /**
+     * The amount of parity shards of the stripe.
+     */
+    private int parityShardCount;
+
+    /**
+     * The size of the blocks the shards are encoded and checked in.
+     */
+    private int blockSize;
+
+    /**
+     * The name of the hash function of the checksums, null for stripes written before it has been recorded, which
+     * use CRC-32.
+     */
+    private String checksum;
+
+    /**
+     * The ids of the packs forming the data shards, in shard order.
+     */
+    private List<String> packIds = new ArrayList<>();
+
+    /**
+     * The sizes of the packs when the stripe has been written.
+     */
+    private List<Long> packLengths = new ArrayList<>();
+
+    /**
+     * The checksum of the index of every pack, the stripe keeps a copy of each index.
+     */
+    private List<Long> indexChecksums = new ArrayList<>();
+
+    /**
+     * The checksum of every block of every shard, the data shards first.
+     */
+    private List<List<Long>> blockChecksums = new ArrayList<>();
+
+    //Only getters and setters from here
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    public void setDataShardCount(int dataShardCount) {
+        this.dataShardCount = dataShardCount;
+    }
+
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    public void setParityShardCount(int parityShardCount) {
+        this.parityShardCount = parityShardCount;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public List<String> getPackIds() {
+        return packIds;
+    }
+
+    public void setPackIds(List<String> packIds) {
+        this.packIds = packIds;
+    }
+
+    public List<Long> getPackLengths() {
+        return packLengths;
+    }
+
+    public void setPackLengths(List<Long> packLengths) {
+        this.packLengths = packLengths;
+    }
+
+    public List<Long> getIndexChecksums() {
+        return indexChecksums;
+    }
+
+    public void setIndexChecksums(List<Long> indexChecksums) {
+        this.indexChecksums = indexChecksums;
+    }
+
+    public List<List<Long>> getBlockChecksums() {
+        return blockChecksums;
+    }
+
+    public void setBlockChecksums(List<List<Long>> blockChecksums) {
+        this.blockChecksums = blockChecksums;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class describes all versions of one file path across the snapshots of a repository. A new version is only
+ * recorded when a snapshot sees the file with a different content or metadata, or sees it deleted.
+ */
+public class PathTimeline {
+
+    /**
+     * The absolute path of the data directory the file belongs to.
+     */
+    private String sourcePath;
+
+    /**
+     * The path of the file relative to the data directory, using '/' as the separator.
+     */
+    private String path;
+
+    /**
+     * The versions of the file, ordered by the creation time of their snapshots.
+     */
+    private List<TimelineVersion> versions = new ArrayList<>();
+
+    /**
+     * Looks up the version of the file which has been current at the given time.
+     *
+     * @param timeMillis the point in time in milliseconds since the epoch.
+     * @return the newest version recorded at or before the given time, null if there is none. The version may
+     * mark a deletion.
+     */
+    @JsonIgnore
+    public TimelineVersion findVersionAt(long timeMillis) {
+        int low = 0;
+        int high = this.versions.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.versions.get(mid).getCreatedAt() <= timeMillis) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 ? this.versions.get(high) : null;
+    }
+
+    /**
+     * @return the newest version, null if there is none.
+     */
+    @JsonIgnore
+    public TimelineVersion getLatestVersion() {
+        return this.versions.isEmpty() ? null : this.versions.get(this.versions.size() - 1);
+    }
+
+    //Only getters and setters from here
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public void setSourcePath(String sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public List<TimelineVersion> getVersions() {
+        return versions;
+    }
+
+    public void setVersions(List<TimelineVersion> versions) {
+        this.versions = versions;
+    }
+}
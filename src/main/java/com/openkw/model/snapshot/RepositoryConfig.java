@@ -0,0 +1,81 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+/**
+ * This class describes the settings which are fixed when a backup repository is created. It is serialized in JSON
+ * format into the repository, so every repository keeps the hash functions it has been created with.
+ */
+public class RepositoryConfig {
+
+    /**
+     * The name of the cryptographic hash function identifying the stored contents.
+     */
+    private String contentHash;
+
+    /**
+     * The name of the hash function matching blocks of modified files against their previous version. It does not
+     * need to be cryptographic because the content hash of the result is verified anyway.
+     */
+    private String blockHash;
+
+    /**
+     * The creation time of the repository in milliseconds since the epoch, 0 if it has been created before the
+     * configuration existed.
+     */
+    private long createdAt;
+
+    /**
+     * How the stored contents are encrypted, null if the repository is not encrypted.
+     */
+    private EncryptionConfig encryption;
+
+    //Only getters and setters from here
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getBlockHash() {
+        return blockHash;
+    }
+
+    public void setBlockHash(String blockHash) {
+        this.blockHash = blockHash;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public EncryptionConfig getEncryption() {
+        return encryption;
+    }
+
+    public void setEncryption(EncryptionConfig encryption) {
+        this.encryption = encryption;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class describes the progress and the results of one scrub cycle over all stored objects. While a cycle is
+ * running it is saved as the cursor to resume from, a finished cycle is saved as the last report. Both are
+ * serialized in JSON format.
+ */
+public class ScrubReport {
+
+    /**
+     * The start time of the cycle in milliseconds since the epoch.
+     */
+    private long startedAt;
+
+    /**
+     * The time the cycle has finished in milliseconds since the epoch, 0 while it is running.
+     */
+    private long finishedAt;
+
+    /**
+     * The last object directory which has been verified completely, null if no directory has been verified yet.
+     */
+    private String cursor;
+
+    /**
+     * The amount of objects verified during the cycle.
+     */
+    private long verifiedObjects;
+
+    /**
+     * The amount of bytes verified during the cycle.
+     */
+    private long verifiedBytes;
+
+    /**
+     * The objects whose content does not match their hash.
+     */
+    private List<CorruptObject> corruptObjects = new ArrayList<>();
+
+    /**
+     * The amount of damaged blocks found in the packs and parity files of the archive.
+     */
+    private long damagedArchiveBlocks;
+
+    /**
+     * The amount of damaged blocks of the archive which have been rebuilt from parity.
+     */
+    private long repairedArchiveBlocks;
+
+    //Only getters and setters from here
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public long getVerifiedObjects() {
+        return verifiedObjects;
+    }
+
+    public void setVerifiedObjects(long verifiedObjects) {
+        this.verifiedObjects = verifiedObjects;
+    }
+
+    public long getVerifiedBytes() {
+        return verifiedBytes;
+    }
+
+    public void setVerifiedBytes(long verifiedBytes) {
+        this.verifiedBytes = verifiedBytes;
+    }
+
+    public List<CorruptObject> getCorruptObjects() {
+        return corruptObjects;
+    }
+
+    public void setCorruptObjects(List<CorruptObject> corruptObjects) {
+        this.corruptObjects = corruptObjects;
+    }
+
+    public long getDamagedArchiveBlocks() {
+        return damagedArchiveBlocks;
+    }
+
+    public void setDamagedArchiveBlocks(long damagedArchiveBlocks) {
+        this.damagedArchiveBlocks = damagedArchiveBlocks;
+    }
+
+    public long getRepairedArchiveBlocks() {
+        return repairedArchiveBlocks;
+    }
+
+    public void setRepairedArchiveBlocks(long repairedArchiveBlocks) {
+        this.repairedArchiveBlocks = repairedArchiveBlocks;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+/**
+ * This class describes the content of one snapshot. It is serialized in JSON format into the backup repository
+ * next to the stored file contents and is used to detect changes for the next backup.
+ */
+public class SnapshotManifest {
+
+    /**
+     * The id of the snapshot inside the snapshot catalog, 0 for snapshots created before the catalog existed.
+     */
+    private long snapshotId;
+
+    /**
+     * The name of the snapshot, equal to the title of the browsable backup folder.
+     */
+    private String snapshotName;
+
+    /**
+     * The creation time of the snapshot in milliseconds since the epoch.
+     */
+    private long createdAt;
+
+    /**
+     * The absolute path of the data directory the snapshot has been created from.
+     */
+    private String sourcePath;
+
+    /**
+     * The root directory entry, representing the data directory itself.
+     */
+    private ManifestEntry root;
+
+    /**
+     * Resolves an entry by its path relative to the root entry, using '/' as the separator.
+     *
+     * @param relativePath the relative path, an empty string resolves the root entry.
+     * @return the entry, null if there is no such entry.
+     */
+    public ManifestEntry findEntry(String relativePath) {
+        ManifestEntry current = this.root;
+        if (relativePath == null || relativePath.isEmpty()) {
+            return current;
+        }
+        for (String part : relativePath.split("/")) {
+            if (current == null || !current.isDirectory()) {
+                return null;
+            }
+            if (!part.isEmpty()) {
+                current = current.findChild(part);
+            }
+        }
+        return current;
+    }
+
+    //Only getters and setters from here
+
+    public long getSnapshotId() {
+        return snapshotId;
+    }
+
+    public void setSnapshotId(long snapshotId) {
+        this.snapshotId = snapshotId;
+    }
+
+    public String getSnapshotName() {
+        return snapshotName;
+    }
+
+    public void setSnapshotName(String snapshotName) {
+        this.snapshotName = snapshotName;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public void setSourcePath(String sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    public ManifestEntry getRoot() {
+        return root;
+    }
+
+    public void setRoot(ManifestEntry root) {
+        this.root = root;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+/**
+ * This class describes one backup run inside the snapshot catalog.
+ */
+public class SnapshotRecord {
+
+    /**
+     * The id of the snapshot, assigned in ascending order without gaps starting at 1.
+     */
+    private long id;
+
+    /**
+     * The name of the snapshot, equal to the title of the browsable backup folder and the name of the manifest.
+     */
+    private String snapshotName;
+
+    /**
+     * The absolute path of the data directory the snapshot has been created from.
+     */
+    private String sourcePath;
+
+    /**
+     * The current status of the snapshot.
+     */
+    private SnapshotStatus status;
+
+    /**
+     * The start time of the backup in milliseconds since the epoch.
+     */
+    private long startedAt;
+
+    /**
+     * The time the backup has finished or failed in milliseconds since the epoch, 0 while it is running.
+     */
+    private long finishedAt;
+
+    /**
+     * The amount of files contained in the snapshot.
+     */
+    private long fileCount;
+
+    /**
+     * The summed size in bytes of the files contained in the snapshot.
+     */
+    private long totalBytes;
+
+    /**
+     * The amount of files whose content had to be stored during the run.
+     */
+    private long storedFileCount;
+
+    /**
+     * The amount of bytes which had to be stored during the run.
+     */
+    private long storedBytes;
+
+    //Only getters and setters from here
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getSnapshotName() {
+        return snapshotName;
+    }
+
+    public void setSnapshotName(String snapshotName) {
+        this.snapshotName = snapshotName;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public void setSourcePath(String sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    public SnapshotStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(SnapshotStatus status) {
+        this.status = status;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(long fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public long getStoredFileCount() {
+        return storedFileCount;
+    }
+
+    public void setStoredFileCount(long storedFileCount) {
+        this.storedFileCount = storedFileCount;
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public void setStoredBytes(long storedBytes) {
+        this.storedBytes = storedBytes;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+/**
+ * The states a snapshot passes through in the snapshot catalog.
+ */
+public enum SnapshotStatus {
+    /**
+     * The backup of the snapshot is still running or has been interrupted.
+     */
+    RUNNING,
+    /**
+     * The manifest of the snapshot has been written, the snapshot can be restored.
+     */
+    COMPLETE,
+    /**
+     * The backup of the snapshot has failed, there is no manifest.
+     */
+    FAILED,
+    /**
+     * The snapshot has been removed by the retention policy, its manifest and backup folder have been deleted.
+     */
+    PRUNED
+}
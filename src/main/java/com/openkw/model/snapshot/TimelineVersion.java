@@ -0,0 +1,101 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.model.snapshot;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * This class describes one version of a file inside the timeline of its path.
+ */
+public class TimelineVersion {
+
+    /**
+     * The name of the snapshot which contains this version first.
+     */
+    private String snapshotName;
+
+    /**
+     * The creation time of the snapshot in milliseconds since the epoch.
+     */
+    private long createdAt;
+
+    /**
+     * The content hash of this version, null if the file has been deleted in the snapshot.
+     */
+    private String contentHash;
+
+    /**
+     * The size of this version in bytes.
+     */
+    private long size;
+
+    /**
+     * The last modification time of this version in milliseconds since the epoch.
+     */
+    private long lastModified;
+
+    /**
+     * @return true if this version marks the deletion of the file.
+     */
+    @JsonIgnore
+    public boolean isDeleted() {
+        return this.contentHash == null;
+    }
+
+    //Only getters and setters from here
+
+    public String getSnapshotName() {
+        return snapshotName;
+    }
+
+    public void setSnapshotName(String snapshotName) {
+        this.snapshotName = snapshotName;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+}
@@ -21,6 +21,7 @@ import com.openkw.controller.AppController;
 import com.openkw.view.appinfo.AppInfoWindow;
 import com.openkw.view.main.MainWindow;
 import com.openkw.view.processing.ProcessingWindow;
+import com.openkw.view.restore.RestoreWindow;
 
 import javax.swing.*;
 
@@ -49,6 +50,11 @@ public class AppView {
      */
     private ProcessingWindow processingWindow;
 
+    /**
+     * This window is used for the visual representation of a running restore.
+     */
+    private RestoreWindow restoreWindow;
+
     /**
      * @param appController The MVC controller instance.
      */
@@ -70,6 +76,7 @@ public class AppView {
         this.mainWindow = new MainWindow(this.appController);
         this.appInfoWindow = new AppInfoWindow(this.appController);
         this.processingWindow = new ProcessingWindow(this.appController);
+        this.restoreWindow = new RestoreWindow(this.appController);
     }
 
     //Only getters and setters from here.
@@ -98,4 +105,12 @@ public class AppView {
         this.processingWindow = processingWindow;
     }
 
+    public RestoreWindow getRestoreWindow() {
+        return restoreWindow;
+    }
+
+    public void setRestoreWindow(RestoreWindow restoreWindow) {
+        this.restoreWindow = restoreWindow;
+    }
+
 }
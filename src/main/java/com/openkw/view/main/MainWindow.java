@@ -19,8 +19,12 @@ package com.openkw.view.main;
 
 import com.openkw.controller.AppController;
 import com.openkw.controller.listener.mainwindow.AboutMenuItemListener;
+import com.openkw.controller.listener.mainwindow.FileHistoryMenuItemListener;
 import com.openkw.controller.listener.mainwindow.IntervalRadioButtonListener;
 import com.openkw.controller.listener.mainwindow.LanguageRadioButtonListener;
+import com.openkw.controller.listener.mainwindow.RemoteStorageMenuItemListener;
+import com.openkw.controller.listener.mainwindow.ReplicateMenuItemListener;
+import com.openkw.controller.listener.mainwindow.RestoreMenuItemListener;
 import com.openkw.model.Interval;
 
 import javax.imageio.ImageIO;
@@ -103,6 +107,28 @@ public class MainWindow extends JFrame {
         settingsMenu.addSeparator();
         settingsMenu.add(createLanguageMenu());
 
+        //Create the restore menu
+        JMenu restoreMenu = new JMenu(this.languageResourceBundle.getString("MainWindow.restoreMenu"));
+        JMenuItem restoreMenuItem = new JMenuItem(this.languageResourceBundle.getString("MainWindow.restoreMenuItem"));
+        restoreMenuItem.addActionListener(new RestoreMenuItemListener(this.appController));
+        restoreMenu.add(restoreMenuItem);
+        JMenuItem fileHistoryMenuItem = new JMenuItem(
+                this.languageResourceBundle.getString("MainWindow.fileHistoryMenuItem"));
+        fileHistoryMenuItem.addActionListener(new FileHistoryMenuItemListener(this.appController));
+        restoreMenu.add(fileHistoryMenuItem);
+        restoreMenu.addSeparator();
+        JMenuItem replicateMenuItem = new JMenuItem(
+                this.languageResourceBundle.getString("MainWindow.replicateMenuItem"));
+        replicateMenuItem.addActionListener(new ReplicateMenuItemListener(this.appController));
+        restoreMenu.add(replicateMenuItem);
+        JMenuItem uploadMenuItem = new JMenuItem(this.languageResourceBundle.getString("MainWindow.uploadMenuItem"));
+        uploadMenuItem.addActionListener(new RemoteStorageMenuItemListener(this.appController, false));
+        restoreMenu.add(uploadMenuItem);
+        JMenuItem downloadMenuItem = new JMenuItem(
+                this.languageResourceBundle.getString("MainWindow.downloadMenuItem"));
+        downloadMenuItem.addActionListener(new RemoteStorageMenuItemListener(this.appController, true));
+        restoreMenu.add(downloadMenuItem);
+
         //Create the help menu
         JMenu helpMenu = new JMenu(this.languageResourceBundle.getString("MainWindow.helpMenu"));
         JMenuItem aboutMenuItem = new JMenuItem(this.languageResourceBundle.getString("MainWindow.aboutMenuItem"));
@@ -112,6 +138,7 @@ public class MainWindow extends JFrame {
         //Create the actual bar and add the menu options
         JMenuBar jMenuBar = new JMenuBar();
         jMenuBar.add(settingsMenu);
+        jMenuBar.add(restoreMenu);
         jMenuBar.add(helpMenu);
 
         this.setJMenuBar(jMenuBar);
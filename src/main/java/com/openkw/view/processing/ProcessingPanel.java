@@ -19,11 +19,13 @@ package com.openkw.view.processing;
 
 import com.openkw.controller.AppController;
 import com.openkw.controller.listener.processingpanel.CancelButtonActionListener;
+import com.openkw.controller.util.FileSizeUtility;
 
 import javax.swing.*;
 import java.awt.*;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.Map;
 import java.util.ResourceBundle;
 
 /**
@@ -61,6 +63,51 @@ public class ProcessingPanel extends JPanel implements PropertyChangeListener {
      */
     private JLabel backupFolderSizeTitleLabel;
 
+    /**
+     * Title of the bytes saved by move detection
+     */
+    private JLabel movedBytesSavedTitleLabel;
+
+    /**
+     * Title of the bytes reclaimed by the last prune pass
+     */
+    private JLabel reclaimedBytesTitleLabel;
+
+    /**
+     * Title of the bytes verified by the scrubber
+     */
+    private JLabel scrubVerifiedBytesTitleLabel;
+
+    /**
+     * Title of the corrupt objects found by the scrubber
+     */
+    private JLabel scrubCorruptCountTitleLabel;
+
+    /**
+     * Title of the metrics of the backup pipeline
+     */
+    private JLabel pipelineMetricsTitleLabel;
+
+    /**
+     * Used to label the device which currently limits the backup jobs.
+     */
+    private JLabel bottleneckDeviceTitleLabel;
+
+    /**
+     * Used to label the successful backups per backup directory.
+     */
+    private JLabel targetBackupCountsTitleLabel;
+
+    /**
+     * Used to label the failed backups per backup directory.
+     */
+    private JLabel targetErrorCountsTitleLabel;
+
+    /**
+     * Used to represent the title of the archived bytes.
+     */
+    private JLabel archivedBytesTitleLabel;
+
     /**
      * Used to represent the number of successful backups during a process
      */
@@ -81,6 +128,51 @@ public class ProcessingPanel extends JPanel implements PropertyChangeListener {
      */
     private JLabel backupFolderSizeLabel;
 
+    /**
+     * Represents the bytes which did not have to be copied because files have been moved, format [00 MB] or [00 GB]
+     */
+    private JLabel movedBytesSavedLabel;
+
+    /**
+     * Represents the bytes freed by the last pass which pruned old snapshots, format [00 MB] or [00 GB]
+     */
+    private JLabel reclaimedBytesLabel;
+
+    /**
+     * Represents the bytes verified by the current scrub cycle, format [00 MB] or [00 GB]
+     */
+    private JLabel scrubVerifiedBytesLabel;
+
+    /**
+     * Represents the number of corrupt objects found by the current scrub cycle.
+     */
+    private JLabel scrubCorruptCountLabel;
+
+    /**
+     * Represents the busy share and queue depth of every stage of the backup pipeline.
+     */
+    private JLabel pipelineMetricsLabel;
+
+    /**
+     * Used to represent the device which currently limits the backup jobs.
+     */
+    private JLabel bottleneckDeviceLabel;
+
+    /**
+     * Used to represent the successful backups per backup directory.
+     */
+    private JLabel targetBackupCountsLabel;
+
+    /**
+     * Used to represent the failed backups per backup directory.
+     */
+    private JLabel targetErrorCountsLabel;
+
+    /**
+     * Used to represent the amount of bytes moved into the archive directory.
+     */
+    private JLabel archivedBytesLabel;
+
     /**
      * One option to cancel an active backup process
      */
@@ -110,6 +202,33 @@ public class ProcessingPanel extends JPanel implements PropertyChangeListener {
         this.add(backupFolderSizeTitleLabel);
         this.add(backupFolderSizeLabel);
         this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(movedBytesSavedTitleLabel);
+        this.add(movedBytesSavedLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(reclaimedBytesTitleLabel);
+        this.add(reclaimedBytesLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(scrubVerifiedBytesTitleLabel);
+        this.add(scrubVerifiedBytesLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(scrubCorruptCountTitleLabel);
+        this.add(scrubCorruptCountLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(pipelineMetricsTitleLabel);
+        this.add(pipelineMetricsLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(bottleneckDeviceTitleLabel);
+        this.add(bottleneckDeviceLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(targetBackupCountsTitleLabel);
+        this.add(targetBackupCountsLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(targetErrorCountsTitleLabel);
+        this.add(targetErrorCountsLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+        this.add(archivedBytesTitleLabel);
+        this.add(archivedBytesLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
         this.add(timeElapsedTitleLabel);
         this.add(timeElapsedLabel);
         this.add(Box.createRigidArea(new Dimension(0, 20)));
@@ -124,10 +243,28 @@ public class ProcessingPanel extends JPanel implements PropertyChangeListener {
         this.errorCountTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.errorCountTitleLabel"));
         this.timeElapsedTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.timeElapsedTitleLabel"));
         this.backupFolderSizeTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.backupFolderSizeTitleLabel"));
+        this.movedBytesSavedTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.movedBytesSavedTitleLabel"));
+        this.reclaimedBytesTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.reclaimedBytesTitleLabel"));
+        this.scrubVerifiedBytesTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.scrubVerifiedBytesTitleLabel"));
+        this.scrubCorruptCountTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.scrubCorruptCountTitleLabel"));
+        this.pipelineMetricsTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.pipelineMetricsTitleLabel"));
+        this.bottleneckDeviceTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.bottleneckDeviceTitleLabel"));
+        this.targetBackupCountsTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.targetBackupCountsTitleLabel"));
+        this.targetErrorCountsTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.targetErrorCountsTitleLabel"));
+        this.archivedBytesTitleLabel = new JLabel(this.languageRB.getString("ProcessingPanel.archivedBytesTitleLabel"));
         this.backupCountLabel = new JLabel("0");
         this.errorCountLabel = new JLabel("0");
         this.timeElapsedLabel = new JLabel("00:00:00");
         this.backupFolderSizeLabel = new JLabel("0 MB");
+        this.movedBytesSavedLabel = new JLabel("0 MB");
+        this.reclaimedBytesLabel = new JLabel("0 MB");
+        this.scrubVerifiedBytesLabel = new JLabel("0 MB");
+        this.scrubCorruptCountLabel = new JLabel("0");
+        this.pipelineMetricsLabel = new JLabel("-");
+        this.bottleneckDeviceLabel = new JLabel("-");
+        this.targetBackupCountsLabel = new JLabel("-");
+        this.targetErrorCountsLabel = new JLabel("-");
+        this.archivedBytesLabel = new JLabel("0 MB");
         this.cancelButton = new JButton(this.languageRB.getString("ProcessingPanel.cancelButton"));
         this.cancelButton.addActionListener(new CancelButtonActionListener(this.appController));
     }
@@ -160,10 +297,55 @@ public class ProcessingPanel extends JPanel implements PropertyChangeListener {
                 case "backupFolderSize":
                     this.backupFolderSizeLabel.setText(evt.getNewValue().toString());
                     break;
+                case "movedBytesSaved":
+                    this.movedBytesSavedLabel.setText(
+                            FileSizeUtility.getRecommendedFileSizePresentation((long) evt.getNewValue()));
+                    break;
+                case "reclaimedBytes":
+                    this.reclaimedBytesLabel.setText(
+                            FileSizeUtility.getRecommendedFileSizePresentation((long) evt.getNewValue()));
+                    break;
+                case "scrubVerifiedBytes":
+                    this.scrubVerifiedBytesLabel.setText(
+                            FileSizeUtility.getRecommendedFileSizePresentation((long) evt.getNewValue()));
+                    break;
+                case "scrubCorruptCount":
+                    this.scrubCorruptCountLabel.setText(evt.getNewValue().toString());
+                    break;
+                case "pipelineMetrics":
+                    this.pipelineMetricsLabel.setText(evt.getNewValue().toString());
+                    break;
+                case "bottleneckDevice":
+                    this.bottleneckDeviceLabel.setText(evt.getNewValue().toString());
+                    break;
+                case "targetBackupCounts":
+                    this.targetBackupCountsLabel.setText(formatTargetCounts(evt.getNewValue()));
+                    break;
+                case "targetErrorCounts":
+                    this.targetErrorCountsLabel.setText(formatTargetCounts(evt.getNewValue()));
+                    break;
+                case "archivedBytes":
+                    this.archivedBytesLabel.setText(FileSizeUtility.getRecommendedFileSizePresentation((long) evt.getNewValue()));
+                    break;
             }
         });
     }
 
+    /**
+     * @param counts the counts by backup directory, as a map.
+     * @return the counts like "/mnt/backup 12, /mnt/nas 11", "-" if there are none.
+     */
+    private static String formatTargetCounts(Object counts) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) counts).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+        return sb.length() > 0 ? sb.toString() : "-";
+    }
+
     //Only getters and setters from here
 
     public JLabel getBackupCountTitleLabel() {
@@ -230,6 +412,70 @@ public class ProcessingPanel extends JPanel implements PropertyChangeListener {
         this.backupFolderSizeLabel = backupFolderSizeLabel;
     }
 
+    public JLabel getMovedBytesSavedTitleLabel() {
+        return movedBytesSavedTitleLabel;
+    }
+
+    public void setMovedBytesSavedTitleLabel(JLabel movedBytesSavedTitleLabel) {
+        this.movedBytesSavedTitleLabel = movedBytesSavedTitleLabel;
+    }
+
+    public JLabel getMovedBytesSavedLabel() {
+        return movedBytesSavedLabel;
+    }
+
+    public void setMovedBytesSavedLabel(JLabel movedBytesSavedLabel) {
+        this.movedBytesSavedLabel = movedBytesSavedLabel;
+    }
+
+    public JLabel getReclaimedBytesTitleLabel() {
+        return reclaimedBytesTitleLabel;
+    }
+
+    public void setReclaimedBytesTitleLabel(JLabel reclaimedBytesTitleLabel) {
+        this.reclaimedBytesTitleLabel = reclaimedBytesTitleLabel;
+    }
+
+    public JLabel getReclaimedBytesLabel() {
+        return reclaimedBytesLabel;
+    }
+
+    public void setReclaimedBytesLabel(JLabel reclaimedBytesLabel) {
+        this.reclaimedBytesLabel = reclaimedBytesLabel;
+    }
+
+    public JLabel getScrubVerifiedBytesTitleLabel() {
+        return scrubVerifiedBytesTitleLabel;
+    }
+
+    public void setScrubVerifiedBytesTitleLabel(JLabel scrubVerifiedBytesTitleLabel) {
+        this.scrubVerifiedBytesTitleLabel = scrubVerifiedBytesTitleLabel;
+    }
+
+    public JLabel getScrubVerifiedBytesLabel() {
+        return scrubVerifiedBytesLabel;
+    }
+
+    public void setScrubVerifiedBytesLabel(JLabel scrubVerifiedBytesLabel) {
+        this.scrubVerifiedBytesLabel = scrubVerifiedBytesLabel;
+    }
+
+    public JLabel getScrubCorruptCountTitleLabel() {
+        return scrubCorruptCountTitleLabel;
+    }
+
+    public void setScrubCorruptCountTitleLabel(JLabel scrubCorruptCountTitleLabel) {
+        this.scrubCorruptCountTitleLabel = scrubCorruptCountTitleLabel;
+    }
+
+    public JLabel getScrubCorruptCountLabel() {
+        return scrubCorruptCountLabel;
+    }
+
+    public void setScrubCorruptCountLabel(JLabel scrubCorruptCountLabel) {
+        this.scrubCorruptCountLabel = scrubCorruptCountLabel;
+    }
+
     public JButton getCancelButton() {
         return cancelButton;
     }
@@ -237,4 +483,84 @@ public class ProcessingPanel extends JPanel implements PropertyChangeListener {
     public void setCancelButton(JButton cancelButton) {
         this.cancelButton = cancelButton;
     }
+
+    public JLabel getPipelineMetricsTitleLabel() {
+        return pipelineMetricsTitleLabel;
+    }
+
+    public void setPipelineMetricsTitleLabel(JLabel pipelineMetricsTitleLabel) {
+        this.pipelineMetricsTitleLabel = pipelineMetricsTitleLabel;
+    }
+
+    public JLabel getPipelineMetricsLabel() {
+        return pipelineMetricsLabel;
+    }
+
+    public void setPipelineMetricsLabel(JLabel pipelineMetricsLabel) {
+        this.pipelineMetricsLabel = pipelineMetricsLabel;
+    }
+
+    public JLabel getBottleneckDeviceTitleLabel() {
+        return bottleneckDeviceTitleLabel;
+    }
+
+    public void setBottleneckDeviceTitleLabel(JLabel bottleneckDeviceTitleLabel) {
+        this.bottleneckDeviceTitleLabel = bottleneckDeviceTitleLabel;
+    }
+
+    public JLabel getBottleneckDeviceLabel() {
+        return bottleneckDeviceLabel;
+    }
+
+    public void setBottleneckDeviceLabel(JLabel bottleneckDeviceLabel) {
+        this.bottleneckDeviceLabel = bottleneckDeviceLabel;
+    }
+
+    public JLabel getTargetBackupCountsTitleLabel() {
+        return targetBackupCountsTitleLabel;
+    }
+
+    public void setTargetBackupCountsTitleLabel(JLabel targetBackupCountsTitleLabel) {
+        this.targetBackupCountsTitleLabel = targetBackupCountsTitleLabel;
+    }
+
+    public JLabel getTargetBackupCountsLabel() {
+        return targetBackupCountsLabel;
+    }
+
+    public void setTargetBackupCountsLabel(JLabel targetBackupCountsLabel) {
+        this.targetBackupCountsLabel = targetBackupCountsLabel;
+    }
+
+    public JLabel getTargetErrorCountsTitleLabel() {
+        return targetErrorCountsTitleLabel;
+    }
+
+    public void setTargetErrorCountsTitleLabel(JLabel targetErrorCountsTitleLabel) {
+        this.targetErrorCountsTitleLabel = targetErrorCountsTitleLabel;
+    }
+
+    public JLabel getTargetErrorCountsLabel() {
+        return targetErrorCountsLabel;
+    }
+
+    public void setTargetErrorCountsLabel(JLabel targetErrorCountsLabel) {
+        this.targetErrorCountsLabel = targetErrorCountsLabel;
+    }
+
+    public JLabel getArchivedBytesTitleLabel() {
+        return archivedBytesTitleLabel;
+    }
+
+    public void setArchivedBytesTitleLabel(JLabel archivedBytesTitleLabel) {
+        this.archivedBytesTitleLabel = archivedBytesTitleLabel;
+    }
+
+    public JLabel getArchivedBytesLabel() {
+        return archivedBytesLabel;
+    }
+
+    public void setArchivedBytesLabel(JLabel archivedBytesLabel) {
+        this.archivedBytesLabel = archivedBytesLabel;
+    }
 }
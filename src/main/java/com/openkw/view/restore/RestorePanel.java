@@ -0,0 +1,206 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.view.restore;
+
+import com.openkw.controller.AppController;
+import com.openkw.controller.listener.restorepanel.RestoreCancelButtonListener;
+import com.openkw.model.RestoreProcessModel;
+
+import javax.swing.*;
+import java.awt.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ResourceBundle;
+
+/**
+ * This class contains all components for the representation of a running restore for the user.
+ */
+public class RestorePanel extends JPanel implements PropertyChangeListener {
+
+    /**
+     * The resolution of the progress bar.
+     */
+    private static final int PROGRESS_MAXIMUM = 1000;
+
+    /**
+     * The MVC controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * The language resource bundle.
+     */
+    private ResourceBundle languageRB;
+
+    /**
+     * Represents the share of the processed bytes.
+     */
+    private JProgressBar progressBar;
+
+    /**
+     * Represents the number of restored files.
+     */
+    private JLabel restoredFileCountLabel;
+
+    /**
+     * Represents the number of files skipped because they were already identical.
+     */
+    private JLabel skippedFileCountLabel;
+
+    /**
+     * Represents the number of files which could not be restored.
+     */
+    private JLabel errorCountLabel;
+
+    /**
+     * Represents the throughput in this format [00 MB/s] or [00 GB/s]
+     */
+    private JLabel throughputLabel;
+
+    /**
+     * Represents the estimated remaining time in this format [hh:mm:ss]
+     */
+    private JLabel etaLabel;
+
+    /**
+     * Cancels a running restore or closes the window after the restore finished.
+     */
+    private JButton cancelButton;
+
+    /**
+     * @param appController the MVC controller instance.
+     */
+    public RestorePanel(AppController appController) {
+        this.appController = appController;
+        this.appController.getAppModel().getRestoreProcessModel().addPropertyChangeListener(this);
+        this.initPanel();
+        this.initComponents();
+    }
+
+    /**
+     * Initializes all the containing components and adds them to the panel.
+     */
+    private void initComponents() {
+        this.progressBar = new JProgressBar(0, PROGRESS_MAXIMUM);
+        this.restoredFileCountLabel = new JLabel("0");
+        this.skippedFileCountLabel = new JLabel("0");
+        this.errorCountLabel = new JLabel("0");
+        this.throughputLabel = new JLabel("0 MB/s");
+        this.etaLabel = new JLabel("00:00:00");
+        this.cancelButton = new JButton(this.languageRB.getString("RestorePanel.cancelButton"));
+        this.cancelButton.addActionListener(new RestoreCancelButtonListener(this.appController));
+
+        this.add(this.progressBar);
+        this.add(Box.createRigidArea(new Dimension(0, 10)));
+        addValue("RestorePanel.restoredFileCountTitleLabel", this.restoredFileCountLabel);
+        addValue("RestorePanel.skippedFileCountTitleLabel", this.skippedFileCountLabel);
+        addValue("RestorePanel.errorCountTitleLabel", this.errorCountLabel);
+        addValue("RestorePanel.throughputTitleLabel", this.throughputLabel);
+        addValue("RestorePanel.etaTitleLabel", this.etaLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 15)));
+        this.add(this.cancelButton);
+    }
+
+    /**
+     * Adds a title label and the given value label to the panel.
+     *
+     * @param titleKey   the language resource key of the title.
+     * @param valueLabel the label representing the value.
+     */
+    private void addValue(String titleKey, JLabel valueLabel) {
+        this.add(new JLabel(this.languageRB.getString(titleKey)));
+        this.add(valueLabel);
+        this.add(Box.createRigidArea(new Dimension(0, 5)));
+    }
+
+    /**
+     * Takes care of all J-panel related values which are not bound to the components.
+     */
+    private void initPanel() {
+        this.setLayout(new BoxLayout(this, BoxLayout.PAGE_AXIS));
+        this.languageRB = this.appController.getAppModel().getLanguageResourceBundle();
+        this.setBorder(BorderFactory.createEmptyBorder(15, 60, 15, 60));
+    }
+
+    /**
+     * This method is invoked if any model data of the RestoreProcessModel is being updated.
+     */
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        SwingUtilities.invokeLater(() -> {
+            switch (evt.getPropertyName()) {
+                case "restoredFileCount":
+                    this.restoredFileCountLabel.setText(evt.getNewValue().toString());
+                    break;
+                case "skippedFileCount":
+                    this.skippedFileCountLabel.setText(evt.getNewValue().toString());
+                    break;
+                case "errorCount":
+                    this.errorCountLabel.setText(evt.getNewValue().toString());
+                    break;
+                case "throughput":
+                    this.throughputLabel.setText(evt.getNewValue().toString());
+                    break;
+                case "eta":
+                    this.etaLabel.setText(evt.getNewValue().toString());
+                    break;
+                case "processedBytes":
+                case "totalBytes":
+                    RestoreProcessModel model = this.appController.getAppModel().getRestoreProcessModel();
+                    long total = model.getTotalBytes();
+                    this.progressBar.setValue(total > 0
+                            ? (int) (model.getProcessedBytes() * PROGRESS_MAXIMUM / total) : PROGRESS_MAXIMUM);
+                    break;
+                case "running":
+                    this.cancelButton.setText(this.languageRB.getString((Boolean) evt.getNewValue()
+                            ? "RestorePanel.cancelButton" : "RestorePanel.closeButton"));
+                    break;
+            }
+        });
+    }
+
+    //Only getters from here
+
+    public JProgressBar getProgressBar() {
+        return progressBar;
+    }
+
+    public JLabel getRestoredFileCountLabel() {
+        return restoredFileCountLabel;
+    }
+
+    public JLabel getSkippedFileCountLabel() {
+        return skippedFileCountLabel;
+    }
+
+    public JLabel getErrorCountLabel() {
+        return errorCountLabel;
+    }
+
+    public JLabel getThroughputLabel() {
+        return throughputLabel;
+    }
+
+    public JLabel getEtaLabel() {
+        return etaLabel;
+    }
+
+    public JButton getCancelButton() {
+        return cancelButton;
+    }
+}
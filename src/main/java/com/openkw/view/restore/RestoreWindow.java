@@ -0,0 +1,81 @@
+/*
+   Copyright 2020 Kevin Webermann
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   @Contact: Kevin Webermann - <kevinwebermann@gmail.com>
+ */
+package com.openkw.view.restore;
+
+import com.openkw.controller.AppController;
+import com.openkw.controller.listener.restorewindow.RestoreWindowAdapter;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * This frame is used to represent a visual feedback to the user while a restore is running.
+ */
+public class RestoreWindow extends JFrame {
+
+    /**
+     * The MVC controller instance.
+     */
+    private final AppController appController;
+
+    /**
+     * The main content containing j-panel.
+     */
+    private final RestorePanel restorePanel;
+
+    /**
+     * @param appController the MVC controller instance.
+     */
+    public RestoreWindow(AppController appController) {
+        this.appController = appController;
+        initFrame();
+        this.restorePanel = new RestorePanel(this.appController);
+        this.add(this.restorePanel);
+        this.pack();
+        this.setLocationRelativeTo(null);
+    }
+
+    /**
+     * Initializes all the j-frame related values.
+     */
+    private void initFrame() {
+        this.setResizable(false);
+        this.setTitle(this.appController.getAppModel().getLanguageResourceBundle().getString("RestoreWindow.windowTitle"));
+        this.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        try {
+            URL iconUrl = getClass().getClassLoader().getResource("icon.png");
+            if (iconUrl != null) {
+                BufferedImage frameIcon = ImageIO.read(iconUrl);
+                this.setIconImage(frameIcon);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.addWindowListener(new RestoreWindowAdapter(this.appController));
+    }
+
+    //Only getters from here
+
+    public RestorePanel getRestorePanel() {
+        return restorePanel;
+    }
+}